@@ -0,0 +1,210 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Compares the CSV results of a JMH run (<code>-rf csv</code>) with a baseline in the same format, and reports the
+ * change of the score of each benchmark, and of its allocation per operation if the run used the GC profiler.
+ * </p>
+ * <p>
+ * A score that is worse than the baseline by more than the threshold is reported as a regression, and makes the
+ * program exit with status 1. Lower is better, except for throughput scores (units <code>ops/...</code>).
+ * Benchmarks that are not in the baseline are reported as new. No baseline is committed: create one from the
+ * results of a run on the reference machine, and replace it when that machine or the benchmarks change. A baseline
+ * without scores is rejected, so that a comparison never passes without having compared anything.
+ * </p>
+ * <p>
+ * Lines that start with <code>#</code> are comments. {@link CorpusBenchmark} uses them to record the JDK, the CPU and
+ * the JMH settings of a run; those of the baseline are printed before the comparison.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar org.geolatte.common.cql.hibernate.BaselineComparison baseline.csv results.csv [threshold %]
+ * </pre>
+ */
+public class BaselineComparison {
+
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <baseline.csv> <results.csv> [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        Map<String, Score> baseline = read(args[0]);
+        if (baseline.isEmpty()) {
+            System.err.println(args[0] + " holds no scores; create it from the results of a run on the reference machine.");
+            System.exit(2);
+        }
+        Map<String, Score> results = read(args[1]);
+        for (String comment : comments(args[0])) {
+            System.out.println("Baseline " + comment.substring(1).trim());
+        }
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score result = entry.getValue();
+            Score base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.println(String.format("%-90s %14.3f %-10s new", entry.getKey(), result.value, result.unit));
+                continue;
+            }
+            double change = base.value == 0 ? 0 : (result.value - base.value) / base.value * 100;
+            boolean worse = result.unit.startsWith("ops/") ? -change > threshold : change > threshold;
+            if (worse) {
+                regressions++;
+            }
+            System.out.println(String.format("%-90s %14.3f %-10s %+8.1f%%%s", entry.getKey(), result.value,
+                    result.unit, change, worse ? "  REGRESSION" : ""));
+        }
+        System.out.println(String.format("%d regression(s) beyond %.1f%%.", regressions, threshold));
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * Reads the primary scores and the allocation per operation from a JMH CSV file, keyed by benchmark and
+     * parameter values.
+     */
+    private static Map<String, Score> read(String fileName) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        try {
+            String line = readLine(reader);
+            if (line == null) {
+                return scores;
+            }
+            List<String> header = split(line);
+            int benchmarkColumn = header.indexOf("Benchmark");
+            int scoreColumn = header.indexOf("Score");
+            int unitColumn = header.indexOf("Unit");
+            if (benchmarkColumn < 0 || scoreColumn < 0 || unitColumn < 0) {
+                throw new IOException(fileName + " is not a JMH CSV result file.");
+            }
+            while ((line = readLine(reader)) != null) {
+                List<String> fields = split(line);
+                String benchmark = fields.get(benchmarkColumn);
+                // secondary metrics are named benchmark:metric; only the allocation is stable enough to compare.
+                if (benchmark.indexOf(':') >= 0 && !benchmark.endsWith(ALLOCATION_METRIC)) {
+                    continue;
+                }
+                StringBuilder key = new StringBuilder(benchmark);
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && i < fields.size()) {
+                        key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                    }
+                }
+                scores.put(key.toString(), new Score(parseNumber(fields.get(scoreColumn)), fields.get(unitColumn)));
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the next line that is neither empty nor a comment, or null at the end of the file.
+     */
+    private static String readLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().length() > 0 && !line.startsWith("#")) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the comment lines of a CSV file.
+     */
+    private static List<String> comments(String fileName) throws IOException {
+        List<String> comments = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    comments.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return comments;
+    }
+
+    /**
+     * Splits a CSV line, removing the quotes around fields.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static double parseNumber(String text) {
+        // JMH formats numbers with the default locale, which may use a decimal comma.
+        return Double.parseDouble(text.trim().replace(',', '.'));
+    }
+
+    private static class Score {
+
+        final double value;
+        final String unit;
+
+        Score(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The CQL filters measured by {@link CorpusBenchmark}, by name. The filters are modelled on the ones that clients
+ * send, and cover the constructs that take a different path through the parser and the translation.
+ */
+final class BenchmarkCorpus {
+
+    /**
+     * The number of terms of the <code>orChain</code> filter.
+     */
+    static final int OR_CHAIN_LENGTH = 100;
+
+    private static final Map<String, String> FILTERS;
+
+    static {
+        Map<String, String> filters = new LinkedHashMap<String, String>();
+        filters.put("equality", "name = 'feature-42'");
+        filters.put("orChain", orChain(OR_CHAIN_LENGTH));
+        filters.put("deepPath", "owner.parent.parent.name = 'owner-1' AND owner.parent.name <> 'owner-5'");
+        filters.put("like", "name LIKE 'feature-1%' OR name ILIKE 'FEATURE-2_' OR owner.name LIKE '%-7'");
+        filters.put("during", "created DURING 1970-01-01T00:00:00Z/1970-01-01T12:00:00Z AND height < 50");
+        filters.put("exists", "NAME EXISTS AND owner.name EXISTS AND colour DOES-NOT-EXIST AND height > 10");
+        filters.put("mixed", "height >= 10 AND height < 90 AND created AFTER 1970-01-01T01:00:00Z " +
+                "AND (name LIKE 'feature-1%' OR owner.name = 'owner-3') AND NOT (owner.parent.name = 'owner-0')");
+        FILTERS = Collections.unmodifiableMap(filters);
+    }
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Returns a filter of the corpus.
+     *
+     * @param name the name of the filter
+     * @return the CQL expression
+     * @throws IllegalArgumentException if the corpus has no filter with the given name.
+     */
+    static String get(String name) {
+        String cql = FILTERS.get(name);
+        if (cql == null) {
+            throw new IllegalArgumentException("No filter named " + name + " in the corpus.");
+        }
+        return cql;
+    }
+
+    private static String orChain(int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) builder.append(" OR ");
+            builder.append("name = 'feature-").append(i * 7).append('\'');
+        }
+        return builder.toString();
+    }
+}
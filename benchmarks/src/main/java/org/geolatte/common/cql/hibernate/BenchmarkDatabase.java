@@ -0,0 +1,87 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import java.util.Date;
+
+/**
+ * In-memory H2 (GeoDB) database with a table of <code>BenchmarkFeature</code>s and their
+ * <code>BenchmarkOwner</code>s.
+ */
+class BenchmarkDatabase {
+
+    private final Configuration configuration;
+    private final SessionFactory sessionFactory;
+
+    BenchmarkDatabase() {
+        configuration = new Configuration().configure("benchmark.cfg.xml");
+        sessionFactory = configuration.buildSessionFactory();
+    }
+
+    /**
+     * The number of owners created by {@link #populate(int)}.
+     */
+    static final int OWNER_COUNT = 100;
+
+    /**
+     * (Re)creates the tables, and fills them with the given number of features. Feature i has id i, name
+     * "feature-i", height i % 100 and owner i % 100. Owner j has id j, name "owner-j" and, unless it is owner 0,
+     * parent j / 4.
+     *
+     * @param count the number of features
+     */
+    void populate(int count) {
+        SchemaExport export = new SchemaExport(configuration);
+        export.drop(false, true);
+        export.create(false, true);
+
+        StatelessSession session = sessionFactory.openStatelessSession();
+        Transaction transaction = session.beginTransaction();
+        BenchmarkOwner[] owners = new BenchmarkOwner[OWNER_COUNT];
+        for (int j = 0; j < OWNER_COUNT; j++) {
+            owners[j] = new BenchmarkOwner((long) j, "owner-" + j, j == 0 ? null : owners[j / 4]);
+            session.insert(owners[j]);
+        }
+        long start = new Date(0).getTime();
+        for (long i = 0; i < count; i++) {
+            BenchmarkFeature feature = new BenchmarkFeature(i, "feature-" + i, (int) (i % 100), new Date(start + i * 60000L));
+            feature.setOwner(owners[(int) (i % OWNER_COUNT)]);
+            session.insert(feature);
+        }
+        transaction.commit();
+        session.close();
+    }
+
+    SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    void close() {
+        sessionFactory.close();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * Owner of <code>BenchmarkFeature</code>s. Owners form a tree, so that the benchmarks can navigate deep property
+ * paths such as <code>owner.parent.parent.name</code>.
+ */
+public class BenchmarkOwner {
+
+    private Long id;
+    private String name;
+    private BenchmarkOwner parent;
+
+    public BenchmarkOwner() {
+    }
+
+    public BenchmarkOwner(Long id, String name, BenchmarkOwner parent) {
+        this.id = id;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public BenchmarkOwner getParent() {
+        return parent;
+    }
+
+    public void setParent(BenchmarkOwner parent) {
+        this.parent = parent;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.Start;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the stages of a CQL query for each filter of the {@link BenchmarkCorpus}, separately and end to end:
+ * <ul>
+ * <li><code>parse</code>: parsing the CQL text to an AST,</li>
+ * <li><code>translate</code>: optimizing and translating a parsed filter to criteria,</li>
+ * <li><code>render</code>: generating the SQL of the criteria, as Hibernate does before executing it,</li>
+ * <li><code>execute</code>: executing the criteria of a translated filter,</li>
+ * <li><code>endToEnd</code>: parsing, translating and executing a filter, bypassing the criteria cache.</li>
+ * </ul>
+ * The queries run against an in-memory GeoDB (H2) database of {@value #FEATURE_COUNT} features.
+ * </p>
+ * <p>
+ * The main method runs the benchmark with the GC profiler, which adds the allocation per operation
+ * (<code>gc.alloc.rate.norm</code>), and writes the results as CSV, which {@link BaselineComparison} compares with
+ * a baseline in the same format. The results start with comment lines (<code>#</code>) that record the JDK, the CPU
+ * and the JMH settings of the run, so that a baseline documents the reference run that created it. There is no
+ * committed baseline yet: the first run on the reference machine creates it.
+ * <pre>
+ * java -cp target/benchmarks.jar org.geolatte.common.cql.hibernate.CorpusBenchmark baseline.csv
+ * java -cp target/benchmarks.jar org.geolatte.common.cql.hibernate.CorpusBenchmark results.csv
+ * java -cp target/benchmarks.jar org.geolatte.common.cql.hibernate.BaselineComparison baseline.csv results.csv
+ * </pre>
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CorpusBenchmark {
+
+    static final int FEATURE_COUNT = 10000;
+
+    @Param({"equality", "orChain", "deepPath", "like", "during", "exists", "mixed"})
+    public String filter;
+
+    private String cql;
+    private Start tree;
+    private CompiledCql compiled;
+    private BenchmarkDatabase database;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        cql = BenchmarkCorpus.get(filter);
+        tree = CompiledCql.parse(cql);
+        compiled = CompiledCql.compile(cql, BenchmarkFeature.class);
+        database = new BenchmarkDatabase();
+        database.populate(FEATURE_COUNT);
+        session = database.getSessionFactory().openSession();
+        if (render() == null) {
+            throw new IllegalStateException("Cannot render the SQL of filter " + filter);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        database.close();
+    }
+
+    @Benchmark
+    public Start parse() throws ParseException {
+        return CompiledCql.parse(cql);
+    }
+
+    @Benchmark
+    public CompiledCql translate() {
+        return CompiledCql.compile(tree, BenchmarkFeature.class, false, CqlTranslationOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public String render() {
+        return CriteriaSqlRenderer.render(compiled.toCriteria().getExecutableCriteria(session));
+    }
+
+    @Benchmark
+    public List execute() {
+        List result = compiled.toCriteria().getExecutableCriteria(session).list();
+        session.clear();
+        return result;
+    }
+
+    @Benchmark
+    public List endToEnd() throws ParseException {
+        List result = CompiledCql.compile(cql, BenchmarkFeature.class).toCriteria().getExecutableCriteria(session).list();
+        session.clear();
+        return result;
+    }
+
+    /**
+     * Runs this benchmark with the GC profiler.
+     *
+     * @param args the file to which the results are written as CSV, <code>results.csv</code> if absent.
+     * @throws RunnerException if the benchmark fails
+     * @throws IOException if the description of the run cannot be added to the results
+     */
+    public static void main(String[] args) throws RunnerException, IOException {
+        String fileName = args.length > 0 ? args[0] : "results.csv";
+        Options options = new OptionsBuilder()
+                .include(CorpusBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.CSV)
+                .result(fileName)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        if (!results.isEmpty()) {
+            describeRun(new File(fileName), results.iterator().next().getParams());
+        }
+    }
+
+    /**
+     * Inserts comment lines that describe the environment and the settings of the run before the results.
+     */
+    private static void describeRun(File file, BenchmarkParams params) throws IOException {
+        StringBuilder description = new StringBuilder();
+        description.append("# Date: ").append(new Date()).append('\n');
+        description.append("# JDK: ").append(params.getVmName()).append(' ').append(params.getVmVersion())
+                .append(" (").append(params.getJdkVersion()).append(")\n");
+        description.append("# JVM arguments: ").append(params.getJvmArgs()).append('\n');
+        description.append("# OS: ").append(System.getProperty("os.name")).append(' ')
+                .append(System.getProperty("os.version")).append(' ').append(System.getProperty("os.arch")).append('\n');
+        description.append("# CPU: ").append(cpuModel()).append(", ")
+                .append(Runtime.getRuntime().availableProcessors()).append(" processors\n");
+        description.append("# JMH: ").append(params.getJmhVersion()).append(", mode ").append(params.getMode())
+                .append(", ").append(params.getWarmup().getCount()).append(" warmup iterations of ")
+                .append(params.getWarmup().getTime()).append(", ").append(params.getMeasurement().getCount())
+                .append(" measurement iterations of ").append(params.getMeasurement().getTime()).append(", ")
+                .append(params.getForks()).append(" fork(s), ").append(params.getThreads()).append(" thread(s), GC profiler\n");
+
+        String csv = read(file);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(description.toString());
+            writer.write(csv);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String cpuModel() {
+        File cpuInfo = new File("/proc/cpuinfo");
+        if (cpuInfo.canRead()) {
+            try {
+                for (String line : read(cpuInfo).split("\n")) {
+                    if (line.startsWith("model name")) {
+                        return line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+            } catch (IOException e) {
+                // fall back to the architecture
+            }
+        }
+        return System.getProperty("os.arch");
+    }
+
+    private static String read(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        return text.toString();
+    }
+}
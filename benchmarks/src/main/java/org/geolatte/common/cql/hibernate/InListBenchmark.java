@@ -0,0 +1,108 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.Start;
+import org.hibernate.Session;
+import org.hibernate.criterion.DetachedCriteria;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Compares the translation and execution of long <code>id = 1 OR id = 2 OR ...</code> chains as nested OR
+ * restrictions (the plain walk of the AST by <code>HibernateCriteriaBuilder</code>) and as chunked IN lists (the
+ * optimized translation of <code>CompiledCql</code>).
+ * </p>
+ * <p>
+ * The nested variants recurse once per OR, both when walking the AST and when Hibernate renders the criteria, hence
+ * the large thread stack.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xss256m")
+public class InListBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int size;
+
+    private String cql;
+    private BenchmarkDatabase database;
+    private Session session;
+    private DetachedCriteria nestedCriteria;
+    private DetachedCriteria inListCriteria;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(" OR ");
+            builder.append("id = ").append(i * 2);
+        }
+        cql = builder.toString();
+        database = new BenchmarkDatabase();
+        database.populate(2 * size);
+        session = database.getSessionFactory().openSession();
+        nestedCriteria = translateNested();
+        inListCriteria = translateInList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        database.close();
+    }
+
+    @Benchmark
+    public DetachedCriteria translateNested() throws ParseException {
+        Start tree = CompiledCql.parse(cql);
+        HibernateCriteriaBuilder builder = new HibernateCriteriaBuilder(BenchmarkFeature.class);
+        tree.apply(builder);
+        return builder.getCriteria();
+    }
+
+    @Benchmark
+    public DetachedCriteria translateInList() throws ParseException {
+        return CompiledCql.compile(cql, BenchmarkFeature.class).toCriteria();
+    }
+
+    @Benchmark
+    public List executeNested() {
+        List result = nestedCriteria.getExecutableCriteria(session).list();
+        session.clear();
+        return result;
+    }
+
+    @Benchmark
+    public List executeInList() {
+        List result = inListCriteria.getExecutableCriteria(session).list();
+        session.clear();
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.Start;
+import org.hibernate.criterion.Criterion;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the translation of typical filters of 5 to 20 AST nodes, by a new <code>HibernateCriteriaBuilder</code>
+ * per translation and by the reused builder of the current thread. The filters are parsed once, so only the
+ * translation is measured.
+ * </p>
+ * <p>
+ * The interesting number is the allocation per translation. Run with the GC profiler and compare
+ * <code>gc.alloc.rate.norm</code> (bytes per operation):
+ * <pre>
+ * java -jar target/benchmarks.jar TranslationBenchmark -prof gc
+ * </pre>
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TranslationBenchmark {
+
+    @Param({
+            // 5 nodes
+            "height > 10 AND name = 'feature-1'",
+            // 11 nodes
+            "height > 10 AND height <= 50 AND (name LIKE 'feature-1%' OR name = 'feature-7')",
+            // 20 nodes
+            "height >= 10 AND height < 90 AND name LIKE 'feature-%' AND NOT (name = 'feature-3') " +
+                    "AND (id = 1 OR id = 2 OR height = 7) AND created AFTER 1970-01-01T00:00:00Z"
+    })
+    public String cql;
+
+    private Start tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        tree = CompiledCql.parse(cql);
+    }
+
+    @Benchmark
+    public Criterion translateWithNewBuilder() {
+        HibernateCriteriaBuilder builder = new HibernateCriteriaBuilder(BenchmarkFeature.class);
+        tree.apply(builder);
+        return builder.getCriterion();
+    }
+
+    @Benchmark
+    public Criterion translateWithReusedBuilder() {
+        HibernateCriteriaBuilder builder = HibernateCriteriaBuilder.acquire(BenchmarkFeature.class, false, CqlTranslationOptions.DEFAULT);
+        try {
+            tree.apply(builder);
+            return builder.getCriterion();
+        } finally {
+            builder.release();
+        }
+    }
+
+    @Benchmark
+    public CompiledCql compile() {
+        return CompiledCql.compile(tree, BenchmarkFeature.class, false, CqlTranslationOptions.DEFAULT);
+    }
+}
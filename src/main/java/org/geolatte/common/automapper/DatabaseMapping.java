@@ -163,4 +163,45 @@ public class DatabaseMapping {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the name of the column to which the specified property is mapped.
+     *
+     * @param tableRef the <code>TableRef</code> for the table
+     * @param propertyName the name of the property
+     * @return the name of the column that holds the property, or null if the table specified by the
+     *         <code>tableRef</code> parameter is not mapped or has no such property.
+     * @throws IllegalStateException if the map() method has not been invoked first.
+     */
+    public String getColumnName(TableRef tableRef, String propertyName) {
+        ColumnMetaData column = findColumn(tableRef, propertyName);
+        return column == null ? null : column.getColumnName();
+    }
+
+    /**
+     * Returns the Hibernate type of the specified property, as it appears in the mapping document.
+     *
+     * @param tableRef the <code>TableRef</code> for the table
+     * @param propertyName the name of the property
+     * @return the name of the Hibernate type of the property, or null if the table specified by the
+     *         <code>tableRef</code> parameter is not mapped or has no such property.
+     * @throws IllegalStateException if the map() method has not been invoked first.
+     */
+    public String getHibernateType(TableRef tableRef, String propertyName) {
+        ColumnMetaData column = findColumn(tableRef, propertyName);
+        return column == null ? null : mappedClasses.get(tableRef).getColumnMapping(column).getHibernateType();
+    }
+
+    private ColumnMetaData findColumn(TableRef tableRef, String propertyName) {
+        TableMapping tableMapping = mappedClasses.get(tableRef);
+        if (tableMapping == null) {
+            return null;
+        }
+        for (ColumnMetaData columnMetaData : tableMapping.getMappedColumns()) {
+            if (tableMapping.getColumnMapping(columnMetaData).getPropertyName().equals(propertyName)) {
+                return columnMetaData;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.engine.TypedValue;
+
+/**
+ * <p>
+ * Hibernate criterion that binds parameter values to a translated, parameterized expression.
+ * </p>
+ * <p>
+ * The translated expression is shared between all executions of a {@link PreparedCql}. The values are made
+ * available to the enclosed {@link ParameterExpression}s only while Hibernate collects the typed values of this
+ * criterion, on the thread that does so.
+ * </p>
+ */
+class BoundCriterion implements Criterion {
+
+    private static final ThreadLocal<Object[]> currentValues = new ThreadLocal<Object[]>();
+
+    final private Criterion criterion;
+    final private Object[] values;
+
+    /**
+     * Binds the given values to the parameters in the given criterion.
+     *
+     * @param criterion the translated, parameterized expression
+     * @param values the parameter values; the value for parameter <code>?n</code> is at index <code>n-1</code>.
+     */
+    BoundCriterion(Criterion criterion, Object[] values) {
+        this.criterion = criterion;
+        this.values = values.clone();
+    }
+
+    /**
+     * Returns the value bound to the parameter with the given index.
+     *
+     * @param index the (1-based) parameter index
+     * @return the bound value
+     * @throws HibernateException if no values are bound on the current thread.
+     */
+    static Object getBoundValue(int index) {
+        Object[] values = currentValues.get();
+        if (values == null || index > values.length) {
+            throw new HibernateException("No value bound for parameter ?" + index);
+        }
+        return values[index - 1];
+    }
+
+    public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        return criterion.toSqlString(criteria, criteriaQuery);
+    }
+
+    public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        Object[] previous = currentValues.get();
+        currentValues.set(values);
+        try {
+            return criterion.getTypedValues(criteria, criteriaQuery);
+        } finally {
+            if (previous == null) {
+                currentValues.remove();
+            } else {
+                currentValues.set(previous);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return criterion.toString();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.Oracle9Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.dialect.SybaseDialect;
+import org.hibernate.engine.TypedValue;
+
+/**
+ * <p>
+ * Hibernate criterion that tests a property against a list of values, as <code>col in (?, ?, ...)</code>.
+ * </p>
+ * <p>
+ * Some databases limit the number of elements in an IN list (e.g. 1000 on Oracle). Lists that are longer than the
+ * limit of the dialect are split in chunks that are combined with OR: <code>(col in (?, ...) or col in (?, ...))</code>.
+ * </p>
+ * <p>
+ * Chunking does not help against a limit on the number of parameters of a statement (2100 on SQL Server and Sybase,
+ * 32767 with the PostgreSQL JDBC driver). Lists of integral numbers that need more parameters than the dialect allows
+ * are therefore rendered with inlined literals, which are safe to put in the SQL. Other lists that are too long are
+ * rejected with a <code>HibernateException</code>. Note that the limit is checked per list: a statement with several
+ * long lists may still exceed it.
+ * </p>
+ */
+class ChunkedInExpression implements Criterion {
+
+    /**
+     * The chunk size for dialects that are not known to have a lower limit.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    final private String propertyName;
+    final private Object[] values;
+    final private int chunkSize;
+
+    /**
+     * Constructs an IN expression that is split in chunks of the size that suits the dialect.
+     *
+     * @param propertyName The (aliased) property name
+     * @param values The values to test against
+     */
+    ChunkedInExpression(String propertyName, Object[] values) {
+        this(propertyName, values, 0);
+    }
+
+    /**
+     * Constructs an IN expression that is split in chunks of the given size.
+     *
+     * @param propertyName The (aliased) property name
+     * @param values The values to test against
+     * @param chunkSize The maximum number of values in one IN list, or 0 to use the limit of the dialect.
+     */
+    ChunkedInExpression(String propertyName, Object[] values, int chunkSize) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("IN list requires at least one value");
+        }
+        this.propertyName = propertyName;
+        this.values = values.clone();
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the maximum number of elements in an IN list for the given dialect.
+     *
+     * @param dialect the dialect
+     * @return the maximum IN list length.
+     */
+    static int getChunkSize(Dialect dialect) {
+        if (dialect instanceof Oracle8iDialect || dialect instanceof Oracle9Dialect) {
+            return 1000;
+        }
+        if (dialect instanceof SQLServerDialect || dialect instanceof SybaseDialect) {
+            // these allow at most 2100 parameters per statement, leave some for the other restrictions.
+            return 2000;
+        }
+        return DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Returns the maximum number of parameters that one IN list may use for the given dialect.
+     *
+     * @param dialect the dialect
+     * @return the maximum number of parameters, or <code>Integer.MAX_VALUE</code> if the dialect has no known limit.
+     */
+    static int getMaxParameters(Dialect dialect) {
+        if (dialect instanceof SQLServerDialect || dialect instanceof SybaseDialect) {
+            // these allow at most 2100 parameters per statement, leave some for the other restrictions.
+            return 2000;
+        }
+        if (dialect instanceof PostgreSQLDialect) {
+            // the JDBC driver allows at most 32767 parameters per statement.
+            return 32000;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether a list of values is rendered with inlined literals rather than parameters for the given dialect.
+     *
+     * @param dialect the dialect
+     * @param values the values of the list
+     * @return true if the list needs more parameters than the dialect allows, and all values are integral numbers.
+     * @throws HibernateException if the list needs more parameters than the dialect allows, but cannot be inlined.
+     */
+    static boolean isInlined(Dialect dialect, Object[] values) throws HibernateException {
+        int maxParameters = getMaxParameters(dialect);
+        if (values.length <= maxParameters) {
+            return false;
+        }
+        for (Object value : values) {
+            if (!isIntegral(value)) {
+                throw new HibernateException(String.format(
+                        "IN list of %d values exceeds the %d parameters allowed by %s, and only lists of integral numbers can be inlined",
+                        values.length, maxParameters, dialect.getClass().getSimpleName()));
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, propertyName);
+        if (columns.length != 1) {
+            throw new HibernateException("IN lists may only be used with single-column properties");
+        }
+        Dialect dialect = criteriaQuery.getFactory().getDialect();
+        int size = chunkSize > 0 ? chunkSize : getChunkSize(dialect);
+        boolean inlined = isInlined(dialect, values);
+        int chunks = (values.length + size - 1) / size;
+
+        StringBuilder sql = new StringBuilder(values.length * 3 + chunks * (columns[0].length() + 10));
+        if (chunks > 1) sql.append('(');
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (chunk > 0) sql.append(" or ");
+            sql.append(columns[0]).append(" in (");
+            int offset = chunk * size;
+            int length = Math.min(size, values.length - offset);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) sql.append(", ");
+                if (inlined) {
+                    sql.append(values[offset + i]);
+                } else {
+                    sql.append('?');
+                }
+            }
+            sql.append(')');
+        }
+        if (chunks > 1) sql.append(')');
+        return sql.toString();
+    }
+
+    public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        if (isInlined(criteriaQuery.getFactory().getDialect(), values)) {
+            return new TypedValue[0];
+        }
+        TypedValue[] typedValues = new TypedValue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            typedValues[i] = criteriaQuery.getTypedValue(criteria, propertyName, values[i]);
+        }
+        return typedValues;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(propertyName).append(" in (");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(values[i]);
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * A cache of values that are derived from a class, such as its {@link EntityMetaModel}.
+ * </p>
+ * <p>
+ * The classes are held weakly and the values softly. A value usually refers to its class (through its methods or
+ * fields), so a strongly held value would keep the class, and its class loader, from being unloaded; e.g. the
+ * classes that the <code>AutoMapper</code> generates in a <code>DisposableClassLoader</code>. A value may therefore
+ * be dropped when memory runs low, and is then derived again.
+ * </p>
+ * <p>
+ * Instances are safe for concurrent use. The values are kept in a <code>ConcurrentHashMap</code> by a weak key of
+ * their class, so that they are read without locking; the keys of unloaded classes are removed when a value is
+ * added.
+ * </p>
+ *
+ * @param <V> the type of the cached values
+ */
+final class ClassCache<V> {
+
+    final private ConcurrentMap<Key, SoftReference<V>> values = new ConcurrentHashMap<Key, SoftReference<V>>();
+    final private ReferenceQueue<Class<?>> unloaded = new ReferenceQueue<Class<?>>();
+
+    /**
+     * Returns the value cached for the given class.
+     *
+     * @param key the class
+     * @return the value, or null if there is none (anymore)
+     */
+    V get(Class<?> key) {
+        SoftReference<V> reference = values.get(new Key(key, null));
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Caches a value for the given class, unless there already is one.
+     *
+     * @param key the class
+     * @param value the value
+     * @return the value that was already cached, or null if the given value was cached.
+     */
+    V putIfAbsent(Class<?> key, V value) {
+        expungeUnloaded();
+        Key weakKey = new Key(key, unloaded);
+        SoftReference<V> reference = new SoftReference<V>(value);
+        while (true) {
+            SoftReference<V> existing = values.putIfAbsent(weakKey, reference);
+            if (existing == null) {
+                return null;
+            }
+            V existingValue = existing.get();
+            if (existingValue != null) {
+                return existingValue;
+            }
+            // the cached value was dropped, replace it
+            if (values.replace(weakKey, existing, reference)) {
+                return null;
+            }
+        }
+    }
+
+    private void expungeUnloaded() {
+        Reference<? extends Class<?>> key;
+        while ((key = unloaded.poll()) != null) {
+            values.remove(key);
+        }
+    }
+
+    /**
+     * A weak reference to a class that is equal to the references to the same class, for as long as the class is
+     * not unloaded.
+     */
+    private static final class Key extends WeakReference<Class<?>> {
+
+        final private int hash;
+
+        Key(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            this.hash = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Class<?> clazz = get();
+            return clazz != null && clazz == ((Key) other).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.CqlLexer;
+import org.geolatte.common.cql.lexer.LexerException;
+import org.geolatte.common.cql.node.Start;
+import org.geolatte.common.cql.parser.Parser;
+import org.geolatte.common.cql.parser.ParserException;
+import org.hibernate.Criteria;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.CriteriaSpecification;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.ProjectionList;
+import org.hibernate.criterion.Projections;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * The parsed and translated form of a CQL expression for a given class.
+ * </p>
+ * <p>
+ * A <code>CompiledCql</code> never hands out the criteria it was built from. Each call to {@link #toCriteria()}
+ * returns a fresh <code>DetachedCriteria</code> that is assembled from the recorded aliases and the (immutable)
+ * translated criterion, so instances can safely be shared between threads.
+ * </p>
+ */
+final class CompiledCql {
+
+    final private Class<?> entityClass;
+    final private Criterion criterion;
+    final private List<String[]> aliasDefinitions;
+    final private int parameterCount;
+    final private boolean matchesNothing;
+    final private boolean joinsCollection;
+    final private long translationNanos;
+    final private AtomicBoolean compilationClaimed = new AtomicBoolean();
+    private long parseNanos;
+    private volatile String fingerprint;
+
+    private CompiledCql(Class<?> entityClass, Criterion criterion, List<String[]> aliasDefinitions, int parameterCount,
+                        boolean matchesNothing, long translationNanos) {
+        this.entityClass = entityClass;
+        this.translationNanos = translationNanos;
+        this.matchesNothing = matchesNothing;
+        this.criterion = criterion;
+        this.aliasDefinitions = new ArrayList<String[]>(aliasDefinitions);
+        this.parameterCount = parameterCount;
+        this.joinsCollection = joinsCollection(entityClass, aliasDefinitions);
+    }
+
+    /**
+     * Checks whether any of the aliases joins a collection (or an association that can not be resolved), in which
+     * case the criteria may return the same object more than once.
+     */
+    private static boolean joinsCollection(Class<?> entityClass, List<String[]> aliasDefinitions) {
+        Map<String, Class<?>> aliasTypes = new HashMap<String, Class<?>>();
+        for (String[] aliasDefinition : aliasDefinitions) {
+            String associationPath = aliasDefinition[0];
+            int dot = associationPath.lastIndexOf('.');
+            Class<?> owner = dot < 0 ? entityClass : aliasTypes.get(associationPath.substring(0, dot));
+            if (owner == null) {
+                return true;
+            }
+            EntityMetaModel.Property property = EntityMetaModel.forClass(owner).getProperty(associationPath.substring(dot + 1));
+            if (property == null || property.getType().isArray() || Collection.class.isAssignableFrom(property.getType())
+                    || Map.class.isAssignableFrom(property.getType())) {
+                return true;
+            }
+            aliasTypes.put(aliasDefinition[1], property.getType());
+        }
+        return false;
+    }
+
+    /**
+     * Parses and translates the given CQL expression for the given class.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return the compiled form of the CQL expression
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    static CompiledCql compile(String cqlExpression, Class<?> forClass) throws ParseException {
+        return compile(cqlExpression, forClass, CqlTranslationOptions.DEFAULT);
+    }
+
+    /**
+     * Parses and translates the given CQL expression for the given class, with the given translation options.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param options The translation options
+     * @return the compiled form of the CQL expression
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    static CompiledCql compile(String cqlExpression, Class<?> forClass, CqlTranslationOptions options) throws ParseException {
+        long start = System.nanoTime();
+        Start tree = parse(cqlExpression);
+        long parseNanos = System.nanoTime() - start;
+        CompiledCql compiled = compile(tree, forClass, false, options);
+        compiled.parseNanos = parseNanos;
+        return compiled;
+    }
+
+    /**
+     * Parses and translates a CQL expression with parameter placeholders (<code>?1</code>, <code>?2</code>, ...).
+     *
+     * @param cqlTemplate The CQL expression with placeholders
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return the compiled form of the CQL expression
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    static CompiledCql compileTemplate(String cqlTemplate, Class<?> forClass) throws ParseException {
+        return compile(parse(CqlParameters.quotePlaceholders(cqlTemplate)), forClass, true, CqlTranslationOptions.DEFAULT);
+    }
+
+    /**
+     * Translates the CQL expression of the given AST for the given class. The translation reuses the (reset) builder
+     * of the current thread.
+     *
+     * @param tree the root of the AST, as returned by the CQL parser.
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param parameterized Whether the expression has parameter placeholders
+     * @param options The translation options
+     * @return the compiled form of the CQL expression
+     */
+    static CompiledCql compile(Start tree, Class<?> forClass, boolean parameterized, CqlTranslationOptions options) {
+
+        // Simplify the expression, and build the criteria for it
+        long start = System.nanoTime();
+        CqlTerm term = CqlOptimizer.optimize(tree, forClass);
+        if (options.isReorderPredicates()) {
+            term = SelectivityPlanner.reorder(term, forClass, options.getStatistics(forClass));
+        }
+        HibernateCriteriaBuilder builder = HibernateCriteriaBuilder.acquire(forClass, parameterized, options);
+        try {
+            builder.build(term);
+            return new CompiledCql(forClass, builder.getCriterion(), builder.getAliasDefinitions(), builder.getParameterCount(), term == CqlTerm.FALSE, System.nanoTime() - start);
+        } finally {
+            builder.release();
+        }
+    }
+
+    /**
+     * Parses the given CQL expression.
+     *
+     * @param cqlExpression The CQL expression
+     * @return the root of the AST
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    static Start parse(String cqlExpression) throws ParseException {
+
+        try {
+            Parser p = new Parser( new CqlLexer( new PushbackReader(new StringReader(cqlExpression), 1024)));
+            // Parse the input.
+            return p.parse();
+        }
+        catch(ParserException e) {
+
+            ParseException parseException = new ParseException(e.getMessage(), e.getToken().getPos());
+            parseException.initCause(e);
+            throw parseException;
+        }
+        catch (LexerException e) {
+
+            ParseException parseException = new ParseException(e.getMessage(), 0);
+            parseException.initCause(e);
+            throw parseException;
+        }
+        catch (IOException e) {
+
+            ParseException parseException = new ParseException(e.getMessage(), 0);
+            parseException.initCause(e);
+            throw parseException;
+        }
+    }
+
+    /**
+     * Returns the class for which this expression was compiled.
+     *
+     * @return the entity class
+     */
+    Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Creates a new <code>DetachedCriteria</code> for this compiled expression. The caller owns the returned instance
+     * and may add further restrictions, projections or orderings to it.
+     *
+     * @return a new <code>DetachedCriteria</code>
+     */
+    DetachedCriteria toCriteria() {
+        if (parameterCount > 0) {
+            throw new IllegalStateException("Parameterized expression requires parameter values.");
+        }
+        return createCriteria(criterion);
+    }
+
+    /**
+     * Creates a new <code>DetachedCriteria</code> for this compiled expression, with the given parameter values.
+     *
+     * @param parameterValues the parameter values, the value for <code>?n</code> at index <code>n-1</code>.
+     * @return a new <code>DetachedCriteria</code>
+     * @throws IllegalArgumentException if the number of values does not match the number of parameters.
+     */
+    DetachedCriteria toCriteria(Object[] parameterValues) {
+        if (parameterValues == null || parameterValues.length != parameterCount) {
+            throw new IllegalArgumentException(String.format("Expected %d parameter values, received %d.",
+                    parameterCount, parameterValues == null ? 0 : parameterValues.length));
+        }
+        return createCriteria(parameterCount == 0 ? criterion : new BoundCriterion(criterion, parameterValues));
+    }
+
+    /**
+     * Creates a new <code>DetachedCriteria</code> for this compiled expression that selects the given properties
+     * instead of the entities. Each row of the result is an <code>Object[]</code> with the property values, in the
+     * given order, or the value itself if only one property is selected.
+     * <p/>
+     * <p>Nested property paths (e.g. <code>owner.name</code>) reuse the aliases of the expression; associations
+     * that the expression does not use are joined with a left outer join, so that the projection does not change
+     * which objects are selected.</p>
+     *
+     * @param propertyPaths the properties to select
+     * @return a new <code>DetachedCriteria</code>
+     */
+    DetachedCriteria toCriteria(String[] propertyPaths) {
+        if (propertyPaths == null || propertyPaths.length == 0) {
+            throw new IllegalArgumentException("At least one property is required.");
+        }
+        DetachedCriteria criteria = toCriteria();
+        Set<String> aliases = new HashSet<String>();
+        for (String[] aliasDefinition : aliasDefinitions) {
+            aliases.add(aliasDefinition[1]);
+        }
+        ProjectionList projections = Projections.projectionList();
+        for (String propertyPath : propertyPaths) {
+            projections.add(Projections.property(joinPath(criteria, aliases, propertyPath)));
+        }
+        return criteria.setProjection(projections);
+    }
+
+    /**
+     * Returns the aliased name of a property path, creating the aliases that are missing. The alias names follow
+     * those of {@link HibernateCriteriaBuilder}, so that the aliases of the expression are reused.
+     */
+    private static String joinPath(DetachedCriteria criteria, Set<String> aliases, String propertyPath) {
+        String[] parts = propertyPath.split("\\.");
+        String currentAlias = "";
+        for (int i = 0; i < parts.length - 1; i++) {
+            String newAlias = currentAlias + parts[i] + "01";
+            if (aliases.add(newAlias)) {
+                String associationPath = (currentAlias.length() == 0 ? "" : (currentAlias + ".")) + parts[i];
+                criteria.createAlias(associationPath, newAlias, CriteriaSpecification.LEFT_JOIN);
+            }
+            currentAlias = newAlias;
+        }
+        String lastPart = parts[parts.length - 1];
+        return currentAlias.length() == 0 ? lastPart : currentAlias + "." + lastPart;
+    }
+
+    /**
+     * Creates an executable <code>Criteria</code> for this compiled expression on the given stateless session.
+     * <code>DetachedCriteria</code> can only be attached to a <code>Session</code>, so the criteria is built
+     * directly on the stateless session.
+     *
+     * @param session the stateless session on which the criteria is executed
+     * @return a new <code>Criteria</code>
+     */
+    Criteria toCriteria(StatelessSession session) {
+        if (parameterCount > 0) {
+            throw new IllegalStateException("Parameterized expression requires parameter values.");
+        }
+        Criteria criteria = session.createCriteria(entityClass);
+        for (String[] aliasDefinition : aliasDefinitions) {
+            criteria.createAlias(aliasDefinition[0], aliasDefinition[1]);
+        }
+        if (criterion != null) {
+            criteria.add(criterion);
+        }
+        return criteria;
+    }
+
+    /**
+     * Checks whether the expression is known to be false for all objects, e.g. because it requires a property that
+     * the class does not have. The query for such an expression need not be executed.
+     *
+     * @return true if the expression never matches
+     */
+    boolean matchesNothing() {
+        return matchesNothing;
+    }
+
+    /**
+     * Checks whether the criteria of this expression join a collection, so that an object can occur more than once
+     * in the result.
+     *
+     * @return true if the criteria join a collection
+     */
+    boolean joinsCollection() {
+        return joinsCollection;
+    }
+
+    /**
+     * Returns the time it took to parse the expression.
+     *
+     * @return the parse time in nanoseconds, or 0 if the expression was compiled from an AST.
+     */
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Returns the time it took to optimize and translate the parsed expression.
+     *
+     * @return the translation time in nanoseconds
+     */
+    long getTranslationNanos() {
+        return translationNanos;
+    }
+
+    /**
+     * Returns true on the first call only, so that the parse and translation times of a cached expression are
+     * attributed to a single query.
+     *
+     * @return true if this is the first call
+     */
+    boolean claimCompilation() {
+        return compilationClaimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns the fingerprint of the given CQL expression, from which this expression was compiled. See
+     * {@link CqlInstrumentation#fingerprint(String, Class)}.
+     *
+     * @param cqlExpression the CQL expression of this compiled expression
+     * @return the fingerprint
+     */
+    String getFingerprint(String cqlExpression) {
+        String result = fingerprint;
+        if (result == null) {
+            result = CqlInstrumentation.fingerprint(cqlExpression, entityClass);
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of parameters in this expression.
+     *
+     * @return the parameter count
+     */
+    int getParameterCount() {
+        return parameterCount;
+    }
+
+    private DetachedCriteria createCriteria(Criterion restriction) {
+        DetachedCriteria criteria = DetachedCriteria.forClass(entityClass);
+        for (String[] aliasDefinition : aliasDefinitions) {
+            criteria.createAlias(aliasDefinition[0], aliasDefinition[1]);
+        }
+        if (restriction != null) {
+            criteria.add(restriction);
+        }
+        return criteria;
+    }
+}
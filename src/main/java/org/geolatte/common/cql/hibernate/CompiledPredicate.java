@@ -0,0 +1,93 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * <p>
+ * Base class of the predicates generated by the {@link CqlPredicateCompiler}.
+ * </p>
+ * <p>
+ * The generated classes are loaded by their own class loader, so they can only use the public and protected members
+ * of this class. Properties that the generated code cannot access directly (e.g. private fields) are read through
+ * {@link #read(Object, int)}.
+ * </p>
+ *
+ * @param <T> the type of the evaluated objects
+ */
+public abstract class CompiledPredicate<T> implements CqlPredicate<T> {
+
+    final private Object[] accessors;
+    final private String cqlExpression;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param accessors the accessible getter <code>Method</code>s and <code>Field</code>s used by {@link #read(Object, int)}
+     * @param cqlExpression the compiled CQL expression
+     */
+    protected CompiledPredicate(Object[] accessors, String cqlExpression) {
+        this.accessors = accessors;
+        this.cqlExpression = cqlExpression;
+    }
+
+    /**
+     * Reads a property that cannot be accessed by the generated code.
+     *
+     * @param object the object that holds the property
+     * @param accessor the index of the getter or field in the accessors of this predicate
+     * @return the value of the property
+     */
+    protected final Object read(Object object, int accessor) {
+        try {
+            if (accessors[accessor] instanceof Method) {
+                return ((Method) accessors[accessor]).invoke(object);
+            }
+            return ((Field) accessors[accessor]).get(object);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read " + accessors[accessor], e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Cannot read " + accessors[accessor], e.getCause());
+        }
+    }
+
+    /**
+     * Determines whether a property exists on the class of the given object, for EXISTS predicates that cannot be
+     * decided from the declared class.
+     *
+     * @param object the object
+     * @param propertyPath the property path
+     * @return true if the class of the object has the property
+     */
+    protected final boolean exists(Object object, String propertyPath) {
+        return EntityMetaModel.forClass(object.getClass()).exists(propertyPath) == EntityMetaModel.Existence.EXISTS;
+    }
+
+    @Override
+    public String toString() {
+        return cqlExpression;
+    }
+}
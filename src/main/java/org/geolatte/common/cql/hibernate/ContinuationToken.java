@@ -0,0 +1,217 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * <p>
+ * Encodes and decodes the continuation token of a {@link CqlPage}.
+ * </p>
+ * <p>
+ * The token holds the key of the last object of a page, tagged with its type, and a checksum of the query and key
+ * property, so that a token can not be used to continue a different query. The token is Base64 encoded to keep
+ * callers from depending on its content. Timestamp keys keep their nanoseconds, so that a page does not end in the
+ * middle of a group of timestamps within the same millisecond.
+ * </p>
+ */
+final class ContinuationToken {
+
+    private static final String VERSION = "1";
+    private static final String UTF8 = "UTF-8";
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private ContinuationToken() {
+    }
+
+    /**
+     * Creates the token that continues a query after the given key value.
+     *
+     * @param cqlExpression the CQL expression of the query
+     * @param keyProperty the property on which the query is ordered
+     * @param lastKey the key value of the last object of the current page
+     * @return the token
+     * @throws IllegalArgumentException if the key has a type that can not be encoded
+     */
+    static String encode(String cqlExpression, String keyProperty, Object lastKey) {
+        String value;
+        char tag;
+        if (lastKey instanceof Long) {
+            tag = 'L';
+            value = lastKey.toString();
+        } else if (lastKey instanceof Integer) {
+            tag = 'I';
+            value = lastKey.toString();
+        } else if (lastKey instanceof Short) {
+            tag = 'S';
+            value = lastKey.toString();
+        } else if (lastKey instanceof BigInteger) {
+            tag = 'N';
+            value = lastKey.toString();
+        } else if (lastKey instanceof BigDecimal) {
+            tag = 'M';
+            value = lastKey.toString();
+        } else if (lastKey instanceof Double) {
+            tag = 'D';
+            value = lastKey.toString();
+        } else if (lastKey instanceof Float) {
+            tag = 'F';
+            value = lastKey.toString();
+        } else if (lastKey instanceof String) {
+            tag = 'C';
+            value = (String) lastKey;
+        } else if (lastKey instanceof Timestamp) {
+            tag = 'P';
+            value = Long.toString(((Timestamp) lastKey).getTime()) + ',' + ((Timestamp) lastKey).getNanos();
+        } else if (lastKey instanceof Date) {
+            tag = 'T';
+            value = Long.toString(((Date) lastKey).getTime());
+        } else {
+            throw new IllegalArgumentException("Key property " + keyProperty + " has an unsupported type: "
+                    + (lastKey == null ? "null" : lastKey.getClass().getName()));
+        }
+        String token = VERSION + ':' + checksum(cqlExpression, keyProperty) + ':' + tag + ':' + value;
+        try {
+            return toBase64(token.getBytes(UTF8));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the key value held by the given token.
+     *
+     * @param token the token, as returned by {@link #encode(String, String, Object)}
+     * @param cqlExpression the CQL expression of the query that is continued
+     * @param keyProperty the property on which the query is ordered
+     * @return the key value of the last object of the previous page
+     * @throws IllegalArgumentException if the token is malformed, or was created for a different query
+     */
+    static Object decode(String token, String cqlExpression, String keyProperty) {
+        String[] parts;
+        try {
+            parts = new String(fromBase64(token), UTF8).split(":", 4);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (parts.length != 4 || !VERSION.equals(parts[0]) || parts[2].length() != 1) {
+            throw new IllegalArgumentException("Malformed continuation token.");
+        }
+        if (!checksum(cqlExpression, keyProperty).equals(parts[1])) {
+            throw new IllegalArgumentException("Continuation token does not belong to this query.");
+        }
+        String value = parts[3];
+        try {
+            switch (parts[2].charAt(0)) {
+                case 'L':
+                    return Long.valueOf(value);
+                case 'I':
+                    return Integer.valueOf(value);
+                case 'S':
+                    return Short.valueOf(value);
+                case 'N':
+                    return new BigInteger(value);
+                case 'M':
+                    return new BigDecimal(value);
+                case 'D':
+                    return Double.valueOf(value);
+                case 'F':
+                    return Float.valueOf(value);
+                case 'C':
+                    return value;
+                case 'T':
+                    return new Date(Long.parseLong(value));
+                case 'P':
+                    int comma = value.indexOf(',');
+                    if (comma < 0) {
+                        throw new IllegalArgumentException("Malformed continuation token.");
+                    }
+                    Timestamp timestamp = new Timestamp(Long.parseLong(value.substring(0, comma)));
+                    timestamp.setNanos(Integer.parseInt(value.substring(comma + 1)));
+                    return timestamp;
+                default:
+                    throw new IllegalArgumentException("Malformed continuation token.");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed continuation token.", e);
+        }
+    }
+
+    private static String toBase64(byte[] bytes) {
+        StringBuilder base64 = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = Math.min(3, bytes.length - i);
+            int group = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) group |= (bytes[i + 1] & 0xff) << 8;
+            if (remaining > 2) group |= bytes[i + 2] & 0xff;
+            for (int j = 0; j < 4; j++) {
+                base64.append(j <= remaining ? BASE64[(group >> (18 - 6 * j)) & 0x3f] : '=');
+            }
+        }
+        return base64.toString();
+    }
+
+    private static byte[] fromBase64(String base64) {
+        int length = base64 == null ? 0 : base64.length();
+        if (length == 0 || length % 4 != 0) {
+            throw new IllegalArgumentException("Malformed continuation token.");
+        }
+        int padding = base64.charAt(length - 1) != '=' ? 0 : base64.charAt(length - 2) != '=' ? 1 : 2;
+        byte[] bytes = new byte[length / 4 * 3 - padding];
+        int index = 0;
+        for (int i = 0; i < length; i += 4) {
+            int group = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = base64.charAt(i + j);
+                int digit;
+                if (c == '=' && i + 4 == length && j >= 4 - padding) {
+                    digit = 0;
+                } else {
+                    digit = base64Digit(c);
+                }
+                group = (group << 6) | digit;
+            }
+            for (int j = 0; j < 3 && index < bytes.length; j++) {
+                bytes[index++] = (byte) (group >> (16 - 8 * j));
+            }
+        }
+        return bytes;
+    }
+
+    private static int base64Digit(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if (c >= '0' && c <= '9') return c - '0' + 52;
+        if (c == '+') return 62;
+        if (c == '/') return 63;
+        throw new IllegalArgumentException("Malformed continuation token.");
+    }
+
+    private static String checksum(String cqlExpression, String keyProperty) {
+        return Integer.toHexString((cqlExpression + '\u0000' + keyProperty).hashCode());
+    }
+}
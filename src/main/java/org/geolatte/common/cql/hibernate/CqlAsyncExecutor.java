@@ -0,0 +1,388 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Executes CQL queries asynchronously, on a bounded pool of threads, so that the caller need not block on the
+ * database. Every query runs on its own session, opened from the given session factory, and returns a
+ * {@link CqlFuture}; a {@link CqlCallback} can be passed to be notified of the outcome instead of waiting for it.
+ * </p>
+ * <p>
+ * The number of threads, and therefore of connections that the queries use at the same time, is fixed, and so is the
+ * number of queries that wait for a thread. A query that is submitted when the queue is full is rejected with a
+ * <code>RejectedExecutionException</code>, rather than piling up. A query with a timeout fails with a
+ * <code>TimeoutException</code> if it cannot start before the timeout, and otherwise runs with the remainder as its
+ * JDBC statement timeout. Cancelling a waiting query frees its place in the queue, and cancelling a running query
+ * cancels its statement.
+ * </p>
+ * <p>
+ * CQL expressions are parsed and translated on the calling thread, so that invalid expressions are reported
+ * immediately. Instances are thread-safe, and should be shut down when they are no longer used.
+ * </p>
+ */
+public final class CqlAsyncExecutor {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlAsyncExecutor.class);
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private int threads;
+    private int queueCapacity;
+    private int defaultTimeout;
+    private ThreadPoolExecutor executor;
+    final private Set<CqlFuture<?>> pending = Collections.newSetFromMap(new ConcurrentHashMap<CqlFuture<?>, Boolean>());
+
+    /**
+     * A builder for a <code>CqlAsyncExecutor</code>.
+     */
+    public static class Builder {
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 100;
+        private int defaultTimeout;
+
+        /**
+         * Sets the number of queries that run at the same time.
+         * <p/>
+         * <p>If this is not configured, there is a thread for every processor.</p>
+         *
+         * @param threads the number of threads
+         * @return this instance
+         */
+        public Builder threads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Number of threads must be positive.");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of queries that can wait for a thread.
+         * <p/>
+         * <p>If this is not configured, 100 queries can wait.</p>
+         *
+         * @param queueCapacity the maximum number of waiting queries
+         * @return this instance
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("Queue capacity must be positive.");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets the timeout of queries that are submitted without one.
+         * <p/>
+         * <p>If this is not configured, such queries have no timeout.</p>
+         *
+         * @param seconds the timeout in seconds, or 0 for none
+         * @return this instance
+         */
+        public Builder defaultTimeout(int seconds) {
+            if (seconds < 0) {
+                throw new IllegalArgumentException("Timeout must not be negative.");
+            }
+            this.defaultTimeout = seconds;
+            return this;
+        }
+
+        /**
+         * Returns the <code>CqlAsyncExecutor</code> that is built by this instance. It starts its threads when the
+         * first queries are submitted.
+         *
+         * @return the constructed executor
+         */
+        public CqlAsyncExecutor result() {
+            CqlAsyncExecutor result = new CqlAsyncExecutor();
+            result.threads = threads;
+            result.queueCapacity = queueCapacity;
+            result.defaultTimeout = defaultTimeout;
+            result.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new QueryThreadFactory());
+            result.executor.allowCoreThreadTimeOut(true);
+            return result;
+        }
+    }
+
+    private CqlAsyncExecutor() {
+    }
+
+    /**
+     * Lists the objects of the given class that satisfy the CQL expression, with the default timeout.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param factory The session factory that opens the session of the query.
+     * @return The pending list of objects that satisfy the CQL expression.
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws RejectedExecutionException When too many queries are waiting, or the executor is shut down.
+     */
+    public <T> CqlFuture<List<T>> list(String cqlExpression, Class<T> forClass, SessionFactory factory) throws ParseException {
+        return list(cqlExpression, forClass, factory, defaultTimeout, null);
+    }
+
+    /**
+     * Lists the objects of the given class that satisfy the CQL expression.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param factory The session factory that opens the session of the query.
+     * @param timeout The timeout in seconds, counted from now, or 0 for none.
+     * @param callback The callback that is notified of the outcome, or null.
+     * @return The pending list of objects that satisfy the CQL expression.
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws RejectedExecutionException When too many queries are waiting, or the executor is shut down.
+     */
+    public <T> CqlFuture<List<T>> list(final String cqlExpression, final Class<T> forClass, SessionFactory factory,
+                                       int timeout, CqlCallback<? super List<T>> callback) throws ParseException {
+        final CompiledCql compiled = CqlHibernate.getCriteriaCache().getCompiled(cqlExpression, forClass);
+        return submit(new TimedQuery<List<T>>(factory, timeout) {
+            @SuppressWarnings("unchecked")
+            List<T> execute(Session session, int remainingTimeout) {
+                if (compiled.matchesNothing()) {
+                    return Collections.emptyList();
+                }
+                Criteria executable = withTimeout(compiled.toCriteria().getExecutableCriteria(session), remainingTimeout);
+                return new ArrayList<T>(CqlHibernate.list(compiled, cqlExpression, forClass, executable));
+            }
+        }, callback);
+    }
+
+    /**
+     * Counts the objects of the given class that satisfy the CQL expression, with the default timeout (see
+     * {@link CqlHibernate#count(String, Class, Session)}).
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param factory The session factory that opens the session of the query.
+     * @return The pending number of objects that satisfy the CQL expression.
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws RejectedExecutionException When too many queries are waiting, or the executor is shut down.
+     */
+    public CqlFuture<Long> count(String cqlExpression, Class<?> forClass, SessionFactory factory) throws ParseException {
+        return count(cqlExpression, forClass, factory, defaultTimeout, null);
+    }
+
+    /**
+     * Counts the objects of the given class that satisfy the CQL expression (see
+     * {@link CqlHibernate#count(String, Class, Session)}).
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param factory The session factory that opens the session of the query.
+     * @param timeout The timeout in seconds, counted from now, or 0 for none.
+     * @param callback The callback that is notified of the outcome, or null.
+     * @return The pending number of objects that satisfy the CQL expression.
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws RejectedExecutionException When too many queries are waiting, or the executor is shut down.
+     */
+    public CqlFuture<Long> count(final String cqlExpression, final Class<?> forClass, SessionFactory factory,
+                                 int timeout, CqlCallback<? super Long> callback) throws ParseException {
+        final CompiledCql compiled = CqlHibernate.getCriteriaCache().getCompiled(cqlExpression, forClass);
+        return submit(new TimedQuery<Long>(factory, timeout) {
+            Long execute(Session session, int remainingTimeout) {
+                if (compiled.matchesNothing()) {
+                    return 0L;
+                }
+                Criteria executable = withTimeout(CqlHibernate.countCriteria(compiled, forClass, session), remainingTimeout);
+                return CqlHibernate.count(compiled, cqlExpression, forClass, executable);
+            }
+        }, callback);
+    }
+
+    private <V> CqlFuture<V> submit(TimedQuery<V> query, CqlCallback<? super V> callback) {
+        CqlFuture<V> future = new CqlFuture<V>(query, callback, this);
+        pending.add(future);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            pending.remove(future);
+            LOGGER.warn(String.format("Rejected CQL query: %d queries are running and %d are waiting",
+                    executor.getActiveCount(), executor.getQueue().size()));
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Called by a future that was cancelled, to remove it from the queue if it is still waiting.
+     */
+    void withdraw(CqlFuture<?> future) {
+        executor.remove(future);
+    }
+
+    /**
+     * Called by a future once its query has finished, failed or was cancelled.
+     */
+    void finished(CqlFuture<?> future) {
+        pending.remove(future);
+    }
+
+    /**
+     * Returns the number of queries that are running or waiting for a thread.
+     *
+     * @return the number of pending queries
+     */
+    public int getPendingQueries() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of threads that run queries.
+     *
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of queries that can wait for a thread.
+     *
+     * @return the capacity of the queue
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Stops accepting queries. Queries that were already submitted still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Stops accepting queries, and cancels the queries that are running or waiting.
+     */
+    public void shutdownNow() {
+        executor.shutdown();
+        for (CqlFuture<?> future : new ArrayList<CqlFuture<?>>(pending)) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Waits until all queries have finished after a shutdown.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return false if the timeout elapsed before all queries finished
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * A query that runs on its own session, within a timeout that starts when the query is submitted.
+     */
+    private abstract static class TimedQuery<V> extends CqlFuture.Query<V> {
+
+        final private SessionFactory factory;
+        final private int timeout;
+        final private long submitted = System.nanoTime();
+
+        TimedQuery(SessionFactory factory, int timeout) {
+            if (factory == null) {
+                throw new IllegalArgumentException("Session factory cannot be null.");
+            }
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout must not be negative.");
+            }
+            this.factory = factory;
+            this.timeout = timeout;
+        }
+
+        public V call() throws TimeoutException {
+            int remaining = 0;
+            if (timeout > 0) {
+                long waited = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - submitted);
+                if (waited >= timeout) {
+                    throw new TimeoutException(String.format("CQL query waited %d s for a thread, its timeout is %d s", waited, timeout));
+                }
+                remaining = (int) (timeout - waited);
+            }
+            Session session = factory.openSession();
+            try {
+                session.setDefaultReadOnly(true);
+                running(session);
+                return execute(session, remaining);
+            } finally {
+                running(null);
+                session.close();
+            }
+        }
+
+        /**
+         * Executes the query.
+         *
+         * @param session the session of the query
+         * @param remainingTimeout the statement timeout in seconds, or 0 for none
+         * @return the result
+         */
+        abstract V execute(Session session, int remainingTimeout);
+
+        static Criteria withTimeout(Criteria criteria, int seconds) {
+            return seconds > 0 ? criteria.setTimeout(seconds) : criteria;
+        }
+    }
+
+    /**
+     * Creates the named daemon threads of an executor.
+     */
+    private static class QueryThreadFactory implements ThreadFactory {
+
+        final private int pool = POOL_NUMBER.incrementAndGet();
+        final private AtomicInteger number = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("cql-async-%d-%d", pool, number.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
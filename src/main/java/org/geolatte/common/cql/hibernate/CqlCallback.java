@@ -0,0 +1,48 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * Receives the outcome of a CQL query that is executed asynchronously by a {@link CqlAsyncExecutor}.
+ * <p>The callback is invoked on the thread that executed the query or, for a cancelled query, on the thread that
+ * cancelled it. It should not block.</p>
+ *
+ * @param <V> the type of the result
+ */
+public interface CqlCallback<V> {
+
+    /**
+     * Handles the result of a query that succeeded.
+     *
+     * @param result the result
+     */
+    void succeeded(V result);
+
+    /**
+     * Handles the failure of a query: the exception that it threw, a
+     * {@link java.util.concurrent.TimeoutException} if it could not start before its timeout, or a
+     * {@link java.util.concurrent.CancellationException} if it was cancelled.
+     *
+     * @param failure the cause of the failure
+     */
+    void failed(Throwable failure);
+}
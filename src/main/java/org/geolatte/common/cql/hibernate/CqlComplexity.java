@@ -0,0 +1,246 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * <p>
+ * Measures of how expensive a CQL expression is to execute, as checked by a {@link CqlComplexityPolicy}:
+ * <ul>
+ * <li>the depth: the nesting of AND, OR and NOT operators, where a chain of the same operator (<code>a OR b OR
+ * c</code>) counts as a single level;</li>
+ * <li>the number of predicates;</li>
+ * <li>the number of joins that the property paths need (see {@link HibernateCriteriaBuilder}): one per association
+ * path, and one per association in each correlated subquery for a path through a collection;</li>
+ * <li>the number of such subqueries;</li>
+ * <li>the number of properties in the longest property path;</li>
+ * <li>the number of predicates that cannot use an index on their column: LIKE and ILIKE patterns that start with a
+ * wildcard, and negated patterns.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The expression is measured before it is optimized, by walking the AST without recursion, so that also expressions
+ * that are too large to be translated can be measured. Instances are immutable.
+ * </p>
+ */
+public final class CqlComplexity {
+
+    final private int depth;
+    final private int predicates;
+    final private int joins;
+    final private int subqueries;
+    final private int longestPath;
+    final private int nonSargablePredicates;
+
+    private CqlComplexity(int depth, int predicates, int joins, int subqueries, int longestPath, int nonSargablePredicates) {
+        this.depth = depth;
+        this.predicates = predicates;
+        this.joins = joins;
+        this.subqueries = subqueries;
+        this.longestPath = longestPath;
+        this.nonSargablePredicates = nonSargablePredicates;
+    }
+
+    /**
+     * Measures the expression of the given AST for the given class.
+     *
+     * @param tree the root of the AST, as returned by the CQL parser.
+     * @param forClass the class on which the expression is applied
+     * @return the complexity of the expression
+     */
+    static CqlComplexity measure(Start tree, Class<?> forClass) {
+        return new Meter(EntityMetaModel.forClass(forClass)).measure(tree.getPExpr());
+    }
+
+    /**
+     * Returns the nesting depth of the operators of the expression.
+     *
+     * @return the depth; 0 for a single predicate.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of predicates in the expression.
+     *
+     * @return the number of predicates
+     */
+    public int getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Returns the number of joins that the property paths of the expression need.
+     *
+     * @return the number of joins
+     */
+    public int getJoins() {
+        return joins;
+    }
+
+    /**
+     * Returns the number of correlated subqueries for predicates on paths through a collection.
+     *
+     * @return the number of subqueries
+     */
+    public int getSubqueries() {
+        return subqueries;
+    }
+
+    /**
+     * Returns the number of properties in the longest property path, e.g. 3 for <code>owner.address.city</code>.
+     *
+     * @return the length of the longest property path
+     */
+    public int getLongestPath() {
+        return longestPath;
+    }
+
+    /**
+     * Returns the number of predicates that cannot use an index on their column.
+     *
+     * @return the number of non-sargable predicates
+     */
+    public int getNonSargablePredicates() {
+        return nonSargablePredicates;
+    }
+
+    /**
+     * Checks whether the expression is expensive, even if it is within the limits of a policy: it has predicates
+     * that cannot use an index, or correlated subqueries.
+     *
+     * @return true if the expression is expensive
+     */
+    public boolean isExpensive() {
+        return nonSargablePredicates > 0 || subqueries > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CqlComplexity{depth=" + depth + ", predicates=" + predicates + ", joins=" + joins
+                + ", subqueries=" + subqueries + ", longestPath=" + longestPath
+                + ", nonSargablePredicates=" + nonSargablePredicates + "}";
+    }
+
+    /**
+     * Walks the AST of an expression, and counts.
+     */
+    private static class Meter extends AbstractBuilder {
+
+        final private EntityMetaModel model;
+        final private Set<String> associations = new HashSet<String>();
+        private int joins;
+        private int subqueries;
+        private int longestPath;
+        private int nonSargable;
+
+        Meter(EntityMetaModel model) {
+            this.model = model;
+        }
+
+        /**
+         * A node to visit, with its depth and the operator of its parent.
+         */
+        private static final class Visit {
+            final PExpr expr;
+            final int depth;
+            final Class<?> parentOperator;
+            final boolean negated;
+
+            Visit(PExpr expr, int depth, Class<?> parentOperator, boolean negated) {
+                this.expr = expr;
+                this.depth = depth;
+                this.parentOperator = parentOperator;
+                this.negated = negated;
+            }
+        }
+
+        CqlComplexity measure(PExpr root) {
+            int depth = 0;
+            int predicates = 0;
+            LinkedList<Visit> pending = new LinkedList<Visit>();
+            pending.push(new Visit(root, 0, null, false));
+            while (!pending.isEmpty()) {
+                Visit visit = pending.pop();
+                PExpr expr = visit.expr;
+                if (expr instanceof AAndExpr || expr instanceof AOrExpr || expr instanceof ANotExpr) {
+                    int level = expr.getClass().equals(visit.parentOperator) && !(expr instanceof ANotExpr)
+                            ? visit.depth : visit.depth + 1;
+                    depth = Math.max(depth, level);
+                    if (expr instanceof AAndExpr) {
+                        pending.push(new Visit(((AAndExpr) expr).getRight(), level, AAndExpr.class, visit.negated));
+                        pending.push(new Visit(((AAndExpr) expr).getLeft(), level, AAndExpr.class, visit.negated));
+                    } else if (expr instanceof AOrExpr) {
+                        pending.push(new Visit(((AOrExpr) expr).getRight(), level, AOrExpr.class, visit.negated));
+                        pending.push(new Visit(((AOrExpr) expr).getLeft(), level, AOrExpr.class, visit.negated));
+                    } else {
+                        pending.push(new Visit(((ANotExpr) expr).getExpr(), level, ANotExpr.class, !visit.negated));
+                    }
+                } else {
+                    predicates++;
+                    predicate(expr, visit.negated);
+                }
+            }
+            return new CqlComplexity(depth, predicates, joins + associations.size(), subqueries, longestPath, nonSargable);
+        }
+
+        private void predicate(PExpr expr, boolean negated) {
+            PAttr attr = CqlOptimizer.attributeOf(expr);
+            if (attr == null) {
+                return;
+            }
+            String path = getPropertyPath(attr);
+            String[] parts = path.split("\\.");
+            longestPath = Math.max(longestPath, parts.length);
+            if (parts.length > 1) {
+                if (model.crossesCollection(path)) {
+                    // every predicate on a collection path has its own subquery, with its own joins
+                    subqueries++;
+                    joins += parts.length - 1;
+                } else {
+                    int count = parts.length - (model.referencesIdentifier(path) ? 2 : 1);
+                    StringBuilder association = new StringBuilder();
+                    for (int i = 0; i < count; i++) {
+                        associations.add(association.append(i == 0 ? "" : ".").append(parts[i]).toString());
+                    }
+                }
+            }
+            if (expr instanceof ANotLikeExpr || expr instanceof ANotIlikeExpr) {
+                nonSargable++;
+            } else if (expr instanceof ALikeExpr || expr instanceof AIlikeExpr) {
+                Node literal = expr instanceof ALikeExpr ? ((ALikeExpr) expr).getRight() : ((AIlikeExpr) expr).getRight();
+                literal.apply(this);
+                String pattern = translatedLiterals.get(literal).toString();
+                if (negated || pattern.startsWith("%") || pattern.startsWith("_")) {
+                    nonSargable++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * Thrown when a {@link CqlComplexityPolicy} rejects a CQL expression, because it exceeds one of the limits of the
+ * policy, or because too many expensive queries are running.
+ */
+public class CqlComplexityException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    final private String limit;
+    final private transient CqlComplexity complexity;
+
+    CqlComplexityException(String message, String limit, CqlComplexity complexity) {
+        super(message);
+        this.limit = limit;
+        this.complexity = complexity;
+    }
+
+    /**
+     * Returns the name of the limit that the expression exceeds, e.g. "joins".
+     *
+     * @return the name of the limit
+     */
+    public String getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the complexity of the rejected expression.
+     *
+     * @return the complexity, or null if the expression was rejected before it was parsed (because of its length).
+     */
+    public CqlComplexity getComplexity() {
+        return complexity;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Limits on the complexity of CQL expressions from untrusted sources, checked before the expressions are translated
+ * to Hibernate criteria (see {@link CqlHibernate#list(String, Class, org.hibernate.Session, CqlComplexityPolicy)}).
+ * </p>
+ * <p>
+ * An expression that exceeds a limit (its length, depth, number of predicates, joins, path length or non-sargable
+ * predicates, see {@link CqlComplexity}) is rejected with a {@link CqlComplexityException} that names the limit.
+ * An expression within the limits that is still expensive (see {@link CqlComplexity#isExpensive()}) is down-scoped:
+ * it is executed with a query timeout and a maximum number of results, and only a limited number of expensive
+ * queries run at the same time, so that a few pathological requests cannot take all connections of the pool.
+ * A result that is cut at the maximum number of results is flagged as truncated (see {@link CqlResult}).
+ * </p>
+ * <p>
+ * Instances are immutable and thread-safe, and are created by a {@link Builder}. Share an instance between all
+ * requests: the limit on concurrent expensive queries applies per instance.
+ * </p>
+ */
+public final class CqlComplexityPolicy {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlComplexityPolicy.class);
+
+    /**
+     * A policy with the default limits of the {@link Builder}.
+     */
+    public static final CqlComplexityPolicy DEFAULT = new Builder().result();
+
+    private int maxLength = 10000;
+    private int maxDepth = 10;
+    private int maxPredicates = 500;
+    private int maxJoins = 4;
+    private int maxPathLength = 4;
+    private int maxNonSargablePredicates = Integer.MAX_VALUE;
+    private int expensiveQueryTimeout = 30;
+    private int expensiveQueryMaxResults = 10000;
+    private int maxConcurrentExpensiveQueries = 4;
+    private long expensiveQueryWaitMillis = 5000;
+    private Semaphore expensiveQueryPermits;
+
+    /**
+     * A builder for a <code>CqlComplexityPolicy</code>.
+     */
+    public static class Builder {
+
+        final private CqlComplexityPolicy underConstruction = new CqlComplexityPolicy();
+
+        /**
+         * Sets the maximum number of characters of an expression, which is checked before the expression is parsed.
+         * <p/>
+         * <p>If this is not configured, the maximum is 10000.</p>
+         *
+         * @param maxLength the maximum length
+         * @return this instance
+         */
+        public Builder maxLength(int maxLength) {
+            underConstruction.maxLength = positive(maxLength);
+            return this;
+        }
+
+        /**
+         * Sets the maximum nesting depth of the AND, OR and NOT operators (see {@link CqlComplexity#getDepth()}).
+         * <p/>
+         * <p>If this is not configured, the maximum is 10.</p>
+         *
+         * @param maxDepth the maximum depth
+         * @return this instance
+         */
+        public Builder maxDepth(int maxDepth) {
+            underConstruction.maxDepth = positive(maxDepth);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of predicates.
+         * <p/>
+         * <p>If this is not configured, the maximum is 500.</p>
+         *
+         * @param maxPredicates the maximum number of predicates
+         * @return this instance
+         */
+        public Builder maxPredicates(int maxPredicates) {
+            underConstruction.maxPredicates = positive(maxPredicates);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of joins that the property paths may need (see {@link CqlComplexity#getJoins()}).
+         * <p/>
+         * <p>If this is not configured, the maximum is 4.</p>
+         *
+         * @param maxJoins the maximum number of joins, 0 to allow only properties of the class itself (and the
+         *                 identifiers of its associations).
+         * @return this instance
+         */
+        public Builder maxJoins(int maxJoins) {
+            underConstruction.maxJoins = notNegative(maxJoins);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of properties in a property path, e.g. 2 to allow <code>owner.name</code>, but not
+         * <code>owner.address.city</code>.
+         * <p/>
+         * <p>If this is not configured, the maximum is 4.</p>
+         *
+         * @param maxPathLength the maximum path length
+         * @return this instance
+         */
+        public Builder maxPathLength(int maxPathLength) {
+            underConstruction.maxPathLength = positive(maxPathLength);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of predicates that cannot use an index, such as <code>name LIKE '%x'</code>.
+         * <p/>
+         * <p>If this is not configured, such predicates are not limited, but make the query expensive.</p>
+         *
+         * @param maxNonSargablePredicates the maximum number of non-sargable predicates, 0 to reject them all.
+         * @return this instance
+         */
+        public Builder maxNonSargablePredicates(int maxNonSargablePredicates) {
+            underConstruction.maxNonSargablePredicates = notNegative(maxNonSargablePredicates);
+            return this;
+        }
+
+        /**
+         * Sets the query timeout of expensive queries.
+         * <p/>
+         * <p>If this is not configured, the timeout is 30 seconds.</p>
+         *
+         * @param seconds the timeout in seconds, 0 for no timeout.
+         * @return this instance
+         */
+        public Builder expensiveQueryTimeout(int seconds) {
+            underConstruction.expensiveQueryTimeout = notNegative(seconds);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of objects that an expensive query returns.
+         * <p/>
+         * <p>If this is not configured, the maximum is 10000.</p>
+         *
+         * @param maxResults the maximum number of results, 0 for no maximum.
+         * @return this instance
+         */
+        public Builder expensiveQueryMaxResults(int maxResults) {
+            underConstruction.expensiveQueryMaxResults = notNegative(maxResults);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of expensive queries that run at the same time. A query that finds all of them
+         * taken waits at most the given time, and is then rejected.
+         * <p/>
+         * <p>If this is not configured, at most 4 expensive queries run at the same time, and a query waits at most
+         * 5 seconds.</p>
+         *
+         * @param maxQueries the maximum number of concurrent expensive queries, 0 for no maximum.
+         * @param waitMillis the time to wait for a running expensive query to finish, in milliseconds.
+         * @return this instance
+         */
+        public Builder maxConcurrentExpensiveQueries(int maxQueries, long waitMillis) {
+            underConstruction.maxConcurrentExpensiveQueries = notNegative(maxQueries);
+            underConstruction.expensiveQueryWaitMillis = Math.max(0, waitMillis);
+            return this;
+        }
+
+        /**
+         * Returns the <code>CqlComplexityPolicy</code> that is built by this instance.
+         *
+         * @return the constructed <code>CqlComplexityPolicy</code>
+         */
+        public CqlComplexityPolicy result() {
+            CqlComplexityPolicy result = new CqlComplexityPolicy();
+            result.maxLength = underConstruction.maxLength;
+            result.maxDepth = underConstruction.maxDepth;
+            result.maxPredicates = underConstruction.maxPredicates;
+            result.maxJoins = underConstruction.maxJoins;
+            result.maxPathLength = underConstruction.maxPathLength;
+            result.maxNonSargablePredicates = underConstruction.maxNonSargablePredicates;
+            result.expensiveQueryTimeout = underConstruction.expensiveQueryTimeout;
+            result.expensiveQueryMaxResults = underConstruction.expensiveQueryMaxResults;
+            result.maxConcurrentExpensiveQueries = underConstruction.maxConcurrentExpensiveQueries;
+            result.expensiveQueryWaitMillis = underConstruction.expensiveQueryWaitMillis;
+            if (result.maxConcurrentExpensiveQueries > 0) {
+                result.expensiveQueryPermits = new Semaphore(result.maxConcurrentExpensiveQueries, true);
+            }
+            return result;
+        }
+
+        private static int positive(int value) {
+            if (value <= 0) throw new IllegalArgumentException("Limit must be positive.");
+            return value;
+        }
+
+        private static int notNegative(int value) {
+            if (value < 0) throw new IllegalArgumentException("Limit must not be negative.");
+            return value;
+        }
+    }
+
+    private CqlComplexityPolicy() {
+    }
+
+    /**
+     * Measures the given CQL expression, and checks it against the limits of this policy.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return the complexity of the expression
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws CqlComplexityException if the expression exceeds a limit
+     */
+    public CqlComplexity check(String cqlExpression, Class<?> forClass) throws ParseException {
+        if (cqlExpression == null || forClass == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        if (cqlExpression.length() > maxLength) {
+            throw reject("length", cqlExpression.length(), maxLength, null);
+        }
+        CqlComplexity complexity = CqlComplexity.measure(CompiledCql.parse(cqlExpression), forClass);
+        if (complexity.getDepth() > maxDepth) {
+            throw reject("depth", complexity.getDepth(), maxDepth, complexity);
+        }
+        if (complexity.getPredicates() > maxPredicates) {
+            throw reject("predicates", complexity.getPredicates(), maxPredicates, complexity);
+        }
+        if (complexity.getJoins() > maxJoins) {
+            throw reject("joins", complexity.getJoins(), maxJoins, complexity);
+        }
+        if (complexity.getLongestPath() > maxPathLength) {
+            throw reject("path length", complexity.getLongestPath(), maxPathLength, complexity);
+        }
+        if (complexity.getNonSargablePredicates() > maxNonSargablePredicates) {
+            throw reject("non-sargable predicates", complexity.getNonSargablePredicates(), maxNonSargablePredicates, complexity);
+        }
+        return complexity;
+    }
+
+    private static CqlComplexityException reject(String limit, int value, int maximum, CqlComplexity complexity) {
+        String message = String.format("CQL expression is too complex: %s %d exceeds the maximum of %d", limit, value, maximum);
+        LOGGER.debug(message);
+        return new CqlComplexityException(message, limit, complexity);
+    }
+
+    /**
+     * Acquires a permit to run an expensive query, if the number of concurrent expensive queries is limited. Every
+     * successful call must be followed by a call to {@link #release(CqlComplexity)} with the same complexity.
+     *
+     * @throws CqlComplexityException if no permit becomes available in time
+     */
+    void acquire(CqlComplexity complexity) {
+        if (expensiveQueryPermits == null || !complexity.isExpensive()) {
+            return;
+        }
+        try {
+            if (expensiveQueryPermits.tryAcquire(expensiveQueryWaitMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.warn(String.format("Rejected expensive CQL query (%s): %d expensive queries are running",
+                complexity, maxConcurrentExpensiveQueries));
+        throw new CqlComplexityException("Too many expensive CQL queries are running, try again later",
+                "concurrent expensive queries", complexity);
+    }
+
+    /**
+     * Releases the permit acquired by {@link #acquire(CqlComplexity)}.
+     */
+    void release(CqlComplexity complexity) {
+        if (expensiveQueryPermits != null && complexity.isExpensive()) {
+            expensiveQueryPermits.release();
+        }
+    }
+
+    /**
+     * Applies the timeout and maximum number of results of expensive queries to the criteria of an expensive query.
+     * The criteria fetches one object more than the maximum, so that {@link #truncate(List, CqlComplexity, String)}
+     * can tell whether the result was cut.
+     *
+     * @param criteria the executable criteria
+     * @param limitResults whether to limit the number of results (not for counts)
+     */
+    void downScope(Criteria criteria, CqlComplexity complexity, boolean limitResults) {
+        if (!complexity.isExpensive()) {
+            return;
+        }
+        if (expensiveQueryTimeout > 0) {
+            criteria.setTimeout(expensiveQueryTimeout);
+        }
+        if (limitResults && expensiveQueryMaxResults > 0) {
+            criteria.setMaxResults(expensiveQueryMaxResults == Integer.MAX_VALUE ? Integer.MAX_VALUE : expensiveQueryMaxResults + 1);
+        }
+    }
+
+    /**
+     * Cuts the result of a query that was down-scoped by {@link #downScope(Criteria, CqlComplexity, boolean)} at the
+     * maximum number of results of expensive queries.
+     *
+     * @param result the objects returned by the query
+     * @param cqlExpression the CQL expression, for logging
+     * @return the result, flagged as truncated if the query returned more objects than the maximum
+     */
+    <T> CqlResult<T> truncate(List<T> result, CqlComplexity complexity, String cqlExpression) {
+        if (!complexity.isExpensive() || expensiveQueryMaxResults == 0 || result.size() <= expensiveQueryMaxResults) {
+            return new CqlResult<T>(result, false);
+        }
+        LOGGER.warn(String.format("Truncated the result of expensive CQL query \"%s\" (%s) at %d objects",
+                cqlExpression, complexity, expensiveQueryMaxResults));
+        return new CqlResult<T>(result.subList(0, expensiveQueryMaxResults), true);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.criterion.DetachedCriteria;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded cache of compiled CQL expressions, keyed by CQL text and entity class.
+ * </p>
+ * <p>
+ * Parsing a CQL expression and translating it to Hibernate criteria is relatively expensive compared to executing
+ * the same filter many times. This cache keeps the translated form of the most recently used expressions, and
+ * evicts the least recently used entry once the maximum size is reached. The cache is split into independently
+ * locked segments so that concurrent lookups for different expressions do not contend on a single lock.
+ * </p>
+ * <p>
+ * Every call to {@link #toCriteria(String, Class)} returns a new <code>DetachedCriteria</code>, which the caller
+ * is free to modify.
+ * </p>
+ * <p>This class is thread-safe.</p>
+ */
+public class CqlCriteriaCache {
+
+    /**
+     * The default maximum number of compiled expressions that are retained.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static final int SEGMENT_COUNT = 16;
+
+    final private Segment[] segments;
+    final private int maximumSize;
+    final private CqlTranslationOptions options;
+    final private AtomicLong hits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
+    final private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default maximum size.
+     */
+    public CqlCriteriaCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache that retains at most <code>maximumSize</code> compiled expressions.
+     *
+     * @param maximumSize the maximum number of entries in the cache
+     * @throws IllegalArgumentException if maximumSize is not positive.
+     */
+    public CqlCriteriaCache(int maximumSize) {
+        this(maximumSize, CqlTranslationOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a cache that retains at most <code>maximumSize</code> compiled expressions, which are translated with
+     * the given options.
+     *
+     * @param maximumSize the maximum number of entries in the cache
+     * @param options the translation options
+     * @throws IllegalArgumentException if maximumSize is not positive, or options is null.
+     */
+    public CqlCriteriaCache(int maximumSize, CqlTranslationOptions options) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive.");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null.");
+        }
+        this.maximumSize = maximumSize;
+        this.options = options;
+        int segmentCount = Math.min(SEGMENT_COUNT, maximumSize);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // distribute the capacity over the segments, the first segments take the remainder.
+            int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Returns a Hibernate <tt>DetachedCriteria</tt> for the given CQL expression and class, translating the
+     * expression only if it is not yet in the cache.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return A new DetachedCriteria that corresponds to the given CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public DetachedCriteria toCriteria(String cqlExpression, Class forClass) throws ParseException {
+        return getCompiled(cqlExpression, forClass).toCriteria();
+    }
+
+    /**
+     * Returns the compiled form of the given CQL expression, compiling and caching it on a miss.
+     *
+     * <p>Expressions that fail to parse are not cached.</p>
+     */
+    CompiledCql getCompiled(String cqlExpression, Class<?> forClass) throws ParseException {
+        if (cqlExpression == null || forClass == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        Key key = new Key(cqlExpression, forClass);
+        Segment segment = segmentFor(key);
+        CompiledCql compiled = segment.get(key);
+        if (compiled != null) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        // compile outside of the lock: concurrent misses for the same key may both compile, the last one wins.
+        compiled = CompiledCql.compile(cqlExpression, forClass, options);
+        segment.put(key, compiled);
+        return compiled;
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that required the expression to be parsed and translated.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries that were evicted because the cache was full.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the maximum number of entries that this cache retains.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the options with which the expressions in this cache are translated.
+     *
+     * @return the translation options
+     */
+    public CqlTranslationOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the number of entries currently in the cache.
+     *
+     * @return the current size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries from the cache. The hit, miss and eviction counts are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * A LRU-ordered part of the cache, guarded by its own lock.
+     */
+    private class Segment {
+
+        final private LinkedHashMap<Key, CompiledCql> entries;
+
+        Segment(final int capacity) {
+            entries = new LinkedHashMap<Key, CompiledCql>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, CompiledCql> eldest) {
+                    if (size() > capacity) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CompiledCql get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, CompiledCql compiled) {
+            entries.put(key, compiled);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    private static class Key {
+
+        final private String cqlExpression;
+        final private Class<?> forClass;
+
+        Key(String cqlExpression, Class<?> forClass) {
+            this.cqlExpression = cqlExpression;
+            this.forClass = forClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+            return forClass.equals(key.forClass) && cqlExpression.equals(key.cqlExpression);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cqlExpression.hashCode() + forClass.hashCode();
+        }
+    }
+}
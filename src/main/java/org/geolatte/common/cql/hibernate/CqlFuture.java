@@ -0,0 +1,139 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of a CQL query that is executed asynchronously by a {@link CqlAsyncExecutor}.
+ * <p>
+ * Cancelling a query that is still queued removes it from the queue of the executor, so that it no longer takes the
+ * place of another query. Cancelling a query that is running also cancels
+ * its JDBC statement (see {@link Session#cancelQuery()}), so that the database stops working on it and the thread
+ * and connection are released.
+ * </p>
+ *
+ * @param <V> the type of the result
+ */
+public class CqlFuture<V> extends FutureTask<V> {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlFuture.class);
+
+    final private Query<V> query;
+    final private CqlCallback<? super V> callback;
+    final private CqlAsyncExecutor owner;
+
+    /**
+     * A query that registers the session on which it runs, so that its statement can be cancelled.
+     */
+    abstract static class Query<V> implements Callable<V> {
+
+        private volatile Session session;
+        private volatile boolean cancelled;
+
+        /**
+         * Registers the session on which the query runs, or null once it has finished.
+         *
+         * @throws CancellationException if the query was cancelled before it started
+         */
+        void running(Session session) {
+            this.session = session;
+            if (cancelled && session != null) {
+                throw new CancellationException("CQL query was cancelled.");
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Session running = session;
+            if (running == null) {
+                return;
+            }
+            try {
+                running.cancelQuery();
+            } catch (HibernateException e) {
+                // the query finished in the meantime
+                LOGGER.debug("Failed to cancel a running CQL query", e);
+            }
+        }
+    }
+
+    CqlFuture(Query<V> query, CqlCallback<? super V> callback, CqlAsyncExecutor owner) {
+        super(query);
+        this.query = query;
+        this.callback = callback;
+        this.owner = owner;
+    }
+
+    /**
+     * Cancels the query, and the statement that executes it if it is running, or removes it from the queue if it is
+     * waiting.
+     *
+     * @param mayInterruptIfRunning whether the thread that executes the query is interrupted as well
+     * @return false if the query had already finished
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            query.cancel();
+            owner.withdraw(this);
+        }
+        return cancelled;
+    }
+
+    @Override
+    protected void done() {
+        owner.finished(this);
+        if (callback == null) {
+            return;
+        }
+        try {
+            if (isCancelled()) {
+                callback.failed(new CancellationException("CQL query was cancelled."));
+                return;
+            }
+            V result;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                callback.failed(e.getCause());
+                return;
+            } catch (InterruptedException e) {
+                // cannot happen, the task is done
+                Thread.currentThread().interrupt();
+                return;
+            }
+            callback.succeeded(result);
+        } catch (RuntimeException e) {
+            LOGGER.warn("CQL query callback failed", e);
+        }
+    }
+}
@@ -1,68 +1,606 @@
 package org.geolatte.common.cql.hibernate;
 
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.TableRef;
 import org.geolatte.common.cql.Cql;
-import org.geolatte.common.cql.CqlLexer;
-import org.geolatte.common.cql.lexer.LexerException;
-import org.geolatte.common.cql.node.Start;
-import org.geolatte.common.cql.parser.Parser;
-import org.geolatte.common.cql.parser.ParserException;
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.EntityMode;
+import org.hibernate.StatelessSession;
 import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
 
-import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * <p>
  * Utility class that translates CQL expressions such as "(AnAttribute > 5) and (AnotherOne LIKE 'this')" into
  * Hibernate criteria. See also {@link org.geolatte.common.cql.Cql}.
  * </p>
+ * <p>
+ * Translated expressions are kept in a shared {@link CqlCriteriaCache}, so that repeatedly used filters are parsed
+ * and translated only once.
+ * </p>
+ * <p>
+ * The queries that are executed through this class are reported to the listeners registered with
+ * {@link CqlInstrumentation}, e.g. to collect {@link CqlQueryStatistics}.
+ * </p>
  *
  * @author Bert Vanhooff
  * @author <a href="http://www.qmino.com">Qmino bvba</a>
  * @since SDK1.5
  */
 public class CqlHibernate extends Cql {
+
+    // replaced by setCriteriaCache(), e.g. to translate with other options
+    private static volatile CqlCriteriaCache criteriaCache = new CqlCriteriaCache();
     
     /**
      * Constructs a Hibernate <tt>DetachedCriteria</tt> based on the given CQL expression, for the given class.
      * Use the <tt>DetachedCriteria.getExecutableCriteria(mySession)</tt> to get an executable <tt>Criteria<tt>.
+     * <p>Each invocation returns a new <tt>DetachedCriteria</tt>, which the caller is free to modify.</p>
      * @param cqlExpression The CQL expression
      * @param forClass The class of the objects on which the CQL expression will be applied.
      * @return A DetachedCriteria that corresponds to the given CQL expression.
      * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
      */
     public static DetachedCriteria toCriteria(String cqlExpression, Class forClass) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        CqlInstrumentation.translated(cqlExpression, forClass, compiled);
+        return compiled.toCriteria();
+    }
+
+    /**
+     * Returns the objects of the given class that satisfy the CQL expression. If it can be decided from the class
+     * alone that no object satisfies the expression (e.g. because it requires a property that the class doesn't
+     * have), the database is not queried.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @return The list of objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static List list(String cqlExpression, Class forClass, Session session) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        return list(compiled, cqlExpression, forClass, compiled.matchesNothing() ? null : compiled.toCriteria(), session);
+    }
+
+    /**
+     * Returns the number of objects of the given class that satisfy the CQL expression. The objects are counted by
+     * the database; no entities are loaded.
+     * <p>If the expression joins a collection, the distinct identifiers are counted, since the join may return
+     * an object more than once. If it can be decided from the class alone that no object satisfies the expression,
+     * the database is not queried.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @return The number of objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static long count(String cqlExpression, Class forClass, Session session) throws ParseException {
+        return count(cqlExpression, forClass, session, null, null);
+    }
+
+    /**
+     * Returns the number of objects of the given class that satisfy a CQL expression from an untrusted source. The
+     * expression is checked against the given policy before it is translated, and is counted with the timeout
+     * of expensive queries if it is expensive (see {@link CqlComplexityPolicy}).
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param policy The limits on the complexity of the expression.
+     * @return The number of objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws CqlComplexityException When the policy rejects the expression.
+     */
+    public static long count(String cqlExpression, Class forClass, Session session, CqlComplexityPolicy policy) throws ParseException {
+        return count(cqlExpression, forClass, session, policy, policy.check(cqlExpression, forClass));
+    }
+
+    private static long count(String cqlExpression, Class forClass, Session session, CqlComplexityPolicy policy, CqlComplexity complexity) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return 0;
+        }
+        Criteria executable = countCriteria(compiled, forClass, session);
+        if (policy != null) {
+            policy.acquire(complexity);
+        }
+        try {
+            if (policy != null) {
+                policy.downScope(executable, complexity, false);
+            }
+            return count(compiled, cqlExpression, forClass, executable);
+        } finally {
+            if (policy != null) {
+                policy.release(complexity);
+            }
+        }
+    }
+
+    /**
+     * Creates the executable criteria that counts the objects that satisfy a compiled expression.
+     */
+    static Criteria countCriteria(CompiledCql compiled, Class forClass, Session session) {
+        DetachedCriteria criteria = compiled.toCriteria();
+        if (compiled.joinsCollection()) {
+            criteria.setProjection(Projections.countDistinct(getClassMetadata(session, forClass).getIdentifierPropertyName()));
+        } else {
+            criteria.setProjection(Projections.rowCount());
+        }
+        return criteria.getExecutableCriteria(session);
+    }
+
+    /**
+     * Executes the count criteria of a compiled expression, and reports its execution.
+     */
+    static long count(CompiledCql compiled, String cqlExpression, Class forClass, Criteria executable) {
+        CqlInstrumentation.Execution execution = CqlInstrumentation.start(CqlQueryEvent.Operation.COUNT, cqlExpression, forClass, compiled);
+        try {
+            Number count = (Number) executable.uniqueResult();
+            execution.succeeded(executable, 1);
+            return count == null ? 0 : count.longValue();
+        } catch (RuntimeException e) {
+            execution.failed(executable, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether any object of the given class satisfies the CQL expression. The database only looks for the
+     * first matching row, and returns its identifier; no entities are loaded.
+     * <p>If it can be decided from the class alone that no object satisfies the expression, the database is not
+     * queried.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @return True if at least one object satisfies the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static boolean exists(String cqlExpression, Class forClass, Session session) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return false;
+        }
+        DetachedCriteria criteria = compiled.toCriteria().setProjection(Projections.id());
+        CqlInstrumentation.Execution execution = CqlInstrumentation.start(CqlQueryEvent.Operation.EXISTS, cqlExpression, forClass, compiled);
+        Criteria executable = criteria.getExecutableCriteria(session).setMaxResults(1);
+        try {
+            int rowCount = executable.list().size();
+            execution.succeeded(executable, rowCount);
+            return rowCount > 0;
+        } catch (RuntimeException e) {
+            execution.failed(executable, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Constructs a Hibernate <tt>DetachedCriteria</tt> based on the given CQL expression that selects only the given
+     * properties of the objects. The entities themselves, and properties that are not selected (e.g. large
+     * geometries), are not loaded.
+     * <p>Each row of the result is an <tt>Object[]</tt> with the property values in the given order, or the value
+     * itself if only one property is selected.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param propertyPaths The properties to select, e.g. <tt>name</tt> or <tt>owner.name</tt>.
+     * @return A DetachedCriteria that selects the properties of the objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static DetachedCriteria toProjectedCriteria(String cqlExpression, Class forClass, String... propertyPaths) throws ParseException {
+        return criteriaCache.getCompiled(cqlExpression, forClass).toCriteria(propertyPaths);
+    }
+
+    /**
+     * Constructs a Hibernate <tt>DetachedCriteria</tt> based on the given CQL expression that selects only the given
+     * properties of the objects, and returns them as instances of a result class.
+     * <p>The result class must have a default constructor, and a setter for each selected property. The setter of a
+     * nested property path drops the dots, e.g. <tt>owner.name</tt> is set with <tt>setOwnerName()</tt>.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param resultClass The class of the result objects.
+     * @param propertyPaths The properties to select, e.g. <tt>name</tt> or <tt>owner.name</tt>.
+     * @return A DetachedCriteria that returns instances of the result class.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static DetachedCriteria toProjectedCriteria(String cqlExpression, Class forClass, Class<?> resultClass, String... propertyPaths) throws ParseException {
+        return toProjectedCriteria(cqlExpression, forClass, propertyPaths)
+                .setResultTransformer(new ProjectionResultTransformer(resultClass, propertyPaths));
+    }
+
+    /**
+     * Returns the given properties of the objects of the given class that satisfy the CQL expression. See
+     * {@link #toProjectedCriteria(String, Class, String...)}.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param propertyPaths The properties to select, e.g. <tt>name</tt> or <tt>owner.name</tt>.
+     * @return The list of property values (<tt>Object[]</tt>, or the value itself for a single property).
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static List list(String cqlExpression, Class forClass, Session session, String... propertyPaths) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        return list(compiled, cqlExpression, forClass, compiled.matchesNothing() ? null : compiled.toCriteria(propertyPaths), session);
+    }
+
+    /**
+     * Returns the objects of the given class that satisfy a CQL expression from an untrusted source. The expression
+     * is checked against the given policy before it is translated. If it is expensive, it waits for a permit to
+     * run, and is executed with the timeout and the maximum number of results of expensive queries (see
+     * {@link CqlComplexityPolicy}).
+     * <p>A result that is cut at the maximum number of results is only logged; use
+     * {@link #limitedList(String, Class, Session, CqlComplexityPolicy)} to find out whether it was.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param policy The limits on the complexity of the expression.
+     * @return The list of objects that satisfy the CQL expression, possibly limited by the policy.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws CqlComplexityException When the policy rejects the expression.
+     */
+    public static List list(String cqlExpression, Class forClass, Session session, CqlComplexityPolicy policy) throws ParseException {
+        return limitedList(cqlExpression, forClass, session, policy).getItems();
+    }
+
+    /**
+     * Returns the objects of the given class that satisfy a CQL expression from an untrusted source, like
+     * {@link #list(String, Class, Session, CqlComplexityPolicy)}, and whether the policy truncated them.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param policy The limits on the complexity of the expression.
+     * @return The objects that satisfy the CQL expression, flagged as truncated if the policy limited them.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws CqlComplexityException When the policy rejects the expression.
+     */
+    public static <T> CqlResult<T> limitedList(String cqlExpression, Class<T> forClass, Session session, CqlComplexityPolicy policy) throws ParseException {
+        CqlComplexity complexity = policy.check(cqlExpression, forClass);
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return new CqlResult<T>(Collections.<T>emptyList(), false);
+        }
+        policy.acquire(complexity);
+        try {
+            Criteria executable = compiled.toCriteria().getExecutableCriteria(session);
+            policy.downScope(executable, complexity, true);
+            @SuppressWarnings("unchecked")
+            List<T> result = list(compiled, cqlExpression, forClass, executable);
+            return policy.truncate(result, complexity, cqlExpression);
+        } finally {
+            policy.release(complexity);
+        }
+    }
+
+    /**
+     * Executes the criteria of a compiled expression, or returns an empty list if the criteria is null.
+     */
+    private static List list(CompiledCql compiled, String cqlExpression, Class forClass, DetachedCriteria criteria, Session session) {
+        if (criteria == null) {
+            return Collections.EMPTY_LIST;
+        }
+        return list(compiled, cqlExpression, forClass, criteria.getExecutableCriteria(session));
+    }
+
+    /**
+     * Executes the criteria of a compiled expression, and reports its execution.
+     */
+    static List list(CompiledCql compiled, String cqlExpression, Class forClass, Criteria executable) {
+        CqlInstrumentation.Execution execution = CqlInstrumentation.start(CqlQueryEvent.Operation.LIST, cqlExpression, forClass, compiled);
+        try {
+            List result = executable.list();
+            execution.succeeded(executable, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            execution.failed(executable, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns an iterator over the objects of the given class that satisfy the CQL expression. The objects are read
+     * from a forward-only cursor, <tt>fetchSize</tt> rows at a time, and are evicted from the session once the
+     * iterator has moved past them, so that memory use does not depend on the size of the result.
+     * <p>The iterator must be closed if it is not read until the end.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param fetchSize The number of rows that the JDBC driver fetches at a time.
+     * @return An iterator over the objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static <T> CqlResultIterator<T> scroll(String cqlExpression, Class<T> forClass, Session session, int fetchSize) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return new CqlResultIterator<T>(null, null);
+        }
+        Criteria criteria = compiled.toCriteria().getExecutableCriteria(session)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE);
+        return scroll(compiled, cqlExpression, forClass, criteria, session, fetchSize);
+    }
+
+    /**
+     * Returns an iterator over the objects of the given class that satisfy the CQL expression, read with a stateless
+     * session. The objects are read from a forward-only cursor, <tt>fetchSize</tt> rows at a time.
+     * <p>The iterator must be closed if it is not read until the end.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The stateless session used to execute the query.
+     * @param fetchSize The number of rows that the JDBC driver fetches at a time.
+     * @return An iterator over the objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static <T> CqlResultIterator<T> scroll(String cqlExpression, Class<T> forClass, StatelessSession session, int fetchSize) throws ParseException {
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return new CqlResultIterator<T>(null, null);
+        }
+        return scroll(compiled, cqlExpression, forClass, compiled.toCriteria(session), null, fetchSize);
+    }
+
+    /**
+     * Passes the objects of the given class that satisfy the CQL expression to the handler, one at a time, until
+     * the result is exhausted or the handler returns false. See {@link #scroll(String, Class, Session, int)}.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param fetchSize The number of rows that the JDBC driver fetches at a time.
+     * @param handler The handler that receives the objects.
+     * @return The number of objects passed to the handler.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static <T> long stream(String cqlExpression, Class<T> forClass, Session session, int fetchSize, CqlResultHandler<? super T> handler) throws ParseException {
+        return stream(scroll(cqlExpression, forClass, session, fetchSize), handler);
+    }
 
+    /**
+     * Passes the objects of the given class that satisfy the CQL expression to the handler, one at a time, until
+     * the result is exhausted or the handler returns false. See {@link #scroll(String, Class, StatelessSession, int)}.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The stateless session used to execute the query.
+     * @param fetchSize The number of rows that the JDBC driver fetches at a time.
+     * @param handler The handler that receives the objects.
+     * @return The number of objects passed to the handler.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static <T> long stream(String cqlExpression, Class<T> forClass, StatelessSession session, int fetchSize, CqlResultHandler<? super T> handler) throws ParseException {
+        return stream(scroll(cqlExpression, forClass, session, fetchSize), handler);
+    }
+
+    /**
+     * Opens a forward-only cursor on the given criteria, of which the execution is reported when the iterator is closed.
+     */
+    static <T> CqlResultIterator<T> scroll(CompiledCql compiled, String cqlExpression, Class<T> forClass, Criteria criteria, Session session, int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        CqlInstrumentation.Execution execution = CqlInstrumentation.start(CqlQueryEvent.Operation.SCROLL, cqlExpression, forClass, compiled);
+        ScrollableResults results;
         try {
-            Parser p = new Parser( new CqlLexer( new PushbackReader(new StringReader(cqlExpression), 1024)));
-            // Parse the input.
-            Start tree = p.parse();
+            results = criteria.setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY);
+        } catch (RuntimeException e) {
+            execution.failed(criteria, e);
+            throw e;
+        }
+        return new CqlResultIterator<T>(results, session, criteria, execution);
+    }
 
-            // Build the filter expression
-            HibernateCriteriaBuilder builder = new HibernateCriteriaBuilder(forClass);
-            tree.apply(builder);
+    private static <T> long stream(CqlResultIterator<T> iterator, CqlResultHandler<? super T> handler) {
+        long count = 0;
+        try {
+            while (iterator.hasNext()) {
+                count++;
+                if (!handler.handle(iterator.next())) {
+                    break;
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        return count;
+    }
 
-            return builder.getCriteria();
+    /**
+     * Returns a page of the objects of the given class that satisfy the CQL expression, ordered by a key property.
+     * <p>Instead of skipping the objects of the previous pages (OFFSET), the query only selects objects of which the
+     * key is greater than the key of the last object of the previous page. Every page therefore costs the same,
+     * provided there is an index on the key. The key property must be unique and not null; objects with a null key
+     * are never returned.</p>
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param keyProperty The (unique) property on which the result is ordered.
+     * @param pageSize The maximum number of objects in the page.
+     * @param continuationToken The continuation token of the previous page, or null for the first page.
+     * @return The page.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the continuation token was not created for the same expression and key.
+     */
+    public static <T> CqlPage<T> page(String cqlExpression, Class<T> forClass, Session session, String keyProperty, int pageSize, String continuationToken) throws ParseException {
+        if (keyProperty == null) {
+            throw new IllegalArgumentException("Key property cannot be null.");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        CompiledCql compiled = criteriaCache.getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return new CqlPage<T>(Collections.<T>emptyList(), null);
+        }
+        DetachedCriteria criteria = compiled.toCriteria();
+        if (continuationToken != null) {
+            criteria.add(Restrictions.gt(keyProperty, ContinuationToken.decode(continuationToken, cqlExpression, keyProperty)));
         }
-        catch(ParserException e) {
+        criteria.addOrder(Order.asc(keyProperty));
 
-            ParseException parseException = new ParseException(e.getMessage(), e.getToken().getPos());
-            parseException.initCause(e);
-            throw parseException;
+        // Read one object more than requested, to know whether there is a next page
+        CqlInstrumentation.Execution execution = CqlInstrumentation.start(CqlQueryEvent.Operation.PAGE, cqlExpression, forClass, compiled);
+        Criteria executable = criteria.getExecutableCriteria(session).setMaxResults(pageSize + 1);
+        List<T> items;
+        try {
+            items = new ArrayList<T>(executable.list());
+            execution.succeeded(executable, items.size());
+        } catch (RuntimeException e) {
+            execution.failed(executable, e);
+            throw e;
+        }
+        if (items.size() <= pageSize) {
+            return new CqlPage<T>(items, null);
         }
-        catch (LexerException e) {
+        items = new ArrayList<T>(items.subList(0, pageSize));
+        Object lastKey = getKeyValue(session, forClass, keyProperty, items.get(pageSize - 1));
+        return new CqlPage<T>(items, ContinuationToken.encode(cqlExpression, keyProperty, lastKey));
+    }
 
-            ParseException parseException = new ParseException(e.getMessage(), 0);
-            parseException.initCause(e);
-            throw parseException;
+    /**
+     * Returns a page of the objects of the given class that satisfy the CQL expression, ordered by the identifier.
+     * See {@link #page(String, Class, Session, String, int, String)}.
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query.
+     * @param pageSize The maximum number of objects in the page.
+     * @param continuationToken The continuation token of the previous page, or null for the first page.
+     * @return The page.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the class is not mapped, or has no identifier property.
+     */
+    public static <T> CqlPage<T> page(String cqlExpression, Class<T> forClass, Session session, int pageSize, String continuationToken) throws ParseException {
+        String idProperty = getClassMetadata(session, forClass).getIdentifierPropertyName();
+        if (idProperty == null) {
+            throw new IllegalArgumentException("Class " + forClass.getName() + " has no identifier property.");
         }
-        catch (IOException e) {
+        return page(cqlExpression, forClass, session, idProperty, pageSize, continuationToken);
+    }
 
-            ParseException parseException = new ParseException(e.getMessage(), 0);
-            parseException.initCause(e);
-            throw parseException;
+    /**
+     * Returns a page of the objects of a table mapped by the <tt>AutoMapper</tt> that satisfy the CQL expression,
+     * ordered by the identifier property of the mapping. See {@link #page(String, Class, Session, String, int, String)}.
+     * @param cqlExpression The CQL expression
+     * @param mapping The database mapping that holds the table.
+     * @param tableRef The mapped table.
+     * @param session The Hibernate session used to execute the query.
+     * @param pageSize The maximum number of objects in the page.
+     * @param continuationToken The continuation token of the previous page, or null for the first page.
+     * @return The page.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the table is not mapped.
+     */
+    public static CqlPage<?> page(String cqlExpression, DatabaseMapping mapping, TableRef tableRef, Session session, int pageSize, String continuationToken) throws ParseException {
+        Class<?> forClass = mapping.getGeneratedClass(tableRef);
+        if (forClass == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " is not mapped.");
+        }
+        return page(cqlExpression, forClass, session, mapping.getIdProperty(tableRef), pageSize, continuationToken);
+    }
+
+    private static Object getKeyValue(Session session, Class<?> forClass, String keyProperty, Object object) {
+        ClassMetadata metadata = getClassMetadata(session, forClass);
+        if (keyProperty.equals(metadata.getIdentifierPropertyName())) {
+            return metadata.getIdentifier(object, EntityMode.POJO);
+        }
+        return metadata.getPropertyValue(object, keyProperty, EntityMode.POJO);
+    }
+
+    private static ClassMetadata getClassMetadata(Session session, Class<?> forClass) {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(forClass);
+        if (metadata == null) {
+            throw new IllegalArgumentException("Class " + forClass.getName() + " is not mapped.");
+        }
+        return metadata;
+    }
+
+    /**
+     * Constructs a Hibernate <tt>DetachedCriteria</tt> for the given class that combines a CQL expression with one or
+     * more spatial filters. The spatial filters must name the geometry property to which they apply.
+     * @param cqlExpression The CQL expression, or null if only the spatial filters apply.
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param spatialFilters The spatial filters, combined with the CQL expression by a logical AND.
+     * @return A DetachedCriteria that corresponds to the given CQL expression and spatial filters.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalStateException When a spatial filter has no geometry property.
+     */
+    public static DetachedCriteria toCriteria(String cqlExpression, Class forClass, SpatialFilter... spatialFilters) throws ParseException {
+        return addSpatialFilters(cqlExpression, forClass, null, spatialFilters);
+    }
+
+    /**
+     * Constructs a Hibernate <tt>DetachedCriteria</tt> for a table mapped by the <tt>AutoMapper</tt> that combines a
+     * CQL expression with one or more spatial filters. Spatial filters that do not name a geometry property apply to
+     * the primary geometry property of the mapped class.
+     * @param cqlExpression The CQL expression, or null if only the spatial filters apply.
+     * @param mapping The database mapping that holds the table.
+     * @param tableRef The mapped table.
+     * @param spatialFilters The spatial filters, combined with the CQL expression by a logical AND.
+     * @return A DetachedCriteria that corresponds to the given CQL expression and spatial filters.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the table is not mapped.
+     * @throws IllegalStateException When a spatial filter has no geometry property, and the table has no primary geometry.
+     */
+    public static DetachedCriteria toCriteria(String cqlExpression, DatabaseMapping mapping, TableRef tableRef, SpatialFilter... spatialFilters) throws ParseException {
+        Class<?> forClass = mapping.getGeneratedClass(tableRef);
+        if (forClass == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " is not mapped.");
+        }
+        return addSpatialFilters(cqlExpression, forClass, mapping.getGeometryProperty(tableRef), spatialFilters);
+    }
+
+    private static DetachedCriteria addSpatialFilters(String cqlExpression, Class forClass, String geometryProperty, SpatialFilter[] spatialFilters) throws ParseException {
+        DetachedCriteria criteria = cqlExpression == null ? DetachedCriteria.forClass(forClass) : toCriteria(cqlExpression, forClass);
+        for (SpatialFilter spatialFilter : spatialFilters) {
+            criteria.add(spatialFilter.toCriterion(geometryProperty));
+        }
+        return criteria;
+    }
+
+    /**
+     * Parses and translates a CQL expression with parameter placeholders, e.g. <tt>height > ?1 AND name LIKE ?2</tt>.
+     * The returned <tt>PreparedCql</tt> creates criteria for specific parameter values, without parsing or
+     * translating the expression again.
+     * @param cqlTemplate The CQL expression, with placeholders <tt>?1</tt>, <tt>?2</tt>, ...
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return A PreparedCql for the given CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public static PreparedCql prepare(String cqlTemplate, Class forClass) throws ParseException {
+        return new PreparedCql(cqlTemplate, CompiledCql.compileTemplate(cqlTemplate, forClass));
+    }
+
+    /**
+     * Returns the cache that holds the translated CQL expressions, e.g. to inspect its hit and miss counts.
+     *
+     * @return the shared criteria cache
+     */
+    public static CqlCriteriaCache getCriteriaCache() {
+        return criteriaCache;
+    }
+
+    /**
+     * Replaces the cache that holds the translated CQL expressions, e.g. by one that translates with other
+     * {@link CqlTranslationOptions}:
+     * <pre>
+     * CqlHibernate.setCriteriaCache(new CqlCriteriaCache(CqlCriteriaCache.DEFAULT_MAXIMUM_SIZE,
+     *         new CqlTranslationOptions.Builder().prefixRanges(true).result()));
+     * </pre>
+     * <p>The cache is shared by all callers of this class, so it is typically set once, when the application
+     * starts. Calls that are in progress finish with the previous cache.</p>
+     *
+     * @param cache the new shared criteria cache
+     * @throws IllegalArgumentException if cache is null.
+     */
+    public static void setCriteriaCache(CqlCriteriaCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Criteria cache cannot be null.");
         }
+        criteriaCache = cache;
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A CQL expression translated to HQL with named parameters, as an alternative to the criteria of
+ * {@link CqlHibernate}. Criteria are rendered to SQL on every execution; an HQL string is compiled once by Hibernate
+ * and then found in its query plan cache. Since the HQL contains no literals and uses deterministic aliases (see
+ * {@link HqlBuilder}), structurally identical filters (e.g. <code>name = 'a' AND age > 3</code> and
+ * <code>name = 'b' AND age > 40</code>) share one HQL string, and thus one query plan and one JDBC prepared
+ * statement. Filters with equality lists share them only if the lists are padded to the same length; Hibernate
+ * expands a list parameter before it looks up the plan (see {@link HqlBuilder}).
+ * </p>
+ * <p>
+ * Instances are immutable and can be executed repeatedly, in any session of the factory for which they were compiled.
+ * </p>
+ */
+public final class CqlHqlQuery {
+
+    final private String cqlExpression;
+    final private String hql;
+    final private String countHql;
+    final private Map<String, Object> parameters;
+
+    private CqlHqlQuery(String cqlExpression, String hql, String countHql, Map<String, Object> parameters) {
+        this.cqlExpression = cqlExpression;
+        this.hql = hql;
+        this.countHql = countHql;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(parameters));
+    }
+
+    /**
+     * Translates a CQL expression to an HQL query on the given (mapped) class.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param sessionFactory the session factory in which the query is executed.
+     * @return the translated query
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the expression uses a predicate that is not supported.
+     */
+    public static CqlHqlQuery compile(String cqlExpression, Class<?> forClass, SessionFactory sessionFactory) throws ParseException {
+        if (cqlExpression == null || forClass == null || sessionFactory == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        CqlTerm term = CqlOptimizer.optimize(CompiledCql.parse(cqlExpression), forClass);
+        HqlBuilder builder = new HqlBuilder(forClass, (SessionFactoryImplementor) sessionFactory);
+        String condition = term instanceof CqlTerm.Constant && ((CqlTerm.Constant) term).getValue()
+                ? null : builder.condition(term);
+
+        StringBuilder from = new StringBuilder(" from ").append(forClass.getName()).append(' ').append(HqlBuilder.ROOT_ALIAS);
+        for (String join : builder.getJoins()) {
+            from.append(' ').append(join);
+        }
+        if (condition != null) {
+            from.append(" where ").append(condition);
+        }
+        String select = "select " + HqlBuilder.ROOT_ALIAS;
+        String count = "select count(" + HqlBuilder.ROOT_ALIAS + ")";
+        return new CqlHqlQuery(cqlExpression, select + from, count + from, builder.getParameters());
+    }
+
+    /**
+     * Returns the HQL of this query. It depends only on the structure of the CQL expression.
+     *
+     * @return the HQL query
+     */
+    public String getHql() {
+        return hql;
+    }
+
+    /**
+     * Returns the values of the named parameters of the HQL, in order. The value of a list parameter is a
+     * <code>Collection</code>.
+     *
+     * @return the parameter values, by parameter name
+     */
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Creates the Hibernate query that selects the objects that satisfy the CQL expression, with its parameters
+     * bound. The caller is free to modify the query, e.g. to set the first and maximum results.
+     *
+     * @param session the session that executes the query
+     * @return the query
+     */
+    public Query createQuery(Session session) {
+        return bind(session.createQuery(hql));
+    }
+
+    /**
+     * Returns the objects that satisfy the CQL expression.
+     *
+     * @param session the session that executes the query
+     * @return the list of objects that satisfy the CQL expression.
+     */
+    public List list(Session session) {
+        return createQuery(session).list();
+    }
+
+    /**
+     * Returns the number of objects that satisfy the CQL expression. The objects are counted by the database.
+     *
+     * @param session the session that executes the query
+     * @return the number of objects that satisfy the CQL expression.
+     */
+    public long count(Session session) {
+        return ((Number) bind(session.createQuery(countHql)).uniqueResult()).longValue();
+    }
+
+    private Query bind(Query query) {
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            if (parameter.getValue() instanceof Collection) {
+                query.setParameterList(parameter.getKey(), (Collection) parameter.getValue());
+            } else {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return cqlExpression + " -> " + hql;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * The registry of the {@link CqlQueryListener}s that are notified of the CQL queries executed through
+ * {@link CqlHibernate}.
+ * </p>
+ * <p>
+ * As long as no listener is registered, queries are not timed and no events are created. The default listener,
+ * {@link CqlQueryStatistics}, aggregates the events per query fingerprint:
+ * </p>
+ * <pre>
+ *     CqlQueryStatistics statistics = new CqlQueryStatistics(500);
+ *     CqlInstrumentation.addListener(statistics);
+ *     statistics.registerMBean();
+ * </pre>
+ * <p>This class is thread-safe.</p>
+ */
+public final class CqlInstrumentation {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlInstrumentation.class);
+
+    // Order matters: dates contain numbers, and quoted strings may contain anything.
+    private static final Pattern DATE_LITERAL =
+            Pattern.compile("\\b\\d{4}-\\d{2}-\\d{2}(T\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?(Z|[+-]\\d{2}(:?\\d{2})?)?)?\\b");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'([^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?(?![\\w.])");
+    private static final Pattern LITERAL_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final List<CqlQueryListener> listeners = new CopyOnWriteArrayList<CqlQueryListener>();
+
+    private CqlInstrumentation() {
+    }
+
+    /**
+     * Registers a listener. A listener that is registered more than once receives each event more than once.
+     *
+     * @param listener the listener
+     * @throws IllegalArgumentException if the listener is null.
+     */
+    public static void addListener(CqlQueryListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener
+     * @return true if the listener was registered
+     */
+    public static boolean removeListener(CqlQueryListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Checks whether any listener is registered.
+     *
+     * @return true if queries are instrumented
+     */
+    public static boolean isEnabled() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Returns the fingerprint of a CQL expression: the name of the class followed by the expression, in which dates,
+     * strings and numbers are replaced by <code>?</code>, lists of literals by a single <code>?</code>, and
+     * whitespace is collapsed. E.g. <code>height &gt; 5 AND name IN ('a', 'b')</code> becomes
+     * <code>height &gt; ? AND name IN (?)</code>.
+     *
+     * @param cqlExpression the CQL expression
+     * @param forClass the class of the objects on which the CQL expression is applied.
+     * @return the fingerprint
+     */
+    public static String fingerprint(String cqlExpression, Class<?> forClass) {
+        String normalized = DATE_LITERAL.matcher(cqlExpression).replaceAll("?");
+        normalized = STRING_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = LITERAL_LIST.matcher(normalized).replaceAll("?");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return forClass.getName() + ": " + normalized;
+    }
+
+    /**
+     * Starts timing the execution of a query.
+     *
+     * @return the execution, which must be ended with <code>succeeded()</code> or <code>failed()</code>.
+     */
+    static Execution start(CqlQueryEvent.Operation operation, String cqlExpression, Class<?> forClass, CompiledCql compiled) {
+        if (listeners.isEmpty()) {
+            return Execution.DISABLED;
+        }
+        return new Execution(operation, cqlExpression, forClass, compiled);
+    }
+
+    /**
+     * Notifies the listeners that an expression has been translated to criteria without being executed. Only the
+     * translation of an expression that was not yet in the cache is reported.
+     */
+    static void translated(String cqlExpression, Class<?> forClass, CompiledCql compiled) {
+        if (!listeners.isEmpty() && compiled.claimCompilation()) {
+            fire(new CqlQueryEvent(cqlExpression, forClass, CqlQueryEvent.Operation.TRANSLATE, compiled, false,
+                    0, -1, null, null));
+        }
+    }
+
+    private static void fire(CqlQueryEvent event) {
+        for (CqlQueryListener listener : listeners) {
+            try {
+                listener.queryExecuted(event);
+            } catch (RuntimeException e) {
+                LOGGER.warn("CQL query listener " + listener + " failed.", e);
+            }
+        }
+    }
+
+    /**
+     * The execution of a single query.
+     */
+    static final class Execution {
+
+        static final Execution DISABLED = new Execution(null, null, null, null);
+
+        final private CqlQueryEvent.Operation operation;
+        final private String cqlExpression;
+        final private Class<?> forClass;
+        final private CompiledCql compiled;
+        final private boolean cacheHit;
+        final private long start;
+
+        private Execution(CqlQueryEvent.Operation operation, String cqlExpression, Class<?> forClass, CompiledCql compiled) {
+            this.operation = operation;
+            this.cqlExpression = cqlExpression;
+            this.forClass = forClass;
+            this.compiled = compiled;
+            this.cacheHit = compiled == null || !compiled.claimCompilation();
+            this.start = compiled == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Ends the execution.
+         *
+         * @param criteria the executed criteria, or null if the query was not sent to the database.
+         * @param rowCount the number of rows that the query returned
+         */
+        void succeeded(Criteria criteria, long rowCount) {
+            end(criteria, rowCount, null);
+        }
+
+        /**
+         * Ends the execution of a query that threw an exception.
+         *
+         * @param criteria the executed criteria
+         * @param failure the exception
+         */
+        void failed(Criteria criteria, RuntimeException failure) {
+            end(criteria, -1, failure);
+        }
+
+        private void end(Criteria criteria, long rowCount, RuntimeException failure) {
+            if (this == DISABLED) {
+                return;
+            }
+            long executionNanos = criteria == null ? 0 : System.nanoTime() - start;
+            fire(new CqlQueryEvent(cqlExpression, forClass, operation, compiled, cacheHit, executionNanos, rowCount,
+                    failure, criteria));
+        }
+    }
+}
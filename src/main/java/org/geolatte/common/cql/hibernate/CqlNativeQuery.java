@@ -0,0 +1,239 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.TableRef;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.mapping.Table;
+import org.hibernate.type.Type;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A CQL expression translated to a parameterized native SQL query on a table that is mapped by the
+ * <code>AutoMapper</code>. The query bypasses the Criteria API: no criteria are built or rendered, and the rows are
+ * read straight from the JDBC <code>ResultSet</code>, either as tuples or as instances of the generated class. These
+ * instances are not associated with the session.
+ * </p>
+ * <p>
+ * The query selects all mapped properties (see {@link DatabaseMapping#getProperties(TableRef)}), in order. The columns
+ * and Hibernate types of the properties are taken from the {@link DatabaseMapping}; spatial filters are rendered with
+ * the spatial functions of the dialect of the session factory. As with {@link CqlHibernate#list(String, Class,
+ * org.hibernate.Session)}, the database is not queried if it can be decided from the mapping alone that no row
+ * satisfies the expression.
+ * </p>
+ * <p>
+ * Instances are immutable and can be executed repeatedly, in any session of the factory for which they were compiled.
+ * </p>
+ */
+public final class CqlNativeQuery {
+
+    final private String cqlExpression;
+    final private Class<?> mappedClass;
+    final private String sql;
+    final private List<String> properties;
+    final private Type[] propertyTypes;
+    final private List<Object> parameters;
+    final private Type[] parameterTypes;
+    final private boolean matchesNothing;
+
+    private CqlNativeQuery(String cqlExpression, Class<?> mappedClass, String sql, List<String> properties,
+                           Type[] propertyTypes, List<Object> parameters, Type[] parameterTypes, boolean matchesNothing) {
+        this.cqlExpression = cqlExpression;
+        this.mappedClass = mappedClass;
+        this.sql = sql;
+        this.properties = Collections.unmodifiableList(properties);
+        this.propertyTypes = propertyTypes;
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.parameterTypes = parameterTypes;
+        this.matchesNothing = matchesNothing;
+    }
+
+    /**
+     * Translates a CQL expression to a native SQL query on an auto-mapped table.
+     *
+     * @param cqlExpression The CQL expression
+     * @param mapping the mapping that holds the table
+     * @param tableRef the table to query
+     * @param sessionFactory the session factory in which the query is executed; determines the SQL dialect.
+     * @param spatialFilters spatial filters that are combined (with AND) with the CQL expression.
+     * @return the translated query
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the table is not mapped, or the expression uses a property that the
+     *                                  table does not have or a predicate that is not supported.
+     */
+    public static CqlNativeQuery compile(String cqlExpression, DatabaseMapping mapping, TableRef tableRef,
+                                         SessionFactory sessionFactory, SpatialFilter... spatialFilters) throws ParseException {
+        if (cqlExpression == null || mapping == null || tableRef == null || sessionFactory == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        NativeSqlBuilder builder = new NativeSqlBuilder(mapping, tableRef, factory);
+        Class<?> mappedClass = mapping.getGeneratedClass(tableRef);
+        CqlTerm term = CqlOptimizer.optimize(CompiledCql.parse(cqlExpression), mappedClass);
+
+        List<String> properties = mapping.getProperties(tableRef);
+        Type[] propertyTypes = new Type[properties.size()];
+        StringBuilder sql = new StringBuilder("select ");
+        for (int i = 0; i < properties.size(); i++) {
+            propertyTypes[i] = builder.type(properties.get(i));
+            sql.append(i == 0 ? "" : ", ").append(builder.column(properties.get(i))).append(" as ").append(alias(i));
+        }
+        Settings settings = factory.getSettings();
+        sql.append(" from ").append(Table.qualify(
+                tableRef.getCatalog() != null ? tableRef.getCatalog() : settings.getDefaultCatalogName(),
+                tableRef.getSchema() != null ? tableRef.getSchema() : settings.getDefaultSchemaName(),
+                tableRef.getTableName()));
+        sql.append(" where ").append(builder.condition(term));
+        for (SpatialFilter filter : spatialFilters) {
+            sql.append(" and ").append(builder.condition(filter));
+        }
+        boolean matchesNothing = term instanceof CqlTerm.Constant && !((CqlTerm.Constant) term).getValue();
+        return new CqlNativeQuery(cqlExpression, mappedClass, sql.toString(), properties, propertyTypes,
+                builder.getParameters(), builder.getParameterTypes().toArray(new Type[0]), matchesNothing);
+    }
+
+    /**
+     * Returns the SQL of this query, with a <code>?</code> for each parameter.
+     *
+     * @return the SQL statement
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the values that are bound to the parameters of the SQL statement, in order.
+     *
+     * @return the parameter values
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the properties that this query selects, in the order of the elements of the tuples.
+     *
+     * @return the selected properties
+     */
+    public List<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Executes this query and returns the selected rows as tuples, with an element per property (see
+     * {@link #getProperties()}).
+     *
+     * @param session the session whose connection is used
+     * @return the rows that satisfy the query
+     * @throws org.hibernate.JDBCException if the query fails
+     */
+    public List<Object[]> listTuples(Session session) {
+        final List<Object[]> result = new ArrayList<Object[]>();
+        if (matchesNothing) {
+            return result;
+        }
+        final SessionImplementor implementor = (SessionImplementor) session;
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    for (int i = 0; i < parameterTypes.length; i++) {
+                        parameterTypes[i].nullSafeSet(statement, parameters.get(i), i + 1, implementor);
+                    }
+                    ResultSet resultSet = statement.executeQuery();
+                    try {
+                        while (resultSet.next()) {
+                            Object[] row = new Object[propertyTypes.length];
+                            for (int i = 0; i < row.length; i++) {
+                                row[i] = propertyTypes[i].nullSafeGet(resultSet, alias(i), implementor, null);
+                            }
+                            result.add(row);
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Executes this query and returns the selected rows as instances of the class that the <code>AutoMapper</code>
+     * generated for the table. The instances are not associated with the session.
+     *
+     * @param session the session whose connection is used
+     * @return the objects that satisfy the query
+     * @throws org.hibernate.JDBCException if the query fails
+     * @throws IllegalStateException if the generated class cannot be instantiated
+     */
+    public List<Object> list(Session session) {
+        List<Object[]> tuples = listTuples(session);
+        List<Object> result = new ArrayList<Object>(tuples.size());
+        EntityMetaModel metaModel = EntityMetaModel.forClass(mappedClass);
+        EntityMetaModel.Property[] setters = new EntityMetaModel.Property[properties.size()];
+        for (int i = 0; i < setters.length; i++) {
+            setters[i] = metaModel.getProperty(properties.get(i));
+        }
+        for (Object[] tuple : tuples) {
+            Object instance;
+            try {
+                instance = mappedClass.newInstance();
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Cannot instantiate " + mappedClass.getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot instantiate " + mappedClass.getName(), e);
+            }
+            for (int i = 0; i < setters.length; i++) {
+                setters[i].write(instance, tuple[i]);
+            }
+            result.add(instance);
+        }
+        return result;
+    }
+
+    private static String alias(int index) {
+        return "c" + index;
+    }
+
+    @Override
+    public String toString() {
+        return cqlExpression + " -> " + sql;
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Rewrites a CQL AST into an equivalent, but simpler, {@link CqlTerm} before it is translated to Hibernate criteria.
+ * </p>
+ * <p>
+ * The following rewrites are applied:
+ * <ul>
+ * <li>Negations are pushed down to the predicates (De Morgan), and negated predicates are replaced by their
+ * complement, e.g. <code>NOT (a = 5)</code> becomes <code>a <> 5</code>. Double negations disappear.</li>
+ * <li>Nested AND and OR chains are flattened into a single junction.</li>
+ * <li>Duplicate operands of a junction are removed.</li>
+ * <li>A conjunction that contains a predicate and its complement is always false. A disjunction of a comparison
+ * and its complement is only true if the property is not null, and is replaced by an IS NOT NULL test.</li>
+ * <li>EXISTS and DOES-NOT-EXIST predicates on properties that the entity class does not have (see
+ * {@link EntityMetaModel}) are replaced by a constant.</li>
+ * <li>Constants are folded: <code>x AND FALSE</code> is false, <code>x OR TRUE</code> is true, ...</li>
+ * <li>Equality tests on the same property within a disjunction are merged into an IN list, e.g.
+ * <code>id = 1 OR id = 2 OR id = 3</code> becomes <code>id IN (1, 2, 3)</code>.</li>
+ * <li>Bounds on the same property within a conjunction are merged into a range. If the entity class tells that the
+ * property is a number, redundant bounds are dropped, e.g. <code>a > 5 AND a > 7 AND a <= 10</code> becomes the
+ * range <code>(7, 10]</code>, and an empty range makes the conjunction false.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * A predicate on a property path through a collection (e.g. <code>parcels.height > 5</code>) holds if some element
+ * of the collection satisfies it; every such predicate is translated to an EXISTS subquery of its own. So
+ * <code>parcels.height > 5 AND parcels.height < 10</code> need not hold for the same parcel, and
+ * <code>NOT (parcels.height > 5)</code> means that no parcel is higher than 5, rather than that some parcel is not.
+ * Accordingly, such predicates are negated explicitly instead of being replaced by their complement, their bounds are
+ * not merged into a range, and a disjunction of such a predicate and its negation is always true. Equalities on a
+ * collection path are still merged into an IN list, which tests whether some element has one of the values.
+ * </p>
+ * <p>
+ * All rewrites preserve the SQL semantics of the expression for <code>NULL</code> values.
+ * </p>
+ */
+final class CqlOptimizer {
+
+    // The model used to decide existence predicates, or null if these are not decided.
+    final private EntityMetaModel model;
+    final private PathReader pathReader = new PathReader();
+
+    private CqlOptimizer(EntityMetaModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Optimizes the expression of the given AST, without deciding existence predicates.
+     *
+     * @param tree the root of the AST, as returned by the CQL parser.
+     * @return the optimized logical form of the expression
+     */
+    static CqlTerm optimize(Start tree) {
+        return optimize(tree, null);
+    }
+
+    /**
+     * Optimizes the expression of the given AST for the given entity class.
+     *
+     * @param tree the root of the AST, as returned by the CQL parser.
+     * @param forClass the class on which the expression is applied, or null if existence predicates should not be
+     *                 decided during optimization.
+     * @return the optimized logical form of the expression
+     */
+    static CqlTerm optimize(Start tree, Class<?> forClass) {
+        CqlOptimizer optimizer = new CqlOptimizer(forClass == null ? null : EntityMetaModel.forClass(forClass));
+        return optimizer.simplify(optimizer.normalize(tree.getPExpr(), false));
+    }
+
+    /**
+     * Converts the AST to a term in which negations only occur in predicates.
+     */
+    private CqlTerm normalize(PExpr expr, boolean negated) {
+        if (expr instanceof ANotExpr) {
+            return normalize(((ANotExpr) expr).getExpr(), !negated);
+        }
+        if (expr instanceof AAndExpr || expr instanceof AOrExpr) {
+            // Walk chains of the same operator iteratively: long OR chains would otherwise overflow the stack.
+            boolean conjunction = (expr instanceof AAndExpr) != negated;
+            List<CqlTerm> operands = new ArrayList<CqlTerm>();
+            LinkedList<PExpr> pending = new LinkedList<PExpr>();
+            pending.push(expr);
+            while (!pending.isEmpty()) {
+                PExpr current = pending.pop();
+                if (current instanceof AAndExpr && expr instanceof AAndExpr) {
+                    pending.push(((AAndExpr) current).getRight());
+                    pending.push(((AAndExpr) current).getLeft());
+                } else if (current instanceof AOrExpr && expr instanceof AOrExpr) {
+                    pending.push(((AOrExpr) current).getRight());
+                    pending.push(((AOrExpr) current).getLeft());
+                } else {
+                    addFlattened(conjunction, normalize(current, negated), operands);
+                }
+            }
+            return new CqlTerm.Junction(conjunction, operands);
+        }
+        return decideExistence(negated ? negation(expr) : new CqlTerm.Leaf(expr));
+    }
+
+    /**
+     * Returns the predicate that is true if and only if the given predicate is false: its complement, or an explicit
+     * negation for a predicate on a collection path.
+     */
+    private CqlTerm.Leaf negation(PExpr expr) {
+        if (isOnCollection(expr) && !(expr instanceof ANotExpr
+                || expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr)) {
+            return new CqlTerm.Leaf(new ANotExpr(copy(expr)));
+        }
+        return complement(expr);
+    }
+
+    /**
+     * Checks whether the entity model tells that the property of a predicate is reached through a collection.
+     */
+    private boolean isOnCollection(PExpr expr) {
+        if (model == null) {
+            return false;
+        }
+        PAttr attr = attributeOf(expr);
+        return attr != null && model.crossesCollection(pathReader.pathOf(attr));
+    }
+
+    /**
+     * Replaces an existence predicate by a constant if the entity model tells that the property does not exist.
+     * <p>A property that the class does not have cannot be mapped either. A property that the class does have need
+     * not be mapped, so its existence is left to the criterion, which decides it from the Hibernate mapping.</p>
+     */
+    private CqlTerm decideExistence(CqlTerm.Leaf leaf) {
+        PExpr expr = leaf.getExpr();
+        if (model == null || !(expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr)) {
+            return leaf;
+        }
+        if (model.exists(pathReader.pathOf(attributeOf(expr))) != EntityMetaModel.Existence.ABSENT) {
+            return leaf;
+        }
+        return expr instanceof AExistsExpr ? CqlTerm.FALSE : CqlTerm.TRUE;
+    }
+
+    private static CqlTerm junction(boolean conjunction, CqlTerm left, CqlTerm right) {
+        List<CqlTerm> operands = new ArrayList<CqlTerm>();
+        addFlattened(conjunction, left, operands);
+        addFlattened(conjunction, right, operands);
+        return new CqlTerm.Junction(conjunction, operands);
+    }
+
+    private static void addFlattened(boolean conjunction, CqlTerm term, List<CqlTerm> operands) {
+        if (term instanceof CqlTerm.Junction && ((CqlTerm.Junction) term).isConjunction() == conjunction) {
+            operands.addAll(((CqlTerm.Junction) term).getOperands());
+        } else {
+            operands.add(term);
+        }
+    }
+
+    private CqlTerm simplify(CqlTerm term) {
+        if (!(term instanceof CqlTerm.Junction)) {
+            return term;
+        }
+        CqlTerm.Junction junction = (CqlTerm.Junction) term;
+        List<CqlTerm> operands = new ArrayList<CqlTerm>();
+        for (CqlTerm operand : junction.getOperands()) {
+            addFlattened(junction.isConjunction(), simplify(operand), operands);
+        }
+        return simplifyJunction(junction.isConjunction(), operands);
+    }
+
+    private CqlTerm simplifyJunction(boolean conjunction, List<CqlTerm> operands) {
+
+        // fold constants and remove duplicates
+        Map<String, CqlTerm> distinct = new LinkedHashMap<String, CqlTerm>();
+        for (CqlTerm operand : operands) {
+            if (operand instanceof CqlTerm.Constant) {
+                if (((CqlTerm.Constant) operand).getValue() != conjunction) {
+                    // FALSE in a conjunction, TRUE in a disjunction
+                    return operand;
+                }
+                continue;
+            }
+            if (!distinct.containsKey(operand.getKey())) {
+                distinct.put(operand.getKey(), operand);
+            }
+        }
+
+        // look for complementary predicates
+        for (CqlTerm operand : distinct.values()) {
+            if (!(operand instanceof CqlTerm.Leaf)) {
+                continue;
+            }
+            CqlTerm.Leaf complement = negation(((CqlTerm.Leaf) operand).getExpr());
+            if (distinct.containsKey(complement.getKey())) {
+                if (conjunction) {
+                    return CqlTerm.FALSE;
+                }
+                List<CqlTerm> remaining = new ArrayList<CqlTerm>(distinct.values());
+                remaining.remove(operand);
+                remaining.remove(distinct.get(complement.getKey()));
+                remaining.add(tautology(((CqlTerm.Leaf) operand).getExpr()));
+                return simplifyJunction(false, remaining);
+            }
+        }
+
+        List<CqlTerm> result = new ArrayList<CqlTerm>(distinct.values());
+        if (conjunction) {
+            result = mergeRanges(result);
+            if (result == null) {
+                return CqlTerm.FALSE;
+            }
+        } else {
+            result = mergeEqualities(result);
+        }
+        if (result.isEmpty()) {
+            return conjunction ? CqlTerm.TRUE : CqlTerm.FALSE;
+        }
+        if (result.size() == 1) {
+            return result.get(0);
+        }
+        return new CqlTerm.Junction(conjunction, result);
+    }
+
+    /**
+     * Returns the term that replaces <code>x OR NOT x</code>.
+     */
+    private CqlTerm tautology(PExpr expr) {
+        if (expr instanceof AIsNullExpr || expr instanceof AIsNotNullExpr ||
+                expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr || isOnCollection(expr)) {
+            return CqlTerm.TRUE;
+        }
+        PAttr attr = attributeOf(expr);
+        if (attr == null) {
+            // cannot happen for the predicates of the CQL grammar, but don't fold what we don't understand.
+            return junction(false, new CqlTerm.Leaf(expr), complement(expr));
+        }
+        return new CqlTerm.Leaf(new AIsNotNullExpr(copy(attr)));
+    }
+
+    /**
+     * Replaces lower and upper bounds on the same property by a single range.
+     *
+     * @return the merged operands, or null if the bounds of a range on a numeric property exclude each other.
+     */
+    private List<CqlTerm> mergeRanges(List<CqlTerm> operands) {
+        Map<String, List<CqlTerm.Leaf>> lowerBounds = new LinkedHashMap<String, List<CqlTerm.Leaf>>();
+        Map<String, List<CqlTerm.Leaf>> upperBounds = new LinkedHashMap<String, List<CqlTerm.Leaf>>();
+        for (CqlTerm operand : operands) {
+            if (!(operand instanceof CqlTerm.Leaf)) continue;
+            CqlTerm.Leaf leaf = (CqlTerm.Leaf) operand;
+            PExpr expr = leaf.getExpr();
+            if (isOnCollection(expr)) {
+                // the bounds need not hold for the same element
+                continue;
+            }
+            if (expr instanceof AGtExpr || expr instanceof AGteExpr) {
+                addToGroup(lowerBounds, attributeKey(expr), leaf);
+            } else if (expr instanceof ALtExpr || expr instanceof ALteExpr) {
+                addToGroup(upperBounds, attributeKey(expr), leaf);
+            }
+        }
+
+        // for each property with merged bounds, the term that replaces all its bounds
+        Map<String, CqlTerm> replacements = new LinkedHashMap<String, CqlTerm>();
+        for (String attribute : union(lowerBounds, upperBounds)) {
+            List<CqlTerm.Leaf> lowers = lowerBounds.get(attribute);
+            List<CqlTerm.Leaf> uppers = upperBounds.get(attribute);
+            CqlTerm.Leaf lower = lowers == null ? null : tightest(lowers, true);
+            CqlTerm.Leaf upper = uppers == null ? null : tightest(uppers, false);
+            if ((lowers != null && lower == null) || (uppers != null && upper == null)) {
+                // bounds that cannot be compared, leave them as they are
+                continue;
+            }
+            if (lower != null && upper != null) {
+                BigDecimal lowerValue = isNumeric(lower.getExpr()) ? numericLiteral(lower.getExpr()) : null;
+                BigDecimal upperValue = numericLiteral(upper.getExpr());
+                if (lowerValue != null && upperValue != null) {
+                    int cmp = lowerValue.compareTo(upperValue);
+                    boolean inclusive = lower.getExpr() instanceof AGteExpr && upper.getExpr() instanceof ALteExpr;
+                    if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                        return null;
+                    }
+                }
+                replacements.put(attribute, new CqlTerm.Range(lower, upper));
+            } else if (lowers != null && lowers.size() > 1) {
+                replacements.put(attribute, lower);
+            } else if (uppers != null && uppers.size() > 1) {
+                replacements.put(attribute, upper);
+            }
+        }
+        if (replacements.isEmpty()) {
+            return operands;
+        }
+
+        List<CqlTerm> result = new ArrayList<CqlTerm>();
+        for (CqlTerm operand : operands) {
+            String attribute = null;
+            if (operand instanceof CqlTerm.Leaf) {
+                PExpr expr = ((CqlTerm.Leaf) operand).getExpr();
+                if (expr instanceof AGtExpr || expr instanceof AGteExpr || expr instanceof ALtExpr || expr instanceof ALteExpr) {
+                    attribute = attributeKey(expr);
+                }
+            }
+            if (attribute == null || !replacements.containsKey(attribute)) {
+                result.add(operand);
+            } else if (replacements.get(attribute) != null) {
+                // the replacement takes the place of the first bound; the other bounds are dropped
+                result.add(replacements.put(attribute, null));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces equality tests on the same property within a disjunction by a single IN list.
+     */
+    private static List<CqlTerm> mergeEqualities(List<CqlTerm> operands) {
+        Map<String, List<CqlTerm.Leaf>> equalities = new LinkedHashMap<String, List<CqlTerm.Leaf>>();
+        for (CqlTerm operand : operands) {
+            if (operand instanceof CqlTerm.Leaf && ((CqlTerm.Leaf) operand).getExpr() instanceof AEqExpr) {
+                addToGroup(equalities, attributeKey(((CqlTerm.Leaf) operand).getExpr()), (CqlTerm.Leaf) operand);
+            }
+        }
+        boolean merged = false;
+        for (List<CqlTerm.Leaf> group : equalities.values()) {
+            merged |= group.size() > 1;
+        }
+        if (!merged) {
+            return operands;
+        }
+
+        List<CqlTerm> result = new ArrayList<CqlTerm>();
+        for (CqlTerm operand : operands) {
+            if (operand instanceof CqlTerm.Leaf && ((CqlTerm.Leaf) operand).getExpr() instanceof AEqExpr) {
+                String attribute = attributeKey(((CqlTerm.Leaf) operand).getExpr());
+                List<CqlTerm.Leaf> group = equalities.get(attribute);
+                if (group.size() > 1) {
+                    // the IN list takes the place of the first equality; the others are dropped
+                    if (group.get(0) == operand) {
+                        result.add(new CqlTerm.InList(group));
+                    }
+                    continue;
+                }
+            }
+            result.add(operand);
+        }
+        return result;
+    }
+
+    private static void addToGroup(Map<String, List<CqlTerm.Leaf>> groups, String key, CqlTerm.Leaf leaf) {
+        List<CqlTerm.Leaf> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<CqlTerm.Leaf>();
+            groups.put(key, group);
+        }
+        group.add(leaf);
+    }
+
+    private static List<String> union(Map<String, ?> first, Map<String, ?> second) {
+        List<String> keys = new ArrayList<String>(first.keySet());
+        for (String key : second.keySet()) {
+            if (!keys.contains(key)) keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the most restrictive of the given lower (or upper) bounds, or null if they can't be compared.
+     */
+    private CqlTerm.Leaf tightest(List<CqlTerm.Leaf> bounds, boolean lower) {
+        if (bounds.size() == 1) {
+            return bounds.get(0);
+        }
+        if (!isNumeric(bounds.get(0).getExpr())) {
+            return null;
+        }
+        CqlTerm.Leaf result = null;
+        BigDecimal resultValue = null;
+        for (CqlTerm.Leaf bound : bounds) {
+            BigDecimal value = numericLiteral(bound.getExpr());
+            if (value == null) {
+                return null;
+            }
+            int cmp = resultValue == null ? 1 : value.compareTo(resultValue) * (lower ? 1 : -1);
+            boolean strict = bound.getExpr() instanceof AGtExpr || bound.getExpr() instanceof ALtExpr;
+            if (cmp > 0 || (cmp == 0 && strict)) {
+                result = bound;
+                resultValue = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the entity model tells that the property of a comparison is a number, so that its bounds can
+     * be compared by their numeric value. Other types, such as strings, may be ordered differently by the database
+     * (<code>'10' &lt; '9'</code>).
+     */
+    private boolean isNumeric(PExpr expr) {
+        if (model == null) {
+            return false;
+        }
+        EntityMetaModel.Property property = model.resolve(pathReader.pathOf(attributeOf(expr)));
+        if (property == null) {
+            return false;
+        }
+        Class<?> type = property.getType();
+        return Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != boolean.class && type != char.class);
+    }
+
+    private static String attributeKey(PExpr expr) {
+        return attributeOf(expr).toString().trim();
+    }
+
+    /**
+     * Returns the value of the literal operand of a comparison, if it is a number.
+     */
+    private static BigDecimal numericLiteral(PExpr expr) {
+        Node literal;
+        if (expr instanceof AGtExpr) literal = ((AGtExpr) expr).getRight();
+        else if (expr instanceof AGteExpr) literal = ((AGteExpr) expr).getRight();
+        else if (expr instanceof ALtExpr) literal = ((ALtExpr) expr).getRight();
+        else if (expr instanceof ALteExpr) literal = ((ALteExpr) expr).getRight();
+        else return null;
+        try {
+            return new BigDecimal(literal.toString().replaceAll("\\s", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the attribute (property) operand of a predicate.
+     *
+     * @param expr the predicate
+     * @return the attribute, or null if expr is not a predicate on an attribute.
+     */
+    static PAttr attributeOf(PExpr expr) {
+        if (expr instanceof AEqExpr) return ((AEqExpr) expr).getLeft();
+        if (expr instanceof ANeqExpr) return ((ANeqExpr) expr).getLeft();
+        if (expr instanceof AGtExpr) return ((AGtExpr) expr).getLeft();
+        if (expr instanceof AGteExpr) return ((AGteExpr) expr).getLeft();
+        if (expr instanceof ALtExpr) return ((ALtExpr) expr).getLeft();
+        if (expr instanceof ALteExpr) return ((ALteExpr) expr).getLeft();
+        if (expr instanceof ALikeExpr) return ((ALikeExpr) expr).getLeft();
+        if (expr instanceof ANotLikeExpr) return ((ANotLikeExpr) expr).getLeft();
+        if (expr instanceof AIlikeExpr) return ((AIlikeExpr) expr).getLeft();
+        if (expr instanceof ANotIlikeExpr) return ((ANotIlikeExpr) expr).getLeft();
+        if (expr instanceof AIsNullExpr) return ((AIsNullExpr) expr).getAttr();
+        if (expr instanceof AIsNotNullExpr) return ((AIsNotNullExpr) expr).getAttr();
+        if (expr instanceof AExistsExpr) return ((AExistsExpr) expr).getAttr();
+        if (expr instanceof ADoesNotExistExpr) return ((ADoesNotExistExpr) expr).getAttr();
+        if (expr instanceof ABeforeExpr) return ((ABeforeExpr) expr).getAttr();
+        if (expr instanceof AAfterExpr) return ((AAfterExpr) expr).getAttr();
+        if (expr instanceof ADuringExpr) return ((ADuringExpr) expr).getAttr();
+        if (expr instanceof ANotExpr) return attributeOf(((ANotExpr) expr).getExpr());
+        return null;
+    }
+
+    /**
+     * Returns the predicate that is true if and only if the given predicate is false (for non-null operands).
+     */
+    static CqlTerm.Leaf complement(PExpr expr) {
+        PExpr result;
+        if (expr instanceof AEqExpr) {
+            AEqExpr e = (AEqExpr) expr;
+            result = new ANeqExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ANeqExpr) {
+            ANeqExpr e = (ANeqExpr) expr;
+            result = new AEqExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof AGtExpr) {
+            AGtExpr e = (AGtExpr) expr;
+            result = new ALteExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof AGteExpr) {
+            AGteExpr e = (AGteExpr) expr;
+            result = new ALtExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ALtExpr) {
+            ALtExpr e = (ALtExpr) expr;
+            result = new AGteExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ALteExpr) {
+            ALteExpr e = (ALteExpr) expr;
+            result = new AGtExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ALikeExpr) {
+            ALikeExpr e = (ALikeExpr) expr;
+            result = new ANotLikeExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ANotLikeExpr) {
+            ANotLikeExpr e = (ANotLikeExpr) expr;
+            result = new ALikeExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof AIlikeExpr) {
+            AIlikeExpr e = (AIlikeExpr) expr;
+            result = new ANotIlikeExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof ANotIlikeExpr) {
+            ANotIlikeExpr e = (ANotIlikeExpr) expr;
+            result = new AIlikeExpr(copy(e.getLeft()), copy(e.getRight()));
+        } else if (expr instanceof AIsNullExpr) {
+            result = new AIsNotNullExpr(copy(((AIsNullExpr) expr).getAttr()));
+        } else if (expr instanceof AIsNotNullExpr) {
+            result = new AIsNullExpr(copy(((AIsNotNullExpr) expr).getAttr()));
+        } else if (expr instanceof AExistsExpr) {
+            result = new ADoesNotExistExpr(copy(((AExistsExpr) expr).getAttr()));
+        } else if (expr instanceof ADoesNotExistExpr) {
+            result = new AExistsExpr(copy(((ADoesNotExistExpr) expr).getAttr()));
+        } else if (expr instanceof ANotExpr) {
+            result = copy(((ANotExpr) expr).getExpr());
+        } else {
+            // predicates without complement (e.g. temporal ones) keep an explicit negation
+            result = new ANotExpr(copy(expr));
+        }
+        return new CqlTerm.Leaf(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Node> T copy(T node) {
+        return (T) node.clone();
+    }
+
+    /**
+     * Gives access to the property path resolution of the CQL builders.
+     */
+    private static class PathReader extends AbstractBuilder {
+
+        String pathOf(PAttr attr) {
+            return getPropertyPath(attr);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A page of the result of a CQL query, as returned by
+ * {@link CqlHibernate#page(String, Class, org.hibernate.Session, String, int, String)}.
+ * </p>
+ * <p>
+ * The continuation token of a page is passed to the next call to retrieve the next page. It is opaque, and only
+ * valid for the same CQL expression and key property.
+ * </p>
+ *
+ * @param <T> the type of the objects in the page
+ */
+public class CqlPage<T> {
+
+    final private List<T> items;
+    final private String continuationToken;
+
+    CqlPage(List<T> items, String continuationToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Returns the objects in this page, ordered by the key property.
+     *
+     * @return the (possibly empty) list of objects
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the token that retrieves the next page.
+     *
+     * @return the continuation token, or null if this is the last page.
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Checks whether there is a page after this one.
+     *
+     * @return true if there is a next page
+     */
+    public boolean hasNext() {
+        return continuationToken != null;
+    }
+}
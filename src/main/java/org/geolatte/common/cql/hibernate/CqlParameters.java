@@ -0,0 +1,111 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * <p>
+ * Helper for parameterized CQL expressions.
+ * </p>
+ * <p>
+ * The CQL grammar has no notion of bind parameters. Placeholders such as <code>?1</code> are therefore rewritten to
+ * string literals (<code>'?1'</code>) before parsing, and recognized as parameters again when the tree is translated.
+ * </p>
+ */
+final class CqlParameters {
+
+    private CqlParameters() {
+    }
+
+    /**
+     * Replaces all placeholders <code>?n</code> outside string literals by the string literal <code>'?n'</code>.
+     * String literals in the template that already have the form of a quoted placeholder would be indistinguishable
+     * from a parameter after this rewrite, and are rejected.
+     *
+     * @param cqlTemplate a CQL expression with placeholders
+     * @return a CQL expression that can be handled by the CQL parser
+     * @throws IllegalArgumentException if a placeholder has no (or a zero) index, or a string literal has the form
+     * of a placeholder.
+     */
+    static String quotePlaceholders(String cqlTemplate) {
+        StringBuilder result = new StringBuilder(cqlTemplate.length() + 16);
+        boolean inString = false;
+        int literalStart = 0;
+        int i = 0;
+        while (i < cqlTemplate.length()) {
+            char c = cqlTemplate.charAt(i);
+            if (c == '\'' && inString && i + 1 < cqlTemplate.length() && cqlTemplate.charAt(i + 1) == '\'') {
+                // a doubled quote inside a string literal is an escaped quote, and does not end the literal
+                result.append("''");
+                i += 2;
+            } else if (c == '\'') {
+                if (inString && parameterIndex(cqlTemplate.substring(literalStart, i)) > 0) {
+                    throw new IllegalArgumentException(String.format("String literal at position %d has the form of a parameter placeholder in: %s",
+                            literalStart - 1, cqlTemplate));
+                }
+                inString = !inString;
+                literalStart = i + 1;
+                result.append(c);
+                i++;
+            } else if (c == '?' && !inString) {
+                int end = i + 1;
+                while (end < cqlTemplate.length() && Character.isDigit(cqlTemplate.charAt(end))) {
+                    end++;
+                }
+                String placeholder = cqlTemplate.substring(i, end);
+                if (parameterIndex(placeholder) <= 0) {
+                    throw new IllegalArgumentException(String.format("Invalid parameter placeholder at position %d in: %s", i, cqlTemplate));
+                }
+                result.append('\'').append(placeholder).append('\'');
+                i = end;
+            } else {
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the index of a placeholder of the form <code>?n</code>, optionally enclosed in single quotes.
+     *
+     * @param literal the (translated) literal
+     * @return the parameter index, or -1 if the literal is not a placeholder
+     */
+    static int parameterIndex(String literal) {
+        String text = literal.trim();
+        if (text.length() > 1 && text.charAt(0) == '\'' && text.charAt(text.length() - 1) == '\'') {
+            text = text.substring(1, text.length() - 1);
+        }
+        if (text.length() < 2 || text.length() > 10 || text.charAt(0) != '?') {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isDigit(c)) {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index == 0 ? -1 : index;
+    }
+}
@@ -0,0 +1,712 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.TableRef;
+import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Executes a single CQL query as a number of disjoint partitions that are read concurrently, each on its own
+ * stateless session (and therefore its own pooled connection), and merges them into one stream of objects.
+ * </p>
+ * <p>
+ * A query is partitioned either by ranges of its (integral) identifier, or by a grid of tiles over the extent of a
+ * geometry property. A tile selects the objects whose geometry overlaps it, and keeps those of which the lower
+ * left corner of the bounding box lies in the tile, so that an object that overlaps several tiles is returned once.
+ * Objects without geometry, or that do not overlap the extent, are not returned by a tiled query.
+ * </p>
+ * <p>
+ * The objects are passed to the handler on the calling thread. Unless the query is ordered, they arrive in the
+ * order in which the partitions produce them. An ordered query returns the partitions one after the other, each
+ * ordered by identifier; for a query partitioned by identifier ranges, this is the order of the identifier. Every
+ * partition buffers a limited number of objects, so that a slow handler holds back the readers rather than filling
+ * the memory.
+ * </p>
+ * <p>Instances are immutable, are created by a {@link Builder}, and can be executed any number of times.</p>
+ *
+ * @param <T> the type of the objects in the result
+ */
+public final class CqlPartitionedQuery<T> {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlPartitionedQuery.class);
+
+    /**
+     * Marks the end of a partition in its queue.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * How long a reader or the merging thread waits on a queue before it checks whether the query was stopped.
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private String cqlExpression;
+    private Class<T> forClass;
+    private String idProperty;
+    private String geometryProperty;
+    private int idRanges = Runtime.getRuntime().availableProcessors();
+    private Envelope extent;
+    private int srid;
+    private int columns;
+    private int rows;
+    private boolean ordered;
+    private int fetchSize = 500;
+    private int bufferSize = 1000;
+
+    /**
+     * A builder for a <code>CqlPartitionedQuery</code>.
+     *
+     * @param <T> the type of the objects in the result
+     */
+    public static class Builder<T> {
+
+        final private CqlPartitionedQuery<T> underConstruction = new CqlPartitionedQuery<T>();
+
+        /**
+         * Constructs a builder for a query on the given class.
+         *
+         * @param cqlExpression the CQL expression
+         * @param forClass the (mapped) class of the objects on which the CQL expression is applied
+         */
+        public Builder(String cqlExpression, Class<T> forClass) {
+            if (cqlExpression == null || forClass == null) {
+                throw new IllegalArgumentException("Null arguments not allowed.");
+            }
+            underConstruction.cqlExpression = cqlExpression;
+            underConstruction.forClass = forClass;
+        }
+
+        /**
+         * Sets the property by which the query is partitioned into identifier ranges, and by which ordered
+         * partitions are ordered. It must be unique, not null and of an integral type.
+         * <p/>
+         * <p>If this is not configured, the identifier property of the mapped class is used.</p>
+         *
+         * @param idProperty the name of the identifier property
+         * @return this instance
+         */
+        public Builder<T> idProperty(String idProperty) {
+            underConstruction.idProperty = idProperty;
+            return this;
+        }
+
+        /**
+         * Sets the geometry property over which spatial tiles are laid out.
+         *
+         * @param geometryProperty the name of the geometry property
+         * @return this instance
+         */
+        public Builder<T> geometryProperty(String geometryProperty) {
+            underConstruction.geometryProperty = geometryProperty;
+            return this;
+        }
+
+        /**
+         * Partitions the query into ranges of equal width between the smallest and the largest identifier that
+         * satisfy the CQL expression.
+         * <p/>
+         * <p>If no partitioning is configured, the query is partitioned into as many identifier ranges as there are
+         * processors.</p>
+         *
+         * @param partitions the number of ranges
+         * @return this instance
+         */
+        public Builder<T> byIdRange(int partitions) {
+            if (partitions <= 0) {
+                throw new IllegalArgumentException("Number of partitions must be positive.");
+            }
+            underConstruction.idRanges = partitions;
+            underConstruction.extent = null;
+            return this;
+        }
+
+        /**
+         * Partitions the query into a grid of tiles over the given extent of the geometry property.
+         *
+         * @param extent the extent; objects that do not overlap it are not returned.
+         * @param srid the spatial reference system of the extent
+         * @param columns the number of tiles along the x-axis
+         * @param rows the number of tiles along the y-axis
+         * @return this instance
+         */
+        public Builder<T> bySpatialTiles(Envelope extent, int srid, int columns, int rows) {
+            if (extent == null || extent.isNull()) {
+                throw new IllegalArgumentException("Extent cannot be null or empty.");
+            }
+            if (columns <= 0 || rows <= 0) {
+                throw new IllegalArgumentException("Number of columns and rows must be positive.");
+            }
+            underConstruction.extent = new Envelope(extent);
+            underConstruction.srid = srid;
+            underConstruction.columns = columns;
+            underConstruction.rows = rows;
+            return this;
+        }
+
+        /**
+         * Sets whether the partitions are returned one after the other, each ordered by identifier.
+         * <p/>
+         * <p>If this is not configured, objects are returned as soon as any partition produces them.</p>
+         *
+         * @param ordered whether the result is ordered
+         * @return this instance
+         */
+        public Builder<T> ordered(boolean ordered) {
+            underConstruction.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows that the JDBC driver fetches at a time, for each partition.
+         * <p/>
+         * <p>If this is not configured, 500 rows are fetched at a time.</p>
+         *
+         * @param fetchSize the fetch size
+         * @return this instance
+         */
+        public Builder<T> fetchSize(int fetchSize) {
+            if (fetchSize <= 0) {
+                throw new IllegalArgumentException("Fetch size must be positive.");
+            }
+            underConstruction.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of objects that a partition reads ahead of the handler.
+         * <p/>
+         * <p>If this is not configured, a partition reads up to 1000 objects ahead.</p>
+         *
+         * @param bufferSize the number of buffered objects per partition
+         * @return this instance
+         */
+        public Builder<T> bufferSize(int bufferSize) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("Buffer size must be positive.");
+            }
+            underConstruction.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Returns the <code>CqlPartitionedQuery</code> that is built by this instance.
+         *
+         * @return the constructed query
+         * @throws IllegalStateException if the query is partitioned by spatial tiles, and no geometry property is set
+         */
+        public CqlPartitionedQuery<T> result() {
+            if (underConstruction.extent != null && underConstruction.geometryProperty == null) {
+                throw new IllegalStateException("Spatial tiles require a geometry property.");
+            }
+            CqlPartitionedQuery<T> result = new CqlPartitionedQuery<T>();
+            result.cqlExpression = underConstruction.cqlExpression;
+            result.forClass = underConstruction.forClass;
+            result.idProperty = underConstruction.idProperty;
+            result.geometryProperty = underConstruction.geometryProperty;
+            result.idRanges = underConstruction.idRanges;
+            result.extent = underConstruction.extent;
+            result.srid = underConstruction.srid;
+            result.columns = underConstruction.columns;
+            result.rows = underConstruction.rows;
+            result.ordered = underConstruction.ordered;
+            result.fetchSize = underConstruction.fetchSize;
+            result.bufferSize = underConstruction.bufferSize;
+            return result;
+        }
+    }
+
+    /**
+     * Returns a builder for a query on a table mapped by the <code>AutoMapper</code>, of which the identifier and
+     * geometry property are those of the mapping.
+     *
+     * @param cqlExpression the CQL expression
+     * @param mapping the database mapping that holds the table
+     * @param tableRef the mapped table
+     * @return a builder for the query
+     * @throws IllegalArgumentException if the table is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public static Builder<Object> forTable(String cqlExpression, DatabaseMapping mapping, TableRef tableRef) {
+        Class<Object> forClass = (Class<Object>) mapping.getGeneratedClass(tableRef);
+        if (forClass == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " is not mapped.");
+        }
+        return new Builder<Object>(cqlExpression, forClass)
+                .idProperty(mapping.getIdProperty(tableRef))
+                .geometryProperty(mapping.getGeometryProperty(tableRef));
+    }
+
+    private CqlPartitionedQuery() {
+    }
+
+    /**
+     * Returns the objects that satisfy the CQL expression, read with a thread for every partition (up to the number
+     * of processors).
+     *
+     * @param factory the session factory that opens the sessions of the partitions
+     * @return the list of objects
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public List<T> list(SessionFactory factory) throws ParseException {
+        final List<T> result = new ArrayList<T>();
+        stream(factory, new CqlResultHandler<T>() {
+            public boolean handle(T object) {
+                result.add(object);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Passes the objects that satisfy the CQL expression to the handler, one at a time, until the result is
+     * exhausted or the handler returns false. The partitions are read by a thread pool with a thread for every
+     * partition, but no more threads (and connections) than there are processors, which is shut down afterwards.
+     * Use {@link #stream(SessionFactory, ExecutorService, CqlResultHandler)} to bound the threads otherwise.
+     *
+     * @param factory the session factory that opens the sessions of the partitions
+     * @param handler the handler that receives the objects, on the calling thread
+     * @return the number of objects passed to the handler
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public long stream(SessionFactory factory, CqlResultHandler<? super T> handler) throws ParseException {
+        int partitions = extent != null ? columns * rows : idRanges;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(partitions, Runtime.getRuntime().availableProcessors()));
+        try {
+            return stream(factory, executor, handler);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Passes the objects that satisfy the CQL expression to the handler, one at a time, until the result is
+     * exhausted or the handler returns false. The partitions are read by the given executor, so that the number of
+     * threads (and connections) can be shared by, and bounded over, several queries. Partitions that the executor
+     * queues because it cannot start them right away are read later.
+     * <p>The calling thread merges the partitions, so the executor must not run a partition on it, as a
+     * <code>ThreadPoolExecutor</code> with the <code>CallerRunsPolicy</code> does when it is saturated: such a
+     * partition would wait for the merge forever. The query fails with an <code>IllegalStateException</code> instead.
+     * An executor that rejects a partition makes the query fail with its
+     * <code>RejectedExecutionException</code>.</p>
+     *
+     * @param factory the session factory that opens the sessions of the partitions
+     * @param executor the executor that reads the partitions
+     * @param handler the handler that receives the objects, on the calling thread
+     * @return the number of objects passed to the handler
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException if the class is not mapped, or the query is partitioned by the ranges of an
+     * identifier that is not integral.
+     * @throws IllegalStateException if the executor runs a partition on the calling thread.
+     */
+    public long stream(SessionFactory factory, ExecutorService executor, CqlResultHandler<? super T> handler) throws ParseException {
+        if (factory == null || executor == null || handler == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        CompiledCql compiled = CqlHibernate.getCriteriaCache().getCompiled(cqlExpression, forClass);
+        if (compiled.matchesNothing()) {
+            return 0;
+        }
+        ClassMetadata metadata = factory.getClassMetadata(forClass);
+        if (metadata == null) {
+            throw new IllegalArgumentException("Class " + forClass.getName() + " is not mapped.");
+        }
+        String keyProperty = idProperty != null ? idProperty : metadata.getIdentifierPropertyName();
+        List<Partition> partitions = extent != null ? tiles() : idRanges(compiled, factory, keyProperty);
+        LOGGER.debug(String.format("Executing %s on %s in %d partitions", cqlExpression, forClass.getName(), partitions.size()));
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+
+        Merge merge = ordered
+                ? new Merge(partitions.size(), partitions.size(), bufferSize)
+                : new Merge(partitions.size(), 1, partitions.size() * bufferSize);
+        List<Reader> readers = new ArrayList<Reader>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int i = 0; i < partitions.size(); i++) {
+                Reader reader = new Reader(compiled, factory, metadata, keyProperty, partitions.get(i), merge, merge.queueOf(i));
+                futures.add(executor.submit(reader));
+                readers.add(reader);
+            }
+            return merge.drain(handler);
+        } finally {
+            merge.stop();
+            awaitReaders(readers, futures);
+        }
+    }
+
+    /**
+     * Waits until every reader has closed its session, so that no connection is held after the query returns.
+     * Readers that did not start yet are withdrawn instead.
+     */
+    private void awaitReaders(List<Reader> readers, List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (int i = 0; i < readers.size(); i++) {
+            if (readers.get(i).claim()) {
+                futures.get(i).cancel(false);
+                continue;
+            }
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Splits the range between the smallest and the largest matching identifier into ranges of equal width.
+     */
+    private List<Partition> idRanges(CompiledCql compiled, SessionFactory factory, String keyProperty) {
+        Object[] bounds;
+        StatelessSession session = factory.openStatelessSession();
+        try {
+            bounds = (Object[]) compiled.toCriteria(session)
+                    .setProjection(Projections.projectionList()
+                            .add(Projections.min(keyProperty))
+                            .add(Projections.max(keyProperty)))
+                    .uniqueResult();
+        } finally {
+            session.close();
+        }
+        List<Partition> result = new ArrayList<Partition>();
+        if (bounds == null || bounds[0] == null) {
+            return result;
+        }
+        if (!isIntegral(bounds[0])) {
+            throw new IllegalArgumentException(String.format("Property %s of type %s cannot be partitioned by range.",
+                    keyProperty, bounds[0].getClass().getName()));
+        }
+        long min = ((Number) bounds[0]).longValue();
+        long max = ((Number) bounds[1]).longValue();
+        long width = (max - min) / idRanges + 1;
+        for (long lower = min; lower <= max; lower += width) {
+            Criterion range = lower + width > max
+                    ? Restrictions.between(keyProperty, valueOf(lower, bounds[0]), valueOf(max, bounds[0]))
+                    : Restrictions.and(Restrictions.ge(keyProperty, valueOf(lower, bounds[0])),
+                                       Restrictions.lt(keyProperty, valueOf(lower + width, bounds[0])));
+            result.add(new Partition(range, -1));
+            if (lower + width > max) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short;
+    }
+
+    /**
+     * Converts a bound to the type of the identifier.
+     */
+    private static Object valueOf(long bound, Object sample) {
+        if (sample instanceof Integer) {
+            return (int) bound;
+        }
+        if (sample instanceof Short) {
+            return (short) bound;
+        }
+        return bound;
+    }
+
+    /**
+     * Lays out the grid of tiles over the extent.
+     */
+    private List<Partition> tiles() {
+        List<Partition> result = new ArrayList<Partition>();
+        double width = extent.getWidth() / columns;
+        double height = extent.getHeight() / rows;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Envelope tile = new Envelope(extent.getMinX() + column * width, extent.getMinX() + (column + 1) * width,
+                        extent.getMinY() + row * height, extent.getMinY() + (row + 1) * height);
+                Criterion overlaps = SpatialFilter.bbox(tile, srid).toCriterion(geometryProperty);
+                result.add(new Partition(overlaps, row * columns + column));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the tile in which the lower left corner of the bounding box of a geometry lies, clamped
+     * to the extent.
+     */
+    private int tileOf(Geometry geometry) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        return cellOf(envelope.getMinY(), extent.getMinY(), extent.getHeight(), rows) * columns
+                + cellOf(envelope.getMinX(), extent.getMinX(), extent.getWidth(), columns);
+    }
+
+    private static int cellOf(double coordinate, double min, double size, int cells) {
+        if (size <= 0 || coordinate <= min) {
+            return 0;
+        }
+        return Math.min(cells - 1, (int) ((coordinate - min) / size * cells));
+    }
+
+    /**
+     * A partition: the restriction that selects its objects and, for a spatial tile, its index in the grid.
+     */
+    private static final class Partition {
+        final Criterion restriction;
+        final int tile;
+
+        Partition(Criterion restriction, int tile) {
+            this.restriction = restriction;
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * The queues between the readers and the merging thread, and the state that they share.
+     */
+    private static final class Merge {
+
+        final private List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+        final private int partitions;
+        final private AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        // the thread that executes the query, and drains the queues
+        final private Thread mergingThread = Thread.currentThread();
+        private volatile boolean stopped;
+
+        /**
+         * @param partitions the number of partitions
+         * @param queueCount one queue for every partition if the result is ordered, or a single shared queue
+         * @param capacity the capacity of each queue
+         */
+        Merge(int partitions, int queueCount, int capacity) {
+            this.partitions = partitions;
+            for (int i = 0; i < queueCount; i++) {
+                queues.add(new ArrayBlockingQueue<Object>(capacity));
+            }
+        }
+
+        BlockingQueue<Object> queueOf(int partition) {
+            return queues.get(queues.size() == 1 ? 0 : partition);
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        boolean isMergingThread() {
+            return Thread.currentThread() == mergingThread;
+        }
+
+        void fail(RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        /**
+         * Adds an object to a queue, waiting for room.
+         *
+         * @return false if the query was stopped while waiting
+         */
+        boolean put(BlockingQueue<Object> queue, Object item) {
+            try {
+                while (!stopped) {
+                    if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Passes the objects in the queues to the handler until every partition ended, or the handler stops.
+         */
+        <T> long drain(CqlResultHandler<? super T> handler) {
+            long count = 0;
+            int ended = 0;
+            int current = 0;
+            while (ended < partitions) {
+                Object item = take(queues.get(current));
+                if (item == END) {
+                    ended++;
+                    current = Math.min(current + 1, queues.size() - 1);
+                    continue;
+                }
+                count++;
+                @SuppressWarnings("unchecked")
+                T object = (T) item;
+                if (!handler.handle(object)) {
+                    break;
+                }
+            }
+            rethrowFailure();
+            return count;
+        }
+
+        private Object take(BlockingQueue<Object> queue) {
+            try {
+                while (true) {
+                    rethrowFailure();
+                    Object item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (item != null) {
+                        return item;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading a partitioned query.", e);
+            }
+        }
+
+        private void rethrowFailure() {
+            RuntimeException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads a single partition on its own stateless session.
+     */
+    private final class Reader implements Runnable {
+
+        final private CompiledCql compiled;
+        final private SessionFactory factory;
+        final private ClassMetadata metadata;
+        final private String keyProperty;
+        final private Partition partition;
+        final private Merge merge;
+        final private BlockingQueue<Object> queue;
+        final private AtomicBoolean claimed = new AtomicBoolean();
+
+        Reader(CompiledCql compiled, SessionFactory factory, ClassMetadata metadata, String keyProperty,
+               Partition partition, Merge merge, BlockingQueue<Object> queue) {
+            this.compiled = compiled;
+            this.factory = factory;
+            this.metadata = metadata;
+            this.keyProperty = keyProperty;
+            this.partition = partition;
+            this.merge = merge;
+            this.queue = queue;
+        }
+
+        /**
+         * Claims this reader, either to run it or to withdraw it.
+         *
+         * @return false if the reader was already claimed
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        public void run() {
+            if (merge.isMergingThread()) {
+                // left unclaimed, so that it is withdrawn when the query ends
+                merge.fail(new IllegalStateException(String.format(
+                        "The executor ran a partition of %s on the thread that merges the partitions", cqlExpression)));
+                return;
+            }
+            if (!claim()) {
+                return;
+            }
+            StatelessSession session = null;
+            CqlResultIterator<T> iterator = null;
+            try {
+                session = factory.openStatelessSession();
+                Criteria criteria = compiled.toCriteria(session).add(partition.restriction);
+                if (ordered) {
+                    criteria.addOrder(Order.asc(keyProperty));
+                }
+                iterator = CqlHibernate.scroll(compiled, cqlExpression, forClass, criteria, null, fetchSize);
+                while (iterator.hasNext()) {
+                    T object = iterator.next();
+                    if (owns(object) && !merge.put(queue, object)) {
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn(String.format("Failed to read a partition of %s on %s", cqlExpression, forClass.getName()), e);
+                merge.fail(e);
+            } finally {
+                try {
+                    if (iterator != null) {
+                        iterator.close();
+                    }
+                } finally {
+                    if (session != null) {
+                        session.close();
+                    }
+                    merge.put(queue, END);
+                }
+            }
+        }
+
+        /**
+         * Checks whether an object that overlaps the tile of this partition is returned by it, and not by another.
+         */
+        private boolean owns(T object) {
+            if (partition.tile < 0) {
+                return true;
+            }
+            Object geometry = metadata.getPropertyValue(object, geometryProperty, EntityMode.POJO);
+            return geometry instanceof Geometry && tileOf((Geometry) geometry) == partition.tile;
+        }
+    }
+}
@@ -0,0 +1,747 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+
+import java.io.IOException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Compiles CQL expressions to classes that evaluate the expression on objects in memory.
+ * </p>
+ * <p>
+ * The expression is first optimized (see {@link CqlOptimizer}), and then translated to Java source that javassist
+ * compiles into a subclass of {@link CompiledPredicate}. The generated code calls the getters of the target class
+ * directly, compares primitive values as primitives, and uses literals that were converted to the property types (and
+ * like patterns that were compiled to regular expressions) when the predicate was created. Classes generated by the
+ * <code>AutoMapper</code> are supported: javassist need not find their class files.
+ * </p>
+ * <p>
+ * Comparisons follow SQL semantics: a predicate on a property that is null (or that can not be reached because an
+ * intermediate property is null) is false, also when it is negated.
+ * </p>
+ * <p>
+ * Each generated class is loaded by its own class loader, so that it can be garbage collected along with the
+ * predicate. Compiling is relatively expensive: create a predicate once and reuse it. This class is thread-safe.
+ * </p>
+ */
+public final class CqlPredicateCompiler {
+
+    // the maximum number of operands of a junction that is evaluated by a single generated method
+    private static final int MAX_OPERANDS_PER_METHOD = 256;
+
+    private static final AtomicLong classCounter = new AtomicLong();
+
+    private CqlPredicateCompiler() {
+    }
+
+    /**
+     * Compiles the given CQL expression for the given class.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return the compiled predicate
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the expression uses a property that the class does not have, or
+     *                                  compares a property in a way that is not supported for its type.
+     */
+    public static <T> CqlPredicate<T> compile(String cqlExpression, Class<T> forClass) throws ParseException {
+        return compile(CompiledCql.parse(cqlExpression), forClass);
+    }
+
+    /**
+     * Compiles the given CQL expression for the given class, with the given translation options. Of these options,
+     * only the reordering of predicates (see {@link CqlTranslationOptions#isReorderPredicates()}) applies to
+     * evaluation in memory.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param options The translation options
+     * @return the compiled predicate
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException When the expression uses a property that the class does not have, or
+     *                                  compares a property in a way that is not supported for its type.
+     */
+    public static <T> CqlPredicate<T> compile(String cqlExpression, Class<T> forClass, CqlTranslationOptions options) throws ParseException {
+        if (cqlExpression == null || forClass == null || options == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        Start tree = CompiledCql.parse(cqlExpression);
+        CqlTerm term = CqlOptimizer.optimize(tree, forClass);
+        if (options.isReorderPredicates()) {
+            term = SelectivityPlanner.reorder(term, forClass, options.getStatistics(forClass));
+        }
+        return compile(term, forClass, tree.toString().trim());
+    }
+
+    /**
+     * Compiles the CQL expression of the given AST for the given class.
+     *
+     * @param tree the root of the AST, as returned by the CQL parser.
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @return the compiled predicate
+     * @throws IllegalArgumentException When the expression uses a property that the class does not have, or
+     *                                  compares a property in a way that is not supported for its type.
+     */
+    public static <T> CqlPredicate<T> compile(Start tree, Class<T> forClass) {
+        if (tree == null || forClass == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        return compile(CqlOptimizer.optimize(tree, forClass), forClass, tree.toString().trim());
+    }
+
+    /**
+     * Compiles an (optimized) term for the given class.
+     *
+     * @param term the term to compile
+     * @param forClass The class of the objects on which the term will be applied.
+     * @param description the CQL expression that the term stands for, returned by the predicate's toString().
+     * @return the compiled predicate
+     */
+    static <T> CqlPredicate<T> compile(CqlTerm term, Class<T> forClass, String description) {
+        return new Generator<T>(forClass, description).generate(term);
+    }
+
+    /**
+     * Generates the predicate class for a single expression.
+     */
+    private static class Generator<T> extends AbstractBuilder {
+
+        final private Class<T> target;
+        final private String cqlExpression;
+        final private ClassPool pool;
+        final private Set<String> stubs = new HashSet<String>();
+
+        private CtClass generated;
+        final private List<String> methods = new ArrayList<String>();
+        final private List<Object> constants = new ArrayList<Object>();
+        final private StringBuilder constantInitialization = new StringBuilder();
+        final private List<Object> accessors = new ArrayList<Object>();
+        final private Map<Member, Integer> accessorIndexes = new HashMap<Member, Integer>();
+
+        Generator(Class<T> target, String cqlExpression) {
+            this.target = target;
+            this.cqlExpression = cqlExpression;
+            this.pool = new ClassPool(true);
+            pool.appendClassPath(new ClassClassPath(CompiledPredicate.class));
+            if (target.getClassLoader() != null) {
+                pool.appendClassPath(new LoaderClassPath(target.getClassLoader()));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        CqlPredicate<T> generate(CqlTerm term) {
+            String className = CompiledPredicate.class.getPackage().getName() + ".CqlPredicate_"
+                    + target.getSimpleName().replaceAll("[^A-Za-z0-9_]", "_") + "_" + classCounter.incrementAndGet();
+            try {
+                generated = pool.makeClass(className);
+                generated.setSuperclass(pool.get(CompiledPredicate.class.getName()));
+
+                String root = method(term);
+                CtClass objectArray = pool.get("java.lang.Object[]");
+                generated.addConstructor(CtNewConstructor.make(
+                        new CtClass[]{objectArray, objectArray, pool.get("java.lang.String")}, new CtClass[0],
+                        "{ super($2, $3); " + constantInitialization + "}", generated));
+                for (String method : methods) {
+                    generated.addMethod(CtNewMethod.make(method, generated));
+                }
+                generated.addMethod(CtNewMethod.make("public boolean evaluate(Object o) { return " + root
+                        + "((" + typeName(target) + ") o); }", generated));
+
+                byte[] bytecode = generated.toBytecode();
+                generated.detach();
+                Class<?> predicateClass = new PredicateClassLoader(target.getClassLoader()).define(className, bytecode);
+                return (CqlPredicate<T>) predicateClass.getConstructor(Object[].class, Object[].class, String.class)
+                        .newInstance(constants.toArray(), accessors.toArray(), cqlExpression);
+            } catch (CannotCompileException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (NotFoundException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (IOException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e.getCause());
+            }
+        }
+
+        /**
+         * Generates the method that evaluates the given term, and returns its name. The methods that it calls are
+         * generated first.
+         */
+        private String method(CqlTerm term) throws NotFoundException {
+            StringBuilder body = new StringBuilder();
+            if (term instanceof CqlTerm.Constant) {
+                body.append("return ").append(((CqlTerm.Constant) term).getValue()).append(';');
+            } else if (term instanceof CqlTerm.Leaf) {
+                leaf(((CqlTerm.Leaf) term).getExpr(), body);
+            } else if (term instanceof CqlTerm.Range) {
+                range((CqlTerm.Range) term, body);
+            } else if (term instanceof CqlTerm.InList) {
+                inList((CqlTerm.InList) term, body);
+            } else {
+                junction((CqlTerm.Junction) term, body);
+            }
+            String name = "m" + methods.size();
+            methods.add("private boolean " + name + "(" + typeName(target) + " t) { " + body + " }");
+            return name;
+        }
+
+        private void junction(CqlTerm.Junction junction, StringBuilder body) throws NotFoundException {
+            List<CqlTerm> operands = junction.getOperands();
+            if (operands.size() > MAX_OPERANDS_PER_METHOD) {
+                // split large junctions, the size of a method is limited
+                List<CqlTerm> parts = new ArrayList<CqlTerm>();
+                for (int i = 0; i < operands.size(); i += MAX_OPERANDS_PER_METHOD) {
+                    List<CqlTerm> part = operands.subList(i, Math.min(operands.size(), i + MAX_OPERANDS_PER_METHOD));
+                    parts.add(part.size() == 1 ? part.get(0) : new CqlTerm.Junction(junction.isConjunction(), part));
+                }
+                operands = parts;
+            }
+            boolean conjunction = junction.isConjunction();
+            for (CqlTerm operand : operands) {
+                body.append("if (").append(conjunction ? "!" : "").append(method(operand)).append("(t)) return ")
+                        .append(!conjunction).append("; ");
+            }
+            body.append("return ").append(conjunction).append(';');
+        }
+
+        private void leaf(PExpr expr, StringBuilder body) throws NotFoundException {
+            if (expr instanceof AIsNullExpr || expr instanceof AIsNotNullExpr) {
+                boolean isNull = expr instanceof AIsNullExpr;
+                read(getPropertyPath(CqlOptimizer.attributeOf(expr)), body, isNull);
+                body.append("return ").append(!isNull).append(';');
+            } else if (expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr) {
+                // only existence predicates that cannot be decided from the class remain
+                body.append("return ").append(expr instanceof AExistsExpr ? "" : "!").append("exists(t, \"")
+                        .append(getPropertyPath(CqlOptimizer.attributeOf(expr))).append("\");");
+            } else {
+                body.append("return ").append(condition(expr, body)).append(';');
+            }
+        }
+
+        /**
+         * Generates the statements that read the property of the given predicate into <code>v</code>, and returns the
+         * condition on <code>v</code>.
+         */
+        private String condition(PExpr expr, StringBuilder body) throws NotFoundException {
+            if (expr instanceof ANotExpr) {
+                return "!(" + condition(((ANotExpr) expr).getExpr(), body) + ")";
+            }
+            PAttr attr = CqlOptimizer.attributeOf(expr);
+            if (attr == null) {
+                throw new IllegalArgumentException("Unsupported predicate: " + expr);
+            }
+            String path = getPropertyPath(attr);
+            Class<?> type = read(path, body, false);
+            if (expr instanceof AEqExpr) return compare("==", type, path, ((AEqExpr) expr).getRight());
+            if (expr instanceof ANeqExpr) return compare("!=", type, path, ((ANeqExpr) expr).getRight());
+            if (expr instanceof AGtExpr) return compare(">", type, path, ((AGtExpr) expr).getRight());
+            if (expr instanceof AGteExpr) return compare(">=", type, path, ((AGteExpr) expr).getRight());
+            if (expr instanceof ALtExpr) return compare("<", type, path, ((ALtExpr) expr).getRight());
+            if (expr instanceof ALteExpr) return compare("<=", type, path, ((ALteExpr) expr).getRight());
+            if (expr instanceof ALikeExpr) return like(type, ((ALikeExpr) expr).getRight(), false);
+            if (expr instanceof ANotLikeExpr) return "!" + like(type, ((ANotLikeExpr) expr).getRight(), false);
+            if (expr instanceof AIlikeExpr) return like(type, ((AIlikeExpr) expr).getRight(), true);
+            if (expr instanceof ANotIlikeExpr) return "!" + like(type, ((ANotIlikeExpr) expr).getRight(), true);
+            if (expr instanceof ABeforeExpr) {
+                return time(type, path) + " < " + timeConstant(parseDate(((ABeforeExpr) expr).getDateTime().toString().trim()));
+            }
+            if (expr instanceof AAfterExpr) {
+                return time(type, path) + " > " + timeConstant(parseDate(((AAfterExpr) expr).getDateTime().toString().trim()));
+            }
+            if (expr instanceof ADuringExpr) {
+                return during(type, path, ((ADuringExpr) expr).getTimeSpan());
+            }
+            throw new IllegalArgumentException("Unsupported predicate: " + expr);
+        }
+
+        private void range(CqlTerm.Range range, StringBuilder body) throws NotFoundException {
+            PExpr lower = range.getLower().getExpr();
+            PExpr upper = range.getUpper().getExpr();
+            String path = getPropertyPath(CqlOptimizer.attributeOf(lower));
+            Class<?> type = read(path, body, false);
+            String lowerCondition = lower instanceof AGtExpr
+                    ? compare(">", type, path, ((AGtExpr) lower).getRight())
+                    : compare(">=", type, path, ((AGteExpr) lower).getRight());
+            String upperCondition = upper instanceof ALtExpr
+                    ? compare("<", type, path, ((ALtExpr) upper).getRight())
+                    : compare("<=", type, path, ((ALteExpr) upper).getRight());
+            body.append("return ").append(lowerCondition).append(" && ").append(upperCondition).append(';');
+        }
+
+        private void inList(CqlTerm.InList inList, StringBuilder body) throws NotFoundException {
+            String path = getPropertyPath(((AEqExpr) inList.getEqualities().get(0).getExpr()).getLeft());
+            Class<?> type = read(path, body, false);
+            Class<?> boxed = box(type);
+            Set<Object> values = BigDecimal.class.equals(boxed) ? new TreeSet<Object>() : new HashSet<Object>();
+            for (CqlTerm.Leaf equality : inList.getEqualities()) {
+                Object value = literal(((AEqExpr) equality.getExpr()).getRight(), path);
+                if (Date.class.isAssignableFrom(type)) {
+                    if (!(value instanceof Date)) {
+                        throw new IllegalArgumentException("Literal " + value + " is not a date.");
+                    }
+                    values.add(((Date) value).getTime());
+                } else if (type.isPrimitive() || Number.class.isAssignableFrom(boxed)) {
+                    Object number = toBoxedNumber(value, boxed);
+                    // a literal that the property type cannot represent never equals the property
+                    if (number != null) {
+                        values.add(number);
+                    }
+                } else {
+                    values.add(value);
+                }
+            }
+            String set = constant(values, "java.util.Set", "(java.util.Set) %s");
+            String element;
+            if (Date.class.isAssignableFrom(type)) {
+                element = "java.lang.Long.valueOf(v.getTime())";
+            } else if (type.isPrimitive()) {
+                element = boxed.getName() + ".valueOf(v)";
+            } else {
+                element = "v";
+            }
+            body.append("return ").append(set).append(".contains(").append(element).append(");");
+        }
+
+        /**
+         * Generates the statements that read a property path into the local variable <code>v</code>. If the value,
+         * or any intermediate value, is null, the generated code returns <code>nullResult</code>.
+         *
+         * @return the type of <code>v</code>
+         */
+        private Class<?> read(String path, StringBuilder body, boolean nullResult) throws NotFoundException {
+            String[] parts = path.split("\\.");
+            Class<?> currentType = target;
+            String current = "t";
+            for (int i = 0; i < parts.length; i++) {
+                EntityMetaModel.Property property = EntityMetaModel.forClass(currentType).getProperty(parts[i]);
+                if (property == null) {
+                    throw new IllegalArgumentException("Class " + currentType.getName() + " has no property " + parts[i]
+                            + " (in " + path + ").");
+                }
+                Class<?> type = property.getType();
+                String access;
+                if (property.getGetter() != null && isAccessible(currentType, property.getGetter())) {
+                    declareMethod(currentType, property.getGetter().getName(), type);
+                    access = current + "." + property.getGetter().getName() + "()";
+                } else if (property.getGetter() == null && isAccessible(currentType, property.getField())) {
+                    declareField(currentType, property.getName(), type);
+                    access = current + "." + property.getName();
+                } else {
+                    // read by reflection, which returns primitives as wrappers
+                    type = box(type);
+                    access = "(" + typeName(type) + ") read(" + current + ", " + accessor(property) + ")";
+                }
+                String variable = i == parts.length - 1 ? "v" : "v" + i;
+                body.append(typeName(type)).append(' ').append(variable).append(" = ").append(access).append("; ");
+                if (!type.isPrimitive()) {
+                    body.append("if (").append(variable).append(" == null) return ").append(nullResult).append("; ");
+                }
+                if (i < parts.length - 1 && (type.isPrimitive() || type.isArray())) {
+                    throw new IllegalArgumentException("Property " + parts[i] + " of " + path + " has no properties.");
+                }
+                currentType = type;
+                current = variable;
+            }
+            return currentType;
+        }
+
+        /**
+         * Returns the condition that compares <code>v</code> with a literal.
+         */
+        private String compare(String operator, Class<?> type, String path, Node literal) {
+            Object value = literal(literal, path);
+            boolean equality = "==".equals(operator) || "!=".equals(operator);
+            Class<?> boxed = box(type);
+            if (Date.class.isAssignableFrom(type)) {
+                if (!(value instanceof Date)) {
+                    throw new IllegalArgumentException("Literal " + value + " is not a date.");
+                }
+                return "v.getTime() " + operator + " " + timeConstant((Date) value);
+            }
+            if (Number.class.isAssignableFrom(boxed) && !BigDecimal.class.equals(boxed) && boxed.getName().startsWith("java.lang.")) {
+                String primitive = unbox(boxed).getName();
+                Object number = toBoxedNumber(value, boxed);
+                if (number == null) {
+                    return compareWidened(operator, type, boxed, (Number) value);
+                }
+                String constant = constant(number, primitive, "((java.lang.Number) %s)." + primitive + "Value()");
+                return (type.isPrimitive() ? "v" : "v." + primitive + "Value()") + " " + operator + " " + constant;
+            }
+            if (Boolean.class.equals(boxed)) {
+                requireEquality(equality, path);
+                String constant = constant(value, "boolean", "((java.lang.Boolean) %s).booleanValue()");
+                return (type.isPrimitive() ? "v" : "v.booleanValue()") + " " + operator + " " + constant;
+            }
+            if (type.isPrimitive()) {
+                throw new IllegalArgumentException("Comparison of property " + path + " of type " + type + " is not supported.");
+            }
+            if (!type.isInstance(value)) {
+                throw new IllegalArgumentException("Literal " + value + " cannot be compared with property " + path + ".");
+            }
+            String constant = constant(value, typeName(type), "(" + typeName(type) + ") %s");
+            if (String.class.equals(type) && equality) {
+                return ("==".equals(operator) ? "" : "!") + "v.equals(" + constant + ")";
+            }
+            if (Comparable.class.isAssignableFrom(type)) {
+                return "v.compareTo(" + constant + ") " + operator + " 0";
+            }
+            requireEquality(equality, path);
+            return ("==".equals(operator) ? "" : "!") + "v.equals(" + constant + ")";
+        }
+
+        /**
+         * Returns the condition that compares <code>v</code> with a number that its type cannot represent exactly, in
+         * a type that holds both: BigDecimal for integral properties, and double for float properties.
+         */
+        private String compareWidened(String operator, Class<?> type, Class<?> boxed, Number value) {
+            if (Float.class.equals(boxed)) {
+                String constant = constant(value, "double", "((java.lang.Number) %s).doubleValue()");
+                return (type.isPrimitive() ? "(double) v" : "v.doubleValue()") + " " + operator + " " + constant;
+            }
+            String constant = constant(toBigDecimal(value), "java.math.BigDecimal", "(java.math.BigDecimal) %s");
+            return "java.math.BigDecimal.valueOf(" + (type.isPrimitive() ? "(long) v" : "v.longValue()") + ").compareTo("
+                    + constant + ") " + operator + " 0";
+        }
+
+        private String like(Class<?> type, Node literal, boolean ignoreCase) {
+            literal.apply(this);
+            String pattern = translatedLiterals.get(literal).toString().replace("''", "'");
+            int flags = Pattern.DOTALL | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            String constant = constant(Pattern.compile(toRegex(pattern), flags), "java.util.regex.Pattern",
+                    "(java.util.regex.Pattern) %s");
+            return constant + ".matcher(" + (String.class.equals(type) ? "v" : "java.lang.String.valueOf(v)") + ").matches()";
+        }
+
+        private String during(Class<?> type, String path, PTimespanLiteral timespan) {
+            Date from;
+            Date to;
+            if (timespan instanceof AFromToTimespanLiteral) {
+                from = parseDate(((AFromToTimespanLiteral) timespan).getFrom().getText().trim());
+                to = parseDate(((AFromToTimespanLiteral) timespan).getTo().getText().trim());
+            } else if (timespan instanceof AFromDurationTimespanLiteral) {
+                AFromDurationTimespanLiteral fromDuration = (AFromDurationTimespanLiteral) timespan;
+                from = parseDate(fromDuration.getFrom().getText().trim());
+                fromDuration.getDuration().apply(this);
+                to = HibernateCriteriaBuilder.addDuration(from, (Duration) translatedLiterals.get(fromDuration.getDuration()));
+            } else {
+                throw new IllegalArgumentException("Unsupported timespan: " + timespan);
+            }
+            String time = time(type, path);
+            return time + " > " + timeConstant(from) + " && " + time + " < " + timeConstant(to);
+        }
+
+        private String time(Class<?> type, String path) {
+            if (!Date.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Property " + path + " is not a date.");
+            }
+            return "v.getTime()";
+        }
+
+        private String timeConstant(Date date) {
+            return constant(date, "long", "((java.util.Date) %s).getTime()");
+        }
+
+        private Object literal(Node literal, String path) {
+            literal.apply(this);
+            return LiteralConverter.forProperty(target, path).convert(translatedLiterals.get(literal).toString());
+        }
+
+        /**
+         * Registers a constant, and returns the name of the field that holds it.
+         *
+         * @param conversion the expression that converts the constant from Object to the field type, in which
+         *                   <code>%s</code> stands for the constant.
+         */
+        private String constant(Object value, String fieldType, String conversion) {
+            String name = "c" + constants.size();
+            try {
+                generated.addField(CtField.make("private " + fieldType + " " + name + ";", generated));
+            } catch (CannotCompileException e) {
+                throw new RuntimeException("Problem generating predicate for " + cqlExpression, e);
+            }
+            constantInitialization.append(name).append(" = ")
+                    .append(String.format(conversion, "$1[" + constants.size() + "]")).append("; ");
+            constants.add(value);
+            return name;
+        }
+
+        private int accessor(EntityMetaModel.Property property) {
+            AccessibleObject accessor = property.getGetter() != null ? property.getGetter() : property.getField();
+            Integer index = accessorIndexes.get((Member) accessor);
+            if (index == null) {
+                accessor.setAccessible(true);
+                index = accessors.size();
+                accessors.add(accessor);
+                accessorIndexes.put((Member) accessor, index);
+            }
+            return index;
+        }
+
+        /**
+         * Declares a getter on a class that javassist cannot load, so that the generated code can call it.
+         */
+        private void declareMethod(Class<?> owner, String name, Class<?> returnType) throws NotFoundException {
+            CtClass ctOwner = ctClass(owner);
+            if (stubs.contains(owner.getName())) {
+                try {
+                    ctOwner.getDeclaredMethod(name);
+                } catch (NotFoundException e) {
+                    CtMethod method = new CtMethod(ctClass(returnType), name, new CtClass[0], ctOwner);
+                    method.setModifiers(javassist.Modifier.PUBLIC | javassist.Modifier.ABSTRACT);
+                    try {
+                        ctOwner.addMethod(method);
+                    } catch (CannotCompileException ex) {
+                        throw new RuntimeException("Problem generating predicate for " + cqlExpression, ex);
+                    }
+                }
+            } else {
+                ctClass(returnType);
+            }
+        }
+
+        /**
+         * Declares a field on a class that javassist cannot load, so that the generated code can read it.
+         */
+        private void declareField(Class<?> owner, String name, Class<?> type) throws NotFoundException {
+            CtClass ctOwner = ctClass(owner);
+            if (stubs.contains(owner.getName())) {
+                try {
+                    ctOwner.getDeclaredField(name);
+                } catch (NotFoundException e) {
+                    try {
+                        CtField field = new CtField(ctClass(type), name, ctOwner);
+                        field.setModifiers(javassist.Modifier.PUBLIC);
+                        ctOwner.addField(field);
+                    } catch (CannotCompileException ex) {
+                        throw new RuntimeException("Problem generating predicate for " + cqlExpression, ex);
+                    }
+                }
+            } else {
+                ctClass(type);
+            }
+        }
+
+        /**
+         * Returns the javassist class for the given class. Classes of which javassist cannot read the class file,
+         * such as the classes generated by the <code>AutoMapper</code>, are replaced by a stub that only declares
+         * the members that the generated code uses. The stubs are never loaded.
+         */
+        private CtClass ctClass(Class<?> type) throws NotFoundException {
+            if (type.isArray()) {
+                return pool.get(typeName(type));
+            }
+            try {
+                return pool.get(type.getName());
+            } catch (NotFoundException e) {
+                CtClass stub = type.isInterface() ? pool.makeInterface(type.getName()) : pool.makeClass(type.getName());
+                stub.setModifiers(javassist.Modifier.PUBLIC | (type.isInterface() ? javassist.Modifier.INTERFACE : 0)
+                        | javassist.Modifier.ABSTRACT);
+                stubs.add(type.getName());
+                return stub;
+            }
+        }
+
+        private static boolean isAccessible(Class<?> owner, Member member) {
+            if (member == null || !Modifier.isPublic(member.getModifiers())) {
+                return false;
+            }
+            for (Class<?> c = owner; c != null; c = c.getEnclosingClass()) {
+                if (!Modifier.isPublic(c.getModifiers())) {
+                    return false;
+                }
+            }
+            for (Class<?> c = member.getDeclaringClass(); c != null; c = c.getEnclosingClass()) {
+                if (!Modifier.isPublic(c.getModifiers())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void requireEquality(boolean equality, String path) {
+            if (!equality) {
+                throw new IllegalArgumentException("Property " + path + " can only be compared for equality.");
+            }
+        }
+
+        private static String typeName(Class<?> type) {
+            return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+        }
+    }
+
+    /**
+     * Converts a (CQL) like pattern to a regular expression. The escape character is '\'.
+     *
+     * @param pattern the like pattern
+     * @return the equivalent regular expression
+     */
+    static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder(pattern.length() + 16);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                literal.append(pattern.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == boolean.class) return Boolean.class;
+        return Character.class;
+    }
+
+    private static Class<?> unbox(Class<?> wrapper) {
+        if (wrapper == Integer.class) return int.class;
+        if (wrapper == Long.class) return long.class;
+        if (wrapper == Short.class) return short.class;
+        if (wrapper == Byte.class) return byte.class;
+        if (wrapper == Double.class) return double.class;
+        if (wrapper == Float.class) return float.class;
+        throw new IllegalArgumentException("Not a primitive wrapper: " + wrapper);
+    }
+
+    /**
+     * Converts a number to the given wrapper type (or to BigDecimal or BigInteger).
+     *
+     * @return the converted number, or null if the wrapper type cannot represent the number exactly (e.g. 5.5 or
+     *         3000000000 as Integer, or 0.1 as Float).
+     */
+    private static Object toBoxedNumber(Object value, Class<?> boxed) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Literal " + value + " is not a number.");
+        }
+        Number number = (Number) value;
+        if (boxed == Double.class) return number.doubleValue();
+        if (boxed == Float.class) {
+            float f = number.floatValue();
+            return number instanceof Float || (double) f == number.doubleValue() ? f : null;
+        }
+        if (boxed != Integer.class && boxed != Long.class && boxed != Short.class && boxed != Byte.class) {
+            return number;
+        }
+        BigDecimal decimal = toBigDecimal(number);
+        try {
+            if (boxed == Integer.class) return decimal.intValueExact();
+            if (boxed == Long.class) return decimal.longValueExact();
+            if (boxed == Short.class) return decimal.shortValueExact();
+            return decimal.byteValueExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) return (BigDecimal) number;
+        if (number instanceof BigInteger) return new BigDecimal((BigInteger) number);
+        if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new IllegalArgumentException("Literal " + number + " is not a finite number.");
+            }
+            return BigDecimal.valueOf(d);
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    /**
+     * Loads a single generated predicate class. Classes that the predicate uses are loaded by the class loader of this
+     * library or, failing that, by the class loader of the target class.
+     */
+    private static class PredicateClassLoader extends ClassLoader {
+
+        final private ClassLoader targetLoader;
+
+        PredicateClassLoader(ClassLoader targetLoader) {
+            super(CompiledPredicate.class.getClassLoader());
+            this.targetLoader = targetLoader;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (targetLoader == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return targetLoader.loadClass(name);
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+
+/**
+ * <p>
+ * Describes the execution of a CQL query, see {@link CqlQueryListener}.
+ * </p>
+ * <p>
+ * Queries that only differ in their literal values share the same {@link #getFingerprint() fingerprint}, so that
+ * their statistics can be aggregated. The parse and translation times are those of the (cached) compiled
+ * expression; {@link #isCacheHit()} tells whether this query actually paid for them.
+ * </p>
+ * <p>
+ * The generated SQL is rendered on request only, from the criteria that was executed. Since this requires the
+ * session of the query, {@link #getSql()} must be called during the listener callback.
+ * </p>
+ */
+public class CqlQueryEvent {
+
+    /**
+     * The operations that produce events.
+     */
+    public enum Operation {
+        /** The expression was only translated to criteria, e.g. by {@link CqlHibernate#toCriteria(String, Class)}. */
+        TRANSLATE,
+        /** The matching objects were listed. */
+        LIST,
+        /** The matching objects were counted. */
+        COUNT,
+        /** The existence of a matching object was checked. */
+        EXISTS,
+        /** A page of the matching objects was read. */
+        PAGE,
+        /** The matching objects were read from a cursor; the execution time is the time the cursor was open. */
+        SCROLL
+    }
+
+    final private String cqlExpression;
+    final private String fingerprint;
+    final private Class<?> entityClass;
+    final private Operation operation;
+    final private long parseNanos;
+    final private long translationNanos;
+    final private boolean cacheHit;
+    final private long executionNanos;
+    final private long rowCount;
+    final private RuntimeException failure;
+    final private Criteria criteria;
+    private String sql;
+
+    CqlQueryEvent(String cqlExpression, Class<?> entityClass, Operation operation, CompiledCql compiled, boolean cacheHit,
+                  long executionNanos, long rowCount, RuntimeException failure, Criteria criteria) {
+        this.cqlExpression = cqlExpression;
+        this.fingerprint = compiled.getFingerprint(cqlExpression);
+        this.entityClass = entityClass;
+        this.operation = operation;
+        this.parseNanos = compiled.getParseNanos();
+        this.translationNanos = compiled.getTranslationNanos();
+        this.cacheHit = cacheHit;
+        this.executionNanos = executionNanos;
+        this.rowCount = rowCount;
+        this.failure = failure;
+        this.criteria = criteria;
+    }
+
+    /**
+     * Returns the CQL expression of the query.
+     *
+     * @return the CQL expression, as passed by the caller.
+     */
+    public String getCqlExpression() {
+        return cqlExpression;
+    }
+
+    /**
+     * Returns the fingerprint of the query: the name of the entity class and the CQL expression, in which all
+     * literal values are replaced by <code>?</code>. See {@link CqlInstrumentation#fingerprint(String, Class)}.
+     *
+     * @return the fingerprint
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the class of the queried objects.
+     *
+     * @return the entity class
+     */
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Returns the operation that was executed.
+     *
+     * @return the operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the time it took to parse the CQL expression.
+     *
+     * @return the parse time, in nanoseconds.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Returns the time it took to translate the parsed CQL expression to criteria.
+     *
+     * @return the translation time, in nanoseconds.
+     */
+    public long getTranslationNanos() {
+        return translationNanos;
+    }
+
+    /**
+     * Checks whether the compiled expression was taken from the cache, in which case this query did not parse or
+     * translate it.
+     *
+     * @return false if this query parsed and translated the expression
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * Returns the time the database spent on the query, including reading the result.
+     *
+     * @return the execution time, in nanoseconds, or 0 if the query was not sent to the database.
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    /**
+     * Returns the number of rows that the query returned.
+     *
+     * @return the row count, or -1 if the query failed or was only translated.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the exception with which the query failed.
+     *
+     * @return the exception, or null if the query succeeded.
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the SQL that was sent to the database. The SQL is rendered on the first call, so this method must be
+     * called during the listener callback.
+     *
+     * @return the SQL, or null if the query was not sent to the database or its SQL cannot be rendered.
+     */
+    public String getSql() {
+        if (sql == null && criteria != null) {
+            sql = CriteriaSqlRenderer.render(criteria);
+        }
+        return sql;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (%d rows, %.3f ms)", operation, fingerprint, rowCount, executionNanos / 1e6);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * <p>
+ * Receives an event for every CQL query that is executed through {@link CqlHibernate}.
+ * </p>
+ * <p>
+ * Listeners are registered with {@link CqlInstrumentation#addListener(CqlQueryListener)}. They are called
+ * synchronously, on the thread that executed the query, so they should return quickly. An exception thrown by a
+ * listener is logged and otherwise ignored; it never affects the query.
+ * </p>
+ */
+public interface CqlQueryListener {
+
+    /**
+     * Called after a query has been executed, or after it has failed.
+     *
+     * @param event the details of the query. The event is only valid during this call.
+     */
+    void queryExecuted(CqlQueryEvent event);
+}
@@ -0,0 +1,501 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A {@link CqlQueryListener} that aggregates the query events per fingerprint, in memory.
+ * </p>
+ * <p>
+ * For each fingerprint, the statistics hold the number of executions, failures and returned rows, the total and
+ * maximum execution time, the percentiles of the execution time of the most recent executions, the parse and
+ * translation times, and the SQL of one execution. Queries that take at least the slow query threshold are logged
+ * as a warning, with their SQL.
+ * </p>
+ * <p>
+ * The number of fingerprints is bounded: once the maximum is reached, the queries with a new fingerprint are
+ * aggregated under {@link #OTHER_FINGERPRINT}. The statistics can be exposed as an MBean with
+ * {@link #registerMBean()}.
+ * </p>
+ * <p>This class is thread-safe.</p>
+ */
+public class CqlQueryStatistics implements CqlQueryListener, CqlQueryStatisticsMBean {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CqlQueryStatistics.class);
+
+    /**
+     * The default slow query threshold, in milliseconds.
+     */
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 1000;
+
+    /**
+     * The default maximum number of fingerprints.
+     */
+    public static final int DEFAULT_MAXIMUM_FINGERPRINTS = 1000;
+
+    /**
+     * The name under which {@link #registerMBean()} registers the statistics.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.geolatte.common.cql:type=CqlQueryStatistics";
+
+    /**
+     * The fingerprint of the queries that exceed the maximum number of fingerprints.
+     */
+    public static final String OTHER_FINGERPRINT = "<other>";
+
+    /**
+     * The number of most recent executions per fingerprint from which the percentiles are computed.
+     */
+    public static final int SAMPLE_SIZE = 1024;
+
+    private static final int TOP_OFFENDER_SUMMARIES = 10;
+
+    private static final Comparator<FingerprintStatistics> BY_TOTAL_EXECUTION_TIME = new Comparator<FingerprintStatistics>() {
+        public int compare(FingerprintStatistics o1, FingerprintStatistics o2) {
+            long t1 = o1.getTotalExecutionNanos();
+            long t2 = o2.getTotalExecutionNanos();
+            return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+        }
+    };
+
+    final private ConcurrentMap<String, FingerprintStatistics> statistics = new ConcurrentHashMap<String, FingerprintStatistics>();
+    final private int maximumFingerprints;
+    final private AtomicLong queryCount = new AtomicLong();
+    final private AtomicLong failedQueryCount = new AtomicLong();
+    final private AtomicLong slowQueryCount = new AtomicLong();
+    private volatile long slowQueryThresholdNanos;
+    private ObjectName registeredName;
+
+    /**
+     * Creates statistics with the default slow query threshold and maximum number of fingerprints.
+     */
+    public CqlQueryStatistics() {
+        this(DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Creates statistics with the given slow query threshold.
+     *
+     * @param slowQueryThresholdMillis the execution time from which a query is logged, or 0 to log no queries.
+     */
+    public CqlQueryStatistics(long slowQueryThresholdMillis) {
+        this(slowQueryThresholdMillis, DEFAULT_MAXIMUM_FINGERPRINTS);
+    }
+
+    /**
+     * Creates statistics with the given slow query threshold and maximum number of fingerprints.
+     *
+     * @param slowQueryThresholdMillis the execution time from which a query is logged, or 0 to log no queries.
+     * @param maximumFingerprints the maximum number of fingerprints for which statistics are kept separately.
+     * @throws IllegalArgumentException if the threshold is negative, or maximumFingerprints is not positive.
+     */
+    public CqlQueryStatistics(long slowQueryThresholdMillis, int maximumFingerprints) {
+        if (maximumFingerprints <= 0) {
+            throw new IllegalArgumentException("Maximum number of fingerprints must be positive.");
+        }
+        this.maximumFingerprints = maximumFingerprints;
+        setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+    }
+
+    public void queryExecuted(CqlQueryEvent event) {
+        FingerprintStatistics entry = entryFor(event);
+        if (event.getOperation() == CqlQueryEvent.Operation.TRANSLATE) {
+            entry.recordCompilation(event);
+            return;
+        }
+        long threshold = slowQueryThresholdNanos;
+        boolean slow = threshold > 0 && event.getExecutionNanos() >= threshold;
+        String sql = slow || !entry.hasSql() ? event.getSql() : null;
+        entry.recordExecution(event, slow, sql);
+        queryCount.incrementAndGet();
+        if (event.getFailure() != null) {
+            failedQueryCount.incrementAndGet();
+        }
+        if (slow) {
+            slowQueryCount.incrementAndGet();
+            LOGGER.warn(String.format("Slow CQL query (%.1f ms, %d rows): %s%nCQL: %s%nSQL: %s",
+                    event.getExecutionNanos() / 1e6, event.getRowCount(), event.getFingerprint(),
+                    event.getCqlExpression(), sql));
+        }
+    }
+
+    private FingerprintStatistics entryFor(CqlQueryEvent event) {
+        String fingerprint = event.getFingerprint();
+        FingerprintStatistics entry = statistics.get(fingerprint);
+        if (entry != null) {
+            return entry;
+        }
+        // the bound is approximate under concurrent inserts, which is good enough to keep memory in check.
+        if (statistics.size() >= maximumFingerprints) {
+            fingerprint = OTHER_FINGERPRINT;
+            entry = statistics.get(fingerprint);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        entry = new FingerprintStatistics(fingerprint);
+        FingerprintStatistics existing = statistics.putIfAbsent(fingerprint, entry);
+        return existing != null ? existing : entry;
+    }
+
+    /**
+     * Returns the statistics of a fingerprint.
+     *
+     * @param fingerprint the fingerprint, see {@link CqlInstrumentation#fingerprint(String, Class)}.
+     * @return the statistics, or null if no query with the fingerprint was recorded.
+     */
+    public FingerprintStatistics getStatistics(String fingerprint) {
+        return statistics.get(fingerprint);
+    }
+
+    /**
+     * Returns the statistics of all fingerprints.
+     *
+     * @return the statistics, in no particular order.
+     */
+    public List<FingerprintStatistics> getStatistics() {
+        return new ArrayList<FingerprintStatistics>(statistics.values());
+    }
+
+    /**
+     * Returns the fingerprints with the largest total execution time.
+     *
+     * @param count the maximum number of fingerprints to return
+     * @return the statistics of the fingerprints, the largest total execution time first.
+     */
+    public List<FingerprintStatistics> getTopOffenders(int count) {
+        List<FingerprintStatistics> result = getStatistics();
+        Collections.sort(result, BY_TOTAL_EXECUTION_TIME);
+        return result.size() <= count ? result : new ArrayList<FingerprintStatistics>(result.subList(0, count));
+    }
+
+    public String[] getTopOffenderSummaries() {
+        List<FingerprintStatistics> topOffenders = getTopOffenders(TOP_OFFENDER_SUMMARIES);
+        String[] result = new String[topOffenders.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = topOffenders.get(i).toString();
+        }
+        return result;
+    }
+
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    public long getFailedQueryCount() {
+        return failedQueryCount.get();
+    }
+
+    public long getSlowQueryCount() {
+        return slowQueryCount.get();
+    }
+
+    public int getFingerprintCount() {
+        return statistics.size();
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the threshold is negative.
+     */
+    public void setSlowQueryThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query threshold cannot be negative.");
+        }
+        slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    public void reset() {
+        statistics.clear();
+        queryCount.set(0);
+        failedQueryCount.set(0);
+        slowQueryCount.set(0);
+    }
+
+    /**
+     * Registers these statistics as an MBean with the platform MBean server, under {@link #DEFAULT_OBJECT_NAME}.
+     *
+     * @throws JMException if the MBean cannot be registered, e.g. because the name is already taken.
+     */
+    public void registerMBean() throws JMException {
+        registerMBean(DEFAULT_OBJECT_NAME);
+    }
+
+    /**
+     * Registers these statistics as an MBean with the platform MBean server.
+     *
+     * @param objectName the name of the MBean
+     * @throws JMException if the MBean cannot be registered, e.g. because the name is already taken.
+     * @throws IllegalStateException if these statistics are already registered.
+     */
+    public synchronized void registerMBean(String objectName) throws JMException {
+        if (registeredName != null) {
+            throw new IllegalStateException("Statistics are already registered as " + registeredName);
+        }
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        registeredName = name;
+    }
+
+    /**
+     * Unregisters the MBean of these statistics. Calling this method when the statistics are not registered has no
+     * effect.
+     *
+     * @throws JMException if the MBean cannot be unregistered.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName)) {
+            server.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * The statistics of the queries that share a fingerprint. The statistics are updated as queries are executed.
+     */
+    public static final class FingerprintStatistics {
+
+        final private String fingerprint;
+        final private long[] samples = new long[SAMPLE_SIZE];
+        // the number of samples, up to SAMPLE_SIZE, and the position of the next sample in the ring
+        private int sampleCount;
+        private int samplePosition;
+        private long executionCount;
+        private long failureCount;
+        private long slowExecutionCount;
+        private long rowCount;
+        private long totalExecutionNanos;
+        private long maxExecutionNanos;
+        private long compilationCount;
+        private long totalParseNanos;
+        private long totalTranslationNanos;
+        private String sql;
+
+        FingerprintStatistics(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        synchronized void recordCompilation(CqlQueryEvent event) {
+            compilationCount++;
+            totalParseNanos += event.getParseNanos();
+            totalTranslationNanos += event.getTranslationNanos();
+        }
+
+        synchronized void recordExecution(CqlQueryEvent event, boolean slow, String executedSql) {
+            if (!event.isCacheHit()) {
+                recordCompilation(event);
+            }
+            executionCount++;
+            if (event.getFailure() != null) {
+                failureCount++;
+            } else {
+                rowCount += event.getRowCount();
+            }
+            if (slow) {
+                slowExecutionCount++;
+            }
+            long nanos = event.getExecutionNanos();
+            totalExecutionNanos += nanos;
+            maxExecutionNanos = Math.max(maxExecutionNanos, nanos);
+            samples[samplePosition] = nanos;
+            samplePosition = (samplePosition + 1) % SAMPLE_SIZE;
+            if (sampleCount < SAMPLE_SIZE) {
+                sampleCount++;
+            }
+            if (sql == null) {
+                sql = executedSql;
+            }
+        }
+
+        synchronized boolean hasSql() {
+            return sql != null;
+        }
+
+        /**
+         * Returns the fingerprint.
+         *
+         * @return the fingerprint, or {@link CqlQueryStatistics#OTHER_FINGERPRINT}.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the number of executions, including the failed ones.
+         *
+         * @return the execution count
+         */
+        public synchronized long getExecutionCount() {
+            return executionCount;
+        }
+
+        /**
+         * Returns the number of executions that failed.
+         *
+         * @return the failure count
+         */
+        public synchronized long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Returns the number of executions that took at least the slow query threshold.
+         *
+         * @return the slow execution count
+         */
+        public synchronized long getSlowExecutionCount() {
+            return slowExecutionCount;
+        }
+
+        /**
+         * Returns the total number of rows returned by the executions.
+         *
+         * @return the row count
+         */
+        public synchronized long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the total execution time.
+         *
+         * @return the total execution time, in nanoseconds.
+         */
+        public synchronized long getTotalExecutionNanos() {
+            return totalExecutionNanos;
+        }
+
+        /**
+         * Returns the longest execution time.
+         *
+         * @return the maximum execution time, in nanoseconds.
+         */
+        public synchronized long getMaxExecutionNanos() {
+            return maxExecutionNanos;
+        }
+
+        /**
+         * Returns the mean execution time.
+         *
+         * @return the mean execution time, in nanoseconds, or 0 if there were no executions.
+         */
+        public synchronized long getMeanExecutionNanos() {
+            return executionCount == 0 ? 0 : totalExecutionNanos / executionCount;
+        }
+
+        /**
+         * Returns a percentile of the execution time of the most recent {@link CqlQueryStatistics#SAMPLE_SIZE}
+         * executions, e.g. 50 for the median or 99 for the time within which 99% of the executions completed.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the execution time, in nanoseconds, or 0 if there were no executions.
+         * @throws IllegalArgumentException if the percentile is not between 0 and 100.
+         */
+        public long getExecutionPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            }
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(samples, sampleCount);
+            }
+            if (sorted.length == 0) {
+                return 0;
+            }
+            Arrays.sort(sorted);
+            // nearest rank
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(rank - 1, 0)];
+        }
+
+        /**
+         * Returns the number of times the expression was parsed and translated.
+         *
+         * @return the compilation count
+         */
+        public synchronized long getCompilationCount() {
+            return compilationCount;
+        }
+
+        /**
+         * Returns the mean time it took to parse the expression.
+         *
+         * @return the mean parse time, in nanoseconds, or 0 if the expression was not compiled.
+         */
+        public synchronized long getMeanParseNanos() {
+            return compilationCount == 0 ? 0 : totalParseNanos / compilationCount;
+        }
+
+        /**
+         * Returns the mean time it took to translate the expression.
+         *
+         * @return the mean translation time, in nanoseconds, or 0 if the expression was not compiled.
+         */
+        public synchronized long getMeanTranslationNanos() {
+            return compilationCount == 0 ? 0 : totalTranslationNanos / compilationCount;
+        }
+
+        /**
+         * Returns the SQL of one of the executions.
+         *
+         * @return the SQL, or null if it could not be rendered.
+         */
+        public synchronized String getSql() {
+            return sql;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d executions, %d rows, total %.1f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    fingerprint, getExecutionCount(), getRowCount(), getTotalExecutionNanos() / 1e6,
+                    getExecutionPercentileNanos(50) / 1e6, getExecutionPercentileNanos(99) / 1e6,
+                    getMaxExecutionNanos() / 1e6);
+        }
+    }
+}
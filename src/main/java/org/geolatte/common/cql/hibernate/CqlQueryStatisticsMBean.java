@@ -0,0 +1,83 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+/**
+ * The JMX management interface of {@link CqlQueryStatistics}.
+ */
+public interface CqlQueryStatisticsMBean {
+
+    /**
+     * Returns the number of queries that were executed.
+     *
+     * @return the query count
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the number of queries that failed.
+     *
+     * @return the failed query count
+     */
+    long getFailedQueryCount();
+
+    /**
+     * Returns the number of queries that took at least the slow query threshold.
+     *
+     * @return the slow query count
+     */
+    long getSlowQueryCount();
+
+    /**
+     * Returns the number of distinct query fingerprints for which statistics are kept.
+     *
+     * @return the fingerprint count
+     */
+    int getFingerprintCount();
+
+    /**
+     * Returns the execution time from which a query is logged as slow.
+     *
+     * @return the threshold in milliseconds, 0 if slow queries are not logged.
+     */
+    long getSlowQueryThresholdMillis();
+
+    /**
+     * Sets the execution time from which a query is logged as slow.
+     *
+     * @param thresholdMillis the threshold in milliseconds, or 0 to stop logging slow queries.
+     */
+    void setSlowQueryThresholdMillis(long thresholdMillis);
+
+    /**
+     * Returns a summary of the ten fingerprints with the largest total execution time.
+     *
+     * @return one line per fingerprint, the largest total execution time first.
+     */
+    String[] getTopOffenderSummaries();
+
+    /**
+     * Discards all statistics.
+     */
+    void reset();
+}
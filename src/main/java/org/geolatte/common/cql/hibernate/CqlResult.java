@@ -0,0 +1,67 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * The result of a CQL query that is subject to a {@link CqlComplexityPolicy}, as returned by
+ * {@link CqlHibernate#limitedList(String, Class, org.hibernate.Session, CqlComplexityPolicy)}.
+ * </p>
+ * <p>
+ * The policy limits the number of objects that an expensive query returns. A result that was cut at that limit is
+ * flagged as truncated, so that the caller can tell the user that the result is incomplete.
+ * </p>
+ *
+ * @param <T> the type of the objects in the result
+ */
+public class CqlResult<T> {
+
+    final private List<T> items;
+    final private boolean truncated;
+
+    CqlResult(List<T> items, boolean truncated) {
+        this.items = Collections.unmodifiableList(items);
+        this.truncated = truncated;
+    }
+
+    /**
+     * Returns the objects that satisfy the CQL expression.
+     *
+     * @return the (possibly empty) list of objects
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Checks whether the policy cut this result at the maximum number of results of expensive queries.
+     *
+     * @return true if more objects satisfy the CQL expression than this result holds
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
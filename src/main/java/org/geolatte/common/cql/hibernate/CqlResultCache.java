@@ -0,0 +1,523 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.automapper.TableRef;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An opt-in cache of the results of CQL queries, for queries on tables that change rarely, such as reference data
+ * that is shown on dashboards. The queries are executed with {@link CqlHibernate}; their results are kept in memory
+ * and are returned to later calls for the same query.
+ * </p>
+ * <p>
+ * Results are keyed on the CQL expression (with its whitespace normalized), the entity class, the operation and the
+ * paging parameters. The cache is bounded by the number of entries and by the estimated size of the results; the
+ * least recently used entries are evicted first. Results that are larger than the maximum size are not cached.
+ * </p>
+ * <p>
+ * The cache does not see the changes that are made to the database. Entries are invalidated explicitly per table
+ * with {@link #invalidate(TableRef)} (which invalidates all results that read the table, also through a join), per
+ * class or altogether, and optionally expire after a time to live.
+ * </p>
+ * <p>
+ * On a miss, the query is executed in a separate session on the connection of the given session, which is closed
+ * afterwards, so that the cached entities are detached: they are not attached to the session of the caller that
+ * loaded them, also not on that call, and their lazy associations cannot be loaded. They are shared by all callers
+ * that receive them from the cache, and must be treated as read-only. The returned lists are unmodifiable.
+ * </p>
+ * <p>This class is thread-safe.</p>
+ */
+public class CqlResultCache {
+
+    /**
+     * The default maximum number of cached results.
+     */
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+    /**
+     * The default maximum estimated size of the cached results, in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_BYTES = 64L * 1024 * 1024;
+
+    private enum Operation {
+        LIST, COUNT, PAGE
+    }
+
+    final private int maximumEntries;
+    final private long maximumBytes;
+    final private long timeToLiveNanos;
+    // guarded by this
+    final private LinkedHashMap<Key, CachedResult> entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true);
+    private long estimatedBytes;
+    final private AtomicLong hits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
+    final private AtomicLong evictions = new AtomicLong();
+    final private AtomicLong invalidations = new AtomicLong();
+    // incremented by every invalidation, so that a result that was read before an invalidation is not cached after it
+    final private AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates a cache with the default bounds, of which the entries do not expire.
+     */
+    public CqlResultCache() {
+        this(DEFAULT_MAXIMUM_ENTRIES, DEFAULT_MAXIMUM_BYTES, 0);
+    }
+
+    /**
+     * Creates a cache with the given bounds and time to live.
+     *
+     * @param maximumEntries the maximum number of cached results
+     * @param maximumBytes the maximum estimated size of the cached results, in bytes.
+     * @param timeToLiveMillis the time after which a result expires, in milliseconds, or 0 if results do not expire.
+     * @throws IllegalArgumentException if a maximum is not positive, or the time to live is negative.
+     */
+    public CqlResultCache(int maximumEntries, long maximumBytes, long timeToLiveMillis) {
+        if (maximumEntries <= 0 || maximumBytes <= 0) {
+            throw new IllegalArgumentException("Maximum entries and bytes must be positive.");
+        }
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative.");
+        }
+        this.maximumEntries = maximumEntries;
+        this.maximumBytes = maximumBytes;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+    }
+
+    /**
+     * Returns the objects of the given class that satisfy the CQL expression, from the cache if possible. See
+     * {@link CqlHibernate#list(String, Class, Session)}.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session on whose connection the query is executed on a miss.
+     * @return The unmodifiable list of (detached) objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public List list(String cqlExpression, Class forClass, Session session) throws ParseException {
+        Key key = new Key(Operation.LIST, cqlExpression, forClass, null, 0, null);
+        Object cached = get(key);
+        if (cached != null) {
+            return (List) cached;
+        }
+        long startGeneration = generation.get();
+        List result;
+        Session loader = openLoader(session);
+        try {
+            result = Collections.unmodifiableList(new ArrayList(CqlHibernate.list(cqlExpression, forClass, loader)));
+        } finally {
+            loader.close();
+        }
+        put(key, result, ObjectSizeEstimator.estimate(result), cqlExpression, forClass, session, startGeneration);
+        return result;
+    }
+
+    /**
+     * Returns the number of objects of the given class that satisfy the CQL expression, from the cache if possible.
+     * See {@link CqlHibernate#count(String, Class, Session)}.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session used to execute the query on a miss.
+     * @return The number of objects that satisfy the CQL expression.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    public long count(String cqlExpression, Class forClass, Session session) throws ParseException {
+        Key key = new Key(Operation.COUNT, cqlExpression, forClass, null, 0, null);
+        Object cached = get(key);
+        if (cached != null) {
+            return (Long) cached;
+        }
+        long startGeneration = generation.get();
+        Long result = CqlHibernate.count(cqlExpression, forClass, session);
+        put(key, result, ObjectSizeEstimator.estimate(result), cqlExpression, forClass, session, startGeneration);
+        return result;
+    }
+
+    /**
+     * Returns a page of the objects of the given class that satisfy the CQL expression, from the cache if possible.
+     * See {@link CqlHibernate#page(String, Class, Session, String, int, String)}.
+     *
+     * @param cqlExpression The CQL expression
+     * @param forClass The class of the objects on which the CQL expression will be applied.
+     * @param session The Hibernate session on whose connection the query is executed on a miss.
+     * @param keyProperty The (unique) property on which the result is ordered.
+     * @param pageSize The maximum number of objects in the page.
+     * @param continuationToken The continuation token of the previous page, or null for the first page.
+     * @return The page of (detached) objects.
+     * @throws java.text.ParseException When parsing fails for any reason (parser, lexer, IO)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CqlPage<T> page(String cqlExpression, Class<T> forClass, Session session, String keyProperty, int pageSize, String continuationToken) throws ParseException {
+        Key key = new Key(Operation.PAGE, cqlExpression, forClass, keyProperty, pageSize, continuationToken);
+        Object cached = get(key);
+        if (cached != null) {
+            return (CqlPage<T>) cached;
+        }
+        long startGeneration = generation.get();
+        CqlPage<T> result;
+        Session loader = openLoader(session);
+        try {
+            result = CqlHibernate.page(cqlExpression, forClass, loader, keyProperty, pageSize, continuationToken);
+        } finally {
+            loader.close();
+        }
+        put(key, result, ObjectSizeEstimator.estimate(result.getItems()), cqlExpression, forClass, session, startGeneration);
+        return result;
+    }
+
+    /**
+     * Opens the session that executes a missed query: a session on the connection, and so in the transaction, of the
+     * given session, of which the entities are detached when it is closed. Pending changes of the given session are
+     * flushed first, unless it is flushed manually, as it would do before executing the query itself.
+     */
+    private static Session openLoader(Session session) {
+        if (!FlushMode.isManualFlushMode(session.getFlushMode()) && session.isDirty()) {
+            session.flush();
+        }
+        return session.getSessionFactory().openSession(session.connection());
+    }
+
+    private synchronized Object get(Key key) {
+        CachedResult entry = entries.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            remove(key, entry);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    private void put(Key key, Object value, long size, String cqlExpression, Class<?> forClass, Session session, long startGeneration) throws ParseException {
+        if (size > maximumBytes) {
+            return;
+        }
+        Set<String> querySpaces = CriteriaSqlRenderer.getQuerySpaces(
+                CqlHibernate.getCriteriaCache().toCriteria(cqlExpression, forClass).getExecutableCriteria(session));
+        long expiresAt = timeToLiveNanos == 0 ? 0 : System.nanoTime() + timeToLiveNanos;
+        CachedResult entry = new CachedResult(value, size, forClass, querySpaces, expiresAt);
+        synchronized (this) {
+            if (generation.get() != startGeneration) {
+                // invalidated while the query was running, the result may be stale.
+                return;
+            }
+            CachedResult previous = entries.put(key, entry);
+            if (previous != null) {
+                estimatedBytes -= previous.size;
+            }
+            estimatedBytes += size;
+            Iterator<Map.Entry<Key, CachedResult>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maximumEntries || estimatedBytes > maximumBytes) {
+                CachedResult evicted = eldest.next().getValue();
+                eldest.remove();
+                estimatedBytes -= evicted.size;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(Key key, CachedResult entry) {
+        entries.remove(key);
+        estimatedBytes -= entry.size;
+    }
+
+    /**
+     * Invalidates the results of the queries that read the given table, either as the table of the queried class or
+     * through a join. Results of which the tables could not be determined are invalidated as well. The catalog and
+     * schema of the table are only compared if they are known on both sides, and names are compared ignoring case.
+     *
+     * @param tableRef the table that has changed
+     * @return the number of invalidated results
+     */
+    public synchronized int invalidate(TableRef tableRef) {
+        if (tableRef == null) {
+            throw new IllegalArgumentException("TableRef cannot be null.");
+        }
+        generation.incrementAndGet();
+        int count = 0;
+        for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext(); ) {
+            CachedResult entry = it.next();
+            if (entry.reads(tableRef)) {
+                it.remove();
+                estimatedBytes -= entry.size;
+                count++;
+            }
+        }
+        invalidations.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Invalidates the results of the queries for the given class and its subclasses.
+     *
+     * @param entityClass the queried class
+     * @return the number of invalidated results
+     */
+    public synchronized int invalidate(Class<?> entityClass) {
+        generation.incrementAndGet();
+        int count = 0;
+        for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext(); ) {
+            CachedResult entry = it.next();
+            if (entityClass.isAssignableFrom(entry.entityClass)) {
+                it.remove();
+                estimatedBytes -= entry.size;
+                count++;
+            }
+        }
+        invalidations.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Invalidates all results.
+     */
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+        estimatedBytes = 0;
+    }
+
+    /**
+     * Returns the number of calls that were served from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of calls that executed the query.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of the calls that were served from the cache.
+     *
+     * @return the hit ratio, between 0 and 1, or 0 if the cache has not been used.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns the number of results that were removed because the cache was full, or because they expired.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of results that were removed by an invalidation.
+     *
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the current size
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of the cached results.
+     *
+     * @return the estimated size, in bytes.
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Returns the maximum number of cached results.
+     *
+     * @return the maximum number of entries
+     */
+    public int getMaximumEntries() {
+        return maximumEntries;
+    }
+
+    /**
+     * Returns the maximum estimated size of the cached results.
+     *
+     * @return the maximum size, in bytes.
+     */
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * Collapses the whitespace outside of string literals, so that formatting does not produce distinct entries.
+     */
+    static String normalize(String cqlExpression) {
+        StringBuilder builder = new StringBuilder(cqlExpression.length());
+        boolean quoted = false;
+        boolean space = false;
+        for (int i = 0; i < cqlExpression.length(); i++) {
+            char c = cqlExpression.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && builder.length() > 0) {
+                builder.append(' ');
+            }
+            space = false;
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static class CachedResult {
+
+        final private Object value;
+        final private long size;
+        final private Class<?> entityClass;
+        final private List<String[]> tables;
+        final private long expiresAt;
+
+        CachedResult(Object value, long size, Class<?> entityClass, Set<String> querySpaces, long expiresAt) {
+            this.value = value;
+            this.size = size;
+            this.entityClass = entityClass;
+            this.expiresAt = expiresAt;
+            if (querySpaces == null) {
+                this.tables = null;
+            } else {
+                this.tables = new ArrayList<String[]>(querySpaces.size());
+                for (String querySpace : querySpaces) {
+                    tables.add(querySpace.replaceAll("[\"`\\[\\]]", "").split("\\."));
+                }
+            }
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt > 0;
+        }
+
+        /**
+         * Checks whether the result may have been read from the given table.
+         */
+        boolean reads(TableRef tableRef) {
+            if (tables == null) {
+                return true;
+            }
+            for (String[] table : tables) {
+                int n = table.length;
+                if (table[n - 1].equalsIgnoreCase(tableRef.getTableName())
+                        && matches(n > 1 ? table[n - 2] : null, tableRef.getSchema())
+                        && matches(n > 2 ? table[n - 3] : null, tableRef.getCatalog())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(String name, String other) {
+            return name == null || other == null || name.equalsIgnoreCase(other);
+        }
+    }
+
+    private static class Key {
+
+        final private Operation operation;
+        final private String cqlExpression;
+        final private Class<?> forClass;
+        final private String keyProperty;
+        final private int pageSize;
+        final private String continuationToken;
+
+        Key(Operation operation, String cqlExpression, Class<?> forClass, String keyProperty, int pageSize, String continuationToken) {
+            if (cqlExpression == null || forClass == null) {
+                throw new IllegalArgumentException("Null arguments not allowed.");
+            }
+            this.operation = operation;
+            // a page is not shared between expressions that only differ in whitespace, since its continuation
+            // token is only valid for the exact expression.
+            this.cqlExpression = operation == Operation.PAGE ? cqlExpression : normalize(cqlExpression);
+            this.forClass = forClass;
+            this.keyProperty = keyProperty;
+            this.pageSize = pageSize;
+            this.continuationToken = continuationToken;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+            return operation == key.operation && pageSize == key.pageSize && forClass.equals(key.forClass)
+                    && cqlExpression.equals(key.cqlExpression)
+                    && (keyProperty == null ? key.keyProperty == null : keyProperty.equals(key.keyProperty))
+                    && (continuationToken == null ? key.continuationToken == null : continuationToken.equals(key.continuationToken));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = operation.hashCode();
+            result = 31 * result + cqlExpression.hashCode();
+            result = 31 * result + forClass.hashCode();
+            result = 31 * result + (keyProperty != null ? keyProperty.hashCode() : 0);
+            result = 31 * result + pageSize;
+            result = 31 * result + (continuationToken != null ? continuationToken.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Iterates over the result of a CQL query without loading the complete result in memory.
+ * </p>
+ * <p>
+ * The objects are read from a forward-only <code>ScrollableResults</code>. If the query is executed on a
+ * <code>Session</code>, each object is evicted from the session when the iterator moves on to the next one, so that
+ * the first-level cache does not grow with the size of the result. Associations that are loaded along with an
+ * object are not evicted, unless the mapping cascades evict; use a <code>StatelessSession</code> to keep nothing
+ * in memory at all.
+ * </p>
+ * <p>
+ * The iterator closes the underlying cursor once it is exhausted. An iterator that is abandoned before that must be
+ * closed explicitly. Instances are created by {@link CqlHibernate#scroll(String, Class, Session, int)} and are not
+ * thread-safe.
+ * </p>
+ *
+ * @param <T> the type of the objects in the result
+ */
+public class CqlResultIterator<T> implements Iterator<T> {
+
+    final private ScrollableResults results;
+    final private Session session;
+    final private Criteria criteria;
+    final private CqlInstrumentation.Execution execution;
+    private long rowCount;
+    private Object current;
+    private boolean advanced;
+    private boolean hasNext;
+    private boolean closed;
+
+    /**
+     * Creates an iterator over the given results.
+     *
+     * @param results the forward-only results, or null for an empty result
+     * @param session the session from which returned objects are evicted, or null for a stateless session
+     */
+    CqlResultIterator(ScrollableResults results, Session session) {
+        this(results, session, null, CqlInstrumentation.Execution.DISABLED);
+    }
+
+    /**
+     * Creates an iterator over the given results, which ends the given execution once it is closed.
+     *
+     * @param results the forward-only results, or null for an empty result
+     * @param session the session from which returned objects are evicted, or null for a stateless session
+     * @param criteria the criteria that produced the results
+     * @param execution the execution of the criteria
+     */
+    CqlResultIterator(ScrollableResults results, Session session, Criteria criteria, CqlInstrumentation.Execution execution) {
+        this.results = results;
+        this.session = session;
+        this.criteria = criteria;
+        this.execution = execution;
+        this.closed = results == null;
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!advanced) {
+            evictCurrent();
+            hasNext = results.next();
+            advanced = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        rowCount++;
+        current = results.get(0);
+        return (T) current;
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("Query results cannot be removed.");
+    }
+
+    /**
+     * Closes the underlying cursor. Calling this method on a closed iterator has no effect.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        evictCurrent();
+        try {
+            results.close();
+        } finally {
+            execution.succeeded(criteria, rowCount);
+        }
+    }
+
+    private void evictCurrent() {
+        if (session != null && current != null) {
+            session.evict(current);
+        }
+        current = null;
+    }
+}
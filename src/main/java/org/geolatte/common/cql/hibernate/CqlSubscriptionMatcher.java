@@ -0,0 +1,1127 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Matches objects against a large number of standing CQL subscriptions, e.g. to find out which clients must be
+ * notified of a change to an object.
+ * </p>
+ * <p>
+ * Rather than evaluating every subscription on every object, the matcher indexes the subscriptions on a condition that
+ * each of them requires: an equality or range test on a property, or the envelope of a spatial filter. For an object,
+ * only the subscriptions whose index condition holds are evaluated, so the cost of a match depends on the number of
+ * indexed properties and of candidate subscriptions rather than on the number of registered subscriptions.
+ * Subscriptions for which no such condition can be derived (e.g. <code>name LIKE 'A%'</code>, or a disjunction with a
+ * negation) are evaluated on every object.
+ * </p>
+ * <p>
+ * Subscriptions are optimized (see {@link CqlOptimizer}), and the predicates that they have in common are evaluated
+ * only once per object. Comparisons, LIKE and NULL tests are interpreted; other predicates (e.g. temporal ones) are
+ * compiled with the {@link CqlPredicateCompiler}. As with compiled predicates, a comparison on a null value never
+ * matches.
+ * </p>
+ * <p>This class is thread-safe: objects can be matched while subscriptions are being (un)registered.</p>
+ *
+ * @param <T> the class of the matched objects.
+ */
+public class CqlSubscriptionMatcher<T> {
+
+    private static final int EQUALITY_WEIGHT = 1;
+    private static final int SPATIAL_WEIGHT = 4;
+    private static final int RANGE_WEIGHT = 16;
+
+    final private Class<T> forClass;
+    final private String defaultGeometryProperty;
+    final private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    final private Map<String, Subscription> subscriptions = new HashMap<String, Subscription>();
+    final private Map<String, Atom> atoms = new HashMap<String, Atom>();
+    final private Map<String, Map<Object, Set<Subscription>>> equalityIndex = new HashMap<String, Map<Object, Set<Subscription>>>();
+    final private Map<String, RangeIndex> rangeIndex = new HashMap<String, RangeIndex>();
+    final private Map<String, Quadtree> spatialIndex = new HashMap<String, Quadtree>();
+    final private Set<Subscription> residual = new LinkedHashSet<Subscription>();
+
+    /**
+     * Creates a matcher for objects of the given class, without a default geometry property.
+     *
+     * @param forClass the class of the matched objects
+     */
+    public CqlSubscriptionMatcher(Class<T> forClass) {
+        this(forClass, null);
+    }
+
+    /**
+     * Creates a matcher for objects of the given class.
+     *
+     * @param forClass the class of the matched objects
+     * @param defaultGeometryProperty the geometry property to which spatial filters apply if they don't name one.
+     */
+    public CqlSubscriptionMatcher(Class<T> forClass, String defaultGeometryProperty) {
+        if (forClass == null) {
+            throw new IllegalArgumentException("Null class not allowed.");
+        }
+        this.forClass = forClass;
+        this.defaultGeometryProperty = defaultGeometryProperty;
+    }
+
+    /**
+     * Registers a subscription. A subscription that is already registered with the same id is replaced.
+     *
+     * @param id the id of the subscription
+     * @param cqlExpression the CQL expression that the matched objects must satisfy
+     * @param filters spatial filters that the matched objects must satisfy as well
+     * @throws ParseException When parsing fails for any reason (parser, lexer, IO)
+     * @throws IllegalArgumentException if the id or expression is null, if a spatial filter does not specify a
+     *                                  geometry property and this matcher has no default one, or if the expression
+     *                                  cannot be evaluated on the class of this matcher.
+     */
+    public void register(String id, String cqlExpression, SpatialFilter... filters) throws ParseException {
+        if (id == null || cqlExpression == null) {
+            throw new IllegalArgumentException("Null arguments not allowed.");
+        }
+        for (SpatialFilter filter : filters) {
+            if (filter.getPropertyName() == null && defaultGeometryProperty == null) {
+                throw new IllegalArgumentException("No geometry property specified for spatial filter " + filter);
+            }
+        }
+        CqlTerm term = CqlOptimizer.optimize(CompiledCql.parse(cqlExpression), forClass);
+        lock.writeLock().lock();
+        try {
+            Subscription subscription = new Subscription(id);
+            try {
+                build(subscription, term, filters);
+            } catch (RuntimeException e) {
+                release(subscription);
+                throw e;
+            }
+            remove(subscriptions.get(id));
+            subscriptions.put(id, subscription);
+            add(subscription);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param id the id of the subscription
+     * @return true if the subscription was registered, false otherwise.
+     */
+    public boolean unregister(String id) {
+        lock.writeLock().lock();
+        try {
+            Subscription subscription = subscriptions.get(id);
+            remove(subscription);
+            return subscription != null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of registered subscriptions.
+     *
+     * @return the number of subscriptions
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return subscriptions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the subscriptions that the given object satisfies.
+     *
+     * @param object the (changed) object
+     * @return the ids of the matching subscriptions, possibly empty.
+     */
+    public Set<String> match(T object) {
+        if (object == null) {
+            throw new IllegalArgumentException("Null object not allowed.");
+        }
+        Event event = new Event(object);
+        Set<String> result = new HashSet<String>();
+        lock.readLock().lock();
+        try {
+            for (Subscription candidate : candidates(event)) {
+                if (candidate.condition.evaluate(event)) {
+                    result.add(candidate.id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Collects the subscriptions of which the index conditions hold for the object.
+     */
+    private Set<Subscription> candidates(Event event) {
+        Set<Subscription> candidates = new LinkedHashSet<Subscription>(residual);
+        for (Map.Entry<String, Map<Object, Set<Subscription>>> entry : equalityIndex.entrySet()) {
+            Object value = event.normalizedValue(entry.getKey());
+            if (value != null) {
+                Set<Subscription> bucket = entry.getValue().get(value);
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+        }
+        for (Map.Entry<String, RangeIndex> entry : rangeIndex.entrySet()) {
+            Object value = event.normalizedValue(entry.getKey());
+            if (value != null) {
+                entry.getValue().collect(value, candidates);
+            }
+        }
+        for (Map.Entry<String, Quadtree> entry : spatialIndex.entrySet()) {
+            Object value = event.value(entry.getKey());
+            if (value instanceof Geometry) {
+                Envelope envelope = ((Geometry) value).getEnvelopeInternal();
+                for (Object item : entry.getValue().query(envelope)) {
+                    Anchor anchor = (Anchor) item;
+                    if (anchor.envelope.intersects(envelope)) {
+                        candidates.add(anchor.subscription);
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void add(Subscription subscription) {
+        if (subscription.anchors == null) {
+            if (subscription.condition != Condition.FALSE) {
+                residual.add(subscription);
+            }
+            return;
+        }
+        for (Anchor anchor : subscription.anchors) {
+            switch (anchor.kind) {
+                case EQUALITY:
+                    Map<Object, Set<Subscription>> values = equalityIndex.get(anchor.path);
+                    if (values == null) {
+                        values = new HashMap<Object, Set<Subscription>>();
+                        equalityIndex.put(anchor.path, values);
+                    }
+                    Set<Subscription> bucket = values.get(anchor.value);
+                    if (bucket == null) {
+                        bucket = new LinkedHashSet<Subscription>();
+                        values.put(anchor.value, bucket);
+                    }
+                    bucket.add(subscription);
+                    break;
+                case RANGE:
+                    RangeIndex ranges = rangeIndex.get(anchor.path);
+                    if (ranges == null) {
+                        ranges = new RangeIndex();
+                        rangeIndex.put(anchor.path, ranges);
+                    }
+                    ranges.add(anchor);
+                    break;
+                case SPATIAL:
+                    Quadtree tree = spatialIndex.get(anchor.path);
+                    if (tree == null) {
+                        tree = new Quadtree();
+                        spatialIndex.put(anchor.path, tree);
+                    }
+                    tree.insert(anchor.envelope, anchor);
+                    break;
+            }
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        if (subscription == null) {
+            return;
+        }
+        subscriptions.remove(subscription.id);
+        release(subscription);
+        if (subscription.anchors == null) {
+            residual.remove(subscription);
+            return;
+        }
+        for (Anchor anchor : subscription.anchors) {
+            switch (anchor.kind) {
+                case EQUALITY:
+                    Map<Object, Set<Subscription>> values = equalityIndex.get(anchor.path);
+                    Set<Subscription> bucket = values.get(anchor.value);
+                    if (bucket != null && bucket.remove(subscription) && bucket.isEmpty()) {
+                        values.remove(anchor.value);
+                        if (values.isEmpty()) {
+                            equalityIndex.remove(anchor.path);
+                        }
+                    }
+                    break;
+                case RANGE:
+                    RangeIndex ranges = rangeIndex.get(anchor.path);
+                    if (ranges.remove(anchor) && ranges.isEmpty()) {
+                        rangeIndex.remove(anchor.path);
+                    }
+                    break;
+                case SPATIAL:
+                    Quadtree tree = spatialIndex.get(anchor.path);
+                    if (tree.remove(anchor.envelope, anchor) && tree.size() == 0) {
+                        spatialIndex.remove(anchor.path);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Creates the condition of a subscription, and selects the anchors on which it is indexed.
+     */
+    private void build(Subscription subscription, CqlTerm term, SpatialFilter[] filters) {
+        if (term == CqlTerm.FALSE) {
+            return;
+        }
+        AtomFactory factory = new AtomFactory();
+        List<Condition> operands = new ArrayList<Condition>();
+        if (term != CqlTerm.TRUE) {
+            operands.add(condition(subscription, term, factory));
+        }
+        for (SpatialFilter filter : filters) {
+            String path = filter.getPropertyName() != null ? filter.getPropertyName() : defaultGeometryProperty;
+            operands.add(new Spatial(filter, path));
+        }
+        Condition condition = operands.isEmpty() ? Condition.TRUE
+                : operands.size() == 1 ? operands.get(0) : new Junction(true, operands);
+        subscription.condition = condition;
+        subscription.anchors = anchors(condition);
+        if (subscription.anchors != null) {
+            for (Anchor anchor : subscription.anchors) {
+                anchor.subscription = subscription;
+            }
+        }
+    }
+
+    private Condition condition(Subscription subscription, CqlTerm term, AtomFactory factory) {
+        if (term instanceof CqlTerm.Constant) {
+            return ((CqlTerm.Constant) term).getValue() ? Condition.TRUE : Condition.FALSE;
+        }
+        if (term instanceof CqlTerm.Junction) {
+            CqlTerm.Junction junction = (CqlTerm.Junction) term;
+            List<Condition> operands = new ArrayList<Condition>(junction.getOperands().size());
+            for (CqlTerm operand : junction.getOperands()) {
+                operands.add(condition(subscription, operand, factory));
+            }
+            return new Junction(junction.isConjunction(), operands);
+        }
+        Atom atom = atom(term, factory);
+        subscription.atoms.add(atom);
+        return atom;
+    }
+
+    /**
+     * Derives the anchors of a condition: a set of conditions of which at least one holds if the condition holds.
+     *
+     * @return the anchors, or null if there are none.
+     */
+    private List<Anchor> anchors(Condition condition) {
+        if (condition instanceof Comparison) {
+            Comparison comparison = (Comparison) condition;
+            switch (comparison.operator) {
+                case EQ:
+                    return Collections.singletonList(Anchor.equality(comparison.path, comparison.value));
+                case GT:
+                case GTE:
+                    return comparable(comparison.value) ? Collections.singletonList(Anchor.range(comparison, null)) : null;
+                case LT:
+                case LTE:
+                    return comparable(comparison.value) ? Collections.singletonList(Anchor.range(null, comparison)) : null;
+                default:
+                    return null;
+            }
+        }
+        if (condition instanceof RangeAtom) {
+            RangeAtom range = (RangeAtom) condition;
+            return comparable(range.lower.value) ? Collections.singletonList(Anchor.range(range.lower, range.upper)) : null;
+        }
+        if (condition instanceof InAtom) {
+            InAtom in = (InAtom) condition;
+            List<Anchor> result = new ArrayList<Anchor>(in.values.size());
+            for (Object value : in.values) {
+                result.add(Anchor.equality(in.path, value));
+            }
+            return result;
+        }
+        if (condition instanceof Spatial) {
+            Spatial spatial = (Spatial) condition;
+            return Collections.singletonList(Anchor.spatial(spatial.path, spatial.filter.getEnvelope()));
+        }
+        if (condition instanceof Junction) {
+            Junction junction = (Junction) condition;
+            return junction.conjunction ? best(junction.operands) : union(junction.operands);
+        }
+        return null;
+    }
+
+    /**
+     * Selects the anchors of the operand of a conjunction that is cheapest to index and most selective.
+     */
+    private List<Anchor> best(Condition[] operands) {
+        List<Anchor> best = null;
+        int bestWeight = Integer.MAX_VALUE;
+        for (Condition operand : operands) {
+            List<Anchor> anchors = anchors(operand);
+            if (anchors != null) {
+                int weight = 0;
+                for (Anchor anchor : anchors) {
+                    weight += anchor.weight();
+                }
+                if (weight < bestWeight) {
+                    best = anchors;
+                    bestWeight = weight;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Combines the anchors of all operands of a disjunction, which must all have anchors.
+     */
+    private List<Anchor> union(Condition[] operands) {
+        List<Anchor> result = new ArrayList<Anchor>();
+        for (Condition operand : operands) {
+            List<Anchor> anchors = anchors(operand);
+            if (anchors == null) {
+                return null;
+            }
+            result.addAll(anchors);
+        }
+        return result;
+    }
+
+    private static boolean comparable(Object value) {
+        return value instanceof Comparable;
+    }
+
+    /**
+     * Returns the atom for the given term, shared with the other subscriptions that contain it.
+     */
+    private Atom atom(CqlTerm term, AtomFactory factory) {
+        Atom atom = atoms.get(term.getKey());
+        if (atom == null) {
+            atom = factory.create(term);
+            atoms.put(term.getKey(), atom);
+        }
+        atom.references++;
+        return atom;
+    }
+
+    private void release(Subscription subscription) {
+        for (Atom atom : subscription.atoms) {
+            if (--atom.references == 0) {
+                atoms.remove(atom.key);
+            }
+        }
+        subscription.atoms.clear();
+    }
+
+    /**
+     * Brings numbers to a form in which equal values are equal objects (regardless of their type and scale), and dates
+     * to their time in milliseconds.
+     */
+    static Object normalize(Object value) {
+        BigDecimal number;
+        if (value instanceof BigDecimal) {
+            number = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            number = new BigDecimal((BigInteger) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return d;
+            }
+            number = new BigDecimal(value.toString());
+        } else if (value instanceof Number) {
+            number = BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else {
+            return value;
+        }
+        return number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+    }
+
+    /**
+     * Compares two normalized values.
+     *
+     * @return the result of compareTo, or null if the values cannot be compared.
+     */
+    @SuppressWarnings("unchecked")
+    private static Integer compare(Object value, Object constant) {
+        if (value instanceof Comparable && value.getClass() == constant.getClass()) {
+            return ((Comparable<Object>) value).compareTo(constant);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the value of a property path from an object.
+     *
+     * @return the value, or null if an intermediate value is null or the path does not exist on the object.
+     */
+    private static Object read(Object object, String path) {
+        Object current = object;
+        for (String part : path.split("\\.")) {
+            if (current == null) {
+                return null;
+            }
+            EntityMetaModel.Property property = EntityMetaModel.forClass(current.getClass()).getProperty(part);
+            if (property == null) {
+                return null;
+            }
+            current = property.read(current);
+        }
+        return current;
+    }
+
+    /**
+     * The values of an object that is being matched, and the results of the atoms that have been evaluated on it.
+     */
+    private static final class Event {
+
+        final private Object object;
+        final private Map<String, Object> values = new HashMap<String, Object>();
+        final private Map<String, Object> normalizedValues = new HashMap<String, Object>();
+        final private Map<Atom, Boolean> results = new IdentityHashMap<Atom, Boolean>();
+
+        Event(Object object) {
+            this.object = object;
+        }
+
+        Object value(String path) {
+            if (values.containsKey(path)) {
+                return values.get(path);
+            }
+            Object value = read(object, path);
+            values.put(path, value);
+            return value;
+        }
+
+        Object normalizedValue(String path) {
+            if (normalizedValues.containsKey(path)) {
+                return normalizedValues.get(path);
+            }
+            Object value = normalize(value(path));
+            normalizedValues.put(path, value);
+            return value;
+        }
+    }
+
+    /**
+     * A node of the condition of a subscription.
+     */
+    private static abstract class Condition {
+
+        static final Condition TRUE = new Constant(true);
+        static final Condition FALSE = new Constant(false);
+
+        abstract boolean evaluate(Event event);
+    }
+
+    private static final class Constant extends Condition {
+
+        final private boolean value;
+
+        Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean evaluate(Event event) {
+            return value;
+        }
+    }
+
+    private static final class Junction extends Condition {
+
+        final private boolean conjunction;
+        final private Condition[] operands;
+
+        Junction(boolean conjunction, List<Condition> operands) {
+            this.conjunction = conjunction;
+            this.operands = operands.toArray(new Condition[operands.size()]);
+        }
+
+        @Override
+        boolean evaluate(Event event) {
+            for (Condition operand : operands) {
+                if (operand.evaluate(event) != conjunction) {
+                    return !conjunction;
+                }
+            }
+            return conjunction;
+        }
+    }
+
+    private static final class Spatial extends Condition {
+
+        final private SpatialFilter filter;
+        final private String path;
+
+        Spatial(SpatialFilter filter, String path) {
+            this.filter = filter;
+            this.path = path;
+        }
+
+        @Override
+        boolean evaluate(Event event) {
+            Object value = event.value(path);
+            return value instanceof Geometry && filter.evaluate((Geometry) value);
+        }
+    }
+
+    /**
+     * A predicate that may be shared by several subscriptions, and is evaluated at most once per object.
+     */
+    private static abstract class Atom extends Condition {
+
+        private String key;
+        private int references;
+
+        @Override
+        final boolean evaluate(Event event) {
+            Boolean result = event.results.get(this);
+            if (result == null) {
+                result = test(event);
+                event.results.put(this, result);
+            }
+            return result;
+        }
+
+        abstract boolean test(Event event);
+    }
+
+    private enum Operator {
+        EQ, NEQ, GT, GTE, LT, LTE
+    }
+
+    private static final class Comparison extends Atom {
+
+        final private String path;
+        final private Operator operator;
+        final private Object value;
+
+        Comparison(String path, Operator operator, Object value) {
+            this.path = path;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object actual = event.normalizedValue(path);
+            if (actual == null) {
+                return false;
+            }
+            switch (operator) {
+                case EQ:
+                    return actual.equals(value);
+                case NEQ:
+                    return !actual.equals(value);
+                default:
+                    Integer comparison = compare(actual, value);
+                    if (comparison == null) {
+                        return false;
+                    }
+                    switch (operator) {
+                        case GT:
+                            return comparison > 0;
+                        case GTE:
+                            return comparison >= 0;
+                        case LT:
+                            return comparison < 0;
+                        default:
+                            return comparison <= 0;
+                    }
+            }
+        }
+    }
+
+    private static final class RangeAtom extends Atom {
+
+        final private Comparison lower;
+        final private Comparison upper;
+
+        RangeAtom(Comparison lower, Comparison upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        boolean test(Event event) {
+            return lower.test(event) && upper.test(event);
+        }
+    }
+
+    private static final class InAtom extends Atom {
+
+        final private String path;
+        final private Set<Object> values;
+
+        InAtom(String path, Set<Object> values) {
+            this.path = path;
+            this.values = values;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object actual = event.normalizedValue(path);
+            return actual != null && values.contains(actual);
+        }
+    }
+
+    private static final class LikeAtom extends Atom {
+
+        final private String path;
+        final private Pattern pattern;
+        final private boolean negated;
+
+        LikeAtom(String path, Pattern pattern, boolean negated) {
+            this.path = path;
+            this.pattern = pattern;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean test(Event event) {
+            Object actual = event.value(path);
+            return actual != null && pattern.matcher(actual.toString()).matches() != negated;
+        }
+    }
+
+    private static final class NullAtom extends Atom {
+
+        final private String path;
+        final private boolean isNull;
+
+        NullAtom(String path, boolean isNull) {
+            this.path = path;
+            this.isNull = isNull;
+        }
+
+        @Override
+        boolean test(Event event) {
+            return (event.value(path) == null) == isNull;
+        }
+    }
+
+    private static final class CompiledAtom extends Atom {
+
+        final private CqlPredicate<Object> predicate;
+
+        CompiledAtom(CqlPredicate<Object> predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        boolean test(Event event) {
+            return predicate.evaluate(event.object);
+        }
+    }
+
+    /**
+     * Creates the atoms for the predicates of an optimized term.
+     */
+    private final class AtomFactory extends AbstractBuilder {
+
+        Atom create(CqlTerm term) {
+            Atom atom;
+            if (term instanceof CqlTerm.Leaf) {
+                atom = leaf((CqlTerm.Leaf) term);
+            } else if (term instanceof CqlTerm.Range) {
+                CqlTerm.Range range = (CqlTerm.Range) term;
+                atom = new RangeAtom(comparison(range.getLower().getExpr()), comparison(range.getUpper().getExpr()));
+            } else {
+                List<CqlTerm.Leaf> equalities = ((CqlTerm.InList) term).getEqualities();
+                String path = getPropertyPath(((AEqExpr) equalities.get(0).getExpr()).getLeft());
+                Set<Object> values = new HashSet<Object>();
+                for (CqlTerm.Leaf equality : equalities) {
+                    values.add(literal(((AEqExpr) equality.getExpr()).getRight(), path));
+                }
+                atom = new InAtom(path, values);
+            }
+            atom.key = term.getKey();
+            return atom;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Atom leaf(CqlTerm.Leaf leaf) {
+            PExpr expr = leaf.getExpr();
+            Comparison comparison = comparison(expr);
+            if (comparison != null) {
+                return comparison;
+            }
+            if (expr instanceof ALikeExpr) return like(expr, ((ALikeExpr) expr).getRight(), false, false);
+            if (expr instanceof ANotLikeExpr) return like(expr, ((ANotLikeExpr) expr).getRight(), false, true);
+            if (expr instanceof AIlikeExpr) return like(expr, ((AIlikeExpr) expr).getRight(), true, false);
+            if (expr instanceof ANotIlikeExpr) return like(expr, ((ANotIlikeExpr) expr).getRight(), true, true);
+            if (expr instanceof AIsNullExpr || expr instanceof AIsNotNullExpr) {
+                return new NullAtom(getPropertyPath(CqlOptimizer.attributeOf(expr)), expr instanceof AIsNullExpr);
+            }
+            return new CompiledAtom(CqlPredicateCompiler.compile(leaf, (Class<Object>) forClass, expr.toString().trim()));
+        }
+
+        private Comparison comparison(PExpr expr) {
+            if (expr instanceof AEqExpr) return comparison(((AEqExpr) expr).getLeft(), Operator.EQ, ((AEqExpr) expr).getRight());
+            if (expr instanceof ANeqExpr) return comparison(((ANeqExpr) expr).getLeft(), Operator.NEQ, ((ANeqExpr) expr).getRight());
+            if (expr instanceof AGtExpr) return comparison(((AGtExpr) expr).getLeft(), Operator.GT, ((AGtExpr) expr).getRight());
+            if (expr instanceof AGteExpr) return comparison(((AGteExpr) expr).getLeft(), Operator.GTE, ((AGteExpr) expr).getRight());
+            if (expr instanceof ALtExpr) return comparison(((ALtExpr) expr).getLeft(), Operator.LT, ((ALtExpr) expr).getRight());
+            if (expr instanceof ALteExpr) return comparison(((ALteExpr) expr).getLeft(), Operator.LTE, ((ALteExpr) expr).getRight());
+            return null;
+        }
+
+        private Comparison comparison(PAttr attr, Operator operator, Node literal) {
+            String path = getPropertyPath(attr);
+            return new Comparison(path, operator, literal(literal, path));
+        }
+
+        private Atom like(PExpr expr, Node literal, boolean ignoreCase, boolean negated) {
+            literal.apply(this);
+            String pattern = translatedLiterals.get(literal).toString().replace("''", "'");
+            int flags = Pattern.DOTALL | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            return new LikeAtom(getPropertyPath(CqlOptimizer.attributeOf(expr)),
+                    Pattern.compile(CqlPredicateCompiler.toRegex(pattern), flags), negated);
+        }
+
+        private Object literal(Node literal, String path) {
+            literal.apply(this);
+            Object value = LiteralConverter.forProperty(forClass, path).convert(translatedLiterals.get(literal).toString());
+            if (value == null) {
+                throw new IllegalArgumentException("Cannot convert " + literal.toString().trim() + " to the type of property " + path);
+            }
+            return normalize(value);
+        }
+    }
+
+    /**
+     * A condition that a subscription requires, and on which it is indexed.
+     */
+    private static final class Anchor {
+
+        enum Kind {
+            EQUALITY, RANGE, SPATIAL
+        }
+
+        final private Kind kind;
+        final private String path;
+        private Subscription subscription;
+
+        // EQUALITY
+        private Object value;
+        // RANGE: a null bound is open
+        private Object lower;
+        private boolean lowerInclusive;
+        private Object upper;
+        private boolean upperInclusive;
+        // SPATIAL
+        private Envelope envelope;
+
+        private Anchor(Kind kind, String path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        static Anchor equality(String path, Object value) {
+            Anchor anchor = new Anchor(Kind.EQUALITY, path);
+            anchor.value = value;
+            return anchor;
+        }
+
+        static Anchor range(Comparison lower, Comparison upper) {
+            Anchor anchor = new Anchor(Kind.RANGE, (lower != null ? lower : upper).path);
+            if (lower != null) {
+                anchor.lower = lower.value;
+                anchor.lowerInclusive = lower.operator == Operator.GTE;
+            }
+            if (upper != null) {
+                anchor.upper = upper.value;
+                anchor.upperInclusive = upper.operator == Operator.LTE;
+            }
+            return anchor;
+        }
+
+        static Anchor spatial(String path, Envelope envelope) {
+            Anchor anchor = new Anchor(Kind.SPATIAL, path);
+            anchor.envelope = envelope;
+            return anchor;
+        }
+
+        int weight() {
+            switch (kind) {
+                case EQUALITY:
+                    return EQUALITY_WEIGHT;
+                case SPATIAL:
+                    return SPATIAL_WEIGHT;
+                default:
+                    return RANGE_WEIGHT;
+            }
+        }
+
+        /**
+         * Checks whether a value lies within the bounds of this range anchor.
+         */
+        boolean contains(Object value) {
+            if (lower != null) {
+                Integer comparison = compare(value, lower);
+                if (comparison == null || comparison < 0 || (comparison == 0 && !lowerInclusive)) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                Integer comparison = compare(value, upper);
+                if (comparison == null || comparison > 0 || (comparison == 0 && !upperInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The range anchors on a property, in an interval tree: a treap that is ordered on the lower bounds, of which every
+     * node holds the greatest upper bound in its subtree. Collecting the ranges that contain a value skips the subtrees
+     * of which all ranges end below the value, or start above it, so that its cost depends on the number of matching
+     * ranges rather than on the number of registered ranges. Open bounds are infinite.
+     */
+    private static final class RangeIndex {
+
+        // stands for the upper bound of a range without one
+        private static final Object UNBOUNDED = new Object();
+
+        final private Map<Anchor, Node> nodes = new IdentityHashMap<Anchor, Node>();
+        final private Random priorities = new Random();
+        private Node root;
+        private long sequence;
+
+        private static final class Node {
+
+            final private Anchor anchor;
+            // breaks ties between equal lower bounds, so that every node has a distinct position
+            final private long sequence;
+            final private int priority;
+            private Node left;
+            private Node right;
+            private Object maxUpper;
+
+            Node(Anchor anchor, long sequence, int priority) {
+                this.anchor = anchor;
+                this.sequence = sequence;
+                this.priority = priority;
+                update();
+            }
+
+            void update() {
+                maxUpper = anchor.upper != null ? anchor.upper : UNBOUNDED;
+                if (left != null) maxUpper = max(maxUpper, left.maxUpper);
+                if (right != null) maxUpper = max(maxUpper, right.maxUpper);
+            }
+        }
+
+        void add(Anchor anchor) {
+            Node node = new Node(anchor, sequence++, priorities.nextInt());
+            root = insert(root, node);
+            nodes.put(anchor, node);
+        }
+
+        boolean remove(Anchor anchor) {
+            Node node = nodes.remove(anchor);
+            if (node == null) {
+                return false;
+            }
+            root = delete(root, node);
+            return true;
+        }
+
+        boolean isEmpty() {
+            return root == null;
+        }
+
+        void collect(Object value, Collection<Subscription> result) {
+            try {
+                collect(root, value, result);
+            } catch (ClassCastException e) {
+                // the value is not of the type of the bounds, so none of the ranges can contain it.
+            }
+        }
+
+        private static void collect(Node node, Object value, Collection<Subscription> result) {
+            while (node != null) {
+                if (node.maxUpper != UNBOUNDED && compareBounds(node.maxUpper, value) < 0) {
+                    // all ranges in the subtree end below the value
+                    return;
+                }
+                collect(node.left, value, result);
+                if (node.anchor.lower != null && compareBounds(node.anchor.lower, value) > 0) {
+                    // this range and those in the right subtree start above the value
+                    return;
+                }
+                if (node.anchor.contains(value)) {
+                    result.add(node.anchor.subscription);
+                }
+                node = node.right;
+            }
+        }
+
+        private static Node insert(Node root, Node node) {
+            if (root == null) {
+                return node;
+            }
+            if (compareKeys(node, root) < 0) {
+                root.left = insert(root.left, node);
+                if (root.left.priority > root.priority) {
+                    root = rotateRight(root);
+                }
+            } else {
+                root.right = insert(root.right, node);
+                if (root.right.priority > root.priority) {
+                    root = rotateLeft(root);
+                }
+            }
+            root.update();
+            return root;
+        }
+
+        private static Node delete(Node root, Node node) {
+            if (root == node) {
+                return merge(root.left, root.right);
+            }
+            if (compareKeys(node, root) < 0) {
+                root.left = delete(root.left, node);
+            } else {
+                root.right = delete(root.right, node);
+            }
+            root.update();
+            return root;
+        }
+
+        private static Node merge(Node left, Node right) {
+            if (left == null) return right;
+            if (right == null) return left;
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                left.update();
+                return left;
+            }
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+
+        private static Node rotateRight(Node node) {
+            Node left = node.left;
+            node.left = left.right;
+            node.update();
+            left.right = node;
+            left.update();
+            return left;
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node right = node.right;
+            node.right = right.left;
+            node.update();
+            right.left = node;
+            right.update();
+            return right;
+        }
+
+        /**
+         * Orders nodes on their lower bounds, of which an open one comes first, and then on their sequence.
+         */
+        private static int compareKeys(Node a, Node b) {
+            Object lowerA = a.anchor.lower;
+            Object lowerB = b.anchor.lower;
+            int comparison;
+            if (lowerA == null || lowerB == null) {
+                comparison = lowerA == null ? (lowerB == null ? 0 : -1) : 1;
+            } else {
+                comparison = compareBounds(lowerA, lowerB);
+            }
+            return comparison != 0 ? comparison : (a.sequence < b.sequence ? -1 : a.sequence > b.sequence ? 1 : 0);
+        }
+
+        private static Object max(Object a, Object b) {
+            if (a == UNBOUNDED || b == UNBOUNDED) {
+                return UNBOUNDED;
+            }
+            return compareBounds(a, b) >= 0 ? a : b;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareBounds(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+
+    /**
+     * A registered subscription: its condition, the atoms it uses and the anchors on which it is indexed.
+     */
+    private static final class Subscription {
+
+        final private String id;
+        private Condition condition = Condition.FALSE;
+        final private List<Atom> atoms = new ArrayList<Atom>();
+        /** The anchors of which at least one holds if the subscription matches, or null if it is not indexed. */
+        private List<Anchor> anchors;
+
+        Subscription(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.PExpr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Node of the logical form of a CQL expression, as produced by the {@link CqlOptimizer}.
+ * </p>
+ * <p>
+ * Unlike the binary AND/OR nodes of the CQL AST, a <code>CqlTerm</code> tree has n-ary junctions, has its negations
+ * pushed down to the predicates, and may contain constants and ranges. The predicates themselves remain CQL AST
+ * nodes, and are translated by the {@link HibernateCriteriaBuilder}.
+ * </p>
+ */
+abstract class CqlTerm {
+
+    static final Constant TRUE = new Constant(true);
+    static final Constant FALSE = new Constant(false);
+
+    /**
+     * Returns a key that is equal for (syntactically) equal terms.
+     *
+     * @return the key of this term
+     */
+    abstract String getKey();
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+
+    /**
+     * A term that is always true or always false.
+     */
+    static final class Constant extends CqlTerm {
+
+        final private boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        boolean getValue() {
+            return value;
+        }
+
+        @Override
+        String getKey() {
+            return value ? "TRUE" : "FALSE";
+        }
+    }
+
+    /**
+     * A predicate of the CQL AST, e.g. a comparison or like expression.
+     */
+    static final class Leaf extends CqlTerm {
+
+        final private PExpr expr;
+        final private String key;
+
+        Leaf(PExpr expr) {
+            this.expr = expr;
+            this.key = expr.getClass().getSimpleName() + "(" + expr.toString().trim() + ")";
+        }
+
+        PExpr getExpr() {
+            return expr;
+        }
+
+        @Override
+        String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * A lower and an upper bound on the same property, e.g. <code>a > 5 AND a <= 10</code>.
+     */
+    static final class Range extends CqlTerm {
+
+        final private Leaf lower;
+        final private Leaf upper;
+
+        Range(Leaf lower, Leaf upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        Leaf getLower() {
+            return lower;
+        }
+
+        Leaf getUpper() {
+            return upper;
+        }
+
+        @Override
+        String getKey() {
+            return "RANGE(" + lower.getKey() + "," + upper.getKey() + ")";
+        }
+    }
+
+    /**
+     * A disjunction of equality tests on the same property, e.g. <code>id = 1 OR id = 2</code>.
+     */
+    static final class InList extends CqlTerm {
+
+        final private List<Leaf> equalities;
+
+        InList(List<Leaf> equalities) {
+            this.equalities = Collections.unmodifiableList(new ArrayList<Leaf>(equalities));
+        }
+
+        /**
+         * Returns the equality tests, which are all <code>AEqExpr</code>s on the same property.
+         */
+        List<Leaf> getEqualities() {
+            return equalities;
+        }
+
+        @Override
+        String getKey() {
+            StringBuilder builder = new StringBuilder("IN(");
+            for (int i = 0; i < equalities.size(); i++) {
+                if (i > 0) builder.append(',');
+                builder.append(equalities.get(i).getKey());
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    /**
+     * A conjunction (AND) or disjunction (OR) of two or more terms.
+     */
+    static final class Junction extends CqlTerm {
+
+        final private boolean conjunction;
+        final private List<CqlTerm> operands;
+
+        Junction(boolean conjunction, List<CqlTerm> operands) {
+            this.conjunction = conjunction;
+            this.operands = Collections.unmodifiableList(new ArrayList<CqlTerm>(operands));
+        }
+
+        boolean isConjunction() {
+            return conjunction;
+        }
+
+        List<CqlTerm> getOperands() {
+            return operands;
+        }
+
+        @Override
+        String getKey() {
+            StringBuilder builder = new StringBuilder(conjunction ? "AND(" : "OR(");
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) builder.append(',');
+                builder.append(operands.get(i).getKey());
+            }
+            return builder.append(')').toString();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Options that control how CQL expressions are translated to Hibernate criteria.
+ * </p>
+ * <p>
+ * Instances are immutable, and are created by a {@link Builder}. A {@link CqlCriteriaCache} translates all its
+ * expressions with the same options.
+ * </p>
+ */
+public class CqlTranslationOptions {
+
+    /**
+     * The default options: prefix patterns are kept as LIKE, no property is assumed to have a lower-case index, and
+     * predicates keep the order in which they were written.
+     */
+    public static final CqlTranslationOptions DEFAULT = new Builder().result();
+
+    private boolean prefixRanges = false;
+    final private Set<String> lowerCaseIndexed = new HashSet<String>();
+    private boolean reorderPredicates = false;
+    final private Map<Class<?>, TableStatistics> statistics = new HashMap<Class<?>, TableStatistics>();
+
+    /**
+     * A builder for <code>CqlTranslationOptions</code>.
+     */
+    public static class Builder {
+
+        final private CqlTranslationOptions underConstruction = new CqlTranslationOptions();
+
+        /**
+         * Sets whether LIKE patterns that only consist of a literal prefix followed by <code>%</code> (e.g.
+         * <code>name LIKE 'Antw%'</code>) are translated to a range predicate (<code>name &gt;= 'Antw' AND
+         * name &lt; 'Antx'</code>) that can use an ordinary index on the column.
+         * <p/>
+         * <p>The range predicate is only used for dialects of which the default string ordering is binary, so that
+         * the range matches exactly the same values as the pattern. For other dialects, LIKE is kept. Only enable
+         * this if the columns also use a binary collation: a case insensitive or linguistic collation (e.g.
+         * <code>NLS_COMP=LINGUISTIC</code> on Oracle, or <code>IGNORECASE</code> on H2) makes the range match other
+         * values than the pattern.</p>
+         * <p/>
+         * <p>If this is not configured, prefix ranges are disabled.</p>
+         *
+         * @param enabled whether to use prefix ranges
+         * @return this instance
+         */
+        public Builder prefixRanges(boolean enabled) {
+            underConstruction.prefixRanges = enabled;
+            return this;
+        }
+
+        /**
+         * Declares that the column of a property has an index on its lower-cased value (e.g.
+         * <code>create index ... on parcel (lower(name))</code>).
+         * <p/>
+         * <p>ILIKE on such a property is always translated to <code>lower(column) like ?</code>, also for dialects
+         * with a native case insensitive operator, and, if prefix ranges are enabled (see
+         * {@link #prefixRanges(boolean)}), prefix patterns are translated to a range on <code>lower(column)</code>.</p>
+         *
+         * @param propertyPath the property path as it appears in CQL expressions, e.g. <code>owner.name</code>
+         * @return this instance
+         */
+        public Builder lowerCaseIndex(String propertyPath) {
+            if (propertyPath == null) throw new IllegalArgumentException("Property path cannot be null.");
+            underConstruction.lowerCaseIndexed.add(propertyPath);
+            return this;
+        }
+
+        /**
+         * Sets whether the operands of AND and OR junctions are reordered by estimated selectivity and cost, so that
+         * cheap, selective predicates are evaluated first (e.g. an equality on the identifier before a LIKE
+         * pattern). Spatial filters are always added after the CQL expression.
+         * <p/>
+         * <p>The estimates use the statistics that are registered with {@link #statistics(TableStatistics)}, and
+         * default heuristics otherwise. If this is not configured, predicates keep the order in which they were
+         * written.</p>
+         *
+         * @param enabled whether to reorder predicates
+         * @return this instance
+         */
+        public Builder reorderPredicates(boolean enabled) {
+            underConstruction.reorderPredicates = enabled;
+            return this;
+        }
+
+        /**
+         * Registers the statistics of an entity class, with which the selectivity of its predicates is estimated,
+         * and enables the reordering of predicates (see {@link #reorderPredicates(boolean)}).
+         *
+         * @param tableStatistics the statistics, e.g. gathered with
+         *                        {@link TableStatistics#gather(java.sql.Connection, org.geolatte.common.automapper.DatabaseMapping, org.geolatte.common.automapper.TableRef)}
+         * @return this instance
+         */
+        public Builder statistics(TableStatistics tableStatistics) {
+            if (tableStatistics == null) throw new IllegalArgumentException("Statistics cannot be null.");
+            underConstruction.statistics.put(tableStatistics.getEntityClass(), tableStatistics);
+            underConstruction.reorderPredicates = true;
+            return this;
+        }
+
+        /**
+         * Returns the <code>CqlTranslationOptions</code> that are built by this instance.
+         *
+         * @return the constructed <code>CqlTranslationOptions</code>
+         */
+        public CqlTranslationOptions result() {
+            CqlTranslationOptions result = new CqlTranslationOptions();
+            result.prefixRanges = underConstruction.prefixRanges;
+            result.lowerCaseIndexed.addAll(underConstruction.lowerCaseIndexed);
+            result.reorderPredicates = underConstruction.reorderPredicates;
+            result.statistics.putAll(underConstruction.statistics);
+            return result;
+        }
+    }
+
+    private CqlTranslationOptions() {
+    }
+
+    /**
+     * Returns whether prefix patterns are translated to range predicates.
+     *
+     * @return true if prefix ranges are enabled
+     */
+    public boolean isPrefixRanges() {
+        return prefixRanges;
+    }
+
+    /**
+     * Returns whether the column of the given property has an index on its lower-cased value.
+     *
+     * @param propertyPath the property path
+     * @return true if the property was declared to have a lower-case index
+     */
+    public boolean isLowerCaseIndexed(String propertyPath) {
+        return lowerCaseIndexed.contains(propertyPath);
+    }
+
+    /**
+     * Returns the properties that have an index on their lower-cased value.
+     *
+     * @return the (possibly empty) set of property paths
+     */
+    public Set<String> getLowerCaseIndexed() {
+        return Collections.unmodifiableSet(lowerCaseIndexed);
+    }
+
+    /**
+     * Returns whether the operands of junctions are reordered by estimated selectivity and cost.
+     *
+     * @return true if predicates are reordered
+     */
+    public boolean isReorderPredicates() {
+        return reorderPredicates;
+    }
+
+    /**
+     * Returns the statistics that were registered for the given entity class.
+     *
+     * @param entityClass the entity class
+     * @return the statistics of the class, or null if none were registered
+     */
+    public TableStatistics getStatistics(Class<?> entityClass) {
+        return statistics.get(entityClass);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.impl.CriteriaImpl;
+import org.hibernate.loader.OuterJoinLoader;
+import org.hibernate.loader.criteria.CriteriaLoader;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Renders the SQL that Hibernate generates for a criteria, and determines the tables that it reads, without
+ * executing it.
+ * <p/>
+ * <p>Hibernate does not expose the SQL of a criteria query, so the renderer builds the same
+ * <code>CriteriaLoader</code> that executing the criteria would build, and reads its SQL and query spaces.</p>
+ */
+final class CriteriaSqlRenderer {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(CriteriaSqlRenderer.class);
+
+    private static volatile Field sqlField;
+
+    private CriteriaSqlRenderer() {
+    }
+
+    /**
+     * Renders the SQL of the given criteria. The session of the criteria must still be open.
+     *
+     * @param criteria an executable criteria, as created by a <code>Session</code> or <code>StatelessSession</code>.
+     * @return the SQL, or null if it cannot be rendered.
+     */
+    static String render(Criteria criteria) {
+        try {
+            CriteriaLoader loader = createLoader(criteria);
+            return loader == null ? null : (String) getSqlField().get(loader);
+        } catch (Exception e) {
+            LOGGER.debug("Cannot render the SQL of criteria " + criteria, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the query spaces (the qualified names of the tables) that the given criteria reads. The session of the
+     * criteria must still be open.
+     *
+     * @param criteria an executable criteria, as created by a <code>Session</code> or <code>StatelessSession</code>.
+     * @return the table names, or null if they cannot be determined.
+     */
+    @SuppressWarnings("unchecked")
+    static Set<String> getQuerySpaces(Criteria criteria) {
+        try {
+            CriteriaLoader loader = createLoader(criteria);
+            if (loader == null) {
+                return null;
+            }
+            Set<String> spaces = new HashSet<String>();
+            for (Object space : (Set<Object>) loader.getQuerySpaces()) {
+                spaces.add(space.toString());
+            }
+            return spaces;
+        } catch (Exception e) {
+            LOGGER.debug("Cannot determine the query spaces of criteria " + criteria, e);
+            return null;
+        }
+    }
+
+    private static CriteriaLoader createLoader(Criteria criteria) {
+        if (!(criteria instanceof CriteriaImpl)) {
+            return null;
+        }
+        CriteriaImpl criteriaImpl = (CriteriaImpl) criteria;
+        SessionImplementor session = criteriaImpl.getSession();
+        SessionFactoryImplementor factory = session.getFactory();
+        String[] implementors = factory.getImplementors(criteriaImpl.getEntityOrClassName());
+        if (implementors.length == 0) {
+            return null;
+        }
+        return new CriteriaLoader((OuterJoinLoadable) factory.getEntityPersister(implementors[0]),
+                factory, criteriaImpl, implementors[0], session.getLoadQueryInfluencers());
+    }
+
+    private static Field getSqlField() throws NoSuchFieldException {
+        Field field = sqlField;
+        if (field == null) {
+            field = OuterJoinLoader.class.getDeclaredField("sql");
+            field.setAccessible(true);
+            sqlField = field;
+        }
+        return field;
+    }
+}
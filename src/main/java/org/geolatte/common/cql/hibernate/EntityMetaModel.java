@@ -0,0 +1,436 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Cached, reflection-based description of the properties of an entity class, used to resolve property paths when a
+ * CQL expression is translated rather than when it is rendered to SQL.
+ * </p>
+ * <p>
+ * A property exists if the class (or a superclass) has a getter or a field with that name. Resolution of a path
+ * stops being conclusive at properties whose type does not tell which properties it has, such as collections, maps
+ * and <code>Object</code>. A property that is missing from an abstract class or interface may be defined by a
+ * subclass, so its existence is not decided either. Only the type of a property may be resolved through a collection
+ * or array, of which the element type is declared (see {@link #resolve(String)}).
+ * </p>
+ * <p>Instances are shared between threads and are safe for concurrent use.</p>
+ */
+final class EntityMetaModel {
+
+    /**
+     * The outcome of resolving a property path.
+     */
+    enum Existence {
+        EXISTS, ABSENT, UNKNOWN
+    }
+
+    // The maximum number of property paths per class of which the existence is kept
+    private static final int MAX_RESOLVED_PATHS = 1024;
+
+    private static final ClassCache<EntityMetaModel> models = new ClassCache<EntityMetaModel>();
+
+    final private Class<?> entityClass;
+    final private Map<String, Property> properties;
+    final private ConcurrentMap<String, Existence> resolvedPaths = new ConcurrentHashMap<String, Existence>();
+
+    /**
+     * A property of a class: its type, and how to read and write it.
+     */
+    static final class Property {
+
+        final private String name;
+        final private Class<?> type;
+        final private Method getter;
+        final private Method setter;
+        final private Field field;
+        private volatile boolean accessible;
+        private volatile boolean writable;
+
+        Property(String name, Class<?> type, Method getter, Method setter, Field field) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+            this.field = field;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * Returns the class of the elements of this property, if it is an array or a collection of which the
+         * declaration tells the element class (e.g. <code>Set&lt;Parcel&gt;</code>).
+         *
+         * @return the element class, or null if it is not known.
+         */
+        Class<?> getElementType() {
+            if (type.isArray()) {
+                return type.getComponentType();
+            }
+            if (!Collection.class.isAssignableFrom(type)) {
+                return null;
+            }
+            Type declared = getter != null ? getter.getGenericReturnType() : field != null ? field.getGenericType() : null;
+            if (declared instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) declared).getActualTypeArguments();
+                if (arguments.length == 1 && arguments[0] instanceof Class) {
+                    return (Class<?>) arguments[0];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the getter method of the property, or null if the property is only accessible as field.
+         */
+        Method getGetter() {
+            return getter;
+        }
+
+        /**
+         * Returns the field that holds the property, or null if there is no field with the property name.
+         */
+        Field getField() {
+            return field;
+        }
+
+        /**
+         * Reads the value of this property from the given object, through the getter if there is one.
+         *
+         * @param target the object that holds the property
+         * @return the value of the property
+         * @throws IllegalStateException if the property cannot be read
+         */
+        Object read(Object target) {
+            AccessibleObject accessor = getter != null ? getter : field;
+            if (!accessible) {
+                accessor.setAccessible(true);
+                accessible = true;
+            }
+            try {
+                return getter != null ? getter.invoke(target) : field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot read property " + name, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Cannot read property " + name, e.getCause());
+            }
+        }
+
+        /**
+         * Writes the value of this property on the given object, through the setter if there is one.
+         *
+         * @param target the object that holds the property
+         * @param value the new value of the property
+         * @throws IllegalStateException if the property cannot be written
+         */
+        void write(Object target, Object value) {
+            AccessibleObject accessor = setter != null ? setter : field;
+            if (accessor == null) {
+                throw new IllegalStateException("Property " + name + " is read-only");
+            }
+            if (!writable) {
+                accessor.setAccessible(true);
+                writable = true;
+            }
+            try {
+                if (setter != null) {
+                    setter.invoke(target, value);
+                } else {
+                    field.set(target, value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot write property " + name, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Cannot write property " + name, e.getCause());
+            }
+        }
+    }
+
+    private EntityMetaModel(Class<?> entityClass) {
+        this.entityClass = entityClass;
+        this.properties = readProperties(entityClass);
+    }
+
+    /**
+     * Returns the (cached) model for the given class. The cache does not keep the class from being unloaded.
+     *
+     * @param entityClass the class
+     * @return the model of the class
+     */
+    static EntityMetaModel forClass(Class<?> entityClass) {
+        EntityMetaModel model = models.get(entityClass);
+        if (model == null) {
+            model = new EntityMetaModel(entityClass);
+            EntityMetaModel existing = models.putIfAbsent(entityClass, model);
+            if (existing != null) {
+                model = existing;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Returns the class described by this model.
+     *
+     * @return the entity class
+     */
+    Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Returns the property with the given name, without following paths.
+     *
+     * @param name the property name
+     * @return the property, or null if the class has no such property
+     */
+    Property getProperty(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * Returns all properties of the class, including the inherited ones.
+     *
+     * @return the properties, in no particular order.
+     */
+    Collection<Property> getProperties() {
+        return Collections.unmodifiableCollection(properties.values());
+    }
+
+    /**
+     * Returns the property at the end of the given dotted path. A path through a collection continues on the
+     * properties of its elements, e.g. "parcels.height" resolves to the height of a parcel.
+     *
+     * @param propertyPath the property path, e.g. "owner.address.street"
+     * @return the property, or null if the path cannot be resolved conclusively.
+     */
+    Property resolve(String propertyPath) {
+        EntityMetaModel model = this;
+        String[] parts = propertyPath.split("\\.");
+        for (int i = 0; i < parts.length; i++) {
+            Property property = model.getProperty(parts[i]);
+            if (property == null) {
+                return null;
+            }
+            if (i == parts.length - 1) {
+                return property;
+            }
+            Class<?> type = isCollection(property.getType()) ? property.getElementType() : property.getType();
+            if (type == null || !isIntrospectable(type)) {
+                return null;
+            }
+            model = forClass(type);
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether the given property path exists on the class.
+     *
+     * @param propertyPath the property path, e.g. "owner.address.street"
+     * @return EXISTS or ABSENT if this can be decided from the class, UNKNOWN otherwise.
+     */
+    Existence exists(String propertyPath) {
+        Existence existence = resolvedPaths.get(propertyPath);
+        if (existence == null) {
+            existence = determineExistence(propertyPath);
+            // the paths come from user input; don't let them fill the memory
+            if (resolvedPaths.size() < MAX_RESOLVED_PATHS) {
+                resolvedPaths.put(propertyPath, existence);
+            }
+        }
+        return existence;
+    }
+
+    private Existence determineExistence(String propertyPath) {
+        if (!isIntrospectable(entityClass)) {
+            return Existence.UNKNOWN;
+        }
+        EntityMetaModel model = this;
+        String[] parts = propertyPath.split("\\.");
+        for (int i = 0; i < parts.length; i++) {
+            Property property = model.getProperty(parts[i]);
+            if (property == null) {
+                // a subclass may have the property; and Hibernate property names are case sensitive,
+                // but don't decide on a near miss.
+                return model.isAbstract() || model.hasPropertyIgnoringCase(parts[i]) ? Existence.UNKNOWN : Existence.ABSENT;
+            }
+            if (i < parts.length - 1) {
+                if (!isIntrospectable(property.getType())) {
+                    return Existence.UNKNOWN;
+                }
+                model = forClass(property.getType());
+            }
+        }
+        return Existence.EXISTS;
+    }
+
+    /**
+     * Returns the name of the identifier property, as far as it can be told from the class: the property of which
+     * the getter or field is annotated with <code>javax.persistence.Id</code>, or else "id" (which Hibernate accepts
+     * for the identifier, whatever its name).
+     *
+     * @return the name of the identifier property
+     */
+    String getIdentifierName() {
+        for (Property property : properties.values()) {
+            if (isAnnotatedAsId(property.getGetter()) || isAnnotatedAsId(property.getField())) {
+                return property.getName();
+            }
+        }
+        return "id";
+    }
+
+    private static boolean isAnnotatedAsId(AnnotatedElement element) {
+        if (element == null) {
+            return false;
+        }
+        for (Annotation annotation : element.getAnnotations()) {
+            if ("javax.persistence.Id".equals(annotation.annotationType().getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given property path navigates through a collection: whether one of its parts, other than
+     * the last, is a collection, map or array.
+     *
+     * @param propertyPath the property path, e.g. "parcels.name"
+     * @return true if the path navigates through a collection, false if it doesn't or if this cannot be told.
+     */
+    boolean crossesCollection(String propertyPath) {
+        EntityMetaModel model = this;
+        String[] parts = propertyPath.split("\\.");
+        for (int i = 0; i < parts.length - 1; i++) {
+            Property property = model.getProperty(parts[i]);
+            if (property == null) {
+                return false;
+            }
+            if (isCollection(property.getType())) {
+                return true;
+            }
+            if (!isIntrospectable(property.getType())) {
+                return false;
+            }
+            model = forClass(property.getType());
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given property path ends with the identifier of a (non-collection) association, e.g.
+     * "owner.id". Such a path can be read from the foreign key, without joining the associated entity.
+     *
+     * @param propertyPath the property path
+     * @return true if the last part of the path is the identifier of the association before it.
+     */
+    boolean referencesIdentifier(String propertyPath) {
+        int lastDot = propertyPath.lastIndexOf('.');
+        if (lastDot < 0 || crossesCollection(propertyPath)) {
+            return false;
+        }
+        Property association = resolve(propertyPath.substring(0, lastDot));
+        if (association == null || !isIntrospectable(association.getType())) {
+            return false;
+        }
+        return propertyPath.substring(lastDot + 1).equals(forClass(association.getType()).getIdentifierName());
+    }
+
+    private static boolean isCollection(Class<?> type) {
+        return type.isArray() || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+    }
+
+    private boolean isAbstract() {
+        return entityClass.isInterface() || Modifier.isAbstract(entityClass.getModifiers());
+    }
+
+    private boolean hasPropertyIgnoringCase(String name) {
+        for (String property : properties.keySet()) {
+            if (property.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the properties of the given type can be read from its class.
+     */
+    private static boolean isIntrospectable(Class<?> type) {
+        return !(type.isPrimitive() || type == Object.class || type.getName().startsWith("java.") || isCollection(type));
+    }
+
+    private static Map<String, Property> readProperties(Class<?> entityClass) {
+        Map<String, Property> result = new HashMap<String, Property>();
+        for (Class<?> c = entityClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic() || result.containsKey(field.getName())) {
+                    continue;
+                }
+                result.put(field.getName(), new Property(field.getName(), field.getType(), null, null, field));
+            }
+        }
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(entityClass, Object.class);
+            for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                Method getter = descriptor.getReadMethod();
+                if (getter == null) {
+                    continue;
+                }
+                Property fieldProperty = result.get(descriptor.getName());
+                Field field = fieldProperty == null ? null : fieldProperty.getField();
+                result.put(descriptor.getName(), new Property(descriptor.getName(), getter.getReturnType(), getter, descriptor.getWriteMethod(), field));
+            }
+        } catch (IntrospectionException e) {
+            // only the fields are known
+        }
+        return result;
+    }
+}
@@ -25,7 +25,12 @@ import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.criterion.CriteriaQuery;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.dialect.DB2Dialect;
 import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.Oracle9Dialect;
 import org.hibernate.dialect.PostgreSQLDialect;
 import org.hibernate.engine.TypedValue;
 
@@ -44,6 +49,14 @@ import org.hibernate.engine.TypedValue;
  *     (private) fields.
  * </p>
  *
+ * <p>
+ *     A pattern that consists of a literal prefix followed by a single <code>%</code> (e.g. 'Antw%') can be rendered
+ *     as a range predicate (col &gt;= 'Antw' and col &lt; 'Antx'), which can use an ordinary index on the column. This
+ *     is only done when it is enabled (see {@link CqlTranslationOptions.Builder#prefixRanges(boolean)}), and for
+ *     dialects of which the default string ordering is binary; with a linguistic collation the range and the pattern
+ *     do not necessarily match the same values.
+ * </p>
+ *
  * @author Bert Vanhooff
  * @author <a href="http://www.qmino.com">Qmino bvba</a>
  * @since SDK1.5
@@ -56,6 +69,10 @@ public class EscapingLikeExpression implements Criterion {
     private String propertyName;
     private final char escapeChar = '\\'; // escape char = single backslash
 
+    // The unescaped literal prefix if the pattern is of the form 'prefix%' and may be rendered as a range, else null
+    private String prefix;
+    private boolean lowerCaseIndexed;
+
     /**
      * Constructs a like expression as "propertyName LIKE value". Default escape character is '\'
      * @param propertyName The string property to match.
@@ -79,6 +96,25 @@ public class EscapingLikeExpression implements Criterion {
         this(propertyName, value, false);
     }
 
+    /**
+     * Constructs a like expression that may be rendered as a range predicate.
+     * @param propertyName     The string property to match.
+     * @param value            The value to match.
+     * @param ignoreCase       Whether to do a case-insensitive search (ilike).
+     * @param prefixRange      Whether a prefix pattern may be rendered as a range predicate.
+     * @param lowerCaseIndexed Whether the column has an index on its lower-cased value. If true, a case-insensitive
+     *                         search always compares the lower-cased column, so that the index can be used.
+     */
+    EscapingLikeExpression(String propertyName, String value, boolean ignoreCase, boolean prefixRange, boolean lowerCaseIndexed) {
+
+        this(propertyName, value, ignoreCase);
+        this.lowerCaseIndexed = ignoreCase && lowerCaseIndexed;
+        // a range on a case-insensitive match only helps if it can use an index on the lower-cased column
+        if (prefixRange && (!ignoreCase || lowerCaseIndexed)) {
+            prefix = likePrefix(this.value, escapeChar);
+        }
+    }
+
     private String escapeString(String inputString) {
 
         // remove quote escape, apparently this is not needed when binding the value afterwards instead of giving it in the sql directly
@@ -98,29 +134,138 @@ public class EscapingLikeExpression implements Criterion {
 			throw new HibernateException( "Like may only be used with single-column properties" );
 		}
 
-        String lhsAndOperator;
+        String lhsAndOperator = toLikeSql(dialect, columns[0], ignoreCase, lowerCaseIndexed);
+        String likeSql = lhsAndOperator + ( valueConstainsEscapes ? " escape \'" + escapeChar + "\'" : "");
+
+        if (usesRange(dialect)) {
+            String lhs = ignoreCase ? dialect.getLowercaseFunction() + '(' + columns[0] + ')' : columns[0];
+            return "(" + lhs + " >= ? and " + lhs + " < ?" + (needsResidualLike() ? " and " + likeSql : "") + ")";
+        }
+		return likeSql;
+
+	}
+
+    /**
+     * Renders the "column like ?" part of a (case insensitive) like expression for the given dialect.
+     *
+     * @param dialect The dialect of the session factory
+     * @param column The column to match
+     * @param ignoreCase Whether to do a case-insensitive search (ilike).
+     * @return The SQL fragment, without escape clause
+     */
+    static String toLikeSql(Dialect dialect, String column, boolean ignoreCase) {
+        return toLikeSql(dialect, column, ignoreCase, false);
+    }
+
+    /**
+     * Renders the "column like ?" part of a (case insensitive) like expression for the given dialect.
+     *
+     * @param dialect The dialect of the session factory
+     * @param column The column to match
+     * @param ignoreCase Whether to do a case-insensitive search (ilike).
+     * @param lowerCaseIndexed Whether the column has an index on its lower-cased value, in which case the lower-cased
+     *                         column is compared even if the dialect has a case insensitive operator.
+     * @return The SQL fragment, without escape clause
+     */
+    static String toLikeSql(Dialect dialect, String column, boolean ignoreCase, boolean lowerCaseIndexed) {
         if (ignoreCase) { // case insensitive: use 'ilike ?' for postgres or 'lowercaseFunction(value) like ?' for others
-            if ( dialect instanceof PostgreSQLDialect) {
-                lhsAndOperator = columns[0] + " ilike ?";
+            if ( dialect instanceof PostgreSQLDialect && !lowerCaseIndexed) {
+                return column + " ilike ?";
             }
             else {
-                lhsAndOperator = dialect.getLowercaseFunction() + '(' + columns[0] + ')' + " like ?";
+                return dialect.getLowercaseFunction() + '(' + column + ')' + " like ?";
             }
         }
         else { // case sensitive: use ordinary like
-            lhsAndOperator = columns[0] + " like ?";
+            return column + " like ?";
         }
-
-		return lhsAndOperator + ( valueConstainsEscapes ? " escape \'" + escapeChar + "\'" : "");
-
-	}
+    }
 
     public TypedValue[] getTypedValues(
 			Criteria criteria,
 			CriteriaQuery criteriaQuery) throws HibernateException {
-		return new TypedValue[] {
-				criteriaQuery.getTypedValue( criteria, propertyName, ignoreCase ? value.toLowerCase() : value)
-		};
+        TypedValue like = criteriaQuery.getTypedValue( criteria, propertyName, ignoreCase ? value.toLowerCase() : value);
+        if (usesRange(criteriaQuery.getFactory().getDialect())) {
+            String lower = ignoreCase ? prefix.toLowerCase() : prefix;
+            TypedValue lowerBound = criteriaQuery.getTypedValue(criteria, propertyName, lower);
+            TypedValue upperBound = criteriaQuery.getTypedValue(criteria, propertyName, successor(lower));
+            return needsResidualLike() ? new TypedValue[] {lowerBound, upperBound, like} : new TypedValue[] {lowerBound, upperBound};
+        }
+		return new TypedValue[] { like };
 	}
 
+    private boolean usesRange(Dialect dialect) {
+        return prefix != null && hasBinaryStringOrder(dialect);
+    }
+
+    /**
+     * With blank-padded comparison (CHAR columns, or e.g. Oracle), 'ab' sorts equal to 'ab ', so the range for a
+     * prefix that ends with a space also holds values that do not match the pattern.
+     */
+    private boolean needsResidualLike() {
+        return prefix.charAt(prefix.length() - 1) == ' ';
+    }
+
+    /**
+     * Checks whether the default string comparison of the database of the given dialect is binary, so that a
+     * prefix range matches exactly the values that start with the prefix.
+     *
+     * @param dialect The dialect of the session factory
+     * @return true if a range predicate may be used for a prefix pattern
+     */
+    static boolean hasBinaryStringOrder(Dialect dialect) {
+        // GeoDB and Derby extend the H2 and DB2 dialects, respectively.
+        return dialect instanceof H2Dialect
+                || dialect instanceof HSQLDialect
+                || dialect instanceof Oracle8iDialect
+                || dialect instanceof Oracle9Dialect
+                || dialect instanceof DB2Dialect;
+    }
+
+    /**
+     * Returns the literal prefix of a like pattern of the form 'prefix%', in which the prefix contains no unescaped
+     * wildcards.
+     *
+     * @param pattern The like pattern, possibly with escape sequences
+     * @param escapeChar The escape character
+     * @return the unescaped prefix, or null if the pattern is not a prefix pattern, or if the prefix has no successor
+     *         that can be used as upper bound.
+     */
+    static String likePrefix(String pattern, char escapeChar) {
+        StringBuilder prefix = new StringBuilder(pattern.length());
+        int last = pattern.length() - 1;
+        for (int i = 0; i < last; i++) {
+            char c = pattern.charAt(i);
+            if (c == '%' || c == '_') {
+                return null;
+            }
+            if (c == escapeChar) {
+                if (++i == last) { // the final % is escaped
+                    return null;
+                }
+                c = pattern.charAt(i);
+            }
+            // surrogates and private use characters are not ordered consistently by all databases
+            if (c >= '\uD800') {
+                return null;
+            }
+            prefix.append(c);
+        }
+        if (prefix.length() == 0 || pattern.charAt(last) != '%') {
+            return null;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Returns the smallest string that is greater than all strings that start with the given prefix.
+     *
+     * @param prefix A prefix as returned by {@link #likePrefix(String, char)}
+     * @return the prefix, with its last character incremented
+     */
+    static String successor(String prefix) {
+        int last = prefix.length() - 1;
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
 }
@@ -21,14 +21,20 @@
 
 package org.geolatte.common.cql.hibernate;
 
-import org.geolatte.common.reflection.EntityClassReader;
 import org.geolatte.common.cql.AbstractBuilder;
 import org.geolatte.common.cql.node.*;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.Junction;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
 
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
@@ -52,47 +58,343 @@ import java.util.*;
  */
 class HibernateCriteriaBuilder extends AbstractBuilder {
 
-    // The criteria that is built incrementally by walking the tree
+    // The maximum number of property paths per class for which the alias names are kept
+    private static final int MAX_ALIAS_CHAINS = 1024;
+
+    // The alias names of the property paths that have been translated, per class, shared by all builders. Classes are
+    // held weakly, so that the chains do not keep the classes of a discarded class loader from being unloaded.
+    private static final ClassCache<ConcurrentMap<String, AliasChain>> aliasChains =
+            new ClassCache<ConcurrentMap<String, AliasChain>>();
+
+    // The alias of the root entity in the correlated subqueries for collection paths
+    static final String SUBQUERY_ALIAS = "sub";
+
+    // The builder that is reused by the current thread, see acquire()
+    private static final ThreadLocal<HibernateCriteriaBuilder> threadBuilder = new ThreadLocal<HibernateCriteriaBuilder>();
+
+    // The criteria for the complete expression, assembled when it is first requested
     private DetachedCriteria criteria;
-    EntityClassReader reader;
 
-    // A map of all translated nodes as they are visited depth first.
-    private HashMap<Node, Criterion> translatedExpressions = new HashMap<Node, Criterion>();
-    
+    // The criteria of the translated nodes, as they are visited depth first. Each node pushes its criterion, after
+    // its operands have been popped.
+    private final ArrayList<Criterion> operands = new ArrayList<Criterion>();
+
+    // The criterion for the complete expression, available after the tree has been walked
+    private Criterion criterion;
+
+    // The (associationPath, alias) pairs in the order in which they were added to the criteria
+    private final List<String[]> aliasDefinitions = new ArrayList<String[]>();
+
+    // The property paths of the associations for which an alias has been created
+    private final Set<String> createdAliasses = new HashSet<String>();
+
+    // The class for which criteria are built
+    private Class entityClass;
+
+    // Whether string literals of the form '?n' are translated to bind parameters
+    private boolean parameterized;
+
+    // The highest parameter index encountered while walking the tree
+    private int parameterCount;
+
+    // The options that control the translation
+    private CqlTranslationOptions options;
+
+    // Whether this builder has been handed out by acquire() and not released yet
+    private boolean acquired;
+
+    // The aliases of the collection path of the predicate that is being translated, which must be joined in a
+    // correlated subquery rather than in the criteria
+    private AliasChain correlatedChain;
 
     public HibernateCriteriaBuilder(Class clazz) {
-        criteria = DetachedCriteria.forClass(clazz);
-        reader = EntityClassReader.getClassReaderFor(clazz);
+        this(clazz, false);
+    }
+
+    HibernateCriteriaBuilder(Class clazz, boolean parameterized) {
+        this(clazz, parameterized, CqlTranslationOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a builder for the given class.
+     *
+     * @param clazz The class of the objects on which the CQL expression will be applied.
+     * @param parameterized If true, comparison and like operands of the form <code>'?n'</code> are translated to
+     *                      parameters that are bound when the criteria is executed (see {@link PreparedCql}).
+     * @param options The translation options.
+     */
+    HibernateCriteriaBuilder(Class clazz, boolean parameterized, CqlTranslationOptions options) {
+        reset(clazz, parameterized, options);
+    }
+
+    /**
+     * Returns a builder for the given class, reusing the builder of the current thread if it is not in use. The
+     * builder must be handed back with {@link #release()}, after its results have been copied.
+     *
+     * @param clazz The class of the objects on which the CQL expression will be applied.
+     * @param parameterized Whether parameter placeholders are translated to bind parameters.
+     * @param options The translation options.
+     * @return a builder that has not walked any tree yet.
+     */
+    static HibernateCriteriaBuilder acquire(Class clazz, boolean parameterized, CqlTranslationOptions options) {
+        HibernateCriteriaBuilder builder = threadBuilder.get();
+        if (builder == null) {
+            builder = new HibernateCriteriaBuilder(clazz, parameterized, options);
+            threadBuilder.set(builder);
+        } else if (builder.acquired) { // a translation within a translation
+            return new HibernateCriteriaBuilder(clazz, parameterized, options);
+        } else {
+            builder.reset(clazz, parameterized, options);
+        }
+        builder.acquired = true;
+        return builder;
     }
 
+    /**
+     * Hands back a builder obtained from {@link #acquire(Class, boolean, CqlTranslationOptions)}. The builder drops
+     * its results, and no longer refers to the translated tree or to the entity class.
+     */
+    void release() {
+        reset(null, false, null);
+        acquired = false;
+    }
+
+    /**
+     * Clears the state of a previous translation, so that this builder can walk another tree.
+     */
+    private void reset(Class clazz, boolean parameterized, CqlTranslationOptions options) {
+        this.entityClass = clazz;
+        this.parameterized = parameterized;
+        this.options = options;
+        criteria = null;
+        criterion = null;
+        operands.clear();
+        correlatedChain = null;
+        aliasDefinitions.clear();
+        createdAliasses.clear();
+        parameterCount = 0;
+        translatedLiterals.clear();
+    }
+
+    /**
+     * Returns the criteria for the complete expression.
+     *
+     * @return the criteria, without restrictions if the tree has not been walked yet.
+     */
     public DetachedCriteria getCriteria() {
+        if (criteria == null) {
+            criteria = DetachedCriteria.forClass(entityClass);
+            for (String[] aliasDefinition : aliasDefinitions) {
+                criteria.createAlias(aliasDefinition[0], aliasDefinition[1]);
+            }
+            if (criterion != null) {
+                criteria.add(criterion);
+            }
+        }
         return criteria;
     }
 
+    /**
+     * Returns the criterion that corresponds to the complete CQL expression.
+     *
+     * @return the root criterion, or null if the tree has not been walked yet.
+     */
+    Criterion getCriterion() {
+        return criterion;
+    }
+
+    /**
+     * Returns the aliases that were created while walking the tree, in creation order. Each element is a pair of
+     * association path and alias name, as passed to <code>DetachedCriteria.createAlias()</code>. The list is a view
+     * that is cleared when the builder is released; the elements must not be modified.
+     *
+     * @return the alias definitions of the criteria
+     */
+    List<String[]> getAliasDefinitions() {
+        return Collections.unmodifiableList(aliasDefinitions);
+    }
+
+    /**
+     * Returns the number of parameters of a parameterized expression; i.e. the highest parameter index used.
+     *
+     * @return the parameter count, always 0 if this builder is not parameterized.
+     */
+    int getParameterCount() {
+        return parameterCount;
+    }
+
     @Override
     public void caseStart(Start node) {
 
         node.getPExpr().apply(this);
 
-        criteria.add(translatedExpressions.get(node.getPExpr()));
+        criterion = pop();
+    }
+
+    /**
+     * Builds the criteria for an optimized expression (see {@link CqlOptimizer}), instead of walking the AST.
+     *
+     * @param term the optimized expression
+     */
+    void build(CqlTerm term) {
+
+        if (term == CqlTerm.TRUE) { // no restriction at all
+            return;
+        }
+        criterion = translate(term);
+    }
+
+    /**
+     * Translates an optimized expression. The predicates in the expression are translated by walking them as AST.
+     *
+     * @param term the term to translate
+     * @return the corresponding criterion
+     */
+    private Criterion translate(CqlTerm term) {
+
+        if (term instanceof CqlTerm.Leaf) {
+            PExpr expr = ((CqlTerm.Leaf) term).getExpr();
+            expr.apply(this);
+            return pop();
+        }
+        if (term instanceof CqlTerm.Junction) {
+            CqlTerm.Junction junction = (CqlTerm.Junction) term;
+            Junction result = junction.isConjunction() ? Restrictions.conjunction() : Restrictions.disjunction();
+            for (CqlTerm operand : junction.getOperands()) {
+                result.add(translate(operand));
+            }
+            return result;
+        }
+        if (term instanceof CqlTerm.Range) {
+            return translateRange((CqlTerm.Range) term);
+        }
+        if (term instanceof CqlTerm.InList) {
+            return translateInList((CqlTerm.InList) term);
+        }
+        return Restrictions.sqlRestriction(((CqlTerm.Constant) term).getValue() ? "1=1" : "1=0");
+    }
+
+    /**
+     * Translates a range to a single between restriction if possible. Because between is inclusive, exclusive
+     * bounds are only converted for integral property types.
+     */
+    private Criterion translateRange(CqlTerm.Range range) {
+
+        Criterion lowerCriterion = translate(range.getLower());
+        Criterion upperCriterion = translate(range.getUpper());
+        PExpr lower = range.getLower().getExpr();
+        PExpr upper = range.getUpper().getExpr();
+        Node lowerLiteral = lower instanceof AGtExpr ? ((AGtExpr) lower).getRight() : ((AGteExpr) lower).getRight();
+        Node upperLiteral = upper instanceof ALtExpr ? ((ALtExpr) upper).getRight() : ((ALteExpr) upper).getRight();
+        if (isParameter(lowerLiteral) || isParameter(upperLiteral)) {
+            return Restrictions.and(lowerCriterion, upperCriterion);
+        }
+
+        PAttr attr = CqlOptimizer.attributeOf(lower);
+        String propertyPath = getPropertyPath(attr);
+        Object lowerValue = convert(lowerLiteral, propertyPath);
+        Object upperValue = convert(upperLiteral, propertyPath);
+        if (lower instanceof AGtExpr) {
+            lowerValue = adjacentValue(lowerValue, 1);
+        }
+        if (upper instanceof ALtExpr) {
+            upperValue = adjacentValue(upperValue, -1);
+        }
+        if (lowerValue == null || upperValue == null) {
+            return Restrictions.and(lowerCriterion, upperCriterion);
+        }
+        return correlate(Restrictions.between(createAlias(attr), lowerValue, upperValue));
+    }
+
+    /**
+     * Translates a disjunction of equalities on the same property to an IN list. Equalities with a parameter can
+     * not be part of the list, and are added to the disjunction as they are.
+     */
+    private Criterion translateInList(CqlTerm.InList inList) {
+
+        List<Object> values = new ArrayList<Object>(inList.getEqualities().size());
+        Disjunction parameters = null;
+        PAttr attr = ((AEqExpr) inList.getEqualities().get(0).getExpr()).getLeft();
+        LiteralConverter converter = LiteralConverter.forProperty(entityClass, getPropertyPath(attr));
+        for (CqlTerm.Leaf equality : inList.getEqualities()) {
+            AEqExpr expr = (AEqExpr) equality.getExpr();
+            // only the literal needs to be translated, not the equality itself
+            expr.getRight().apply(this);
+            if (isParameter(expr.getRight())) {
+                if (parameters == null) {
+                    parameters = Restrictions.disjunction();
+                }
+                parameters.add(translate(equality));
+            } else {
+                values.add(converter.convert(translatedLiterals.get(expr.getRight()).toString()));
+            }
+        }
+        Criterion in = values.isEmpty() ? null : correlate(new ChunkedInExpression(createAlias(attr), values.toArray()));
+        if (parameters == null) {
+            return in;
+        }
+        return in == null ? parameters : parameters.add(in);
+    }
+
+    /**
+     * Calculates the end date of a timespan given by a start date and a duration.
+     *
+     * @param fromDate The start of the timespan
+     * @param duration The duration of the timespan
+     * @return The end of the timespan
+     */
+    static Date addDuration(Date fromDate, Duration duration) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(fromDate);
+        calendar.add(Calendar.YEAR, duration.getYears());
+        calendar.add(Calendar.MONTH, duration.getMonths());
+        calendar.add(Calendar.DATE, duration.getDays());
+        calendar.add(Calendar.HOUR, duration.getHours());
+        calendar.add(Calendar.MINUTE, duration.getMinutes());
+        calendar.add(Calendar.SECOND, duration.getSeconds());
+        return calendar.getTime();
+    }
+
+    /**
+     * Returns the integral value next to the given value, or null if the value is not integral or has no neighbour.
+     */
+    private static Object adjacentValue(Object value, int delta) {
+        if (value instanceof Integer) {
+            int i = (Integer) value;
+            return (delta > 0 && i == Integer.MAX_VALUE) || (delta < 0 && i == Integer.MIN_VALUE) ? null : i + delta;
+        }
+        if (value instanceof Long) {
+            long l = (Long) value;
+            return (delta > 0 && l == Long.MAX_VALUE) || (delta < 0 && l == Long.MIN_VALUE) ? null : l + delta;
+        }
+        if (value instanceof Short) {
+            int i = (Short) value + delta;
+            return i < Short.MIN_VALUE || i > Short.MAX_VALUE ? null : (short) i;
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).add(BigInteger.valueOf(delta));
+        }
+        return null;
     }
 
     @Override
     public void outAAndExpr(AAndExpr node) {
 
-        translatedExpressions.put(node, Restrictions.and(translatedExpressions.get(node.getLeft()), translatedExpressions.get(node.getRight())));
+        Criterion right = pop();
+        push(Restrictions.and(pop(), right));
     }
 
     @Override
     public void outAOrExpr(AOrExpr node) {
 
-        translatedExpressions.put(node, Restrictions.or(translatedExpressions.get(node.getLeft()), translatedExpressions.get(node.getRight())));
+        Criterion right = pop();
+        push(Restrictions.or(pop(), right));
     }
 
     @Override
     public void outANotExpr(ANotExpr node) {
 
-        translatedExpressions.put(node, Restrictions.not(translatedExpressions.get(node.getExpr())));
+        push(Restrictions.not(pop()));
     }
 
 
@@ -100,116 +402,160 @@ class HibernateCriteriaBuilder extends AbstractBuilder {
     public void outAGtExpr(AGtExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.gt(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.GT, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.gt(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outAGteExpr(AGteExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.ge(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.GE, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.ge(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outALtExpr(ALtExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.lt(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.LT, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.lt(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outALteExpr(ALteExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.le(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.LE, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.le(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outAEqExpr(AEqExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.eq(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.EQ, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.eq(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outANeqExpr(ANeqExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        translatedExpressions.put(node, Restrictions.ne(propertyAlias, reader.parseAsPropertyType(translatedLiterals.get(node.getRight()).toString(), getPropertyPath(node.getLeft()))));
+        if (isParameter(node.getRight())) {
+            push(createParameter(propertyAlias, ParameterExpression.Operator.NE, node.getLeft(), node.getRight()));
+            return;
+        }
+        push(Restrictions.ne(propertyAlias, convert(node.getRight(), getPropertyPath(node.getLeft()))));
     }
 
     @Override
     public void outALikeExpr(ALikeExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        EscapingLikeExpression likeExpression = new EscapingLikeExpression(propertyAlias, translatedLiterals.get(node.getRight()).toString());
-        translatedExpressions.put(node, likeExpression);
+        if (isParameter(node.getRight())) {
+            Criterion parameter = createParameter(propertyAlias, ParameterExpression.Operator.LIKE, node.getLeft(), node.getRight());
+            push(parameter);
+            return;
+        }
+        EscapingLikeExpression likeExpression = createLike(propertyAlias, node.getLeft(), node.getRight(), false);
+        push(likeExpression);
     }
 
     @Override
     public void outANotLikeExpr(ANotLikeExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        EscapingLikeExpression likeExpression = new EscapingLikeExpression(propertyAlias, translatedLiterals.get(node.getRight()).toString());
-        translatedExpressions.put(node, Restrictions.not(likeExpression));
+        if (isParameter(node.getRight())) {
+            Criterion parameter = createParameter(propertyAlias, ParameterExpression.Operator.LIKE, node.getLeft(), node.getRight());
+            push(Restrictions.not(parameter));
+            return;
+        }
+        EscapingLikeExpression likeExpression = createLike(propertyAlias, node.getLeft(), node.getRight(), false);
+        push(Restrictions.not(likeExpression));
     }
 
     @Override
     public void outAIlikeExpr(AIlikeExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        EscapingLikeExpression likeExpression = new EscapingLikeExpression(propertyAlias, translatedLiterals.get(node.getRight()).toString(), true);
-        translatedExpressions.put(node, likeExpression);
+        if (isParameter(node.getRight())) {
+            Criterion parameter = createParameter(propertyAlias, ParameterExpression.Operator.ILIKE, node.getLeft(), node.getRight());
+            push(parameter);
+            return;
+        }
+        EscapingLikeExpression likeExpression = createLike(propertyAlias, node.getLeft(), node.getRight(), true);
+        push(likeExpression);
     }
 
     @Override
     public void outANotIlikeExpr(ANotIlikeExpr node) {
 
         String propertyAlias = createAlias(node.getLeft());
-        EscapingLikeExpression likeExpression = new EscapingLikeExpression(propertyAlias, translatedLiterals.get(node.getRight()).toString(), true);
-        translatedExpressions.put(node, Restrictions.not(likeExpression));
+        if (isParameter(node.getRight())) {
+            Criterion parameter = createParameter(propertyAlias, ParameterExpression.Operator.ILIKE, node.getLeft(), node.getRight());
+            push(Restrictions.not(parameter));
+            return;
+        }
+        EscapingLikeExpression likeExpression = createLike(propertyAlias, node.getLeft(), node.getRight(), true);
+        push(Restrictions.not(likeExpression));
     }
 
     @Override
     public void outAIsNullExpr(AIsNullExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, Restrictions.isNull(propertyAlias));
+        push(Restrictions.isNull(propertyAlias));
     }
 
     @Override
     public void outAIsNotNullExpr(AIsNotNullExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, Restrictions.isNotNull(propertyAlias));
+        push(Restrictions.isNotNull(propertyAlias));
     }
 
     @Override
     public void outAExistsExpr(AExistsExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, new PropertyExistsCriterion(propertyAlias) );
+        push(new PropertyExistsCriterion(propertyAlias) );
     }
 
     @Override
     public void outADoesNotExistExpr(ADoesNotExistExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, new PropertyDoesNotExistCriterion(propertyAlias) );
+        push(new PropertyDoesNotExistCriterion(propertyAlias) );
     }
 
     @Override
     public void outABeforeExpr(ABeforeExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, Restrictions.lt(propertyAlias, parseDate(node.getDateTime().toString().trim())));
+        push(Restrictions.lt(propertyAlias, parseDate(node.getDateTime().toString().trim())));
     }
 
     @Override
     public void outAAfterExpr(AAfterExpr node) {
 
         String propertyAlias = createAlias(node.getAttr());
-        translatedExpressions.put(node, Restrictions.gt(propertyAlias, parseDate(node.getDateTime().toString().trim())));
+        push(Restrictions.gt(propertyAlias, parseDate(node.getDateTime().toString().trim())));
     }
 
     @Override
@@ -231,17 +577,7 @@ class HibernateCriteriaBuilder extends AbstractBuilder {
             AFromDurationTimespanLiteral fromDurationTimespan = (AFromDurationTimespanLiteral)timespan;
             Date fromDate = parseDate(fromDurationTimespan.getFrom().getText().trim());
             Duration duration = (Duration)translatedLiterals.get(fromDurationTimespan.getDuration());
-
-            // Calculate to 'to' date
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(fromDate);
-            calendar.add(Calendar.YEAR, duration.getYears());
-            calendar.add(Calendar.MONTH, duration.getMonths());
-            calendar.add(Calendar.DATE, duration.getDays());
-            calendar.add(Calendar.HOUR, duration.getHours());
-            calendar.add(Calendar.MINUTE, duration.getMinutes());
-            calendar.add(Calendar.SECOND, duration.getSeconds());
-            Date toDate = calendar.getTime();
+            Date toDate = addDuration(fromDate, duration);
 
             greaterThan = Restrictions.gt(node.getAttr().toString().trim(), fromDate);
             lowerThan = Restrictions.lt(node.getAttr().toString().trim(), toDate);
@@ -253,11 +589,49 @@ class HibernateCriteriaBuilder extends AbstractBuilder {
         }
 
         Criterion combined = Restrictions.and(greaterThan, lowerThan);
-        translatedExpressions.put(node, combined);
+        push(combined);
+    }
+
+    /**
+     * Converts a literal to the type of the property with which it is compared.
+     */
+    private Object convert(Node literal, String propertyPath) {
+        return LiteralConverter.forProperty(entityClass, propertyPath).convert(translatedLiterals.get(literal).toString());
+    }
+
+    private void push(Criterion translated) {
+        operands.add(correlate(translated));
     }
 
-    // List of property paths for which aliasses are created.
-    Map<String, String> createdAliasses = new HashMap<String, String>();
+    private Criterion pop() {
+        return operands.remove(operands.size() - 1);
+    }
+
+    /**
+     * Checks whether the given literal is a parameter placeholder (<code>'?n'</code>) of a parameterized expression.
+     *
+     * @param literal The literal node
+     * @return true if this builder is parameterized and the literal is a placeholder
+     */
+    private boolean isParameter(Node literal) {
+        if (!parameterized) {
+            return false;
+        }
+        Object value = translatedLiterals.get(literal);
+        return value != null && CqlParameters.parameterIndex(value.toString()) > 0;
+    }
+
+    private Criterion createParameter(String propertyAlias, ParameterExpression.Operator operator, PAttr attr, Node literal) {
+        int index = CqlParameters.parameterIndex(translatedLiterals.get(literal).toString());
+        parameterCount = Math.max(parameterCount, index);
+        String propertyPath = getPropertyPath(attr);
+        return new ParameterExpression(propertyAlias, operator, index, entityClass, propertyPath, options.isLowerCaseIndexed(propertyPath));
+    }
+
+    private EscapingLikeExpression createLike(String propertyAlias, PAttr attr, Node literal, boolean ignoreCase) {
+        return new EscapingLikeExpression(propertyAlias, translatedLiterals.get(literal).toString(), ignoreCase,
+                options.isPrefixRanges(), options.isLowerCaseIndexed(getPropertyPath(attr)));
+    }
 
     /**
      * Creates an alias for the property's parent if necessary (the property is compound)
@@ -273,31 +647,110 @@ class HibernateCriteriaBuilder extends AbstractBuilder {
         if (attr instanceof AIdAttr)
             return ((AIdAttr) attr).getIdentifier().getText().trim();
 
-        // In the other case, we have a compound property -> must create an alias (or reuse an existing one) and return the alias name to the property path
-
-        // Loop through all parts and create aliasses along the way.
-        List<String> propertyParts = getPropertyParts(attr);
-        String currentPropertyPath = ""; // the current property path
-        String currentAlias = "";
-        for (int i = 0; i < propertyParts.size() - 1; i++) { // last part is the final property itself.. must not create an alias for that one
-
-            String currentPropertyPart = propertyParts.get(i);
-            currentPropertyPath += currentPropertyPart;
-
-            if (createdAliasses.containsKey(currentPropertyPath)) // already have an alias
-                currentAlias = createdAliasses.get(currentPropertyPath);
-            else {
-
-                String newAlias = currentAlias + currentPropertyPart + "01";
-                criteria = criteria.createAlias((currentAlias.length() == 0 ? "" :(currentAlias + ".")) + currentPropertyPart, newAlias);
-                createdAliasses.put(currentPropertyPath, newAlias);
-                currentAlias = newAlias;
+        // In the other case, we have a compound property -> must create the aliasses along the path (or reuse the
+        // existing ones) and return the alias name to the property path
+        String propertyPath = getPropertyPath(attr);
+        ConcurrentMap<String, AliasChain> chains = aliasChains.get(entityClass);
+        if (chains == null) {
+            chains = new ConcurrentHashMap<String, AliasChain>();
+            ConcurrentMap<String, AliasChain> existing = aliasChains.putIfAbsent(entityClass, chains);
+            if (existing != null) {
+                chains = existing;
+            }
+        }
+        AliasChain chain = chains.get(propertyPath);
+        if (chain == null) {
+            chain = new AliasChain(EntityMetaModel.forClass(entityClass), propertyPath, getPropertyParts(attr));
+            if (chains.size() < MAX_ALIAS_CHAINS) {
+                chains.putIfAbsent(propertyPath, chain);
+            }
+        }
+        if (chain.correlated) {
+            correlatedChain = chain;
+            return chain.propertyAlias;
+        }
+        for (int i = 0; i < chain.associations.length; i++) {
+            if (createdAliasses.add(chain.associations[i])) {
+                aliasDefinitions.add(chain.aliasDefinitions[i]);
             }
+        }
+        return chain.propertyAlias;
+    }
 
-            currentPropertyPath += ".";
+    /**
+     * Wraps the criterion of a predicate on a collection path in a correlated EXISTS subquery, in which the
+     * collection is joined. Unlike a join in the criteria, this does not return an object once for every matching
+     * element of the collection. Every predicate gets a subquery of its own: it holds if some element satisfies it,
+     * and the predicates of an expression need not hold for the same element (see {@link CqlOptimizer}).
+     *
+     * @param restriction the criterion of the predicate that has just been translated
+     * @return the EXISTS criterion, or the restriction itself if its property path is not a collection path.
+     */
+    private Criterion correlate(Criterion restriction) {
+        if (correlatedChain == null) {
+            return restriction;
+        }
+        DetachedCriteria subquery = DetachedCriteria.forClass(entityClass, SUBQUERY_ALIAS);
+        for (String[] aliasDefinition : correlatedChain.aliasDefinitions) {
+            subquery.createAlias(aliasDefinition[0], aliasDefinition[1]);
         }
+        correlatedChain = null;
+        subquery.add(restriction)
+                .add(new IdentifierCorrelation(entityClass, SUBQUERY_ALIAS))
+                .setProjection(Projections.id());
+        return Subqueries.exists(subquery);
+    }
 
-        String lastPropertyPart = propertyParts.get(propertyParts.size()-1); // Last (missing) part of the property path.
-        return currentAlias.length() == 0 ? lastPropertyPart : currentAlias + "." + lastPropertyPart;
+    /**
+     * The alias names for a compound property path. The alias of an association is the alias of its parent followed
+     * by the association name and "01"; e.g. for "address.street.number" the aliases are "address01" (for
+     * "address") and "address01street01" (for "address01.street"), and the aliased property is
+     * "address01street01.number".
+     * <p>
+     * No alias is created for an association of which only the identifier is used: "owner.id" is read from the
+     * foreign key. A path through a collection is joined in a correlated subquery, in which the aliases start from the
+     * root alias of the subquery: for "parcels.name" the alias is "subparcels01", for "sub.parcels".
+     * </p>
+     */
+    private static final class AliasChain {
+
+        // Whether the path navigates through a collection
+        final boolean correlated;
+        // The property paths of the associations, e.g. "address", "address.street"
+        final String[] associations;
+        // The (associationPath, alias) pairs of the associations
+        final String[][] aliasDefinitions;
+        // The aliased property
+        final String propertyAlias;
+
+        AliasChain(EntityMetaModel model, String propertyPath, List<String> propertyParts) {
+            correlated = model.crossesCollection(propertyPath);
+            int count = propertyParts.size() - 1; // last part is the final property itself.. must not create an alias for that one
+            if (!correlated && model.referencesIdentifier(propertyPath)) {
+                count--; // .. and neither for the association of which only the identifier is used
+            }
+            associations = new String[count];
+            aliasDefinitions = new String[count][];
+            StringBuilder associationPath = new StringBuilder();
+            String currentAlias = correlated ? SUBQUERY_ALIAS : "";
+            for (int i = 0; i < count; i++) {
+                String currentPropertyPart = propertyParts.get(i);
+                if (i > 0) {
+                    associationPath.append('.');
+                }
+                associations[i] = associationPath.append(currentPropertyPart).toString();
+                String aliasPath = (currentAlias.length() == 0 ? "" : (currentAlias + ".")) + currentPropertyPart;
+                currentAlias = currentAlias + currentPropertyPart + "01";
+                aliasDefinitions[i] = new String[]{aliasPath, currentAlias};
+            }
+            StringBuilder property = new StringBuilder(currentAlias);
+            for (int i = count; i < propertyParts.size(); i++) {
+                if (property.length() > 0) {
+                    property.append('.');
+                }
+                property.append(propertyParts.get(i));
+            }
+            propertyAlias = property.toString();
+        }
     }
 }
@@ -0,0 +1,380 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.Type;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Translates an (optimized) CQL term to HQL with named parameters. The HQL only depends on the structure of the
+ * expression, not on its literals: every literal becomes a parameter (<code>:p0</code>, <code>:p1</code>, ... in the
+ * order in which they appear), every equality list a single list parameter, and the joins get the same
+ * path-derived aliases as in the criteria of {@link HibernateCriteriaBuilder} (e.g. <code>owner01</code> for
+ * "owner"). Structurally identical filters therefore share one HQL string.
+ * </p>
+ * <p>
+ * Hibernate expands a list parameter to one placeholder per element before it looks up the query plan, so lists
+ * of different lengths still get their own plan and SQL. To bound their number, a list parameter is padded with its
+ * last value to the next power of two: lists of 5 to 8 values share the plan and the SQL of 8.
+ * </p>
+ * <p>
+ * Associations are inner joined; a path through a collection is joined in a correlated EXISTS subquery on
+ * {@link #SUBQUERY_ALIAS}, and an association of which only the identifier is used is not joined at all. Instances
+ * are not thread-safe; use a new builder for each query.
+ * </p>
+ */
+class HqlBuilder extends AbstractBuilder {
+
+    // The alias of the root entity
+    static final String ROOT_ALIAS = "e";
+
+    // The alias of the root entity in the correlated subqueries for collection paths
+    static final String SUBQUERY_ALIAS = HibernateCriteriaBuilder.SUBQUERY_ALIAS;
+
+    final private Class<?> entityClass;
+    final private SessionFactoryImplementor factory;
+    final private EntityMetaModel model;
+    final private int chunkSize;
+    // The identifier property of the entity, on which the subqueries for collection paths are correlated
+    final private String identifier;
+
+    // The join clauses of the query, by association path, in the order in which they were added
+    final private Map<String, String> joins = new LinkedHashMap<String, String>();
+    final private Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+
+    // The join clauses of the collection path of the predicate that is being translated, or null
+    private List<String> correlatedJoins;
+
+    HqlBuilder(Class<?> entityClass, SessionFactoryImplementor factory) {
+        this.entityClass = entityClass;
+        this.factory = factory;
+        this.model = EntityMetaModel.forClass(entityClass);
+        this.chunkSize = ChunkedInExpression.getChunkSize(factory.getDialect());
+        this.identifier = IdentifierCorrelation.getIdentifierName(factory, entityClass);
+    }
+
+    /**
+     * Returns the join clauses that the conditions built so far need, in order.
+     */
+    List<String> getJoins() {
+        return new ArrayList<String>(joins.values());
+    }
+
+    /**
+     * Returns the values of the named parameters of the conditions built so far, in order. The value of a list
+     * parameter is a <code>List</code>.
+     */
+    Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Renders the given term as an HQL condition, and registers its joins and the values of its parameters.
+     */
+    String condition(CqlTerm term) {
+        StringBuilder hql = new StringBuilder();
+        term(term, hql);
+        return hql.toString();
+    }
+
+    private void term(CqlTerm term, StringBuilder hql) {
+        if (term instanceof CqlTerm.Constant) {
+            hql.append(((CqlTerm.Constant) term).getValue() ? "1=1" : "1=0");
+        } else if (term instanceof CqlTerm.Leaf) {
+            hql.append(leaf(((CqlTerm.Leaf) term).getExpr()));
+        } else if (term instanceof CqlTerm.Range) {
+            hql.append(range((CqlTerm.Range) term));
+        } else if (term instanceof CqlTerm.InList) {
+            hql.append(inList((CqlTerm.InList) term));
+        } else {
+            CqlTerm.Junction junction = (CqlTerm.Junction) term;
+            hql.append('(');
+            String separator = junction.isConjunction() ? " and " : " or ";
+            List<CqlTerm> operands = junction.getOperands();
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    hql.append(separator);
+                }
+                term(operands.get(i), hql);
+            }
+            hql.append(')');
+        }
+    }
+
+    private String leaf(PExpr expr) {
+        if (expr instanceof ANotExpr) {
+            return "not (" + leaf(((ANotExpr) expr).getExpr()) + ")";
+        }
+        PAttr attr = CqlOptimizer.attributeOf(expr);
+        if (attr == null) {
+            throw new IllegalArgumentException("Unsupported predicate: " + expr);
+        }
+        String path = getPropertyPath(attr);
+        if (expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr) {
+            // only existence predicates that cannot be decided from the class remain: ask the mapping
+            return isMapped(path) == expr instanceof AExistsExpr ? "1=1" : "1=0";
+        }
+        String property = property(path);
+        String condition;
+        if (expr instanceof AIsNullExpr) {
+            condition = property + " is null";
+        } else if (expr instanceof AIsNotNullExpr) {
+            condition = property + " is not null";
+        } else if (expr instanceof AEqExpr) {
+            condition = compare(property, "=", path, ((AEqExpr) expr).getRight());
+        } else if (expr instanceof ANeqExpr) {
+            condition = compare(property, "<>", path, ((ANeqExpr) expr).getRight());
+        } else if (expr instanceof AGtExpr) {
+            condition = compare(property, ">", path, ((AGtExpr) expr).getRight());
+        } else if (expr instanceof AGteExpr) {
+            condition = compare(property, ">=", path, ((AGteExpr) expr).getRight());
+        } else if (expr instanceof ALtExpr) {
+            condition = compare(property, "<", path, ((ALtExpr) expr).getRight());
+        } else if (expr instanceof ALteExpr) {
+            condition = compare(property, "<=", path, ((ALteExpr) expr).getRight());
+        } else if (expr instanceof ALikeExpr) {
+            condition = like(property, ((ALikeExpr) expr).getRight(), false);
+        } else if (expr instanceof ANotLikeExpr) {
+            condition = "not (" + like(property, ((ANotLikeExpr) expr).getRight(), false) + ")";
+        } else if (expr instanceof AIlikeExpr) {
+            condition = like(property, ((AIlikeExpr) expr).getRight(), true);
+        } else if (expr instanceof ANotIlikeExpr) {
+            condition = "not (" + like(property, ((ANotIlikeExpr) expr).getRight(), true) + ")";
+        } else if (expr instanceof ABeforeExpr) {
+            condition = property + " < " + parameter(parseDate(((ABeforeExpr) expr).getDateTime().toString().trim()));
+        } else if (expr instanceof AAfterExpr) {
+            condition = property + " > " + parameter(parseDate(((AAfterExpr) expr).getDateTime().toString().trim()));
+        } else if (expr instanceof ADuringExpr) {
+            condition = during(property, ((ADuringExpr) expr).getTimeSpan());
+        } else {
+            throw new IllegalArgumentException("Unsupported predicate: " + expr);
+        }
+        return correlate(condition);
+    }
+
+    private String range(CqlTerm.Range range) {
+        PExpr lower = range.getLower().getExpr();
+        PExpr upper = range.getUpper().getExpr();
+        String path = getPropertyPath(CqlOptimizer.attributeOf(lower));
+        String property = property(path);
+        if (lower instanceof AGteExpr && upper instanceof ALteExpr) {
+            String from = parameter(literal(((AGteExpr) lower).getRight(), path));
+            String to = parameter(literal(((ALteExpr) upper).getRight(), path));
+            return correlate(property + " between " + from + " and " + to);
+        }
+        String lowerCondition = lower instanceof AGtExpr
+                ? compare(property, ">", path, ((AGtExpr) lower).getRight())
+                : compare(property, ">=", path, ((AGteExpr) lower).getRight());
+        String upperCondition = upper instanceof ALtExpr
+                ? compare(property, "<", path, ((ALtExpr) upper).getRight())
+                : compare(property, "<=", path, ((ALteExpr) upper).getRight());
+        return correlate("(" + lowerCondition + " and " + upperCondition + ")");
+    }
+
+    /**
+     * Translates an equality list to a list parameter, so that lists of different lengths share the HQL, and pads it
+     * (see {@link #padded(List, int)}). Lists longer than the maximum number of elements of an SQL IN list (see
+     * {@link ChunkedInExpression}) are split, and lists of integral numbers that need more parameters than the
+     * dialect allows are inlined.
+     */
+    private String inList(CqlTerm.InList inList) {
+        String path = getPropertyPath(((AEqExpr) inList.getEqualities().get(0).getExpr()).getLeft());
+        String property = property(path);
+        List<Object> values = new ArrayList<Object>(inList.getEqualities().size());
+        for (CqlTerm.Leaf equality : inList.getEqualities()) {
+            values.add(literal(((AEqExpr) equality.getExpr()).getRight(), path));
+        }
+        boolean inlined = ChunkedInExpression.isInlined(factory.getDialect(), values.toArray());
+        // the padding may take the parameters that the dialect allows, but never more
+        int padding = ChunkedInExpression.getMaxParameters(factory.getDialect()) - values.size();
+        if (values.size() <= chunkSize && !inlined) {
+            return correlate(property + " in (" + parameter(padded(values, padding)) + ")");
+        }
+        StringBuilder condition = new StringBuilder("(");
+        for (int i = 0; i < values.size(); i += chunkSize) {
+            List<Object> chunk = new ArrayList<Object>(values.subList(i, Math.min(values.size(), i + chunkSize)));
+            condition.append(i == 0 ? "" : " or ").append(property).append(" in (");
+            condition.append(inlined ? inlinedList(chunk) : parameter(padded(chunk, padding))).append(')');
+        }
+        return correlate(condition.append(')').toString());
+    }
+
+    /**
+     * Pads the values of a list parameter with the last value to the next power of two, but not beyond the chunk size
+     * nor by more than the given number of values. The repeated value does not change the result of the IN list.
+     */
+    private List<Object> padded(List<Object> values, int maxPadding) {
+        int size = values.size() <= 1 ? values.size() : Integer.highestOneBit(values.size() - 1) << 1;
+        size = Math.min(Math.min(size, chunkSize), values.size() + Math.max(0, maxPadding));
+        if (size <= values.size()) {
+            return values;
+        }
+        List<Object> padded = new ArrayList<Object>(size);
+        padded.addAll(values);
+        Object last = values.get(values.size() - 1);
+        while (padded.size() < size) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    private static String inlinedList(List<Object> values) {
+        StringBuilder list = new StringBuilder();
+        for (Object value : values) {
+            if (list.length() > 0) list.append(", ");
+            // HQL reads integer literals as int unless they carry the long suffix
+            list.append(value).append(value instanceof Long ? "L" : "");
+        }
+        return list.toString();
+    }
+
+    private String compare(String property, String operator, String path, Node literal) {
+        return property + " " + operator + " " + parameter(literal(literal, path));
+    }
+
+    private String like(String property, Node literal, boolean ignoreCase) {
+        literal.apply(this);
+        String pattern = translatedLiterals.get(literal).toString().replace("''", "'");
+        String parameter = parameter(ignoreCase ? pattern.toLowerCase() : pattern);
+        // the escape clause is always rendered, so that the HQL doesn't depend on the pattern
+        return (ignoreCase ? "lower(" + property + ")" : property) + " like " + parameter + " escape '\\'";
+    }
+
+    private String during(String property, PTimespanLiteral timespan) {
+        Date from;
+        Date to;
+        if (timespan instanceof AFromToTimespanLiteral) {
+            from = parseDate(((AFromToTimespanLiteral) timespan).getFrom().getText().trim());
+            to = parseDate(((AFromToTimespanLiteral) timespan).getTo().getText().trim());
+        } else if (timespan instanceof AFromDurationTimespanLiteral) {
+            AFromDurationTimespanLiteral fromDuration = (AFromDurationTimespanLiteral) timespan;
+            from = parseDate(fromDuration.getFrom().getText().trim());
+            fromDuration.getDuration().apply(this);
+            to = HibernateCriteriaBuilder.addDuration(from, (Duration) translatedLiterals.get(fromDuration.getDuration()));
+        } else {
+            throw new IllegalArgumentException("Unsupported timespan: " + timespan);
+        }
+        return "(" + property + " > " + parameter(from) + " and " + property + " < " + parameter(to) + ")";
+    }
+
+    /**
+     * Returns the HQL expression for a property path, and registers the joins that it needs. For a path through a
+     * collection, the joins are kept for the subquery that {@link #correlate(String)} creates.
+     */
+    private String property(String path) {
+        String[] parts = path.split("\\.");
+        boolean correlated = model.crossesCollection(path);
+        int count = parts.length - 1; // no join for the property itself
+        if (!correlated && model.referencesIdentifier(path)) {
+            count--; // .. nor for the association of which only the identifier is used
+        }
+        String alias = correlated ? SUBQUERY_ALIAS : ROOT_ALIAS;
+        String aliasPrefix = correlated ? SUBQUERY_ALIAS : "";
+        StringBuilder associationPath = new StringBuilder();
+        List<String> subqueryJoins = correlated ? new ArrayList<String>() : null;
+        for (int i = 0; i < count; i++) {
+            associationPath.append(i == 0 ? "" : ".").append(parts[i]);
+            aliasPrefix = aliasPrefix + parts[i] + "01";
+            String join = "join " + alias + "." + parts[i] + " as " + aliasPrefix;
+            if (correlated) {
+                subqueryJoins.add(join);
+            } else if (!joins.containsKey(associationPath.toString())) {
+                joins.put(associationPath.toString(), join);
+            }
+            alias = aliasPrefix;
+        }
+        correlatedJoins = subqueryJoins;
+        StringBuilder property = new StringBuilder(alias);
+        for (int i = count; i < parts.length; i++) {
+            property.append('.').append(parts[i]);
+        }
+        return property.toString();
+    }
+
+    /**
+     * Wraps the condition of a predicate on a collection path in a correlated EXISTS subquery, in which the
+     * collection is joined, so that an object is not returned once for every matching element. As for the criteria,
+     * every predicate gets a subquery of its own.
+     */
+    private String correlate(String condition) {
+        if (correlatedJoins == null) {
+            return condition;
+        }
+        StringBuilder subquery = new StringBuilder("exists (select ").append(SUBQUERY_ALIAS).append('.').append(identifier).append(" from ")
+                .append(entityClass.getName()).append(' ').append(SUBQUERY_ALIAS);
+        for (String join : correlatedJoins) {
+            subquery.append(' ').append(join);
+        }
+        subquery.append(" where ").append(SUBQUERY_ALIAS).append('.').append(identifier).append(" = ")
+                .append(ROOT_ALIAS).append('.').append(identifier).append(" and ")
+                .append(condition).append(')');
+        correlatedJoins = null;
+        return subquery.toString();
+    }
+
+    /**
+     * Checks whether the Hibernate mapping of the entity has the given property path.
+     */
+    private boolean isMapped(String path) {
+        ClassMetadata metadata = factory.getClassMetadata(entityClass);
+        String[] parts = path.split("\\.");
+        String relativePath = "";
+        for (int i = 0; i < parts.length && metadata != null; i++) {
+            relativePath = relativePath.length() == 0 ? parts[i] : relativePath + "." + parts[i];
+            Type type;
+            try {
+                type = relativePath.equals(metadata.getIdentifierPropertyName())
+                        ? metadata.getIdentifierType() : metadata.getPropertyType(relativePath);
+                if (i < parts.length - 1 && type.isAssociationType()) {
+                    metadata = factory.getClassMetadata(((AssociationType) type).getAssociatedEntityName(factory));
+                    relativePath = "";
+                }
+            } catch (HibernateException e) {
+                return false;
+            }
+        }
+        return metadata != null;
+    }
+
+    private Object literal(Node literal, String path) {
+        literal.apply(this);
+        return LiteralConverter.forProperty(entityClass, path).convert(translatedLiterals.get(literal).toString());
+    }
+
+    private String parameter(Object value) {
+        String name = "p" + parameters.size();
+        parameters.put(name, value);
+        return ":" + name;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.CriteriaSpecification;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.TypedValue;
+import org.hibernate.metadata.ClassMetadata;
+
+/**
+ * <p>
+ * Hibernate criterion that correlates the root entity of a subquery with the root entity of the outer query, as
+ * <code>sub.id = this.id</code>.
+ * </p>
+ * <p>
+ * The identifier property is looked up in the mapping of the entity class when the criteria are rendered, so that the
+ * detached criteria that contain this criterion need no session factory.
+ * </p>
+ */
+class IdentifierCorrelation implements Criterion {
+
+    final private Class<?> entityClass;
+    final private String subqueryAlias;
+
+    /**
+     * Constructs the correlation of a subquery on the given entity class.
+     *
+     * @param entityClass the entity class of both the subquery and the outer query
+     * @param subqueryAlias the root alias of the subquery
+     */
+    IdentifierCorrelation(Class<?> entityClass, String subqueryAlias) {
+        this.entityClass = entityClass;
+        this.subqueryAlias = subqueryAlias;
+    }
+
+    /**
+     * Returns the name of the identifier property of an entity class.
+     *
+     * @param factory the session factory with the mapping of the class
+     * @param entityClass the entity class
+     * @return the identifier property of the mapping, or, if the class is not mapped or has no identifier property,
+     *         the identifier according to the {@link EntityMetaModel}.
+     */
+    static String getIdentifierName(SessionFactoryImplementor factory, Class<?> entityClass) {
+        ClassMetadata metadata = factory.getClassMetadata(entityClass);
+        String name = metadata == null ? null : metadata.getIdentifierPropertyName();
+        return name != null ? name : EntityMetaModel.forClass(entityClass).getIdentifierName();
+    }
+
+    public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        String identifier = getIdentifierName(criteriaQuery.getFactory(), entityClass);
+        return Restrictions.eqProperty(subqueryAlias + "." + identifier, CriteriaSpecification.ROOT_ALIAS + "." + identifier)
+                .toSqlString(criteria, criteriaQuery);
+    }
+
+    public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        return new TypedValue[0];
+    }
+
+    @Override
+    public String toString() {
+        String identifier = EntityMetaModel.forClass(entityClass).getIdentifierName();
+        return subqueryAlias + "." + identifier + "=" + CriteriaSpecification.ROOT_ALIAS + "." + identifier;
+    }
+}
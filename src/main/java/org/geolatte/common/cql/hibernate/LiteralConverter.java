@@ -0,0 +1,227 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.reflection.EntityClassReader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Converts the literals of a CQL expression to the type of the property with which they are compared.
+ * </p>
+ * <p>
+ * The converters of a class are kept in a table per property path, so that the path is resolved and the property
+ * type is looked up once rather than for every literal. Strings, numbers and booleans are converted directly. Other
+ * literals (e.g. dates), and literals that can not be converted directly, are converted by
+ * <code>EntityClassReader.parseAsPropertyType()</code>; the results of the most recent of those conversions are
+ * kept by the converter.
+ * </p>
+ * <p>The tables are shared between threads, and are read without locking. They are held in a {@link ClassCache}, so
+ * that they do not keep the classes of a discarded class loader from being unloaded.</p>
+ */
+abstract class LiteralConverter {
+
+    // The maximum number of property paths for which the converters of a class are kept
+    private static final int MAX_CONVERTERS_PER_CLASS = 256;
+
+    // The maximum number of results kept by a converter that delegates to the EntityClassReader
+    private static final int MAX_DELEGATED_RESULTS = 64;
+
+    private static final ClassCache<ConcurrentMap<String, LiteralConverter>> converters =
+            new ClassCache<ConcurrentMap<String, LiteralConverter>>();
+
+    final private Class<?> entityClass;
+    final private String propertyPath;
+    private volatile EntityClassReader reader;
+    final private ConcurrentMap<String, Object> delegated = new ConcurrentHashMap<String, Object>();
+
+    private LiteralConverter(Class<?> entityClass, String propertyPath) {
+        this.entityClass = entityClass;
+        this.propertyPath = propertyPath;
+    }
+
+    /**
+     * Returns the (cached) converter for the given property.
+     *
+     * @param entityClass the class on which the CQL expression is applied
+     * @param propertyPath the property path, e.g. "owner.name"
+     * @return the converter for literals that are compared with the property
+     */
+    static LiteralConverter forProperty(Class<?> entityClass, String propertyPath) {
+        ConcurrentMap<String, LiteralConverter> table = converters.get(entityClass);
+        if (table == null) {
+            table = new ConcurrentHashMap<String, LiteralConverter>();
+            ConcurrentMap<String, LiteralConverter> existing = converters.putIfAbsent(entityClass, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        LiteralConverter converter = table.get(propertyPath);
+        if (converter == null) {
+            converter = create(entityClass, propertyPath);
+            if (table.size() < MAX_CONVERTERS_PER_CLASS) {
+                LiteralConverter existing = table.putIfAbsent(propertyPath, converter);
+                if (existing != null) {
+                    converter = existing;
+                }
+            }
+        }
+        return converter;
+    }
+
+    /**
+     * Converts a literal to the type of the property.
+     *
+     * @param literal the literal, as translated by the CQL builders
+     * @return the typed value
+     */
+    abstract Object convert(String literal);
+
+    /**
+     * Converts a literal with <code>EntityClassReader.parseAsPropertyType()</code>.
+     */
+    Object delegate(String literal) {
+        Object value = delegated.get(literal);
+        if (value == null) {
+            if (reader == null) {
+                reader = EntityClassReader.getClassReaderFor(entityClass);
+            }
+            value = reader.parseAsPropertyType(literal, propertyPath);
+            if (value == null || delegated.size() >= MAX_DELEGATED_RESULTS) {
+                return value;
+            }
+            delegated.putIfAbsent(literal, value);
+        }
+        // dates are mutable; don't hand out the cached instance
+        return value instanceof Date ? ((Date) value).clone() : value;
+    }
+
+    private static LiteralConverter create(Class<?> entityClass, String propertyPath) {
+        EntityMetaModel.Property property = EntityMetaModel.forClass(entityClass).resolve(propertyPath);
+        Class<?> type = property == null ? null : property.getType();
+        if (type == String.class) {
+            return new LiteralConverter(entityClass, propertyPath) {
+                Object convert(String literal) {
+                    return literal;
+                }
+            };
+        }
+        if (type == Integer.class || type == int.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Integer.valueOf(literal);
+                }
+            };
+        }
+        if (type == Long.class || type == long.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Long.valueOf(literal);
+                }
+            };
+        }
+        if (type == Short.class || type == short.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Short.valueOf(literal);
+                }
+            };
+        }
+        if (type == Byte.class || type == byte.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Byte.valueOf(literal);
+                }
+            };
+        }
+        if (type == Double.class || type == double.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Double.valueOf(literal);
+                }
+            };
+        }
+        if (type == Float.class || type == float.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return Float.valueOf(literal);
+                }
+            };
+        }
+        if (type == BigDecimal.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return new BigDecimal(literal);
+                }
+            };
+        }
+        if (type == BigInteger.class) {
+            return new NumberConverter(entityClass, propertyPath) {
+                Object parse(String literal) {
+                    return new BigInteger(literal);
+                }
+            };
+        }
+        if (type == Boolean.class || type == boolean.class) {
+            return new LiteralConverter(entityClass, propertyPath) {
+                Object convert(String literal) {
+                    if ("true".equalsIgnoreCase(literal)) return Boolean.TRUE;
+                    if ("false".equalsIgnoreCase(literal)) return Boolean.FALSE;
+                    return delegate(literal);
+                }
+            };
+        }
+        return new LiteralConverter(entityClass, propertyPath) {
+            Object convert(String literal) {
+                return delegate(literal);
+            }
+        };
+    }
+
+    /**
+     * Converts literals to a number type. Literals that are not in the plain decimal notation of the type (e.g.
+     * "1.0" for an integer property) are left to the <code>EntityClassReader</code>.
+     */
+    private static abstract class NumberConverter extends LiteralConverter {
+
+        NumberConverter(Class<?> entityClass, String propertyPath) {
+            super(entityClass, propertyPath);
+        }
+
+        @Override
+        Object convert(String literal) {
+            try {
+                return parse(literal);
+            } catch (NumberFormatException e) {
+                return delegate(literal);
+            }
+        }
+
+        abstract Object parse(String literal);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.TableRef;
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+import org.hibernatespatial.SpatialDialect;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * Translates an (optimized) CQL term to the where clause of a native SQL query on a table that is mapped by the
+ * <code>AutoMapper</code>. Properties are replaced by the columns that the {@link DatabaseMapping} maps them to, and
+ * literals by <code>?</code> parameters, whose values are converted to the property types and bound with the
+ * Hibernate types of the mapping.
+ * </p>
+ * <p>
+ * Only properties of the mapped class itself can be used: the generated classes have no associations. Instances are
+ * not thread-safe; use a new builder for each query.
+ * </p>
+ */
+class NativeSqlBuilder extends AbstractBuilder {
+
+    final private DatabaseMapping mapping;
+    final private TableRef tableRef;
+    final private Class<?> mappedClass;
+    final private SessionFactoryImplementor factory;
+    final private Dialect dialect;
+
+    final private List<Object> parameters = new ArrayList<Object>();
+    final private List<Type> parameterTypes = new ArrayList<Type>();
+
+    NativeSqlBuilder(DatabaseMapping mapping, TableRef tableRef, SessionFactoryImplementor factory) {
+        this.mapping = mapping;
+        this.tableRef = tableRef;
+        this.mappedClass = mapping.getGeneratedClass(tableRef);
+        if (mappedClass == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " is not mapped.");
+        }
+        this.factory = factory;
+        this.dialect = factory.getDialect();
+    }
+
+    /**
+     * Returns the values of the parameters of the conditions built so far, in order.
+     */
+    List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns the Hibernate types with which the parameters are bound, in order.
+     */
+    List<Type> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * Returns the column of a property of the mapped class.
+     *
+     * @throws IllegalArgumentException if the class has no such property.
+     */
+    String column(String property) {
+        String column = mapping.getColumnName(tableRef, property);
+        if (column == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " has no property " + property + ".");
+        }
+        return column;
+    }
+
+    /**
+     * Returns the Hibernate type of a property of the mapped class.
+     */
+    Type type(String property) {
+        column(property);
+        return factory.getTypeResolver().heuristicType(mapping.getHibernateType(tableRef, property));
+    }
+
+    /**
+     * Renders the given term as an SQL condition, and registers the values of its parameters.
+     */
+    String condition(CqlTerm term) {
+        StringBuilder sql = new StringBuilder();
+        term(term, sql);
+        return sql.toString();
+    }
+
+    /**
+     * Renders the given spatial filter as an SQL condition on the default geometry column, unless the filter names
+     * another geometry property, and registers the values of its parameters.
+     *
+     * @throws IllegalStateException if the dialect has no spatial support, or no geometry property is known.
+     */
+    String condition(SpatialFilter filter) {
+        if (!(dialect instanceof SpatialDialect)) {
+            throw new IllegalStateException("Dialect " + dialect + " is not a spatial dialect.");
+        }
+        String property = filter.getPropertyName() != null ? filter.getPropertyName() : mapping.getGeometryProperty(tableRef);
+        if (property == null) {
+            throw new IllegalStateException("No geometry property specified for spatial filter " + filter);
+        }
+        String sql = filter.toSqlString(column(property), (SpatialDialect) dialect);
+        for (Object value : filter.getSqlParameters()) {
+            bind(value, value instanceof Double ? StandardBasicTypes.DOUBLE : type(property));
+        }
+        return sql;
+    }
+
+    private void term(CqlTerm term, StringBuilder sql) {
+        if (term instanceof CqlTerm.Constant) {
+            sql.append(((CqlTerm.Constant) term).getValue() ? "1=1" : "1=0");
+        } else if (term instanceof CqlTerm.Leaf) {
+            sql.append(leaf(((CqlTerm.Leaf) term).getExpr()));
+        } else if (term instanceof CqlTerm.Range) {
+            range((CqlTerm.Range) term, sql);
+        } else if (term instanceof CqlTerm.InList) {
+            inList((CqlTerm.InList) term, sql);
+        } else {
+            CqlTerm.Junction junction = (CqlTerm.Junction) term;
+            sql.append('(');
+            String separator = junction.isConjunction() ? " and " : " or ";
+            List<CqlTerm> operands = junction.getOperands();
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    sql.append(separator);
+                }
+                term(operands.get(i), sql);
+            }
+            sql.append(')');
+        }
+    }
+
+    private String leaf(PExpr expr) {
+        if (expr instanceof ANotExpr) {
+            return "not (" + leaf(((ANotExpr) expr).getExpr()) + ")";
+        }
+        PAttr attr = CqlOptimizer.attributeOf(expr);
+        if (attr == null) {
+            throw new IllegalArgumentException("Unsupported predicate: " + expr);
+        }
+        String path = getPropertyPath(attr);
+        if (expr instanceof AExistsExpr || expr instanceof ADoesNotExistExpr) {
+            // the columns of the table are known, so existence is decided here
+            boolean exists = mapping.getColumnName(tableRef, path) != null;
+            return exists == expr instanceof AExistsExpr ? "1=1" : "1=0";
+        }
+        String column = column(path);
+        if (expr instanceof AIsNullExpr) return column + " is null";
+        if (expr instanceof AIsNotNullExpr) return column + " is not null";
+        if (expr instanceof AEqExpr) return compare(column, "=", path, ((AEqExpr) expr).getRight());
+        if (expr instanceof ANeqExpr) return compare(column, "<>", path, ((ANeqExpr) expr).getRight());
+        if (expr instanceof AGtExpr) return compare(column, ">", path, ((AGtExpr) expr).getRight());
+        if (expr instanceof AGteExpr) return compare(column, ">=", path, ((AGteExpr) expr).getRight());
+        if (expr instanceof ALtExpr) return compare(column, "<", path, ((ALtExpr) expr).getRight());
+        if (expr instanceof ALteExpr) return compare(column, "<=", path, ((ALteExpr) expr).getRight());
+        if (expr instanceof ALikeExpr) return like(column, ((ALikeExpr) expr).getRight(), false);
+        if (expr instanceof ANotLikeExpr) return "not (" + like(column, ((ANotLikeExpr) expr).getRight(), false) + ")";
+        if (expr instanceof AIlikeExpr) return like(column, ((AIlikeExpr) expr).getRight(), true);
+        if (expr instanceof ANotIlikeExpr) return "not (" + like(column, ((ANotIlikeExpr) expr).getRight(), true) + ")";
+        if (expr instanceof ABeforeExpr) {
+            return time(column, "<", path, parseDate(((ABeforeExpr) expr).getDateTime().toString().trim()));
+        }
+        if (expr instanceof AAfterExpr) {
+            return time(column, ">", path, parseDate(((AAfterExpr) expr).getDateTime().toString().trim()));
+        }
+        if (expr instanceof ADuringExpr) {
+            return during(column, path, ((ADuringExpr) expr).getTimeSpan());
+        }
+        throw new IllegalArgumentException("Unsupported predicate: " + expr);
+    }
+
+    private void range(CqlTerm.Range range, StringBuilder sql) {
+        PExpr lower = range.getLower().getExpr();
+        PExpr upper = range.getUpper().getExpr();
+        String path = getPropertyPath(CqlOptimizer.attributeOf(lower));
+        String column = column(path);
+        sql.append('(');
+        if (lower instanceof AGtExpr) {
+            sql.append(compare(column, ">", path, ((AGtExpr) lower).getRight()));
+        } else {
+            sql.append(compare(column, ">=", path, ((AGteExpr) lower).getRight()));
+        }
+        sql.append(" and ");
+        if (upper instanceof ALtExpr) {
+            sql.append(compare(column, "<", path, ((ALtExpr) upper).getRight()));
+        } else {
+            sql.append(compare(column, "<=", path, ((ALteExpr) upper).getRight()));
+        }
+        sql.append(')');
+    }
+
+    private void inList(CqlTerm.InList inList, StringBuilder sql) {
+        String path = getPropertyPath(((AEqExpr) inList.getEqualities().get(0).getExpr()).getLeft());
+        String column = column(path);
+        Type type = type(path);
+        List<CqlTerm.Leaf> equalities = inList.getEqualities();
+        // split long lists, as ChunkedInExpression does for the criteria
+        int chunkSize = ChunkedInExpression.getChunkSize(dialect);
+        Object[] values = new Object[equalities.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = literal(((AEqExpr) equalities.get(i).getExpr()).getRight(), path);
+        }
+        boolean inlined = ChunkedInExpression.isInlined(dialect, values);
+        sql.append('(');
+        for (int i = 0; i < values.length; i++) {
+            if (i % chunkSize == 0) {
+                sql.append(i == 0 ? "" : ") or ").append(column).append(" in (");
+            } else {
+                sql.append(", ");
+            }
+            if (inlined) {
+                sql.append(values[i]);
+            } else {
+                sql.append('?');
+                bind(values[i], type);
+            }
+        }
+        sql.append("))");
+    }
+
+    private String compare(String column, String operator, String path, Node literal) {
+        bind(literal(literal, path), type(path));
+        return column + " " + operator + " ?";
+    }
+
+    private String like(String column, Node literal, boolean ignoreCase) {
+        literal.apply(this);
+        String pattern = translatedLiterals.get(literal).toString().replace("''", "'");
+        bind(ignoreCase ? pattern.toLowerCase() : pattern, StandardBasicTypes.STRING);
+        String sql = EscapingLikeExpression.toLikeSql(dialect, column, ignoreCase);
+        return pattern.indexOf('\\') >= 0 ? sql + " escape '\\'" : sql;
+    }
+
+    private String during(String column, String path, PTimespanLiteral timespan) {
+        Date from;
+        Date to;
+        if (timespan instanceof AFromToTimespanLiteral) {
+            from = parseDate(((AFromToTimespanLiteral) timespan).getFrom().getText().trim());
+            to = parseDate(((AFromToTimespanLiteral) timespan).getTo().getText().trim());
+        } else if (timespan instanceof AFromDurationTimespanLiteral) {
+            AFromDurationTimespanLiteral fromDuration = (AFromDurationTimespanLiteral) timespan;
+            from = parseDate(fromDuration.getFrom().getText().trim());
+            fromDuration.getDuration().apply(this);
+            to = HibernateCriteriaBuilder.addDuration(from, (Duration) translatedLiterals.get(fromDuration.getDuration()));
+        } else {
+            throw new IllegalArgumentException("Unsupported timespan: " + timespan);
+        }
+        return "(" + time(column, ">", path, from) + " and " + time(column, "<", path, to) + ")";
+    }
+
+    private String time(String column, String operator, String path, Date date) {
+        if (!Date.class.isAssignableFrom(EntityMetaModel.forClass(mappedClass).getProperty(path).getType())) {
+            throw new IllegalArgumentException("Property " + path + " is not a date.");
+        }
+        bind(date, type(path));
+        return column + " " + operator + " ?";
+    }
+
+    private Object literal(Node literal, String path) {
+        literal.apply(this);
+        return LiteralConverter.forProperty(mappedClass, path).convert(translatedLiterals.get(literal).toString());
+    }
+
+    private void bind(Object value, Type type) {
+        parameters.add(value);
+        parameterTypes.add(type);
+    }
+}
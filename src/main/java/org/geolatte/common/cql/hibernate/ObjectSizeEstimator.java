@@ -0,0 +1,110 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Estimates the memory that query results take, to bound the size of a {@link CqlResultCache}.
+ * <p/>
+ * <p>The estimate is shallow: entities are measured by their own properties of simple types (strings, numbers,
+ * dates, geometries, ...), and associated objects and collections only count as a reference, since they are either
+ * lazy, or shared with other results. The sizes assume a 64-bit JVM with compressed references; they are meant to
+ * keep the cache in bounds, not to be exact.</p>
+ */
+final class ObjectSizeEstimator {
+
+    static final int OBJECT_HEADER = 16;
+    static final int REFERENCE = 8;
+    static final int COORDINATE = 40;
+
+    private ObjectSizeEstimator() {
+    }
+
+    /**
+     * Estimates the size of a query result: a list of entities, of projected rows (<code>Object[]</code>) or of
+     * values, or a single value.
+     *
+     * @param result the result
+     * @return the estimated size, in bytes.
+     */
+    static long estimate(Object result) {
+        if (result instanceof Collection) {
+            Collection<?> rows = (Collection<?>) result;
+            long size = OBJECT_HEADER + (long) REFERENCE * rows.size();
+            for (Object row : rows) {
+                size += estimateRow(row);
+            }
+            return size;
+        }
+        return estimateRow(result);
+    }
+
+    private static long estimateRow(Object row) {
+        if (row instanceof Object[]) {
+            Object[] values = (Object[]) row;
+            long size = OBJECT_HEADER + (long) REFERENCE * values.length;
+            for (Object value : values) {
+                size += estimateValue(value);
+            }
+            return size;
+        }
+        if (row == null || isSimple(row.getClass())) {
+            return estimateValue(row);
+        }
+        long size = OBJECT_HEADER;
+        for (EntityMetaModel.Property property : EntityMetaModel.forClass(row.getClass()).getProperties()) {
+            size += REFERENCE;
+            if (isSimple(property.getType())) {
+                size += estimateValue(property.read(row));
+            }
+        }
+        return size;
+    }
+
+    private static long estimateValue(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 2 * OBJECT_HEADER + 8 + 2L * ((String) value).length();
+        }
+        if (value instanceof Geometry) {
+            return 3 * OBJECT_HEADER + (long) (COORDINATE + REFERENCE) * ((Geometry) value).getNumPoints();
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) value).length;
+        }
+        // boxed primitives, dates and enums (which are shared, but a reference is counted anyway)
+        return OBJECT_HEADER + 8;
+    }
+
+    private static boolean isSimple(Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || type == String.class || type == byte[].class
+                || Number.class.isAssignableFrom(type) || Date.class.isAssignableFrom(type)
+                || Boolean.class == type || Character.class == type || Geometry.class.isAssignableFrom(type);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.engine.TypedValue;
+
+/**
+ * <p>
+ * Hibernate criterion that compares a property with a parameter of a {@link PreparedCql}.
+ * </p>
+ * <p>
+ * The rendered SQL fragment does not depend on the value of the parameter, so all executions of a prepared
+ * expression share the same SQL. The value is looked up when Hibernate collects the typed values of the query,
+ * from the {@link BoundCriterion} that encloses this criterion.
+ * </p>
+ */
+class ParameterExpression implements Criterion {
+
+    private static final char ESCAPE_CHAR = '\\';
+
+    /**
+     * The operators that can take a parameter as right hand side.
+     */
+    enum Operator {
+        EQ("="), NE("<>"), GT(">"), GE(">="), LT("<"), LE("<="), LIKE("like"), ILIKE("ilike");
+
+        final private String sql;
+
+        Operator(String sql) {
+            this.sql = sql;
+        }
+
+        boolean isLike() {
+            return this == LIKE || this == ILIKE;
+        }
+    }
+
+    final private String propertyName;
+    final private Operator operator;
+    final private int index;
+    final private Class entityClass;
+    final private String propertyPath;
+    final private boolean lowerCaseIndexed;
+
+    /**
+     * Constructs a parameter expression.
+     *
+     * @param propertyName The (aliased) property name
+     * @param operator The comparison operator
+     * @param index The (1-based) index of the parameter
+     * @param entityClass The class on which the expression is applied
+     * @param propertyPath The full property path, used to convert <code>String</code> values to the property type.
+     * @param lowerCaseIndexed Whether the column has an index on its lower-cased value (see
+     *                         {@link CqlTranslationOptions.Builder#lowerCaseIndex(String)}).
+     */
+    ParameterExpression(String propertyName, Operator operator, int index, Class entityClass, String propertyPath, boolean lowerCaseIndexed) {
+        this.propertyName = propertyName;
+        this.operator = operator;
+        this.index = index;
+        this.entityClass = entityClass;
+        this.propertyPath = propertyPath;
+        this.lowerCaseIndexed = lowerCaseIndexed;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, propertyName);
+        if (columns.length != 1) {
+            throw new HibernateException("Parameters may only be used with single-column properties");
+        }
+        if (operator.isLike()) {
+            // always declare the escape character, so that the SQL does not depend on the bound value
+            String sql = EscapingLikeExpression.toLikeSql(criteriaQuery.getFactory().getDialect(), columns[0], operator == Operator.ILIKE, lowerCaseIndexed);
+            return sql + " escape '" + ESCAPE_CHAR + "'";
+        }
+        return columns[0] + operator.sql + "?";
+    }
+
+    public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) throws HibernateException {
+        Object value = BoundCriterion.getBoundValue(index);
+        if (value instanceof String) {
+            if (operator == Operator.ILIKE) {
+                value = ((String) value).toLowerCase();
+            } else if (!operator.isLike()) {
+                value = LiteralConverter.forProperty(entityClass, propertyPath).convert((String) value);
+            }
+        }
+        return new TypedValue[]{criteriaQuery.getTypedValue(criteria, propertyName, value)};
+    }
+
+    @Override
+    public String toString() {
+        return propertyName + (operator.isLike() ? " " + operator.sql + " " : operator.sql) + "?" + index;
+    }
+}
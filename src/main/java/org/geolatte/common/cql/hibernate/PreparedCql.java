@@ -0,0 +1,95 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.criterion.DetachedCriteria;
+
+/**
+ * <p>
+ * A CQL expression with parameter placeholders that is parsed and translated once, and can then be executed many
+ * times with different parameter values.
+ * </p>
+ * <p>
+ * Placeholders are written as <code>?1</code>, <code>?2</code>, ... and may appear wherever a comparison or (i)like
+ * expression expects a literal, e.g. <code>height > ?1 AND name LIKE ?2</code>. Because values are bound as JDBC
+ * parameters, all criteria created from a <code>PreparedCql</code> render to the same SQL, regardless of the values.
+ * </p>
+ * <p>
+ * Values are bound as-is, except for <code>String</code> values of comparisons, which are converted to the type of
+ * the compared property in the same way as CQL literals. Like patterns use the CQL escape sequences (<code>\%</code>,
+ * <code>\_</code>, <code>\\</code>), but are not quoted.
+ * </p>
+ * <p>Instances are created by {@link CqlHibernate#prepare(String, Class)}. This class is thread-safe.</p>
+ */
+public class PreparedCql {
+
+    final private String cqlTemplate;
+    final private CompiledCql compiled;
+
+    PreparedCql(String cqlTemplate, CompiledCql compiled) {
+        this.cqlTemplate = cqlTemplate;
+        this.compiled = compiled;
+    }
+
+    /**
+     * Returns a new Hibernate <tt>DetachedCriteria</tt> with the given parameter values bound.
+     *
+     * @param values the parameter values, the value for <code>?n</code> at position <code>n</code>.
+     * @return a new DetachedCriteria
+     * @throws IllegalArgumentException if the number of values differs from the number of parameters.
+     */
+    public DetachedCriteria bind(Object... values) {
+        return compiled.toCriteria(values);
+    }
+
+    /**
+     * Returns the number of parameters of this expression, i.e. the highest placeholder index.
+     *
+     * @return the parameter count
+     */
+    public int getParameterCount() {
+        return compiled.getParameterCount();
+    }
+
+    /**
+     * Returns the class to which the expression applies.
+     *
+     * @return the entity class
+     */
+    public Class<?> getEntityClass() {
+        return compiled.getEntityClass();
+    }
+
+    /**
+     * Returns the CQL expression, including its placeholders.
+     *
+     * @return the CQL template
+     */
+    public String getCqlTemplate() {
+        return cqlTemplate;
+    }
+
+    @Override
+    public String toString() {
+        return cqlTemplate;
+    }
+}
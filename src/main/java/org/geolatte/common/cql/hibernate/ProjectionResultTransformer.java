@@ -0,0 +1,90 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.transform.AliasToBeanResultTransformer;
+import org.hibernate.transform.ResultTransformer;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Transforms the rows of a property projection into instances of a result class, by setting the bean property that
+ * corresponds to each selected property.
+ * </p>
+ * <p>
+ * The projection itself carries no aliases: Hibernate substitutes a projection alias that equals a property name
+ * for that property in the where clause, which breaks restrictions on the same property. The bean property names
+ * are therefore supplied here, and are derived from the property paths by dropping the dots and capitalizing the
+ * following part, e.g. <code>owner.name</code> is set as <code>ownerName</code>.
+ * </p>
+ */
+class ProjectionResultTransformer implements ResultTransformer {
+
+    final private ResultTransformer delegate;
+    final private String[] beanProperties;
+
+    /**
+     * Creates a transformer for the given result class and selected properties.
+     *
+     * @param resultClass the class of the result objects, which must have a default constructor and setters for
+     *                    the selected properties
+     * @param propertyPaths the selected properties, in the order of the projection
+     */
+    ProjectionResultTransformer(Class<?> resultClass, String[] propertyPaths) {
+        this.delegate = new AliasToBeanResultTransformer(resultClass);
+        this.beanProperties = new String[propertyPaths.length];
+        for (int i = 0; i < propertyPaths.length; i++) {
+            beanProperties[i] = toBeanProperty(propertyPaths[i]);
+        }
+    }
+
+    /**
+     * Returns the bean property name for the given property path.
+     *
+     * @param propertyPath the property path
+     * @return the bean property name
+     */
+    static String toBeanProperty(String propertyPath) {
+        StringBuilder name = new StringBuilder(propertyPath.length());
+        boolean capitalize = false;
+        for (int i = 0; i < propertyPath.length(); i++) {
+            char c = propertyPath.charAt(i);
+            if (c == '.') {
+                capitalize = true;
+            } else {
+                name.append(capitalize ? Character.toUpperCase(c) : c);
+                capitalize = false;
+            }
+        }
+        return name.toString();
+    }
+
+    public Object transformTuple(Object[] tuple, String[] aliases) {
+        return delegate.transformTuple(tuple, beanProperties);
+    }
+
+    public List transformList(List collection) {
+        return collection;
+    }
+}
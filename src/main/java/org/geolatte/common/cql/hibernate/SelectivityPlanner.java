@@ -0,0 +1,239 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.AbstractBuilder;
+import org.geolatte.common.cql.node.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * Reorders the operands of the junctions of an (optimized) {@link CqlTerm} by estimated selectivity and cost, so that
+ * evaluation that stops at the first false operand of a conjunction (or the first true operand of a disjunction)
+ * does as little work as possible. This matters for the in-memory evaluation of {@link CqlPredicateCompiler}, and for
+ * databases that evaluate residual predicates in textual order.
+ * </p>
+ * <p>
+ * The selectivity of a predicate is the estimated fraction of the objects that satisfy it. It is derived from the
+ * {@link TableStatistics} of the entity class where available (e.g. an equality selects 1 in <i>n</i> objects if the
+ * property has <i>n</i> distinct values), and otherwise from fixed estimates per kind of predicate. The cost is a
+ * relative measure: an equality on the identifier is cheapest, LIKE patterns and predicates on collections (which
+ * are evaluated in a subquery) are expensive. Operands of a conjunction are ordered by ascending
+ * <code>(selectivity - 1) / cost</code>, those of a disjunction by descending <code>selectivity / cost</code>; this
+ * order minimizes the expected cost of evaluation for independent predicates. Operands with equal rank keep the order
+ * in which they were written.
+ * </p>
+ * <p>
+ * The order of the operands does not change the result of the expression.
+ * </p>
+ */
+final class SelectivityPlanner extends AbstractBuilder {
+
+    // Default selectivities, used when no statistics are available
+    static final double IDENTIFIER_EQUALITY_SELECTIVITY = 0.001;
+    static final double EQUALITY_SELECTIVITY = 0.05;
+    static final double COMPARISON_SELECTIVITY = 1.0 / 3;
+    static final double RANGE_SELECTIVITY = 0.25;
+    static final double NULL_SELECTIVITY = 0.05;
+    static final double LIKE_SELECTIVITY = 0.1;
+    static final double EXISTENCE_SELECTIVITY = 0.5;
+
+    // Relative costs of evaluating a predicate
+    static final double IDENTIFIER_COST = 0.5;
+    static final double COMPARISON_COST = 1;
+    static final double IN_LIST_COST = 2;
+    static final double LIKE_COST = 5;
+    static final double ILIKE_COST = 6;
+    static final double ASSOCIATION_COST = 0.5;
+    static final double COLLECTION_COST = 10;
+
+    final private EntityMetaModel model;
+    final private TableStatistics statistics;
+    final private String identifier;
+
+    private SelectivityPlanner(Class<?> forClass, TableStatistics statistics) {
+        this.model = EntityMetaModel.forClass(forClass);
+        this.statistics = statistics;
+        this.identifier = statistics != null ? statistics.getIdentifierProperty() : model.getIdentifierName();
+    }
+
+    /**
+     * Reorders the operands of the junctions of the given term.
+     *
+     * @param term the optimized term
+     * @param forClass the class on which the term is evaluated
+     * @param statistics the statistics of the class, or null to use the default estimates only
+     * @return the reordered term
+     */
+    static CqlTerm reorder(CqlTerm term, Class<?> forClass, TableStatistics statistics) {
+        if (!(term instanceof CqlTerm.Junction)) {
+            return term;
+        }
+        if (statistics != null && !statistics.getEntityClass().equals(forClass)) {
+            statistics = null;
+        }
+        return new SelectivityPlanner(forClass, statistics).plan(term).term;
+    }
+
+    /**
+     * A term with its estimated selectivity and cost.
+     */
+    private static final class Estimate {
+
+        final CqlTerm term;
+        final double selectivity;
+        final double cost;
+
+        Estimate(CqlTerm term, double selectivity, double cost) {
+            this.term = term;
+            this.selectivity = Math.max(0, Math.min(1, selectivity));
+            this.cost = Math.max(cost, 0.01);
+        }
+    }
+
+    private Estimate plan(CqlTerm term) {
+        if (term instanceof CqlTerm.Constant) {
+            return new Estimate(term, ((CqlTerm.Constant) term).getValue() ? 1 : 0, 0);
+        }
+        if (term instanceof CqlTerm.Leaf) {
+            return leaf((CqlTerm.Leaf) term);
+        }
+        if (term instanceof CqlTerm.Range) {
+            String path = getPropertyPath(CqlOptimizer.attributeOf(((CqlTerm.Range) term).getLower().getExpr()));
+            return new Estimate(term, RANGE_SELECTIVITY, COMPARISON_COST + pathCost(path));
+        }
+        if (term instanceof CqlTerm.InList) {
+            List<CqlTerm.Leaf> equalities = ((CqlTerm.InList) term).getEqualities();
+            String path = getPropertyPath(((AEqExpr) equalities.get(0).getExpr()).getLeft());
+            return new Estimate(term, equalities.size() * equality(path), IN_LIST_COST + pathCost(path));
+        }
+        return junction((CqlTerm.Junction) term);
+    }
+
+    private Estimate junction(CqlTerm.Junction junction) {
+        final boolean conjunction = junction.isConjunction();
+        List<Estimate> operands = new ArrayList<Estimate>();
+        for (CqlTerm operand : junction.getOperands()) {
+            operands.add(plan(operand));
+        }
+        // a stable sort: operands with the same rank keep their order
+        Collections.sort(operands, new Comparator<Estimate>() {
+            public int compare(Estimate first, Estimate second) {
+                return Double.compare(rank(first, conjunction), rank(second, conjunction));
+            }
+        });
+        // the expected cost of evaluating the operands in order, until the outcome is known
+        double selectivity = conjunction ? 1 : 0;
+        double cost = 0;
+        double reached = 1;
+        List<CqlTerm> terms = new ArrayList<CqlTerm>(operands.size());
+        for (Estimate operand : operands) {
+            cost += reached * operand.cost;
+            if (conjunction) {
+                selectivity *= operand.selectivity;
+                reached = selectivity;
+            } else {
+                selectivity = 1 - (1 - selectivity) * (1 - operand.selectivity);
+                reached = 1 - selectivity;
+            }
+            terms.add(operand.term);
+        }
+        return new Estimate(new CqlTerm.Junction(conjunction, terms), selectivity, cost);
+    }
+
+    private static double rank(Estimate estimate, boolean conjunction) {
+        return conjunction ? (estimate.selectivity - 1) / estimate.cost : -estimate.selectivity / estimate.cost;
+    }
+
+    private Estimate leaf(CqlTerm.Leaf leaf) {
+        PExpr expr = leaf.getExpr();
+        boolean negated = false;
+        while (expr instanceof ANotExpr) {
+            expr = ((ANotExpr) expr).getExpr();
+            negated = !negated;
+        }
+        PAttr attr = CqlOptimizer.attributeOf(expr);
+        if (attr == null) {
+            return new Estimate(leaf, EXISTENCE_SELECTIVITY, COMPARISON_COST);
+        }
+        String path = getPropertyPath(attr);
+        double selectivity;
+        double cost = COMPARISON_COST;
+        if (expr instanceof AEqExpr) {
+            selectivity = equality(path);
+            if (path.equals(identifier)) {
+                cost = IDENTIFIER_COST;
+            }
+        } else if (expr instanceof ANeqExpr) {
+            selectivity = 1 - equality(path);
+        } else if (expr instanceof AGtExpr || expr instanceof AGteExpr || expr instanceof ALtExpr
+                || expr instanceof ALteExpr || expr instanceof ABeforeExpr || expr instanceof AAfterExpr) {
+            selectivity = COMPARISON_SELECTIVITY;
+        } else if (expr instanceof ADuringExpr) {
+            selectivity = RANGE_SELECTIVITY;
+        } else if (expr instanceof AIsNullExpr) {
+            selectivity = NULL_SELECTIVITY;
+        } else if (expr instanceof AIsNotNullExpr) {
+            selectivity = 1 - NULL_SELECTIVITY;
+        } else if (expr instanceof ALikeExpr || expr instanceof AIlikeExpr) {
+            selectivity = LIKE_SELECTIVITY;
+            cost = expr instanceof AIlikeExpr ? ILIKE_COST : LIKE_COST;
+        } else if (expr instanceof ANotLikeExpr || expr instanceof ANotIlikeExpr) {
+            selectivity = 1 - LIKE_SELECTIVITY;
+            cost = expr instanceof ANotIlikeExpr ? ILIKE_COST : LIKE_COST;
+        } else {
+            selectivity = EXISTENCE_SELECTIVITY;
+        }
+        return new Estimate(leaf, negated ? 1 - selectivity : selectivity, cost + pathCost(path));
+    }
+
+    /**
+     * Returns the estimated selectivity of an equality on the given property.
+     */
+    private double equality(String path) {
+        if (statistics != null) {
+            long distinct = path.equals(identifier) ? statistics.getRowCount() : statistics.getDistinctValues(path);
+            if (distinct > 0) {
+                return 1.0 / distinct;
+            }
+        }
+        return path.equals(identifier) ? IDENTIFIER_EQUALITY_SELECTIVITY : EQUALITY_SELECTIVITY;
+    }
+
+    /**
+     * Returns the extra cost of reaching a property through associations or collections.
+     */
+    private double pathCost(String path) {
+        if (path.indexOf('.') < 0) {
+            return 0;
+        }
+        if (model.crossesCollection(path)) {
+            return COLLECTION_COST;
+        }
+        int associations = path.split("\\.").length - (model.referencesIdentifier(path) ? 2 : 1);
+        return associations * ASSOCIATION_COST;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import org.hibernate.criterion.Criterion;
+import org.hibernatespatial.SpatialDialect;
+import org.hibernatespatial.SpatialRelation;
+import org.hibernatespatial.criterion.SpatialRestrictions;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * A spatial predicate (BBOX, INTERSECTS, WITHIN, CONTAINS or DWITHIN) that is combined with a CQL expression and
+ * translated to a Hibernate Spatial restriction, so that it is evaluated by the database (and its spatial index).
+ * </p>
+ * <p>
+ * The predicate applies to a geometry property. This is either set explicitly with {@link #onProperty(String)}, or
+ * defaults to the primary geometry property of an auto-mapped class (see
+ * {@link org.geolatte.common.automapper.DatabaseMapping#getGeometryProperty(org.geolatte.common.automapper.TableRef)}).
+ * </p>
+ * <p>Instances are immutable.</p>
+ */
+public class SpatialFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The supported spatial operators.
+     */
+    public enum Operator {
+        /** The bounding box of the geometry property overlaps the given envelope. */
+        BBOX,
+        /** The geometry property intersects the given geometry. */
+        INTERSECTS,
+        /** The geometry property is within the given geometry. */
+        WITHIN,
+        /** The geometry property contains the given geometry. */
+        CONTAINS,
+        /** The geometry property is within the given distance of the given geometry. */
+        DWITHIN
+    }
+
+    final private Operator operator;
+    final private Geometry geometry;
+    final private Envelope envelope;
+    final private int srid;
+    final private double distance;
+    final private String propertyName;
+
+    private SpatialFilter(Operator operator, Geometry geometry, Envelope envelope, int srid, double distance, String propertyName) {
+        this.operator = operator;
+        this.geometry = geometry;
+        this.envelope = envelope;
+        this.srid = srid;
+        this.distance = distance;
+        this.propertyName = propertyName;
+    }
+
+    /**
+     * Creates a BBOX filter.
+     *
+     * @param envelope the bounding box
+     * @param srid the spatial reference system of the bounding box
+     * @return a filter that selects the objects whose bounding box overlaps the specified envelope.
+     */
+    public static SpatialFilter bbox(Envelope envelope, int srid) {
+        if (envelope == null) {
+            throw new IllegalArgumentException("Null envelope not allowed.");
+        }
+        return new SpatialFilter(Operator.BBOX, null, new Envelope(envelope), srid, 0, null);
+    }
+
+    /**
+     * Creates an INTERSECTS filter.
+     *
+     * @param geometry the geometry to test against
+     * @return a filter that selects the objects whose geometry intersects the specified geometry.
+     */
+    public static SpatialFilter intersects(Geometry geometry) {
+        return create(Operator.INTERSECTS, geometry, 0);
+    }
+
+    /**
+     * Creates a WITHIN filter.
+     *
+     * @param geometry the geometry to test against
+     * @return a filter that selects the objects whose geometry is within the specified geometry.
+     */
+    public static SpatialFilter within(Geometry geometry) {
+        return create(Operator.WITHIN, geometry, 0);
+    }
+
+    /**
+     * Creates a CONTAINS filter.
+     *
+     * @param geometry the geometry to test against
+     * @return a filter that selects the objects whose geometry contains the specified geometry.
+     */
+    public static SpatialFilter contains(Geometry geometry) {
+        return create(Operator.CONTAINS, geometry, 0);
+    }
+
+    /**
+     * Creates a DWITHIN filter.
+     *
+     * @param geometry the geometry to test against
+     * @param distance the maximum distance, in the units of the spatial reference system.
+     * @return a filter that selects the objects whose geometry lies within the given distance of the specified geometry.
+     * @throws IllegalArgumentException if the distance is negative.
+     */
+    public static SpatialFilter dwithin(Geometry geometry, double distance) {
+        if (distance < 0) {
+            throw new IllegalArgumentException("Distance must not be negative.");
+        }
+        return create(Operator.DWITHIN, geometry, distance);
+    }
+
+    private static SpatialFilter create(Operator operator, Geometry geometry, double distance) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("Null geometry not allowed.");
+        }
+        return new SpatialFilter(operator, (Geometry) geometry.clone(), null, geometry.getSRID(), distance, null);
+    }
+
+    /**
+     * Returns a copy of this filter that applies to the specified geometry property.
+     *
+     * @param propertyName the name of the geometry property
+     * @return a filter for the specified property
+     */
+    public SpatialFilter onProperty(String propertyName) {
+        if (propertyName == null) {
+            throw new IllegalArgumentException("Null property name not allowed.");
+        }
+        return new SpatialFilter(operator, geometry, envelope, srid, distance, propertyName);
+    }
+
+    /**
+     * Returns the operator of this filter.
+     *
+     * @return the spatial operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Returns the geometry property to which this filter applies.
+     *
+     * @return the property name, or null if the filter applies to the default geometry property.
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Returns the bounding box of the filter geometry (or the envelope of a BBOX filter), expanded by the distance
+     * of a DWITHIN filter.
+     *
+     * @return the area outside of which no geometry can satisfy this filter.
+     */
+    public Envelope getEnvelope() {
+        Envelope result = envelope != null ? new Envelope(envelope) : new Envelope(geometry.getEnvelopeInternal());
+        if (operator == Operator.DWITHIN) {
+            result.expandBy(distance);
+        }
+        return result;
+    }
+
+    /**
+     * Translates this filter to a Hibernate Spatial restriction.
+     *
+     * @param defaultPropertyName the geometry property to use if this filter doesn't name one.
+     * @return the Hibernate criterion
+     * @throws IllegalStateException if neither this filter nor the parameter specifies a geometry property.
+     */
+    Criterion toCriterion(String defaultPropertyName) {
+        String property = propertyName != null ? propertyName : defaultPropertyName;
+        if (property == null) {
+            throw new IllegalStateException("No geometry property specified for spatial filter " + this);
+        }
+        switch (operator) {
+            case BBOX:
+                return SpatialRestrictions.filter(property, envelope, srid);
+            case INTERSECTS:
+                return SpatialRestrictions.intersects(property, geometry);
+            case WITHIN:
+                return SpatialRestrictions.within(property, geometry);
+            case CONTAINS:
+                return SpatialRestrictions.contains(property, geometry);
+            case DWITHIN:
+                return SpatialRestrictions.distanceWithin(property, geometry, distance);
+            default:
+                throw new IllegalStateException("Unsupported spatial operator: " + operator);
+        }
+    }
+
+    /**
+     * Renders this filter as a native SQL condition on a geometry column. The values to bind to the parameters of
+     * the condition are returned by {@link #getSqlParameters()}.
+     *
+     * @param column the (qualified) name of the geometry column
+     * @param dialect the spatial dialect of the database
+     * @return the SQL condition
+     */
+    String toSqlString(String column, SpatialDialect dialect) {
+        switch (operator) {
+            case BBOX:
+                return dialect.getSpatialFilterExpression(column);
+            case INTERSECTS:
+                return dialect.getSpatialRelateSQL(column, SpatialRelation.INTERSECTS);
+            case WITHIN:
+                return dialect.getSpatialRelateSQL(column, SpatialRelation.WITHIN);
+            case CONTAINS:
+                return dialect.getSpatialRelateSQL(column, SpatialRelation.CONTAINS);
+            case DWITHIN:
+                return dialect.getDWithinSQL(column);
+            default:
+                throw new IllegalStateException("Unsupported spatial operator: " + operator);
+        }
+    }
+
+    /**
+     * Returns the values to bind to the parameters of {@link #toSqlString(String, SpatialDialect)}: the filter
+     * geometry (for a BBOX filter, the polygon of its envelope) and, for a DWITHIN filter, the distance.
+     *
+     * @return the parameter values, in order
+     */
+    Object[] getSqlParameters() {
+        switch (operator) {
+            case BBOX:
+                Geometry box = new GeometryFactory(new PrecisionModel(), srid).toGeometry(envelope);
+                box.setSRID(srid);
+                return new Object[]{box};
+            case DWITHIN:
+                return new Object[]{geometry, distance};
+            default:
+                return new Object[]{geometry};
+        }
+    }
+
+    /**
+     * Evaluates this filter in memory, on the given geometry.
+     *
+     * @param value the value of the geometry property
+     * @return true if the geometry satisfies this filter, false otherwise or if it is null.
+     */
+    boolean evaluate(Geometry value) {
+        if (value == null) {
+            return false;
+        }
+        switch (operator) {
+            case BBOX:
+                return envelope.intersects(value.getEnvelopeInternal());
+            case INTERSECTS:
+                return value.intersects(geometry);
+            case WITHIN:
+                return value.within(geometry);
+            case CONTAINS:
+                return value.contains(geometry);
+            case DWITHIN:
+                return value.isWithinDistance(geometry, distance);
+            default:
+                throw new IllegalStateException("Unsupported spatial operator: " + operator);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(operator.name()).append('(');
+        builder.append(propertyName == null ? "<geometry>" : propertyName).append(", ");
+        builder.append(envelope != null ? envelope.toString() : geometry.toText());
+        if (operator == Operator.DWITHIN) {
+            builder.append(", ").append(distance);
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.TableRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Statistics on the rows of the table of an entity class: the number of rows, and the number of distinct values of
+ * (some of) its properties. They are used to estimate the selectivity of predicates when the operands of junctions
+ * are reordered (see {@link CqlTranslationOptions.Builder#statistics(TableStatistics)}).
+ * </p>
+ * <p>
+ * Statistics for a table that is mapped by the <code>AutoMapper</code> can be gathered through the JDBC metadata of
+ * its indexes; for other classes they can be given explicitly. Statistics are only estimates: they need not be
+ * exact, nor up to date. Instances are immutable.
+ * </p>
+ */
+public final class TableStatistics {
+
+    final private static Logger LOGGER = LoggerFactory.getLogger(TableStatistics.class);
+
+    final private Class<?> entityClass;
+    final private String identifierProperty;
+    final private long rowCount;
+    final private Map<String, Long> distinctValues;
+
+    /**
+     * Creates statistics for an entity class.
+     *
+     * @param entityClass the entity class
+     * @param identifierProperty the name of the identifier property, or null to use the default identifier of the
+     *                           class ("id", unless another property is annotated as identifier).
+     * @param rowCount the (estimated) number of rows, or a negative number if unknown
+     * @param distinctValues the (estimated) number of distinct values, by property path
+     */
+    public TableStatistics(Class<?> entityClass, String identifierProperty, long rowCount, Map<String, Long> distinctValues) {
+        if (entityClass == null) {
+            throw new IllegalArgumentException("Null entity class not allowed.");
+        }
+        this.entityClass = entityClass;
+        this.identifierProperty = identifierProperty != null
+                ? identifierProperty : EntityMetaModel.forClass(entityClass).getIdentifierName();
+        this.rowCount = rowCount;
+        this.distinctValues = distinctValues == null
+                ? Collections.<String, Long>emptyMap()
+                : Collections.unmodifiableMap(new HashMap<String, Long>(distinctValues));
+    }
+
+    /**
+     * Gathers the statistics of an auto-mapped table from the JDBC metadata of the table's indexes. The row count is
+     * taken from the table statistic, and the number of distinct values of a property from the cardinality of a
+     * single-column index on its column. The values of a unique column are all distinct.
+     * <p/>
+     * <p>The metadata is requested as approximate, so that the database need not scan the table. If the driver
+     * reports no statistics, the returned instance has an unknown row count and no distinct value counts.</p>
+     *
+     * @param connection the connection to the database
+     * @param mapping the mapping that holds the table
+     * @param tableRef the table
+     * @return the statistics of the table
+     * @throws SQLException if the metadata cannot be read
+     * @throws IllegalArgumentException if the table is not mapped
+     */
+    public static TableStatistics gather(Connection connection, DatabaseMapping mapping, TableRef tableRef) throws SQLException {
+        Class<?> entityClass = mapping.getGeneratedClass(tableRef);
+        if (entityClass == null) {
+            throw new IllegalArgumentException("Table " + tableRef + " is not mapped.");
+        }
+        Map<String, String> properties = new HashMap<String, String>();
+        for (String property : mapping.getProperties(tableRef)) {
+            properties.put(mapping.getColumnName(tableRef, property).toUpperCase(), property);
+        }
+
+        long rowCount = -1;
+        Map<String, String> firstColumns = new HashMap<String, String>();
+        Map<String, Integer> columnCounts = new HashMap<String, Integer>();
+        Map<String, Long> cardinalities = new HashMap<String, Long>();
+        Map<String, Boolean> unique = new HashMap<String, Boolean>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        ResultSet indexInfo = metaData.getIndexInfo(tableRef.getCatalog(), tableRef.getSchema(), tableRef.getTableName(), false, true);
+        try {
+            while (indexInfo.next()) {
+                if (indexInfo.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    rowCount = indexInfo.getLong("CARDINALITY");
+                    continue;
+                }
+                String index = indexInfo.getString("INDEX_NAME");
+                String column = indexInfo.getString("COLUMN_NAME");
+                if (index == null || column == null) {
+                    continue;
+                }
+                Integer count = columnCounts.get(index);
+                columnCounts.put(index, count == null ? 1 : count + 1);
+                if (indexInfo.getShort("ORDINAL_POSITION") == 1) {
+                    firstColumns.put(index, column.toUpperCase());
+                    cardinalities.put(index, indexInfo.getLong("CARDINALITY"));
+                    unique.put(index, !indexInfo.getBoolean("NON_UNIQUE"));
+                }
+            }
+        } finally {
+            indexInfo.close();
+        }
+
+        Map<String, Long> distinctValues = new HashMap<String, Long>();
+        for (Map.Entry<String, String> firstColumn : firstColumns.entrySet()) {
+            String property = properties.get(firstColumn.getValue());
+            if (property == null || columnCounts.get(firstColumn.getKey()) != 1) {
+                continue;
+            }
+            long cardinality = cardinalities.get(firstColumn.getKey());
+            if (unique.get(firstColumn.getKey()) && rowCount > 0) {
+                cardinality = rowCount;
+            }
+            if (cardinality > 0) {
+                Long known = distinctValues.get(property);
+                distinctValues.put(property, known == null ? cardinality : Math.max(known, cardinality));
+            }
+        }
+        LOGGER.debug(String.format("Statistics of %s: %d rows, distinct values %s", tableRef, rowCount, distinctValues));
+        return new TableStatistics(entityClass, mapping.getIdProperty(tableRef), rowCount, distinctValues);
+    }
+
+    /**
+     * Returns the entity class to which these statistics apply.
+     *
+     * @return the entity class
+     */
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * Returns the name of the identifier property.
+     *
+     * @return the identifier property
+     */
+    public String getIdentifierProperty() {
+        return identifierProperty;
+    }
+
+    /**
+     * Returns the estimated number of rows.
+     *
+     * @return the number of rows, or a negative number if unknown
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the estimated number of distinct values of a property.
+     *
+     * @param propertyPath the property path
+     * @return the number of distinct values, or a negative number if unknown
+     */
+    public long getDistinctValues(String propertyPath) {
+        Long result = distinctValues.get(propertyPath);
+        return result == null ? -1 : result;
+    }
+
+    @Override
+    public String toString() {
+        return "TableStatistics{" + entityClass.getName() + ", rows=" + rowCount + ", distinct=" + distinctValues + "}";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.HibernateException;
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernatespatial.geodb.GeoDBDialect;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parameter limits of the <code>ChunkedInExpression</code> class.
+ */
+public class ChunkedInExpressionTest {
+
+    @Test
+    public void testMaxParameters() {
+        assertEquals(2000, ChunkedInExpression.getMaxParameters(new SQLServerDialect()));
+        assertEquals(32000, ChunkedInExpression.getMaxParameters(new PostgreSQLDialect()));
+        assertEquals(Integer.MAX_VALUE, ChunkedInExpression.getMaxParameters(new Oracle10gDialect()));
+        assertEquals(Integer.MAX_VALUE, ChunkedInExpression.getMaxParameters(new GeoDBDialect()));
+    }
+
+    @Test
+    public void testShortListsAreNotInlined() {
+        assertFalse(ChunkedInExpression.isInlined(new SQLServerDialect(), longs(2000)));
+        assertFalse(ChunkedInExpression.isInlined(new GeoDBDialect(), longs(50000)));
+    }
+
+    @Test
+    public void testLongIntegralListsAreInlined() {
+        assertTrue(ChunkedInExpression.isInlined(new SQLServerDialect(), longs(2001)));
+        assertTrue(ChunkedInExpression.isInlined(new PostgreSQLDialect(), longs(40000)));
+    }
+
+    @Test(expected = HibernateException.class)
+    public void testLongListsOfStringsAreRejected() {
+        Object[] values = new Object[2001];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "value" + i;
+        }
+        ChunkedInExpression.isInlined(new SQLServerDialect(), values);
+    }
+
+    private static Object[] longs(int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (long) i;
+        }
+        return values;
+    }
+}
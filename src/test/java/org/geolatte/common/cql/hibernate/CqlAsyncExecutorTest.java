@@ -0,0 +1,213 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the asynchronous execution of CQL queries by a <code>CqlAsyncExecutor</code>.
+ */
+public class CqlAsyncExecutorTest {
+
+    private static HibernateUtil hibernateUtil;
+    private static SessionFactory factory;
+    private CqlAsyncExecutor executor;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(8);
+        factory = hibernateUtil.getSessionFactory();
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Before
+    public void setUp() {
+        executor = new CqlAsyncExecutor.Builder().threads(1).queueCapacity(1).defaultTimeout(30).result();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testListAndCount() throws Exception {
+        List<Parcel> parcels = executor.list("height > 5", Parcel.class, factory).get(10, TimeUnit.SECONDS);
+        assertEquals(3, parcels.size());
+        assertEquals(Long.valueOf(8), executor.count("name LIKE 'parcel%'", Parcel.class, factory).get(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(0), executor.count("colour = 'red'", Parcel.class, factory).get(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getPendingQueries());
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Long> result = new AtomicReference<Long>();
+        executor.count("height BETWEEN 2 AND 4", Parcel.class, factory, 10, new CqlCallback<Long>() {
+            public void succeeded(Long count) {
+                result.set(count);
+                done.countDown();
+            }
+
+            public void failed(Throwable failure) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(3), result.get());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testInvalidExpressionFailsImmediately() throws Exception {
+        executor.list("height >", Parcel.class, factory);
+    }
+
+    /**
+     * Submits a query of which the callback holds the only thread of the executor until the latch is released.
+     */
+    private CqlFuture<Long> holdThread(final CountDownLatch release) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        CqlFuture<Long> first = executor.count("height > 0", Parcel.class, factory, 0, new CqlCallback<Long>() {
+            public void succeeded(Long count) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void failed(Throwable failure) {
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return first;
+    }
+
+    @Test
+    public void testQueueIsBoundedAndQueuedQueriesCanBeCancelled() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CqlFuture<Long> first = holdThread(release);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        CqlFuture<List<Parcel>> queued = executor.list("height > 0", Parcel.class, factory, 0, new CqlCallback<List<Parcel>>() {
+            public void succeeded(List<Parcel> result) {
+            }
+
+            public void failed(Throwable cause) {
+                failure.set(cause);
+            }
+        });
+        try {
+            executor.list("height > 0", Parcel.class, factory);
+            fail("Expected the query to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertTrue(queued.cancel(true));
+        assertTrue(queued.isCancelled());
+        assertTrue(failure.get() instanceof CancellationException);
+        // the cancelled query no longer takes the place in the queue
+        CqlFuture<Long> next = executor.count("height > 4", Parcel.class, factory);
+        release.countDown();
+        assertEquals(Long.valueOf(8), first.get(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(4), next.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueryThatWaitedPastItsTimeoutFails() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        holdThread(release);
+        CqlFuture<List<Parcel>> queued = executor.list("height > 0", Parcel.class, factory, 1, null);
+        Thread.sleep(1500);
+        release.countDown();
+        try {
+            queued.get(10, TimeUnit.SECONDS);
+            fail("Expected the query to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCancellingARunningQueryCancelsItsStatement() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch statementCancelled = new CountDownLatch(1);
+        final Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class[]{Session.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("cancelQuery")) {
+                            statementCancelled.countDown();
+                        }
+                        return null;
+                    }
+                });
+        CqlFuture.Query<Long> query = new CqlFuture.Query<Long>() {
+            public Long call() throws InterruptedException {
+                running(session);
+                try {
+                    started.countDown();
+                    // stands for a statement that runs until it is cancelled
+                    statementCancelled.await(10, TimeUnit.SECONDS);
+                    return 0L;
+                } finally {
+                    running(null);
+                }
+            }
+        };
+        CqlFuture<Long> future = new CqlFuture<Long>(query, null, executor);
+        new Thread(future).start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertTrue(future.cancel(false));
+        assertTrue(statementCancelled.await(10, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the execution of CQL queries with predicates on a mapped collection. Such a predicate holds if some element
+ * of the collection satisfies it, independently of the other predicates of the expression.
+ */
+public class CqlCollectionPathTest {
+
+    static final String FARM_MAPPING = "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\" " +
+            "\"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n" +
+            "<hibernate-mapping package=\"org.geolatte.common.cql.hibernate\">\n" +
+            "  <class name=\"CqlCollectionPathTest$Farm\" table=\"FARM\">\n" +
+            "    <id name=\"farmId\"><generator class=\"native\"/></id>\n" +
+            "    <property name=\"name\"/>\n" +
+            "    <set name=\"parcels\" cascade=\"all\">\n" +
+            "      <key column=\"FARM_ID\"/>\n" +
+            "      <one-to-many class=\"Parcel\"/>\n" +
+            "    </set>\n" +
+            "  </class>\n" +
+            "</hibernate-mapping>";
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = new HibernateUtil(new String[]{Parcel.MAPPING, FARM_MAPPING});
+        hibernateUtil.createDatabase();
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = session.beginTransaction();
+        session.save(farm("a", 2, 12));
+        session.save(farm("b", 7));
+        session.save(farm("c"));
+        transaction.commit();
+        session.close();
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    private static Farm farm(String name, int... heights) {
+        Farm farm = new Farm();
+        farm.setName(name);
+        farm.setParcels(new HashSet<Parcel>());
+        for (int height : heights) {
+            Parcel parcel = new Parcel();
+            parcel.setName(name + height);
+            parcel.setHeight(height);
+            farm.getParcels().add(parcel);
+        }
+        return farm;
+    }
+
+    private static Set<String> names(String cql) throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            Set<String> criteriaNames = names(CqlHibernate.list(cql, Farm.class, session));
+            Set<String> hqlNames = names(CqlHqlQuery.compile(cql, Farm.class, hibernateUtil.getSessionFactory()).list(session));
+            assertEquals(cql, criteriaNames, hqlNames);
+            return criteriaNames;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static Set<String> names(List<?> farms) {
+        Set<String> names = new HashSet<String>();
+        for (Object farm : farms) {
+            assertTrue("Farm returned more than once", names.add(((Farm) farm).getName()));
+        }
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        Set<String> result = new HashSet<String>();
+        for (String name : names) {
+            result.add(name);
+        }
+        return result;
+    }
+
+    @Test
+    public void testPredicateHoldsForSomeElement() throws Exception {
+        assertEquals(set("a"), names("parcels.height > 10"));
+        assertEquals(set("a", "b"), names("parcels.height > 1"));
+        assertEquals(set("a", "b"), names("parcels.height = 2 OR parcels.height = 7"));
+    }
+
+    @Test
+    public void testPredicatesNeedNotHoldForTheSameElement() throws Exception {
+        assertEquals(set("a", "b"), names("parcels.height > 5 AND parcels.height < 10"));
+        assertEquals(set("a"), names("parcels.height = 2 AND parcels.height = 12"));
+        assertEquals(set("a"), names("parcels.height > 10 AND parcels.height < 5"));
+    }
+
+    @Test
+    public void testNegationHoldsIfNoElementSatisfiesThePredicate() throws Exception {
+        assertEquals(set("c"), names("NOT (parcels.height > 5)"));
+        assertEquals(set("b", "c"), names("NOT (parcels.height = 2)"));
+        assertEquals(set("a", "b", "c"), names("parcels.height > 5 OR NOT (parcels.height > 5)"));
+        assertEquals(set(), names("parcels.height > 5 AND NOT (parcels.height > 5)"));
+    }
+
+    @Test
+    public void testCollectionAndSimplePredicates() throws Exception {
+        assertEquals(set("b"), names("name <> 'a' AND parcels.height > 5"));
+        assertEquals(set("a", "c"), names("name = 'c' OR parcels.height < 5"));
+    }
+
+    public static class Farm {
+
+        private Long farmId;
+        private String name;
+        private Set<Parcel> parcels;
+
+        public Long getFarmId() {
+            return farmId;
+        }
+
+        public void setFarmId(Long farmId) {
+            this.farmId = farmId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Set<Parcel> getParcels() {
+            return parcels;
+        }
+
+        public void setParcels(Set<Parcel> parcels) {
+            this.parcels = parcels;
+        }
+    }
+}
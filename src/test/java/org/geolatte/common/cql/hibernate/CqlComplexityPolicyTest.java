@@ -0,0 +1,147 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the measuring of CQL expressions, and the limits of a <code>CqlComplexityPolicy</code>.
+ */
+public class CqlComplexityPolicyTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(8);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    private static CqlComplexity measure(String cql, Class<?> forClass) throws ParseException {
+        return CqlComplexity.measure(CompiledCql.parse(cql), forClass);
+    }
+
+    @Test
+    public void testChainsOfTheSameOperatorAreOneLevel() throws ParseException {
+        StringBuilder chain = new StringBuilder("height = 0");
+        for (int i = 1; i < 300; i++) {
+            chain.append(" OR height = ").append(i);
+        }
+        CqlComplexity complexity = measure(chain.toString(), Parcel.class);
+        assertEquals(1, complexity.getDepth());
+        assertEquals(300, complexity.getPredicates());
+        assertEquals(3, measure("height = 1 AND (height = 2 OR NOT (height = 3))", Parcel.class).getDepth());
+    }
+
+    @Test
+    public void testJoinsAndPaths() throws ParseException {
+        CqlComplexity complexity = measure("owner.name = 'Jan' AND owner.id = 5 AND name = 'x'", Parcel.class);
+        assertEquals(1, complexity.getJoins());
+        assertEquals(2, complexity.getLongestPath());
+        assertEquals(0, complexity.getSubqueries());
+        CqlComplexity collection = measure("parcels.name = 'a' OR parcels.height = 3", HibernateCriteriaBuilderPathTest.Estate.class);
+        assertEquals(2, collection.getSubqueries());
+        assertEquals(2, collection.getJoins());
+        assertTrue(collection.isExpensive());
+    }
+
+    @Test
+    public void testNonSargablePredicates() throws ParseException {
+        assertEquals(0, measure("name LIKE 'parcel%'", Parcel.class).getNonSargablePredicates());
+        assertEquals(1, measure("name LIKE '%cel 1'", Parcel.class).getNonSargablePredicates());
+        assertEquals(1, measure("NOT (name LIKE 'parcel%')", Parcel.class).getNonSargablePredicates());
+        assertFalse(measure("name LIKE 'parcel%'", Parcel.class).isExpensive());
+    }
+
+    @Test
+    public void testLimitsAreEnforced() throws ParseException {
+        CqlComplexityPolicy policy = new CqlComplexityPolicy.Builder().maxJoins(0).maxLength(100).maxNonSargablePredicates(0).result();
+        assertRejected(policy, "owner.name = 'Jan'", "joins");
+        assertRejected(policy, "name LIKE '%x'", "non-sargable predicates");
+        StringBuilder tooLong = new StringBuilder("name = '");
+        for (int i = 0; i < 100; i++) {
+            tooLong.append('x');
+        }
+        assertRejected(policy, tooLong.append("'").toString(), "length");
+        assertEquals(0, policy.check("owner.id = 5 AND height > 2", Parcel.class).getJoins());
+    }
+
+    private static void assertRejected(CqlComplexityPolicy policy, String cql, String limit) throws ParseException {
+        try {
+            policy.check(cql, Parcel.class);
+            fail("Expected " + cql + " to be rejected");
+        } catch (CqlComplexityException e) {
+            assertEquals(limit, e.getLimit());
+        }
+    }
+
+    @Test
+    public void testExpensiveQueriesAreDownScoped() throws ParseException {
+        CqlComplexityPolicy policy = new CqlComplexityPolicy.Builder().expensiveQueryMaxResults(2).expensiveQueryTimeout(5).result();
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertEquals(2, CqlHibernate.list("name LIKE '%arcel%'", Parcel.class, session, policy).size());
+            assertEquals(8, CqlHibernate.list("name LIKE 'parcel%'", Parcel.class, session, policy).size());
+            assertEquals(8, CqlHibernate.count("name LIKE '%arcel%'", Parcel.class, session, policy));
+
+            CqlResult<Parcel> truncated = CqlHibernate.limitedList("name LIKE '%arcel%'", Parcel.class, session, policy);
+            assertEquals(2, truncated.getItems().size());
+            assertTrue(truncated.isTruncated());
+            CqlResult<Parcel> complete = CqlHibernate.limitedList("name LIKE '%arcel 1'", Parcel.class, session, policy);
+            assertEquals(1, complete.getItems().size());
+            assertFalse(complete.isTruncated());
+            assertFalse(CqlHibernate.limitedList("name LIKE 'parcel%'", Parcel.class, session, policy).isTruncated());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentExpensiveQueriesAreLimited() throws ParseException {
+        CqlComplexityPolicy policy = new CqlComplexityPolicy.Builder().maxConcurrentExpensiveQueries(1, 10).result();
+        CqlComplexity expensive = policy.check("name LIKE '%x'", Parcel.class);
+        policy.acquire(expensive);
+        try {
+            policy.acquire(expensive);
+            fail("Expected the second expensive query to be rejected");
+        } catch (CqlComplexityException e) {
+            assertEquals("concurrent expensive queries", e.getLimit());
+        } finally {
+            policy.release(expensive);
+        }
+        // cheap queries need no permit
+        policy.acquire(policy.check("name = 'x'", Parcel.class));
+        policy.acquire(expensive);
+        policy.release(expensive);
+    }
+}
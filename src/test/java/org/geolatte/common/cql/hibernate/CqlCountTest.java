@@ -0,0 +1,80 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests counting and existence checks of CQL queries.
+ */
+public class CqlCountTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(8);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertEquals(3, CqlHibernate.count("height > 5", Parcel.class, session));
+            assertEquals(0, CqlHibernate.count("height > 8", Parcel.class, session));
+            assertEquals(0, CqlHibernate.count("colour EXISTS", Parcel.class, session));
+            assertEquals(0, session.getStatistics().getEntityCount());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testExists() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertTrue(CqlHibernate.exists("name LIKE 'parcel%'", Parcel.class, session));
+            assertFalse(CqlHibernate.exists("height < 1", Parcel.class, session));
+            assertFalse(CqlHibernate.exists("colour EXISTS", Parcel.class, session));
+            assertEquals(0, session.getStatistics().getEntityCount());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testReferenceIsNotACollection() throws Exception {
+        assertFalse(CompiledCql.compile("owner.name = 'Jan'", Parcel.class).joinsCollection());
+        assertFalse(CompiledCql.compile("height > 5", Parcel.class).joinsCollection());
+    }
+}
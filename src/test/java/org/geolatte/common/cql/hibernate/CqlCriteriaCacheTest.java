@@ -0,0 +1,92 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.criterion.DetachedCriteria;
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>CqlCriteriaCache</code>.
+ */
+public class CqlCriteriaCacheTest {
+
+    @Test
+    public void testHitsAndMisses() throws ParseException {
+        CqlCriteriaCache cache = new CqlCriteriaCache(10);
+        cache.toCriteria("height > 5", Parcel.class);
+        cache.toCriteria("height > 5", Parcel.class);
+        cache.toCriteria("name = 'x'", Parcel.class);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEachCallerGetsOwnCriteria() throws ParseException {
+        CqlCriteriaCache cache = new CqlCriteriaCache(10);
+        DetachedCriteria first = cache.toCriteria("owner.name = 'x'", Parcel.class);
+        DetachedCriteria second = cache.toCriteria("owner.name = 'x'", Parcel.class);
+        assertNotSame(first, second);
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws ParseException {
+        CqlCriteriaCache cache = new CqlCriteriaCache(1);
+        cache.toCriteria("height > 5", Parcel.class);
+        cache.toCriteria("height > 6", Parcel.class);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.toCriteria("height > 5", Parcel.class);
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testSharedCacheCanBeReplaced() throws ParseException {
+        CqlCriteriaCache previous = CqlHibernate.getCriteriaCache();
+        CqlTranslationOptions options = new CqlTranslationOptions.Builder().prefixRanges(true).result();
+        CqlCriteriaCache cache = new CqlCriteriaCache(10, options);
+        CqlHibernate.setCriteriaCache(cache);
+        try {
+            CqlHibernate.toCriteria("height > 5", Parcel.class);
+            assertSame(cache, CqlHibernate.getCriteriaCache());
+            assertTrue(CqlHibernate.getCriteriaCache().getOptions().isPrefixRanges());
+            assertEquals(1, cache.size());
+        } finally {
+            CqlHibernate.setCriteriaCache(previous);
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void testParseErrorsAreNotCached() throws ParseException {
+        CqlCriteriaCache cache = new CqlCriteriaCache(10);
+        try {
+            cache.toCriteria("height >", Parcel.class);
+        } finally {
+            assertEquals(0, cache.size());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the translation of CQL expressions to HQL, and the execution of the HQL queries.
+ */
+public class CqlHqlQueryTest {
+
+    private static HibernateUtil hibernateUtil;
+    private static SessionFactory factory;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(8);
+        factory = hibernateUtil.getSessionFactory();
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Test
+    public void testStructurallyIdenticalFiltersShareHql() throws Exception {
+        CqlHqlQuery first = CqlHqlQuery.compile("name = 'a' AND height > 3", Parcel.class, factory);
+        CqlHqlQuery second = CqlHqlQuery.compile("name = 'b' AND height > 40", Parcel.class, factory);
+        assertEquals(first.getHql(), second.getHql());
+        assertFalse(first.getHql().contains("'a'"));
+        assertEquals(Arrays.<Object>asList("a", 3), Arrays.asList(first.getParameters().values().toArray()));
+        assertEquals(Arrays.<Object>asList("b", 40), Arrays.asList(second.getParameters().values().toArray()));
+    }
+
+    @Test
+    public void testEqualityListsShareHql() throws Exception {
+        CqlHqlQuery two = CqlHqlQuery.compile("height = 1 OR height = 2", Parcel.class, factory);
+        CqlHqlQuery three = CqlHqlQuery.compile("height = 1 OR height = 2 OR height = 7", Parcel.class, factory);
+        assertEquals(two.getHql(), three.getHql());
+        assertEquals(Arrays.<Object>asList(1, 2, 7, 7), new ArrayList<Object>((Collection) three.getParameters().get("p0")));
+    }
+
+    @Test
+    public void testEqualityListsArePaddedToPowersOfTwo() throws Exception {
+        CqlHqlQuery five = CqlHqlQuery.compile(
+                "height = 1 OR height = 2 OR height = 3 OR height = 4 OR height = 5", Parcel.class, factory);
+        CqlHqlQuery eight = CqlHqlQuery.compile(
+                "height = 1 OR height = 2 OR height = 3 OR height = 4 OR height = 5 OR height = 6 OR height = 7 OR height = 8",
+                Parcel.class, factory);
+        assertEquals(8, ((Collection) five.getParameters().get("p0")).size());
+        assertEquals(8, ((Collection) eight.getParameters().get("p0")).size());
+        Session session = factory.openSession();
+        try {
+            assertEquals(5, five.list(session).size());
+            assertEquals(5, five.count(session));
+            assertEquals(8, eight.list(session).size());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testAliasesAreDerivedFromPaths() throws Exception {
+        String hql = CqlHqlQuery.compile("owner.name = 'Jan' AND owner.id = 5", Parcel.class, factory).getHql();
+        assertTrue(hql, hql.contains(" join e.owner as owner01 "));
+        assertTrue(hql, hql.contains("owner01.name = :p0"));
+        assertTrue(hql, hql.contains("e.owner.id = :p1"));
+    }
+
+    @Test
+    public void testCollectionPathIsTranslatedToExistsSubquery() throws Exception {
+        String hql = CqlHqlQuery.compile("parcels.name = 'a'", HibernateCriteriaBuilderPathTest.Estate.class, factory).getHql();
+        assertTrue(hql, hql.contains("exists (select sub.id from " + HibernateCriteriaBuilderPathTest.Estate.class.getName()
+                + " sub join sub.parcels as subparcels01 where sub.id = e.id and subparcels01.name = :p0)"));
+    }
+
+    @Test
+    public void testExecution() throws Exception {
+        Session session = factory.openSession();
+        try {
+            assertEquals(3, CqlHqlQuery.compile("height > 5", Parcel.class, session.getSessionFactory()).list(session).size());
+            assertEquals(3, CqlHqlQuery.compile("height BETWEEN 2 AND 4", Parcel.class, factory).count(session));
+            assertEquals(2, CqlHqlQuery.compile("height = 1 OR height = 8 OR height = 9", Parcel.class, factory).count(session));
+            assertEquals(1, CqlHqlQuery.compile("name LIKE '%3'", Parcel.class, factory).count(session));
+            assertEquals(8, CqlHqlQuery.compile("name ILIKE 'PARCEL%'", Parcel.class, factory).count(session));
+            assertEquals(0, CqlHqlQuery.compile("colour EXISTS", Parcel.class, factory).count(session));
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.geolatte.common.automapper.AutoMapConfiguration;
+import org.geolatte.common.automapper.AutoMapper;
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.DisposableClassLoader;
+import org.geolatte.common.automapper.TableRef;
+import org.geolatte.common.automapper.TypeMapper;
+import org.geolatte.common.testDb.GeoDBWrapper;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.geolatte.common.testDb.GeoDBWrapper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>CqlNativeQuery</code> class against an auto-mapped table in the H2 (GeoDB) database.
+ */
+public class CqlNativeQueryTest {
+
+    private static final TableRef TABLE = TableRef.valueOf("TESTNATIVE");
+
+    private static GeoDBWrapper server;
+    private DatabaseMapping mapping;
+    private SessionFactory factory;
+    private Session session;
+
+    @BeforeClass
+    public static void beforeClass() throws SQLException {
+        server = new GeoDBWrapper();
+    }
+
+    @Before
+    public void before() throws SQLException {
+        initGeoDB();
+        doWithinConnection("create table testnative (id integer primary key, name varchar, num int, price double, geometry geometry)");
+        doWithinConnection("insert into testnative values (1, 'first', 1, 1.5, ST_GeomFromText('POINT(1 1)', 4326))");
+        doWithinConnection("insert into testnative values (2, 'second', 2, 2.5, ST_GeomFromText('POINT(2 2)', 4326))");
+        doWithinConnection("insert into testnative values (3, 'Third', 3, 3.5, ST_GeomFromText('POINT(30 30)', 4326))");
+        doWithinConnection("insert into testnative values (4, null, 4, null, ST_GeomFromText('POINT(40 40)', 4326))");
+
+        AutoMapConfiguration cfg = new AutoMapConfiguration(new TypeMapper("BLOB"));
+        cfg.addTable(TABLE);
+        DisposableClassLoader classLoader = new DisposableClassLoader(Thread.currentThread().getContextClassLoader());
+        Thread.currentThread().setContextClassLoader(classLoader);
+        final AutoMapper autoMapper = new AutoMapper(cfg, classLoader);
+        mapping = (DatabaseMapping) doWithinConnection(new DbOp() {
+            public Object execute(Connection conn) throws SQLException {
+                return autoMapper.map(conn);
+            }
+        });
+        Configuration config = new Configuration().configure();
+        config.addXML(mapping.generateHibernateMappingDocument().asXML());
+        factory = config.buildSessionFactory();
+        session = factory.openSession();
+    }
+
+    @After
+    public void after() throws SQLException {
+        session.close();
+        factory.close();
+        cleanDatabase();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        server.stop();
+    }
+
+    @Test
+    public void testLiteralsAreParameters() throws Exception {
+        CqlNativeQuery query = CqlNativeQuery.compile("name = 'first' AND num > 0", mapping, TABLE, factory);
+        assertFalse(query.getSql().contains("first"));
+        assertEquals(2, query.getParameters().size());
+        assertEquals("first", query.getParameters().get(0));
+        assertEquals(ids(1), ids(query.listTuples(session)));
+    }
+
+    @Test
+    public void testTuplesHoldAllProperties() throws Exception {
+        CqlNativeQuery query = CqlNativeQuery.compile("price >= 2.5", mapping, TABLE, factory);
+        List<Object[]> tuples = query.listTuples(session);
+        assertEquals(ids(2, 3), ids(tuples));
+        Object[] second = tuples.get(0);
+        assertEquals(mapping.getProperties(TABLE).size(), second.length);
+        assertEquals("second", second[query.getProperties().indexOf("name")]);
+        assertEquals(2.5, second[query.getProperties().indexOf("price")]);
+        assertNotNull(second[query.getProperties().indexOf("geometry")]);
+    }
+
+    @Test
+    public void testListReturnsGeneratedClass() throws Exception {
+        List<Object> objects = CqlNativeQuery.compile("num BETWEEN 2 AND 2", mapping, TABLE, factory).list(session);
+        assertEquals(1, objects.size());
+        assertSame(mapping.getGeneratedClass(TABLE), objects.get(0).getClass());
+        EntityMetaModel metaModel = EntityMetaModel.forClass(mapping.getGeneratedClass(TABLE));
+        assertEquals("second", metaModel.getProperty("name").read(objects.get(0)));
+        assertEquals(2.5, metaModel.getProperty("price").read(objects.get(0)));
+    }
+
+    @Test
+    public void testInListAndLike() throws Exception {
+        assertEquals(ids(1, 3), ids(CqlNativeQuery.compile("id = 1 OR id = 3 OR id = 5", mapping, TABLE, factory).listTuples(session)));
+        assertEquals(ids(2), ids(CqlNativeQuery.compile("name LIKE 'sec%'", mapping, TABLE, factory).listTuples(session)));
+        assertEquals(ids(3), ids(CqlNativeQuery.compile("name ILIKE 'third'", mapping, TABLE, factory).listTuples(session)));
+        assertEquals(ids(4), ids(CqlNativeQuery.compile("name IS NULL", mapping, TABLE, factory).listTuples(session)));
+    }
+
+    @Test
+    public void testSpatialFilter() throws Exception {
+        SpatialFilter bbox = SpatialFilter.bbox(new Envelope(0, 10, 0, 10), 4326);
+        CqlNativeQuery query = CqlNativeQuery.compile("num > 1", mapping, TABLE, factory, bbox);
+        assertEquals(ids(2), ids(query.listTuples(session)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnmappedTableIsRejected() throws Exception {
+        CqlNativeQuery.compile("num > 1", mapping, TableRef.valueOf("NOSUCHTABLE"), factory);
+    }
+
+    private List<Integer> ids(List<Object[]> tuples) {
+        int index = mapping.getProperties(TABLE).indexOf(mapping.getIdProperty(TABLE));
+        List<Integer> result = new ArrayList<Integer>();
+        for (Object[] tuple : tuples) {
+            result.add(((Number) tuple[index]).intValue());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Integer> ids(int... ids) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+}
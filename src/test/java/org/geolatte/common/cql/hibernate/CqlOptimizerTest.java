@@ -0,0 +1,172 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.*;
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the rewrites of the <code>CqlOptimizer</code>.
+ */
+public class CqlOptimizerTest {
+
+    private static CqlTerm optimize(String cql) throws ParseException {
+        return CqlOptimizer.optimize(CompiledCql.parse(cql), Parcel.class);
+    }
+
+    private static PExpr leaf(CqlTerm term) {
+        assertTrue("Expected a predicate, found " + term, term instanceof CqlTerm.Leaf);
+        return ((CqlTerm.Leaf) term).getExpr();
+    }
+
+    @Test
+    public void testDoubleNegationIsRemoved() throws ParseException {
+        assertTrue(leaf(optimize("NOT (NOT (height > 5))")) instanceof AGtExpr);
+    }
+
+    @Test
+    public void testNegatedComparisonIsComplemented() throws ParseException {
+        assertTrue(leaf(optimize("NOT (height = 5)")) instanceof ANeqExpr);
+        assertTrue(leaf(optimize("NOT (height < 5)")) instanceof AGteExpr);
+        assertTrue(leaf(optimize("NOT (name IS NULL)")) instanceof AIsNotNullExpr);
+    }
+
+    @Test
+    public void testDeMorgan() throws ParseException {
+        CqlTerm term = optimize("NOT (height = 5 AND name = 'x')");
+        assertTrue(term instanceof CqlTerm.Junction);
+        CqlTerm.Junction junction = (CqlTerm.Junction) term;
+        assertFalse(junction.isConjunction());
+        assertEquals(2, junction.getOperands().size());
+        assertTrue(leaf(junction.getOperands().get(0)) instanceof ANeqExpr);
+        assertTrue(leaf(junction.getOperands().get(1)) instanceof ANeqExpr);
+    }
+
+    @Test
+    public void testNestedJunctionsAreFlattened() throws ParseException {
+        CqlTerm term = optimize("(height = 5 AND (name = 'x' AND area = 2.0)) AND id = 3");
+        assertTrue(term instanceof CqlTerm.Junction);
+        assertEquals(4, ((CqlTerm.Junction) term).getOperands().size());
+    }
+
+    @Test
+    public void testDuplicatesAreRemoved() throws ParseException {
+        assertTrue(leaf(optimize("height = 5 AND height = 5")) instanceof AEqExpr);
+        assertTrue(leaf(optimize("height = 5 OR height = 5")) instanceof AEqExpr);
+    }
+
+    @Test
+    public void testContradictionIsFalse() throws ParseException {
+        assertSame(CqlTerm.FALSE, optimize("height = 5 AND NOT (height = 5)"));
+        assertSame(CqlTerm.FALSE, optimize("name = 'x' AND (height > 10 AND height < 5)"));
+    }
+
+    @Test
+    public void testTautologyRequiresNonNullProperty() throws ParseException {
+        assertTrue(leaf(optimize("height = 5 OR NOT (height = 5)")) instanceof AIsNotNullExpr);
+        assertSame(CqlTerm.TRUE, optimize("name IS NULL OR name IS NOT NULL"));
+        assertSame(CqlTerm.TRUE, optimize("height > 5 OR (name IS NULL OR NOT (name IS NULL))"));
+    }
+
+    @Test
+    public void testBoundsAreMergedIntoRange() throws ParseException {
+        assertTrue(optimize("height > 5 AND height < 10") instanceof CqlTerm.Range);
+        CqlTerm term = optimize("height > 5 AND height >= 7 AND name = 'x'");
+        assertTrue(term instanceof CqlTerm.Junction);
+        assertEquals(2, ((CqlTerm.Junction) term).getOperands().size());
+        assertTrue(leaf(((CqlTerm.Junction) term).getOperands().get(0)) instanceof AGteExpr);
+    }
+
+    @Test
+    public void testBoundsOnStringsAreNotComparedNumerically() throws ParseException {
+        CqlTerm term = optimize("name > '9' AND name > '10'");
+        assertTrue(term instanceof CqlTerm.Junction);
+        assertEquals(2, ((CqlTerm.Junction) term).getOperands().size());
+        assertNotSame(CqlTerm.FALSE, optimize("name >= '9' AND name < '10'"));
+    }
+
+    @Test
+    public void testBoundsAreNotFoldedWithoutClass() throws ParseException {
+        assertNotSame(CqlTerm.FALSE, CqlOptimizer.optimize(CompiledCql.parse("height > 10 AND height < 5")));
+    }
+
+    @Test
+    public void testAbsenceIsDecidedFromTheClass() throws ParseException {
+        assertSame(CqlTerm.FALSE, CqlOptimizer.optimize(CompiledCql.parse("colour EXISTS AND height > 5"), Parcel.class));
+        assertTrue(leaf(CqlOptimizer.optimize(CompiledCql.parse("colour DOES-NOT-EXIST AND height > 5"), Parcel.class)) instanceof AGtExpr);
+    }
+
+    @Test
+    public void testExistenceIsLeftToTheMapping() throws ParseException {
+        // Parcel.owner is not mapped, so whether owner.name exists is decided from the mapping
+        assertTrue(leaf(CqlOptimizer.optimize(CompiledCql.parse("owner.name EXISTS"), Parcel.class)) instanceof AExistsExpr);
+        CqlTerm term = CqlOptimizer.optimize(CompiledCql.parse("owner.name EXISTS AND height > 5"), Parcel.class);
+        assertEquals(2, ((CqlTerm.Junction) term).getOperands().size());
+    }
+
+    @Test
+    public void testExistenceOfUnknownPathIsNotDecided() throws ParseException {
+        assertTrue(leaf(CqlOptimizer.optimize(CompiledCql.parse("created.foo EXISTS"), Parcel.class)) instanceof AExistsExpr);
+        assertTrue(leaf(CqlOptimizer.optimize(CompiledCql.parse("NAME EXISTS"), Parcel.class)) instanceof AExistsExpr);
+    }
+
+    @Test
+    public void testEqualitiesAreMergedIntoInList() throws ParseException {
+        CqlTerm term = optimize("id = 1 OR name = 'x' OR id = 2 OR id = 3");
+        assertTrue(term instanceof CqlTerm.Junction);
+        CqlTerm.Junction junction = (CqlTerm.Junction) term;
+        assertEquals(2, junction.getOperands().size());
+        assertTrue(junction.getOperands().get(0) instanceof CqlTerm.InList);
+        assertEquals(3, ((CqlTerm.InList) junction.getOperands().get(0)).getEqualities().size());
+    }
+
+    @Test
+    public void testPredicatesOnCollectionPaths() throws ParseException {
+        Class<?> estate = HibernateCriteriaBuilderPathTest.Estate.class;
+        PExpr negated = leaf(CqlOptimizer.optimize(CompiledCql.parse("NOT (parcels.height > 5)"), estate));
+        assertTrue(negated instanceof ANotExpr);
+        assertTrue(((ANotExpr) negated).getExpr() instanceof AGtExpr);
+
+        CqlTerm bounds = CqlOptimizer.optimize(CompiledCql.parse("parcels.height > 5 AND parcels.height < 3"), estate);
+        assertTrue(bounds instanceof CqlTerm.Junction);
+        assertEquals(2, ((CqlTerm.Junction) bounds).getOperands().size());
+
+        assertSame(CqlTerm.TRUE, CqlOptimizer.optimize(CompiledCql.parse("parcels.height > 5 OR NOT (parcels.height > 5)"), estate));
+        assertSame(CqlTerm.FALSE, CqlOptimizer.optimize(CompiledCql.parse("parcels.height > 5 AND NOT (parcels.height > 5)"), estate));
+        assertTrue(CqlOptimizer.optimize(CompiledCql.parse("parcels.height = 1 OR parcels.height = 2"), estate) instanceof CqlTerm.InList);
+    }
+
+    @Test
+    public void testLongOrChainDoesNotOverflowTheStack() throws ParseException {
+        StringBuilder cql = new StringBuilder("id = 0");
+        for (int i = 1; i < 20000; i++) {
+            cql.append(" OR id = ").append(i);
+        }
+        CqlTerm term = optimize(cql.toString());
+        assertTrue(term instanceof CqlTerm.InList);
+        assertEquals(20000, ((CqlTerm.InList) term).getEqualities().size());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the keyset pagination of CQL queries.
+ */
+public class CqlPagingTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(25, "parcel %02d");
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Test
+    public void testPagesCoverResultOnce() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            List<Integer> heights = new ArrayList<Integer>();
+            String token = null;
+            int pages = 0;
+            do {
+                CqlPage<Parcel> page = CqlHibernate.page("height > 3", Parcel.class, session, 5, token);
+                for (Parcel parcel : page.getItems()) {
+                    heights.add(parcel.getHeight());
+                }
+                token = page.getContinuationToken();
+                pages++;
+            } while (token != null);
+            assertEquals(5, pages);
+            assertEquals(22, heights.size());
+            for (int i = 0; i < heights.size(); i++) {
+                assertEquals(Integer.valueOf(i + 4), heights.get(i));
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testPageOnNonIdentifierKey() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            CqlPage<Parcel> first = CqlHibernate.page("height <= 10", Parcel.class, session, "name", 6, null);
+            assertTrue(first.hasNext());
+            assertEquals("parcel 06", first.getItems().get(5).getName());
+            CqlPage<Parcel> second = CqlHibernate.page("height <= 10", Parcel.class, session, "name", 6, first.getContinuationToken());
+            assertFalse(second.hasNext());
+            assertEquals(4, second.getItems().size());
+            assertEquals("parcel 07", second.getItems().get(0).getName());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTokenOfOtherQueryIsRejected() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            String token = CqlHibernate.page("height > 3", Parcel.class, session, 5, null).getContinuationToken();
+            CqlHibernate.page("height > 4", Parcel.class, session, 5, token);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testTokenRoundTrip() {
+        Date date = new Date(1234567890L);
+        String token = ContinuationToken.encode("height > 3", "created", date);
+        assertEquals(date, ContinuationToken.decode(token, "height > 3", "created"));
+        token = ContinuationToken.encode("height > 3", "name", "a:b");
+        assertEquals("a:b", ContinuationToken.decode(token, "height > 3", "name"));
+    }
+
+    @Test
+    public void testTimestampTokenKeepsNanos() {
+        Timestamp timestamp = new Timestamp(1234567890123L);
+        timestamp.setNanos(123456789);
+        String token = ContinuationToken.encode("height > 3", "created", timestamp);
+        assertEquals(timestamp, ContinuationToken.decode(token, "height > 3", "created"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedTokenIsRejected() {
+        ContinuationToken.decode("not a token!", "height > 3", "name");
+    }
+}
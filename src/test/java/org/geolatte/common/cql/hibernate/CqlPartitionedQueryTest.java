@@ -0,0 +1,220 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.geolatte.common.automapper.AutoMapConfiguration;
+import org.geolatte.common.automapper.AutoMapper;
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.DisposableClassLoader;
+import org.geolatte.common.automapper.TableRef;
+import org.geolatte.common.automapper.TypeMapper;
+import org.geolatte.common.testDb.GeoDBWrapper;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.geolatte.common.testDb.GeoDBWrapper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>CqlPartitionedQuery</code> class against an auto-mapped table in the H2 (GeoDB) database.
+ */
+public class CqlPartitionedQueryTest {
+
+    private static final TableRef TABLE = TableRef.valueOf("TESTPARTITION");
+
+    private static GeoDBWrapper server;
+    private DatabaseMapping mapping;
+    private SessionFactory factory;
+
+    @BeforeClass
+    public static void beforeClass() throws SQLException {
+        server = new GeoDBWrapper();
+    }
+
+    @Before
+    public void before() throws SQLException {
+        initGeoDB();
+        doWithinConnection("create table testpartition (id integer primary key, num int, geometry geometry)");
+        for (int i = 1; i <= 20; i++) {
+            doWithinConnection(String.format("insert into testpartition values (%d, %d, ST_GeomFromText('POINT(%d %d)', 4326))", i, i, i, i));
+        }
+        // overlaps all four tiles of a 2 x 2 grid over (0, 0) - (21, 21)
+        doWithinConnection("insert into testpartition values (21, 21, ST_GeomFromText('LINESTRING(5 5, 15 15)', 4326))");
+
+        AutoMapConfiguration cfg = new AutoMapConfiguration(new TypeMapper("BLOB"));
+        cfg.addTable(TABLE);
+        DisposableClassLoader classLoader = new DisposableClassLoader(Thread.currentThread().getContextClassLoader());
+        Thread.currentThread().setContextClassLoader(classLoader);
+        final AutoMapper autoMapper = new AutoMapper(cfg, classLoader);
+        mapping = (DatabaseMapping) doWithinConnection(new DbOp() {
+            public Object execute(Connection conn) throws SQLException {
+                return autoMapper.map(conn);
+            }
+        });
+        Configuration config = new Configuration().configure();
+        config.addXML(mapping.generateHibernateMappingDocument().asXML());
+        factory = config.buildSessionFactory();
+    }
+
+    @After
+    public void after() throws SQLException {
+        factory.close();
+        cleanDatabase();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        server.stop();
+    }
+
+    @Test
+    public void testIdRangesReturnEveryObjectOnce() throws Exception {
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num > 5", mapping, TABLE).byIdRange(4).result();
+        List<Integer> ids = ids(query.list(factory));
+        Collections.sort(ids);
+        assertEquals(range(6, 21), ids);
+    }
+
+    @Test
+    public void testOrderedIdRanges() throws Exception {
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num <= 20", mapping, TABLE)
+                .byIdRange(3).ordered(true).bufferSize(2).result();
+        assertEquals(range(1, 20), ids(query.list(factory)));
+    }
+
+    @Test
+    public void testSpatialTilesReturnEveryObjectOnce() throws Exception {
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num > 0", mapping, TABLE)
+                .bySpatialTiles(new Envelope(0, 21, 0, 21), 4326, 2, 2).result();
+        List<Integer> ids = ids(query.list(factory));
+        Collections.sort(ids);
+        assertEquals(range(1, 21), ids);
+    }
+
+    @Test
+    public void testHandlerStopsTheQuery() throws Exception {
+        final List<Object> received = new ArrayList<Object>();
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num > 0", mapping, TABLE)
+                .byIdRange(4).bufferSize(1).result();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long count = query.stream(factory, executor, new CqlResultHandler<Object>() {
+                public boolean handle(Object object) {
+                    received.add(object);
+                    return received.size() < 5;
+                }
+            });
+            assertEquals(5, count);
+            assertEquals(5, received.size());
+            // the executor is free for the next query
+            assertEquals(21, query.stream(factory, executor, new CqlResultHandler<Object>() {
+                public boolean handle(Object object) {
+                    return true;
+                }
+            }));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturatedExecutorQueuesPartitions() throws Exception {
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num <= 20", mapping, TABLE)
+                .byIdRange(4).ordered(true).bufferSize(1).result();
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(4));
+        try {
+            assertEquals(range(1, 20), ids(list(query, executor)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testExecutorMustNotRunPartitionsOnTheCallingThread() throws Exception {
+        // the first partition waits for the merge, the second is queued, and the third runs on the calling thread
+        CqlPartitionedQuery<Object> query = CqlPartitionedQuery.forTable("num > 0", mapping, TABLE)
+                .byIdRange(4).ordered(true).bufferSize(1).result();
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            list(query, executor);
+            fail("Expected the query to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<Object> list(CqlPartitionedQuery<Object> query, ExecutorService executor) throws Exception {
+        final List<Object> result = new ArrayList<Object>();
+        query.stream(factory, executor, new CqlResultHandler<Object>() {
+            public boolean handle(Object object) {
+                result.add(object);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        assertTrue(CqlPartitionedQuery.forTable("num > 100", mapping, TABLE).result().list(factory).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTilesRequireGeometryProperty() {
+        new CqlPartitionedQuery.Builder<Object>("num > 0", Object.class)
+                .bySpatialTiles(new Envelope(0, 1, 0, 1), 4326, 2, 2).result();
+    }
+
+    private List<Integer> ids(List<Object> objects) {
+        EntityMetaModel metaModel = EntityMetaModel.forClass(mapping.getGeneratedClass(TABLE));
+        List<Integer> result = new ArrayList<Integer>();
+        for (Object object : objects) {
+            result.add(((Number) metaModel.getProperty("id").read(object)).intValue());
+        }
+        return result;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = from; i <= to; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+}
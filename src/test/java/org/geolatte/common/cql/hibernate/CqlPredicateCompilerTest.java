@@ -0,0 +1,133 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the compilation of CQL expressions to in-memory predicates.
+ */
+public class CqlPredicateCompilerTest {
+
+    private static Parcel parcel(String name, Integer height, Double area, String owner) {
+        Parcel parcel = new Parcel();
+        parcel.setName(name);
+        parcel.setHeight(height);
+        parcel.setArea(area);
+        if (owner != null) {
+            Parcel.Owner o = new Parcel.Owner();
+            o.setName(owner);
+            parcel.setOwner(o);
+        }
+        return parcel;
+    }
+
+    private static boolean evaluate(String cql, Parcel parcel) throws ParseException {
+        return CqlPredicateCompiler.compile(cql, Parcel.class).evaluate(parcel);
+    }
+
+    @Test
+    public void testComparisons() throws ParseException {
+        Parcel parcel = parcel("Antwerpen", 12, 250.5, "Jan");
+        assertTrue(evaluate("height = 12", parcel));
+        assertTrue(evaluate("height <> 11", parcel));
+        assertTrue(evaluate("height > 10 AND height <= 12", parcel));
+        assertFalse(evaluate("height < 12", parcel));
+        assertTrue(evaluate("area >= 250.5", parcel));
+        assertTrue(evaluate("name = 'Antwerpen'", parcel));
+        assertTrue(evaluate("name > 'Amsterdam'", parcel));
+        assertFalse(evaluate("NOT (height = 12)", parcel));
+    }
+
+    @Test
+    public void testLiteralsThatThePropertyCannotRepresent() throws ParseException {
+        Parcel parcel = parcel("Antwerpen", 12, 250.5, "Jan");
+        assertTrue(evaluate("height > 11.5", parcel));
+        assertFalse(evaluate("height >= 12.5", parcel));
+        assertTrue(evaluate("height = 12.0", parcel));
+        assertFalse(evaluate("height = 12.5", parcel));
+        assertTrue(evaluate("height <> 12.5", parcel));
+        assertTrue(evaluate("height < 3000000000", parcel));
+        assertFalse(evaluate("height > 3000000000", parcel));
+        assertTrue(evaluate("height = 12.5 OR height = 12", parcel));
+        assertFalse(evaluate("height = 12.5 OR height = 4294967308", parcel));
+    }
+
+    @Test
+    public void testNullValuesDoNotMatch() throws ParseException {
+        Parcel parcel = parcel(null, null, null, null);
+        assertFalse(evaluate("height = 12", parcel));
+        assertFalse(evaluate("NOT (height = 12)", parcel));
+        assertFalse(evaluate("owner.name = 'Jan'", parcel));
+        assertTrue(evaluate("height IS NULL", parcel));
+        assertTrue(evaluate("owner.name IS NULL", parcel));
+        assertFalse(evaluate("name IS NOT NULL", parcel));
+    }
+
+    @Test
+    public void testLike() throws ParseException {
+        Parcel parcel = parcel("Antwerpen 50%", 1, 1.0, "Jan");
+        assertTrue(evaluate("name LIKE 'Antw%'", parcel));
+        assertFalse(evaluate("name LIKE 'antw%'", parcel));
+        assertTrue(evaluate("name ILIKE 'antw%'", parcel));
+        assertTrue(evaluate("name LIKE '%50\\%'", parcel));
+        assertFalse(evaluate("name NOT LIKE 'A_twerpen%'", parcel));
+        assertEquals("\\Qa\\E.*\\Q%\\E.", CqlPredicateCompiler.toRegex("a%\\%_"));
+    }
+
+    @Test
+    public void testNestedPropertyAndInList() throws ParseException {
+        Parcel parcel = parcel("Gent", 3, 1.0, "Piet");
+        assertTrue(evaluate("owner.name = 'Jan' OR owner.name = 'Piet' OR owner.name = 'Joris'", parcel));
+        assertFalse(evaluate("height = 1 OR height = 2 OR height = 4", parcel));
+        assertTrue(evaluate("height = 1 OR height = 3", parcel));
+    }
+
+    @Test
+    public void testTemporal() throws ParseException {
+        Parcel parcel = parcel("Gent", 3, 1.0, null);
+        parcel.setCreated(new Date(1273622400000L)); // 2010-05-12
+        assertTrue(evaluate("created AFTER 2010-01-01T00:00:00Z", parcel));
+        assertFalse(evaluate("created BEFORE 2010-01-01T00:00:00Z", parcel));
+    }
+
+    @Test
+    public void testLongDisjunctionIsSplit() throws ParseException {
+        StringBuilder cql = new StringBuilder("height = -1");
+        for (int i = 0; i < 2000; i++) {
+            cql.append(" OR name = 'n").append(i).append("' OR area > ").append(1000 + i);
+        }
+        assertTrue(evaluate(cql.toString(), parcel("n1999", 3, 1.0, null)));
+        assertFalse(evaluate(cql.toString(), parcel("x", 3, 1.0, null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPropertyIsRejected() throws ParseException {
+        CqlPredicateCompiler.compile("colour = 'red'", Parcel.class);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the property projection of CQL queries.
+ */
+public class CqlProjectionTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(5);
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = session.beginTransaction();
+        session.createQuery("update Parcel set area = height * 100.0").executeUpdate();
+        transaction.commit();
+        session.close();
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Test
+    public void testSinglePropertyIsReturnedAsValue() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            List names = CqlHibernate.list("height > 3 AND name LIKE 'parcel%'", Parcel.class, session, "name");
+            assertEquals(2, names.size());
+            assertTrue(names.contains("parcel 4"));
+            assertTrue(names.contains("parcel 5"));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testPropertiesAreReturnedAsTuples() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            List rows = CqlHibernate.list("height = 2", Parcel.class, session, "name", "area");
+            assertEquals(1, rows.size());
+            Object[] row = (Object[]) rows.get(0);
+            assertEquals("parcel 2", row[0]);
+            assertEquals(200.0, (Double) row[1], 0.0);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testPropertiesAreReturnedAsResultClass() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            List rows = CqlHibernate.toProjectedCriteria("height = 3", Parcel.class, ParcelSummary.class, "name", "height")
+                    .getExecutableCriteria(session).list();
+            assertEquals(1, rows.size());
+            ParcelSummary summary = (ParcelSummary) rows.get(0);
+            assertEquals("parcel 3", summary.getName());
+            assertEquals(Integer.valueOf(3), summary.getHeight());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testBeanPropertyOfNestedPath() {
+        assertEquals("name", ProjectionResultTransformer.toBeanProperty("name"));
+        assertEquals("ownerName", ProjectionResultTransformer.toBeanProperty("owner.name"));
+    }
+
+    public static class ParcelSummary {
+
+        private String name;
+        private Integer height;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Integer getHeight() {
+            return height;
+        }
+
+        public void setHeight(Integer height) {
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the instrumentation of CQL queries, and the statistics collected from it.
+ */
+public class CqlQueryStatisticsTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    private CqlQueryStatistics statistics;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(10);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Before
+    public void setUp() {
+        statistics = new CqlQueryStatistics(0);
+        CqlInstrumentation.addListener(statistics);
+    }
+
+    @After
+    public void tearDown() {
+        CqlInstrumentation.removeListener(statistics);
+    }
+
+    @Test
+    public void testFingerprint() {
+        String prefix = Parcel.class.getName() + ": ";
+        assertEquals(prefix + "height > ? AND name = ?",
+                CqlInstrumentation.fingerprint("height > 5  AND name = 'it''s'", Parcel.class));
+        assertEquals(prefix + "height > ? AND name = ?",
+                CqlInstrumentation.fingerprint("height > -2.5e3 AND\nname = 'x'", Parcel.class));
+        assertEquals(prefix + "area2 IN (?) OR name IN (?)",
+                CqlInstrumentation.fingerprint("area2 IN (1, 2, 3) OR name IN ('a','b')", Parcel.class));
+        assertEquals(prefix + "created AFTER ?",
+                CqlInstrumentation.fingerprint("created AFTER 2012-08-23T10:15:00Z", Parcel.class));
+    }
+
+    @Test
+    public void testStatisticsPerFingerprint() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertEquals(6, CqlHibernate.list("height > 4 AND name LIKE 'parcel%'", Parcel.class, session).size());
+            assertEquals(3, CqlHibernate.list("height > 7 AND name LIKE 'p%'", Parcel.class, session).size());
+            assertEquals(3, CqlHibernate.list("height > 7 AND name LIKE 'p%'", Parcel.class, session).size());
+            assertEquals(2, CqlHibernate.count("height > 8 AND name LIKE 'parcel%'", Parcel.class, session));
+        } finally {
+            session.close();
+        }
+        assertEquals(4, statistics.getQueryCount());
+        assertEquals(1, statistics.getFingerprintCount());
+
+        CqlQueryStatistics.FingerprintStatistics entry = statistics.getStatistics(
+                CqlInstrumentation.fingerprint("height > 1 AND name LIKE 'x'", Parcel.class));
+        assertNotNull(entry);
+        assertEquals(4, entry.getExecutionCount());
+        assertEquals(0, entry.getFailureCount());
+        assertEquals(6 + 3 + 3 + 1, entry.getRowCount());
+        assertEquals(3, entry.getCompilationCount());
+        assertTrue(entry.getTotalExecutionNanos() > 0);
+        assertTrue(entry.getMaxExecutionNanos() >= entry.getExecutionPercentileNanos(50));
+        assertEquals(entry.getMaxExecutionNanos(), entry.getExecutionPercentileNanos(100));
+        assertNotNull(entry.getSql());
+        assertTrue(entry.getSql().toLowerCase().contains("select"));
+        assertEquals(entry, statistics.getTopOffenders(5).get(0));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            statistics.queryExecuted(event("height = 1", i * 1000000L));
+        }
+        CqlQueryStatistics.FingerprintStatistics entry = statistics.getStatistics().get(0);
+        assertEquals(100, entry.getExecutionCount());
+        assertEquals(1000000L, entry.getExecutionPercentileNanos(0));
+        assertEquals(50000000L, entry.getExecutionPercentileNanos(50));
+        assertEquals(99000000L, entry.getExecutionPercentileNanos(99));
+        assertEquals(100000000L, entry.getMaxExecutionNanos());
+        assertEquals(50500000L, entry.getMeanExecutionNanos());
+
+        // only the most recent executions are sampled
+        for (int i = 0; i < CqlQueryStatistics.SAMPLE_SIZE; i++) {
+            statistics.queryExecuted(event("height = 1", 1000L));
+        }
+        assertEquals(1000L, entry.getExecutionPercentileNanos(99));
+        assertEquals(100000000L, entry.getMaxExecutionNanos());
+    }
+
+    @Test
+    public void testSlowQueryThreshold() throws Exception {
+        statistics.queryExecuted(event("height = 1", 5000000000L));
+        assertEquals(0, statistics.getSlowQueryCount());
+
+        statistics.setSlowQueryThresholdMillis(100);
+        statistics.queryExecuted(event("height = 1", 99000000L));
+        statistics.queryExecuted(event("height = 1", 100000000L));
+        assertEquals(1, statistics.getSlowQueryCount());
+        assertEquals(1, statistics.getStatistics().get(0).getSlowExecutionCount());
+        assertEquals(100, statistics.getSlowQueryThresholdMillis());
+    }
+
+    @Test
+    public void testMaximumFingerprints() throws Exception {
+        CqlQueryStatistics bounded = new CqlQueryStatistics(0, 2);
+        bounded.queryExecuted(event("height = 1", 1));
+        bounded.queryExecuted(event("name = 'a'", 1));
+        bounded.queryExecuted(event("area = 1", 1));
+        bounded.queryExecuted(event("area > 1", 1));
+        assertEquals(3, bounded.getFingerprintCount());
+        assertEquals(2, bounded.getStatistics(CqlQueryStatistics.OTHER_FINGERPRINT).getExecutionCount());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotAffectQuery() throws Exception {
+        final List<CqlQueryEvent.Operation> operations = new ArrayList<CqlQueryEvent.Operation>();
+        CqlQueryListener failing = new CqlQueryListener() {
+            public void queryExecuted(CqlQueryEvent event) {
+                operations.add(event.getOperation());
+                throw new IllegalStateException("Listener failure");
+            }
+        };
+        CqlInstrumentation.addListener(failing);
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertTrue(CqlHibernate.exists("height = 3", Parcel.class, session));
+            assertEquals(10, CqlHibernate.stream("height > 0", Parcel.class, session, 4, new CqlResultHandler<Parcel>() {
+                public boolean handle(Parcel parcel) {
+                    return true;
+                }
+            }));
+        } finally {
+            session.close();
+            CqlInstrumentation.removeListener(failing);
+        }
+        assertEquals(2, operations.size());
+        assertEquals(CqlQueryEvent.Operation.EXISTS, operations.get(0));
+        assertEquals(CqlQueryEvent.Operation.SCROLL, operations.get(1));
+        assertEquals(2, statistics.getQueryCount());
+        assertEquals(10, statistics.getStatistics(CqlInstrumentation.fingerprint("height > 0", Parcel.class)).getRowCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CqlQueryStatistics.DEFAULT_OBJECT_NAME);
+        statistics.registerMBean();
+        try {
+            assertTrue(server.isRegistered(name));
+            statistics.queryExecuted(event("height = 1", 1000));
+            assertEquals(1L, server.getAttribute(name, "QueryCount"));
+            assertEquals(1, ((String[]) server.getAttribute(name, "TopOffenderSummaries")).length);
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0, statistics.getQueryCount());
+        } finally {
+            statistics.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static CqlQueryEvent event(String cqlExpression, long executionNanos) throws Exception {
+        return new CqlQueryEvent(cqlExpression, Parcel.class, CqlQueryEvent.Operation.LIST,
+                CompiledCql.compile(cqlExpression, Parcel.class), true, executionNanos, 1, null, null);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.automapper.TableRef;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the caching of the results of CQL queries.
+ */
+public class CqlResultCacheTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    private Session session;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(10);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Before
+    public void setUp() {
+        session = hibernateUtil.getSessionFactory().openSession();
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+    }
+
+    @Test
+    public void testRepeatedQueryIsServedFromCache() throws Exception {
+        CqlResultCache cache = new CqlResultCache();
+        List first = cache.list("height > 5", Parcel.class, session);
+        assertEquals(5, first.size());
+        assertSame(first, cache.list("height  >\t5", Parcel.class, session));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 1e-9);
+        assertTrue(cache.getEstimatedBytes() > 0);
+
+        // the value of a string literal is not normalized
+        assertEquals(0, cache.list("name = 'parcel  1'", Parcel.class, session).size());
+        assertEquals(1, cache.list("name = 'parcel 1'", Parcel.class, session).size());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testCachedEntitiesAreDetached() throws Exception {
+        CqlResultCache cache = new CqlResultCache();
+        List result = cache.list("height > 5", Parcel.class, session);
+        assertFalse(session.contains(result.get(0)));
+        assertEquals(0, session.getStatistics().getEntityCount());
+        CqlPage<Parcel> page = cache.page("height > 5", Parcel.class, session, "height", 2, null);
+        assertFalse(session.contains(page.getItems().get(0)));
+    }
+
+    @Test
+    public void testCountAndPageAreCachedSeparately() throws Exception {
+        CqlResultCache cache = new CqlResultCache();
+        assertEquals(5, cache.count("height > 5", Parcel.class, session));
+        CqlPage<Parcel> page = cache.page("height > 5", Parcel.class, session, "height", 2, null);
+        assertEquals(2, page.getItems().size());
+        assertSame(page, cache.page("height > 5", Parcel.class, session, "height", 2, null));
+        CqlPage<Parcel> next = cache.page("height > 5", Parcel.class, session, "height", 2, page.getContinuationToken());
+        assertEquals(Integer.valueOf(8), next.getItems().get(0).getHeight());
+        assertEquals(5, cache.count("height > 5", Parcel.class, session));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidationByTable() throws Exception {
+        CqlResultCache cache = new CqlResultCache();
+        assertEquals(1, cache.list("height = 10", Parcel.class, session).size());
+        assertEquals(1, cache.count("height = 10", Parcel.class, session));
+
+        assertEquals(0, cache.invalidate(TableRef.valueOf("OTHER")));
+        assertEquals(0, cache.invalidate(TableRef.valueOf("OTHER_SCHEMA", "PARCEL")));
+        assertEquals(2, cache.size());
+
+        Transaction transaction = session.beginTransaction();
+        Parcel parcel = new Parcel();
+        parcel.setName("parcel 11");
+        parcel.setHeight(10);
+        session.save(parcel);
+        transaction.commit();
+
+        // the cache does not see the change until the table is invalidated
+        assertEquals(1, cache.list("height = 10", Parcel.class, session).size());
+        assertEquals(2, cache.invalidate(TableRef.valueOf("parcel")));
+        assertEquals(2, cache.getInvalidationCount());
+        assertEquals(2, cache.list("height = 10", Parcel.class, session).size());
+        assertEquals(2, cache.count("height = 10", Parcel.class, session));
+
+        assertEquals(2, cache.invalidate(Parcel.class));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+
+        transaction = session.beginTransaction();
+        session.delete(parcel);
+        transaction.commit();
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        CqlResultCache cache = new CqlResultCache(10, CqlResultCache.DEFAULT_MAXIMUM_BYTES, 1);
+        cache.list("height > 5", Parcel.class, session);
+        Thread.sleep(20);
+        cache.list("height > 5", Parcel.class, session);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        CqlResultCache cache = new CqlResultCache(2, CqlResultCache.DEFAULT_MAXIMUM_BYTES, 0);
+        cache.list("height > 1", Parcel.class, session);
+        cache.list("height > 2", Parcel.class, session);
+        cache.list("height > 1", Parcel.class, session);
+        cache.list("height > 3", Parcel.class, session);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        // the least recently used entry was evicted
+        cache.list("height > 1", Parcel.class, session);
+        assertEquals(2, cache.getHitCount());
+
+        CqlResultCache small = new CqlResultCache(10, 400, 0);
+        small.list("height = 1", Parcel.class, session);
+        assertEquals(1, small.size());
+        small.list("height > 0", Parcel.class, session);
+        assertEquals(1, small.size());
+        assertTrue(small.getEstimatedBytes() <= 400);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("a = 'x  y' AND b > 1", CqlResultCache.normalize("  a  =  'x  y'\n AND b > 1 "));
+    }
+}
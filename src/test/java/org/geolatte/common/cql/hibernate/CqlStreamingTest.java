@@ -0,0 +1,114 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming execution of CQL queries.
+ */
+public class CqlStreamingTest {
+
+    private static HibernateUtil hibernateUtil;
+
+    @BeforeClass
+    public static void oneTimeSetUp() {
+        hibernateUtil = HibernateUtil.withParcels(10);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        hibernateUtil.dispose();
+    }
+
+    @Test
+    public void testScrollEvictsReturnedObjects() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            CqlResultIterator<Parcel> iterator = CqlHibernate.scroll("height > 4", Parcel.class, session, 2);
+            int count = 0;
+            while (iterator.hasNext()) {
+                assertTrue(iterator.next().getHeight() > 4);
+                count++;
+                assertTrue(session.getStatistics().getEntityCount() <= 1);
+            }
+            assertEquals(6, count);
+            assertEquals(0, session.getStatistics().getEntityCount());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testScrollStatelessSession() throws Exception {
+        StatelessSession session = hibernateUtil.getSessionFactory().openStatelessSession();
+        try {
+            CqlResultIterator<Parcel> iterator = CqlHibernate.scroll("name LIKE 'parcel 1%'", Parcel.class, session, 5);
+            List<Integer> heights = new ArrayList<Integer>();
+            while (iterator.hasNext()) {
+                heights.add(iterator.next().getHeight());
+            }
+            assertEquals(2, heights.size());
+            assertTrue(heights.contains(1) && heights.contains(10));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testStreamStopsWhenHandlerReturnsFalse() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            final List<Parcel> handled = new ArrayList<Parcel>();
+            long count = CqlHibernate.stream("height >= 1", Parcel.class, session, 3, new CqlResultHandler<Parcel>() {
+                public boolean handle(Parcel parcel) {
+                    handled.add(parcel);
+                    return handled.size() < 4;
+                }
+            });
+            assertEquals(4, count);
+            assertEquals(4, handled.size());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void testUnknownPropertyMatchesNothing() throws Exception {
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        try {
+            assertFalse(CqlHibernate.scroll("color EXISTS", Parcel.class, session, 10).hasNext());
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>CqlSubscriptionMatcher</code>.
+ */
+public class CqlSubscriptionMatcherTest {
+
+    private final GeometryFactory factory = new GeometryFactory();
+
+    private static Parcel parcel(String name, Integer height, Double area, String owner) {
+        Parcel parcel = new Parcel();
+        parcel.setName(name);
+        parcel.setHeight(height);
+        parcel.setArea(area);
+        if (owner != null) {
+            Parcel.Owner o = new Parcel.Owner();
+            o.setName(owner);
+            parcel.setOwner(o);
+        }
+        return parcel;
+    }
+
+    private static Set<String> ids(String... ids) {
+        Set<String> result = new HashSet<String>();
+        Collections.addAll(result, ids);
+        return result;
+    }
+
+    @Test
+    public void testEqualityAndRangeSubscriptions() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("eq", "height = 12");
+        matcher.register("in", "height = 3 OR height = 12 OR height = 40");
+        matcher.register("range", "height > 10 AND height <= 12");
+        matcher.register("open", "height >= 20");
+        matcher.register("and", "name = 'Antwerpen' AND area < 300");
+        matcher.register("nested", "owner.name = 'Jan' AND height < 12");
+
+        assertEquals(ids("eq", "in", "range", "and"), matcher.match(parcel("Antwerpen", 12, 250.5, "Jan")));
+        assertEquals(ids("range", "nested"), matcher.match(parcel("Gent", 11, 250.5, "Jan")));
+        assertEquals(ids("in", "open"), matcher.match(parcel("Gent", 40, 250.5, null)));
+        assertEquals(ids(), matcher.match(parcel("Antwerpen", 10, 300.0, null)));
+    }
+
+    @Test
+    public void testNumbersAreComparedByValue() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("area", "area = 250");
+        matcher.register("range", "area > 249.99 AND area < 250.01");
+        assertEquals(ids("area", "range"), matcher.match(parcel("Antwerpen", 1, 250.0, null)));
+    }
+
+    @Test
+    public void testUnindexableSubscriptionsAreEvaluatedOnEveryObject() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("like", "name LIKE 'Ant%'");
+        matcher.register("or", "height = 1 OR name ILIKE '%gent'");
+        matcher.register("null", "owner.name IS NULL");
+        matcher.register("neq", "height <> 12");
+
+        assertEquals(ids("like", "null", "neq"), matcher.match(parcel("Antwerpen", 1000, 1.0, null)));
+        assertEquals(ids("or"), matcher.match(parcel("Sint-Niklaas-Gent", 12, 1.0, "Jan")));
+        assertEquals(ids("or", "null", "neq"), matcher.match(parcel(null, 1, 1.0, null)));
+    }
+
+    @Test
+    public void testNullValuesDoNotMatch() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("eq", "height = 12");
+        matcher.register("neq", "NOT (height = 12)");
+        matcher.register("range", "height < 20");
+        matcher.register("nested", "owner.name = 'Jan'");
+        assertEquals(ids(), matcher.match(parcel(null, null, null, null)));
+    }
+
+    @Test
+    public void testConstantSubscriptions() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("never", "height = 1 AND height = 2");
+        matcher.register("always", "height = 1 OR NOT (height = 1) OR height IS NULL");
+        assertEquals(2, matcher.size());
+        assertEquals(ids("always"), matcher.match(parcel("Antwerpen", 1, 1.0, null)));
+    }
+
+    @Test
+    public void testUnregisterAndReplace() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        matcher.register("a", "height = 12");
+        matcher.register("b", "height = 12 AND name = 'Gent'");
+        Parcel parcel = parcel("Gent", 12, 1.0, null);
+        assertEquals(ids("a", "b"), matcher.match(parcel));
+
+        assertTrue(matcher.unregister("a"));
+        assertFalse(matcher.unregister("a"));
+        assertEquals(ids("b"), matcher.match(parcel));
+
+        matcher.register("b", "height = 13");
+        assertEquals(ids(), matcher.match(parcel));
+        assertEquals(ids("b"), matcher.match(parcel("Gent", 13, 1.0, null)));
+        assertEquals(1, matcher.size());
+    }
+
+    @Test
+    public void testOverlappingRanges() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 200; i++) {
+            matcher.register("r" + i, "height >= " + i + " AND height < " + (i + 10));
+            if (i > 40 && i <= 50) {
+                expected.add("r" + i);
+            }
+        }
+        matcher.register("below", "height <= 50");
+        matcher.register("above", "height > 50");
+        matcher.register("wide", "height > -1000 AND height < 1000");
+        expected.add("below");
+        expected.add("wide");
+        assertEquals(expected, matcher.match(parcel("Gent", 50, 1.0, null)));
+
+        for (int i = 0; i < 200; i += 2) {
+            matcher.unregister("r" + i);
+            expected.remove("r" + i);
+        }
+        assertEquals(expected, matcher.match(parcel("Gent", 50, 1.0, null)));
+        assertEquals(ids("above", "wide"), matcher.match(parcel("Gent", 500, 1.0, null)));
+    }
+
+    @Test
+    public void testManySubscriptions() throws ParseException {
+        CqlSubscriptionMatcher<Parcel> matcher = new CqlSubscriptionMatcher<Parcel>(Parcel.class);
+        for (int i = 0; i < 5000; i++) {
+            matcher.register("s" + i, "height = " + i + " AND area > " + (i % 10));
+        }
+        assertEquals(ids("s1234"), matcher.match(parcel("Gent", 1234, 5.0, null)));
+        assertEquals(ids(), matcher.match(parcel("Gent", 1234, 4.0, null)));
+    }
+
+    @Test
+    public void testSpatialFilters() throws ParseException {
+        CqlSubscriptionMatcher<Feature> matcher = new CqlSubscriptionMatcher<Feature>(Feature.class, "geometry");
+        matcher.register("bbox", "name = 'road'", SpatialFilter.bbox(new Envelope(0, 10, 0, 10), 4326));
+        matcher.register("near", "name = 'river'", SpatialFilter.dwithin(point(100, 100), 5));
+        matcher.register("anywhere", "name = 'road'");
+        matcher.register("within", "name LIKE 'r%'",
+                SpatialFilter.within(factory.toGeometry(new Envelope(50, 150, 50, 150))).onProperty("geometry"));
+
+        assertEquals(ids("bbox", "anywhere"), matcher.match(new Feature("road", point(5, 5))));
+        assertEquals(ids("anywhere", "within"), matcher.match(new Feature("road", point(60, 60))));
+        assertEquals(ids("near", "within"), matcher.match(new Feature("river", point(103, 103))));
+        assertEquals(ids("within"), matcher.match(new Feature("river", point(104, 104))));
+        assertEquals(ids(), matcher.match(new Feature("river", null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpatialFilterRequiresGeometryProperty() throws ParseException {
+        new CqlSubscriptionMatcher<Feature>(Feature.class).register("a", "name = 'road'", SpatialFilter.intersects(point(1, 1)));
+    }
+
+    private Geometry point(double x, double y) {
+        return factory.createPoint(new Coordinate(x, y));
+    }
+
+    public static class Feature {
+
+        private String name;
+        private Geometry geometry;
+
+        public Feature() {
+        }
+
+        public Feature(String name, Geometry geometry) {
+            this.name = name;
+            this.geometry = geometry;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Geometry getGeometry() {
+            return geometry;
+        }
+
+        public void setGeometry(Geometry geometry) {
+            this.geometry = geometry;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle10gDialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernatespatial.geodb.GeoDBDialect;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the prefix range support of the <code>EscapingLikeExpression</code> class.
+ */
+public class EscapingLikeExpressionTest {
+
+    @Test
+    public void testPrefixPattern() {
+        assertEquals("Antw", EscapingLikeExpression.likePrefix("Antw%", '\\'));
+        assertEquals("50%_", EscapingLikeExpression.likePrefix("50\\%\\_%", '\\'));
+        assertEquals("a\\b", EscapingLikeExpression.likePrefix("a\\\\b%", '\\'));
+    }
+
+    @Test
+    public void testNoPrefixPattern() {
+        assertNull(EscapingLikeExpression.likePrefix("%", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("Antw", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("%twerpen", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("An%w%", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("An_w%", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("Antw\\%", '\\'));
+        assertNull(EscapingLikeExpression.likePrefix("\uFFFF%", '\\'));
+    }
+
+    @Test
+    public void testSuccessor() {
+        assertEquals("Antx", EscapingLikeExpression.successor("Antw"));
+        assertEquals("a!", EscapingLikeExpression.successor("a "));
+    }
+
+    @Test
+    public void testDialectsWithBinaryStringOrder() {
+        assertTrue(EscapingLikeExpression.hasBinaryStringOrder(new H2Dialect()));
+        assertTrue(EscapingLikeExpression.hasBinaryStringOrder(new GeoDBDialect()));
+        assertTrue(EscapingLikeExpression.hasBinaryStringOrder(new Oracle10gDialect()));
+        assertFalse(EscapingLikeExpression.hasBinaryStringOrder(new PostgreSQLDialect()));
+        assertFalse(EscapingLikeExpression.hasBinaryStringOrder(new MySQLDialect()));
+    }
+
+    @Test
+    public void testLowerCaseIndexOption() {
+        CqlTranslationOptions options = new CqlTranslationOptions.Builder().lowerCaseIndex("owner.name").result();
+        assertFalse(options.isPrefixRanges());
+        assertFalse(CqlTranslationOptions.DEFAULT.isPrefixRanges());
+        assertTrue(new CqlTranslationOptions.Builder().prefixRanges(true).result().isPrefixRanges());
+        assertTrue(options.isLowerCaseIndexed("owner.name"));
+        assertFalse(options.isLowerCaseIndexed("name"));
+        assertFalse(CqlTranslationOptions.DEFAULT.isLowerCaseIndexed("owner.name"));
+        assertEquals("lower(name) like ?", EscapingLikeExpression.toLikeSql(new PostgreSQLDialect(), "name", true, true));
+        assertEquals("name ilike ?", EscapingLikeExpression.toLikeSql(new PostgreSQLDialect(), "name", true, false));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the joins that are created for compound property paths.
+ */
+public class HibernateCriteriaBuilderPathTest {
+
+    private static HibernateCriteriaBuilder translate(String cql, Class<?> forClass) throws ParseException {
+        HibernateCriteriaBuilder builder = new HibernateCriteriaBuilder(forClass);
+        CompiledCql.parse(cql).apply(builder);
+        return builder;
+    }
+
+    @Test
+    public void testIdentifierOfAssociationIsNotJoined() throws ParseException {
+        HibernateCriteriaBuilder builder = translate("owner.id = 5", Parcel.class);
+        assertTrue(builder.getAliasDefinitions().isEmpty());
+        assertEquals(Restrictions.eq("owner.id", 5L).toString(), builder.getCriterion().toString());
+    }
+
+    @Test
+    public void testOtherPropertiesOfAssociationAreJoined() throws ParseException {
+        HibernateCriteriaBuilder builder = translate("owner.name = 'Jan' AND owner.id = 5", Parcel.class);
+        List<String[]> aliases = builder.getAliasDefinitions();
+        assertEquals(1, aliases.size());
+        assertArrayEquals(new String[]{"owner", "owner01"}, aliases.get(0));
+        assertEquals(Restrictions.and(Restrictions.eq("owner01.name", "Jan"), Restrictions.eq("owner.id", 5L)).toString(),
+                builder.getCriterion().toString());
+    }
+
+    @Test
+    public void testCollectionPathIsTranslatedToExistsSubquery() throws ParseException {
+        HibernateCriteriaBuilder builder = translate("parcels.name = 'a' AND owner.name = 'Jan'", Estate.class);
+        List<String[]> aliases = builder.getAliasDefinitions();
+        assertEquals(1, aliases.size());
+        assertArrayEquals(new String[]{"owner", "owner01"}, aliases.get(0));
+        Criterion criterion = builder.getCriterion();
+        assertTrue(criterion.toString(), criterion.toString().contains("exists"));
+        assertTrue(criterion.toString(), criterion.toString().contains("subparcels01.name"));
+    }
+
+    @Test
+    public void testCollectionPathDoesNotJoinCollection() throws ParseException {
+        CompiledCql compiled = CompiledCql.compile("parcels.height > 3", Estate.class);
+        assertFalse(compiled.joinsCollection());
+    }
+
+    @Test
+    public void testPathAnalysis() {
+        EntityMetaModel model = EntityMetaModel.forClass(Estate.class);
+        assertTrue(model.crossesCollection("parcels.name"));
+        assertTrue(model.crossesCollection("parcels.owner.name"));
+        assertFalse(model.crossesCollection("owner.name"));
+        assertFalse(model.crossesCollection("parcels"));
+        assertTrue(model.referencesIdentifier("owner.id"));
+        assertFalse(model.referencesIdentifier("owner.name"));
+        assertFalse(model.referencesIdentifier("parcels.id"));
+        assertFalse(model.referencesIdentifier("id"));
+    }
+
+    public static class Estate {
+
+        private Long id;
+        private Parcel.Owner owner;
+        private Set<Parcel> parcels;
+
+        public Long getId() {
+            return id;
+        }
+
+        public Parcel.Owner getOwner() {
+            return owner;
+        }
+
+        public Set<Parcel> getParcels() {
+            return parcels;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.hibernate.criterion.Restrictions;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reuse of <code>HibernateCriteriaBuilder</code>s.
+ */
+public class HibernateCriteriaBuilderReuseTest {
+
+    @Test
+    public void testThreadBuilderIsReused() {
+        HibernateCriteriaBuilder first = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        HibernateCriteriaBuilder nested = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        assertNotSame(first, nested);
+        nested.release();
+        first.release();
+        HibernateCriteriaBuilder second = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        assertSame(first, second);
+        second.release();
+    }
+
+    @Test
+    public void testReleaseDropsResults() throws ParseException {
+        HibernateCriteriaBuilder builder = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        CompiledCql.parse("owner.name = 'x'").apply(builder);
+        assertNotNull(builder.getCriterion());
+        assertEquals(1, builder.getAliasDefinitions().size());
+        builder.release();
+        assertNull(builder.getCriterion());
+        assertTrue(builder.getAliasDefinitions().isEmpty());
+    }
+
+    @Test
+    public void testReusedBuilderStartsFresh() throws ParseException {
+        HibernateCriteriaBuilder builder = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        CompiledCql.parse("owner.name = 'x' AND owner.id = 1").apply(builder);
+        builder.release();
+
+        builder = HibernateCriteriaBuilder.acquire(Parcel.class, false, CqlTranslationOptions.DEFAULT);
+        CompiledCql.parse("owner.name = 'y' OR height = 3").apply(builder);
+        List<String[]> aliases = builder.getAliasDefinitions();
+        assertEquals(1, aliases.size());
+        assertArrayEquals(new String[]{"owner", "owner01"}, aliases.get(0));
+        assertEquals(Restrictions.or(Restrictions.eq("owner01.name", "y"), Restrictions.eq("height", 3)).toString(),
+                builder.getCriterion().toString());
+        builder.release();
+    }
+
+    @Test
+    public void testNestedExpressionsAreCombinedInOrder() throws ParseException {
+        HibernateCriteriaBuilder builder = new HibernateCriteriaBuilder(Parcel.class);
+        CompiledCql.parse("height > 1 AND (name = 'a' OR NOT (height = 3))").apply(builder);
+        assertEquals(Restrictions.and(Restrictions.gt("height", 1),
+                Restrictions.or(Restrictions.eq("name", "a"), Restrictions.not(Restrictions.eq("height", 3)))).toString(),
+                builder.getCriterion().toString());
+    }
+}
@@ -21,7 +21,9 @@
 
 package org.geolatte.common.cql.hibernate;
 
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 
@@ -58,6 +60,33 @@ class HibernateUtil {
         }
     }
 
+    /**
+     * Creates a database with the <code>Parcel</code> mapping that holds the given number of parcels: parcel
+     * <code>i</code> is named "parcel i", and has height <code>i</code>.
+     */
+    public static HibernateUtil withParcels(int count) {
+        return withParcels(count, "parcel %d");
+    }
+
+    /**
+     * Creates a database with the given number of parcels, of which the names are formatted with the number.
+     */
+    public static HibernateUtil withParcels(int count, String nameFormat) {
+        HibernateUtil hibernateUtil = new HibernateUtil(new String[]{Parcel.MAPPING});
+        hibernateUtil.createDatabase();
+        Session session = hibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = session.beginTransaction();
+        for (int i = 1; i <= count; i++) {
+            Parcel parcel = new Parcel();
+            parcel.setName(String.format(nameFormat, i));
+            parcel.setHeight(i);
+            session.save(parcel);
+        }
+        transaction.commit();
+        session.close();
+        return hibernateUtil;
+    }
+
     public SessionFactory getSessionFactory() {
 
         return sessionFactory;
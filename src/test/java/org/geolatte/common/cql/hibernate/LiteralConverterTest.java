@@ -0,0 +1,54 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+
+package org.geolatte.common.cql.hibernate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>LiteralConverter</code>.
+ */
+public class LiteralConverterTest {
+
+    @Test
+    public void testConvertersAreCachedPerProperty() {
+        LiteralConverter converter = LiteralConverter.forProperty(Parcel.class, "height");
+        assertSame(converter, LiteralConverter.forProperty(Parcel.class, "height"));
+        assertNotSame(converter, LiteralConverter.forProperty(Parcel.class, "area"));
+    }
+
+    @Test
+    public void testLiteralsAreConvertedToPropertyType() {
+        assertEquals(12, LiteralConverter.forProperty(Parcel.class, "height").convert("12"));
+        assertEquals(12L, LiteralConverter.forProperty(Parcel.class, "id").convert("12"));
+        assertEquals(250.5, LiteralConverter.forProperty(Parcel.class, "area").convert("250.5"));
+        assertEquals("12", LiteralConverter.forProperty(Parcel.class, "name").convert("12"));
+    }
+
+    @Test
+    public void testNestedProperties() {
+        assertEquals(7L, LiteralConverter.forProperty(Parcel.class, "owner.id").convert("7"));
+        assertEquals("Jan", LiteralConverter.forProperty(Parcel.class, "owner.name").convert("Jan"));
+    }
+}
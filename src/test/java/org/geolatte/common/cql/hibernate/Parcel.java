@@ -0,0 +1,123 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import java.util.Date;
+
+/**
+ * Simple bean used to test the translation of CQL expressions, and their execution (see {@link #MAPPING}).
+ */
+public class Parcel {
+
+    /**
+     * Hibernate mapping of the simple properties of this class, for use with {@link HibernateUtil}.
+     */
+    static final String MAPPING = "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\" " +
+            "\"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n" +
+            "<hibernate-mapping package=\"org.geolatte.common.cql.hibernate\">\n" +
+            "  <class name=\"Parcel\" table=\"PARCEL\">\n" +
+            "    <id name=\"id\"><generator class=\"native\"/></id>\n" +
+            "    <property name=\"name\"/>\n" +
+            "    <property name=\"height\"/>\n" +
+            "    <property name=\"area\"/>\n" +
+            "    <property name=\"created\" type=\"timestamp\"/>\n" +
+            "  </class>\n" +
+            "</hibernate-mapping>";
+
+    private Long id;
+    private String name;
+    private Integer height;
+    private Double area;
+    private Date created;
+    private Owner owner;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public Double getArea() {
+        return area;
+    }
+
+    public void setArea(Double area) {
+        this.area = area;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Owner getOwner() {
+        return owner;
+    }
+
+    public void setOwner(Owner owner) {
+        this.owner = owner;
+    }
+
+    public static class Owner {
+
+        private Long id;
+        private String name;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
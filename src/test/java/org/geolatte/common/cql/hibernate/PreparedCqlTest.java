@@ -0,0 +1,76 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the preparation of parameterized CQL expressions.
+ */
+public class PreparedCqlTest {
+
+    @Test
+    public void testPlaceholdersAreQuoted() {
+        assertEquals("height > '?1' AND name LIKE '?2'", CqlParameters.quotePlaceholders("height > ?1 AND name LIKE ?2"));
+    }
+
+    @Test
+    public void testPlaceholdersInStringLiteralsAreIgnored() {
+        assertEquals("name = 'why?1' AND height > '?1'", CqlParameters.quotePlaceholders("name = 'why?1' AND height > ?1"));
+        assertEquals("name = 'it''s?' AND height > '?2'", CqlParameters.quotePlaceholders("name = 'it''s?' AND height > ?2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLiteralThatLooksLikePlaceholderIsRejected() {
+        CqlParameters.quotePlaceholders("name = '?1' AND height > ?2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPlaceholderWithoutIndex() {
+        CqlParameters.quotePlaceholders("height > ?");
+    }
+
+    @Test
+    public void testParameterIndex() {
+        assertEquals(12, CqlParameters.parameterIndex("?12"));
+        assertEquals(3, CqlParameters.parameterIndex("'?3'"));
+        assertEquals(-1, CqlParameters.parameterIndex("?0"));
+        assertEquals(-1, CqlParameters.parameterIndex("?a"));
+        assertEquals(-1, CqlParameters.parameterIndex("12"));
+    }
+
+    @Test
+    public void testPrepareCountsParameters() throws ParseException {
+        PreparedCql prepared = CqlHibernate.prepare("height > ?1 AND (name LIKE ?2 OR area < ?1)", Parcel.class);
+        assertEquals(2, prepared.getParameterCount());
+        assertNotNull(prepared.bind(5, "Antw%"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindRequiresAllParameters() throws ParseException {
+        CqlHibernate.prepare("height > ?1 AND name LIKE ?2", Parcel.class).bind(5);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import org.geolatte.common.cql.node.*;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reordering of predicates by the <code>SelectivityPlanner</code>.
+ */
+public class SelectivityPlannerTest {
+
+    private static List<CqlTerm> reorder(String cql, TableStatistics statistics) throws ParseException {
+        CqlTerm term = SelectivityPlanner.reorder(CqlOptimizer.optimize(CompiledCql.parse(cql), Parcel.class), Parcel.class, statistics);
+        assertTrue("Expected a junction, found " + term, term instanceof CqlTerm.Junction);
+        return ((CqlTerm.Junction) term).getOperands();
+    }
+
+    private static PExpr leaf(CqlTerm term) {
+        assertTrue("Expected a predicate, found " + term, term instanceof CqlTerm.Leaf);
+        return ((CqlTerm.Leaf) term).getExpr();
+    }
+
+    @Test
+    public void testIdentifierFirstAndLikeLast() throws ParseException {
+        List<CqlTerm> operands = reorder("name LIKE 'a%' AND height > 3 AND id = 5", null);
+        assertTrue(leaf(operands.get(0)) instanceof AEqExpr);
+        assertTrue(leaf(operands.get(1)) instanceof AGtExpr);
+        assertTrue(leaf(operands.get(2)) instanceof ALikeExpr);
+    }
+
+    @Test
+    public void testLikelyDisjunctFirst() throws ParseException {
+        List<CqlTerm> operands = reorder("name LIKE 'a%' OR height > 3", null);
+        assertTrue(leaf(operands.get(0)) instanceof AGtExpr);
+        assertTrue(leaf(operands.get(1)) instanceof ALikeExpr);
+    }
+
+    @Test
+    public void testEqualRanksKeepTheirOrder() throws ParseException {
+        List<CqlTerm> operands = reorder("height = 3 AND name = 'x'", null);
+        assertEquals("height", ((AEqExpr) leaf(operands.get(0))).getLeft().toString().trim());
+    }
+
+    @Test
+    public void testStatisticsDecideBetweenEqualities() throws ParseException {
+        Map<String, Long> distinct = new HashMap<String, Long>();
+        distinct.put("height", 2L);
+        distinct.put("name", 1000L);
+        TableStatistics statistics = new TableStatistics(Parcel.class, null, 1000, distinct);
+        List<CqlTerm> operands = reorder("height = 3 AND name = 'x'", statistics);
+        assertEquals("name", ((AEqExpr) leaf(operands.get(0))).getLeft().toString().trim());
+    }
+
+    @Test
+    public void testStatisticsOfOtherClassAreIgnored() throws ParseException {
+        Map<String, Long> distinct = new HashMap<String, Long>();
+        distinct.put("name", 1000L);
+        TableStatistics statistics = new TableStatistics(Parcel.Owner.class, null, 1000, distinct);
+        List<CqlTerm> operands = reorder("height = 3 AND name = 'x'", statistics);
+        assertEquals("height", ((AEqExpr) leaf(operands.get(0))).getLeft().toString().trim());
+    }
+
+    @Test
+    public void testReorderedPredicateGivesSameResult() throws ParseException {
+        CqlTranslationOptions options = new CqlTranslationOptions.Builder().reorderPredicates(true).result();
+        Parcel parcel = new Parcel();
+        parcel.setId(5L);
+        parcel.setName("abc");
+        parcel.setHeight(4);
+        String cql = "name LIKE 'a%' AND height > 3 AND id = 5";
+        assertTrue(CqlPredicateCompiler.compile(cql, Parcel.class, options).evaluate(parcel));
+        parcel.setHeight(2);
+        assertFalse(CqlPredicateCompiler.compile(cql, Parcel.class, options).evaluate(parcel));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the GeoLatte project.
+ *
+ *     GeoLatte is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     GeoLatte is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with GeoLatte.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2010 - 2012 and Ownership of code is shared by:
+ * Qmino bvba - Romeinsestraat 18 - 3001 Heverlee  (http://www.qmino.com)
+ * Geovise bvba - Generaal Eisenhowerlei 9 - 2140 Antwerpen (http://www.geovise.com)
+ */
+
+package org.geolatte.common.cql.hibernate;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.WKTReader;
+import org.geolatte.common.automapper.AutoMapConfiguration;
+import org.geolatte.common.automapper.AutoMapper;
+import org.geolatte.common.automapper.DatabaseMapping;
+import org.geolatte.common.automapper.DisposableClassLoader;
+import org.geolatte.common.automapper.TableRef;
+import org.geolatte.common.automapper.TypeMapper;
+import org.geolatte.common.testDb.GeoDBWrapper;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.geolatte.common.testDb.GeoDBWrapper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the <code>SpatialFilter</code> class, and the execution of spatial filters against an auto-mapped table in
+ * the H2 (GeoDB) database.
+ */
+public class SpatialFilterTest {
+
+    private static final TableRef TABLE = TableRef.valueOf("TESTSPATIAL");
+
+    private static GeoDBWrapper server;
+    private final GeometryFactory factory = new GeometryFactory();
+    private DatabaseMapping mapping;
+    private SessionFactory sessionFactory;
+    private Session session;
+
+    @BeforeClass
+    public static void beforeClass() throws SQLException {
+        server = new GeoDBWrapper();
+    }
+
+    @Before
+    public void before() throws SQLException {
+        initGeoDB();
+        doWithinConnection("create table testspatial (id integer primary key, num int, geometry geometry)");
+        doWithinConnection("insert into testspatial values (1, 1, ST_GeomFromText('POINT(1 1)', 4326))");
+        doWithinConnection("insert into testspatial values (2, 2, ST_GeomFromText('POINT(5 5)', 4326))");
+        doWithinConnection("insert into testspatial values (3, 3, ST_GeomFromText('POLYGON((0 0, 4 0, 4 4, 0 4, 0 0))', 4326))");
+        doWithinConnection("insert into testspatial values (4, 4, ST_GeomFromText('POINT(30 30)', 4326))");
+
+        AutoMapConfiguration cfg = new AutoMapConfiguration(new TypeMapper("BLOB"));
+        cfg.addTable(TABLE);
+        DisposableClassLoader classLoader = new DisposableClassLoader(Thread.currentThread().getContextClassLoader());
+        Thread.currentThread().setContextClassLoader(classLoader);
+        final AutoMapper autoMapper = new AutoMapper(cfg, classLoader);
+        mapping = (DatabaseMapping) doWithinConnection(new DbOp() {
+            public Object execute(Connection conn) throws SQLException {
+                return autoMapper.map(conn);
+            }
+        });
+        Configuration config = new Configuration().configure();
+        config.addXML(mapping.generateHibernateMappingDocument().asXML());
+        sessionFactory = config.buildSessionFactory();
+        session = sessionFactory.openSession();
+    }
+
+    @After
+    public void after() throws SQLException {
+        session.close();
+        sessionFactory.close();
+        cleanDatabase();
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        server.stop();
+    }
+
+    @Test
+    public void testBboxInDatabase() throws Exception {
+        assertEquals(ids(1, 3), select(null, SpatialFilter.bbox(new Envelope(0, 2, 0, 2), 4326)));
+        assertEquals(ids(3), select("num > 1", SpatialFilter.bbox(new Envelope(0, 2, 0, 2), 4326)));
+    }
+
+    @Test
+    public void testIntersectsInDatabase() throws Exception {
+        assertEquals(ids(1, 3), select(null, SpatialFilter.intersects(geometry("POLYGON((0 0, 3 0, 3 3, 0 3, 0 0))"))));
+    }
+
+    @Test
+    public void testWithinInDatabase() throws Exception {
+        assertEquals(ids(1, 2, 3), select(null, SpatialFilter.within(geometry("POLYGON((-1 -1, 10 -1, 10 10, -1 10, -1 -1))"))));
+    }
+
+    @Test
+    public void testContainsInDatabase() throws Exception {
+        assertEquals(ids(3), select(null, SpatialFilter.contains(geometry("POINT(2 2)"))));
+    }
+
+    @Test
+    public void testFiltersAreCombined() throws Exception {
+        SpatialFilter nearOrigin = SpatialFilter.bbox(new Envelope(0, 6, 0, 6), 4326);
+        SpatialFilter inSquare = SpatialFilter.within(geometry("POLYGON((-1 -1, 4.5 -1, 4.5 4.5, -1 4.5, -1 -1))"));
+        assertEquals(ids(1, 3), select(null, nearOrigin, inSquare));
+    }
+
+    @Test
+    public void testDWithinEnvelopeIsExpandedByDistance() {
+        Point point = factory.createPoint(new Coordinate(10, 20));
+        Envelope envelope = SpatialFilter.dwithin(point, 5).getEnvelope();
+        assertEquals(new Envelope(5, 15, 15, 25), envelope);
+    }
+
+    @Test
+    public void testExplicitPropertyTakesPrecedence() {
+        SpatialFilter filter = SpatialFilter.bbox(new Envelope(0, 1, 0, 1), 4326).onProperty("shape");
+        assertEquals("shape", filter.getPropertyName());
+        assertNotNull(filter.toCriterion("geometry"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGeometryPropertyIsRequired() {
+        SpatialFilter.intersects(factory.createPoint(new Coordinate(1, 1))).toCriterion(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDistanceIsRejected() {
+        SpatialFilter.dwithin(factory.createPoint(new Coordinate(1, 1)), -1);
+    }
+
+    private Geometry geometry(String wkt) throws Exception {
+        Geometry geometry = new WKTReader().read(wkt);
+        geometry.setSRID(4326);
+        return geometry;
+    }
+
+    private List<Integer> select(String cql, SpatialFilter... filters) throws Exception {
+        List objects = CqlHibernate.toCriteria(cql, mapping, TABLE, filters).getExecutableCriteria(session).list();
+        EntityMetaModel metaModel = EntityMetaModel.forClass(mapping.getGeneratedClass(TABLE));
+        List<Integer> result = new ArrayList<Integer>();
+        for (Object object : objects) {
+            result.add(((Number) metaModel.getProperty(mapping.getIdProperty(TABLE)).read(object)).intValue());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Integer> ids(int... ids) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+}